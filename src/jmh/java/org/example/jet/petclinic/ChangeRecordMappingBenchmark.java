@@ -0,0 +1,67 @@
+package org.example.jet.petclinic;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping of the change record values of each table to their POJOs
+ * <p>
+ * Measures {@link PetClinicIndexJob#mapRecordValueToPOJO(String)}, the part of {@code mapChangeRecordToPOJO}
+ * after Jet has the JSON of the record value. The values have the columns and the fields Debezium and Jet add.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChangeRecordMappingBenchmark {
+
+    private static final String OWNER_RECORD = "{\"id\":1,\"first_name\":\"George\",\"last_name\":\"Franklin\","
+            + "\"address\":\"110 W. Liberty St.\",\"city\":\"Madison\",\"telephone\":\"6085551023\","
+            + "\"__op\":\"c\",\"__db\":\"petclinic\",\"__table\":\"owners\",\"__ts_ms\":1596543211000,"
+            + "\"__deleted\":\"false\"}";
+
+    private static final String PET_RECORD = "{\"id\":1,\"name\":\"Leo\",\"birth_date\":14853,\"type_id\":1,"
+            + "\"owner_id\":1,\"__op\":\"c\",\"__db\":\"petclinic\",\"__table\":\"pets\",\"__ts_ms\":1596543211000,"
+            + "\"__deleted\":\"false\"}";
+
+    private static final String VISIT_RECORD = "{\"id\":1,\"pet_id\":7,\"visit_date\":18478,"
+            + "\"description\":\"limping on the left hind leg, \\\"x-ray\\\" of the knee\",\"__op\":\"c\","
+            + "\"__db\":\"petclinic\",\"__table\":\"visits\",\"__ts_ms\":1596543211000,\"__deleted\":\"false\"}";
+
+    @Param({"owners", "pets", "visits"})
+    private String table;
+
+    private String json;
+
+    @Setup
+    public void setUp() {
+        switch (table) {
+            case "owners":
+                json = OWNER_RECORD;
+                break;
+            case "pets":
+                json = PET_RECORD;
+                break;
+            default:
+                json = VISIT_RECORD;
+        }
+    }
+
+    @Benchmark
+    public Object mapRecordValueToPOJO() throws Exception {
+        return PetClinicIndexJob.mapRecordValueToPOJO(json);
+    }
+}
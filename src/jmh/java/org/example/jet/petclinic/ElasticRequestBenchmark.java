@@ -0,0 +1,82 @@
+package org.example.jet.petclinic;
+
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.example.jet.petclinic.model.DocumentChange;
+import org.example.jet.petclinic.model.Owner;
+import org.example.jet.petclinic.model.Pet;
+import org.example.jet.petclinic.model.Visit;
+import org.example.jet.petclinic.model.VisitRetention;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Elastic requests created for each type of document change and serialized the way the bulk request sends them
+ * <p>
+ * Measures {@link PetClinicIndexJob#toUpdateRequest}, which {@code mapDocumentToElasticRequest} delegates to, and
+ * writing the body of the update request to JSON. The owner has three pets with five visits each.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ElasticRequestBenchmark {
+
+    @Param({"FULL", "OWNER_UPDATED", "PET_UPDATED", "VISIT_ADDED"})
+    private DocumentChange.Type type;
+
+    private DocumentChange change;
+
+    @Setup
+    public void setUp() {
+        Owner owner = new Owner(1, "George", "Franklin");
+        for (int petId = 1; petId <= 3; petId++) {
+            Pet pet = new Pet(petId, "Leo", 1);
+            for (int i = 0; i < 5; i++) {
+                Visit visit = new Visit(petId, "2020-01-0" + (i + 1), "limping on the left hind leg, x-ray " + i);
+                visit.setKeywords(Arrays.asList("left hind leg", "x-ray " + i, "limping"));
+                pet.addVisit(visit);
+            }
+            owner.addPet(pet);
+        }
+        Pet pet = owner.pets.get(0);
+
+        switch (type) {
+            case FULL:
+                change = DocumentChange.full(owner);
+                break;
+            case OWNER_UPDATED:
+                change = DocumentChange.ownerUpdated(owner);
+                break;
+            case PET_UPDATED:
+                change = DocumentChange.petUpdated(pet).withDocument(owner);
+                break;
+            case VISIT_ADDED:
+                change = DocumentChange.visitAdded(pet, pet.visits.get(4)).withDocument(owner);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported change type " + type);
+        }
+    }
+
+    @Benchmark
+    public BytesReference toUpdateRequest() throws Exception {
+        return XContentHelper.toXContent(PetClinicIndexJob.toUpdateRequest("index", VisitRetention.UNLIMITED, change),
+                XContentType.JSON, false);
+    }
+}
@@ -0,0 +1,117 @@
+package org.example.jet.petclinic;
+
+import org.example.jet.petclinic.PetClinicIndexJob.OwnerMappingState;
+import org.example.jet.petclinic.model.DocumentChange;
+import org.example.jet.petclinic.model.Owner;
+import org.example.jet.petclinic.model.Pet;
+import org.example.jet.petclinic.model.Visit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Owner states mapping the items of new owners and the updates of existing ones
+ * <p>
+ * The insert-heavy mix creates an owner state per invocation and maps its owner, two new pets and a visit. The
+ * update-heavy mix goes round existing owners with pets and visits, updating the owner, replacing a pet or adding
+ * a visit. Both count the items mapped as the operations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OwnerMappingStateBenchmark {
+
+    private static final int OWNERS = 1024;
+    private static final int PETS_PER_OWNER = 3;
+    private static final int VISITS_PER_PET = 5;
+
+    private OwnerMappingState[] states;
+    private Owner[] ownerUpdates;
+    private DocumentChange[][] petUpdates;
+    private DocumentChange[][] visitsAdded;
+    private int next;
+
+    private DocumentChange newPet;
+    private DocumentChange otherNewPet;
+    private DocumentChange newVisit;
+
+    @Setup
+    public void setUp() {
+        states = new OwnerMappingState[OWNERS];
+        ownerUpdates = new Owner[OWNERS];
+        petUpdates = new DocumentChange[OWNERS][PETS_PER_OWNER];
+        visitsAdded = new DocumentChange[OWNERS][PETS_PER_OWNER];
+        for (int ownerId = 0; ownerId < OWNERS; ownerId++) {
+            OwnerMappingState state = new OwnerMappingState();
+            state.mapState(new Owner(ownerId, "George", "Franklin"));
+            for (int i = 0; i < PETS_PER_OWNER; i++) {
+                int petId = ownerId * PETS_PER_OWNER + i;
+                Pet pet = pet(petId, ownerId, VISITS_PER_PET);
+                state.mapState(DocumentChange.petUpdated(pet));
+
+                petUpdates[ownerId][i] = DocumentChange.petUpdated(pet(petId, ownerId, VISITS_PER_PET));
+                Pet petWithVisit = pet(petId, ownerId, VISITS_PER_PET + 1);
+                visitsAdded[ownerId][i] = DocumentChange.visitAdded(petWithVisit,
+                        petWithVisit.visits.get(VISITS_PER_PET));
+            }
+            states[ownerId] = state;
+            ownerUpdates[ownerId] = new Owner(ownerId, "George", "Franklin-Davis");
+        }
+
+        int newOwnerId = OWNERS;
+        newPet = DocumentChange.petUpdated(pet(OWNERS * PETS_PER_OWNER, newOwnerId, 0));
+        otherNewPet = DocumentChange.petUpdated(pet(OWNERS * PETS_PER_OWNER + 1, newOwnerId, 0));
+        Pet petWithVisit = pet(OWNERS * PETS_PER_OWNER, newOwnerId, 1);
+        newVisit = DocumentChange.visitAdded(petWithVisit, petWithVisit.visits.get(0));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(4)
+    public void insertHeavy(Blackhole blackhole) {
+        OwnerMappingState state = new OwnerMappingState();
+        // The state keeps the owner and adds the pets to it
+        blackhole.consume(state.mapState(new Owner(OWNERS, "Jean", "Coleman")));
+        blackhole.consume(state.mapState(newPet));
+        blackhole.consume(state.mapState(otherNewPet));
+        blackhole.consume(state.mapState(newVisit));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(4)
+    public void updateHeavy(Blackhole blackhole) {
+        int ownerId = next;
+        next = (next + 1) % OWNERS;
+        OwnerMappingState state = states[ownerId];
+        int petIndex = ownerId % PETS_PER_OWNER;
+
+        blackhole.consume(state.mapState(ownerUpdates[ownerId]));
+        blackhole.consume(state.mapState(petUpdates[ownerId][petIndex]));
+        blackhole.consume(state.mapState(visitsAdded[ownerId][petIndex]));
+        blackhole.consume(state.mapState(petUpdates[ownerId][(petIndex + 1) % PETS_PER_OWNER]));
+    }
+
+    private static Pet pet(int id, int ownerId, int visits) {
+        Pet pet = new Pet(id, "Leo", ownerId);
+        for (int i = 0; i < visits; i++) {
+            Visit visit = new Visit(id, "2020-01-0" + (i % 9 + 1), "rabies shot number " + i);
+            visit.setKeywords(Arrays.asList("rabies shot number", String.valueOf(i)));
+            pet.addVisit(visit);
+        }
+        return pet;
+    }
+}
@@ -0,0 +1,63 @@
+package org.example.jet.petclinic.rake;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keyword extraction from a short visit description and from a long one
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RakeBenchmark {
+
+    private static final String SHORT_DESCRIPTION = "rabies shot, follow-up in two weeks";
+
+    private static final String LONG_DESCRIPTION = "The dog was brought in limping on the left hind leg after "
+            + "jumping from the car. Examination showed swelling around the knee, no fracture on the x-ray. "
+            + "Prescribed anti-inflammatory medication for five days and strict rest, no long walks. "
+            + "The owner also asked about the annual vaccination booster and the dental cleaning, both "
+            + "scheduled for the next visit. Weight check: slightly overweight, recommended a diet with "
+            + "less treats. Recheck of the knee next month, earlier if the limping gets worse.";
+
+    @Param({"short", "long"})
+    private String description;
+
+    private Rake rake;
+    private String text;
+
+    @Setup
+    public void setUp() {
+        rake = new Rake("en");
+        text = description.equals("short") ? SHORT_DESCRIPTION : LONG_DESCRIPTION;
+    }
+
+    @Benchmark
+    public LinkedHashMap<String, Double> getKeywordsFromText() {
+        return rake.getKeywordsFromText(text);
+    }
+
+    /**
+     * The extraction used by the keyword service
+     */
+    @Benchmark
+    public List<String> getTopKeywords() {
+        return rake.getTopKeywords(text, 5);
+    }
+}
@@ -0,0 +1,188 @@
+package org.example.jet.petclinic;
+
+import com.hazelcast.jet.Traverser;
+import com.hazelcast.jet.Traversers;
+import com.hazelcast.jet.core.AbstractProcessor;
+import org.example.jet.petclinic.model.DocumentChange;
+import org.example.jet.petclinic.model.DocumentChange.Type;
+import org.example.jet.petclinic.model.Owner;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Coalesces the changes of each owner document before they are written to the index
+ * <p>
+ * Buffers the changes and flushes them when the window time has elapsed since the first buffered change, or when
+ * the number of buffered owners reaches the maximum. Within the window a change replaces an earlier change of the
+ * same part of the document, and a full document not written yet absorbs all later changes. Changes of an owner
+ * are emitted in order, the input must be partitioned by owner id.
+ */
+class CoalesceChangesP extends AbstractProcessor {
+
+    private final long windowNanos;
+    private final int maxOwners;
+
+    private final Map<Integer, List<DocumentChange>> pending = new LinkedHashMap<>();
+    private long windowStart;
+
+    private boolean flushing;
+    private Traverser<Entry<Integer, List<DocumentChange>>> snapshotTraverser;
+
+    /**
+     * @param windowMillis maximum time a change is buffered
+     * @param maxOwners    maximum number of owners with buffered changes
+     */
+    CoalesceChangesP(long windowMillis, int maxOwners) {
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxOwners = maxOwners;
+    }
+
+    @Override
+    protected boolean tryProcess0(Object item) {
+        if (!flushIfDue()) {
+            return false;
+        }
+
+        DocumentChange change = (DocumentChange) item;
+        if (pending.isEmpty()) {
+            windowStart = System.nanoTime();
+        }
+        coalesce(pending.computeIfAbsent(change.document.id, key -> new ArrayList<>()), change);
+
+        // The item is consumed even if not all changes can be emitted now
+        flushIfDue();
+        return true;
+    }
+
+    @Override
+    public boolean tryProcess() {
+        return flushIfDue();
+    }
+
+    @Override
+    public boolean complete() {
+        flushing = true;
+        return flush();
+    }
+
+    @Override
+    public boolean saveToSnapshot() {
+        if (snapshotTraverser == null) {
+            snapshotTraverser = Traversers.traverseIterable(pending.entrySet());
+        }
+        if (!emitFromTraverserToSnapshot(snapshotTraverser)) {
+            return false;
+        }
+        snapshotTraverser = null;
+        return true;
+    }
+
+    @Override
+    protected void restoreFromSnapshot(Object key, Object value) {
+        @SuppressWarnings("unchecked")
+        List<DocumentChange> changes = (List<DocumentChange>) value;
+        pending.put((Integer) key, changes);
+        windowStart = System.nanoTime();
+    }
+
+    /**
+     * Emits the buffered changes when the window has elapsed or there are too many owners, returns whether all
+     * have been emitted
+     */
+    private boolean flushIfDue() {
+        if (!flushing && !pending.isEmpty()
+                && (pending.size() >= maxOwners || System.nanoTime() - windowStart >= windowNanos)) {
+            flushing = true;
+        }
+        return !flushing || flush();
+    }
+
+    private boolean flush() {
+        // A change is removed only once emitted, so a snapshot taken while flushing keeps exactly the rest
+        Iterator<List<DocumentChange>> owners = pending.values().iterator();
+        while (owners.hasNext()) {
+            List<DocumentChange> changes = owners.next();
+            while (!changes.isEmpty()) {
+                if (!tryEmit(changes.get(0))) {
+                    return false;
+                }
+                changes.remove(0);
+            }
+            owners.remove();
+        }
+        flushing = false;
+        return true;
+    }
+
+    /**
+     * Adds the change to the buffered changes of its owner, replacing the changes it makes obsolete
+     * <p>
+     * A change replacing others takes the earliest commit time of them, see
+     * {@link DocumentChange#withEarlierCommit(DocumentChange)}.
+     */
+    static void coalesce(List<DocumentChange> changes, DocumentChange next) {
+        if (next.type == Type.FULL) {
+            DocumentChange full = next;
+            for (DocumentChange change : changes) {
+                full = full.withEarlierCommit(change);
+            }
+            changes.clear();
+            changes.add(full);
+            return;
+        }
+
+        if (!changes.isEmpty() && changes.get(0).type == Type.FULL) {
+            // The full document is not written yet, it is written with the change applied
+            Owner document = changes.get(0).document;
+            // Pets in the changes carry all their visits
+            document = next.type == Type.OWNER_UPDATED ? document.withUpdate(next.document) : document.withPet(next.pet);
+            changes.set(0, DocumentChange.full(document)
+                                         .withEarlierCommit(changes.get(0))
+                                         .withEarlierCommit(next));
+            return;
+        }
+
+        if (next.type == Type.OWNER_UPDATED) {
+            DocumentChange replaced = removeReplaced(changes, change -> change.type == Type.OWNER_UPDATED);
+            changes.add(replaced == null ? next : next.withEarlierCommit(replaced));
+            return;
+        }
+
+        DocumentChange replaced = removeReplaced(changes,
+                change -> change.pet != null && change.pet.id.equals(next.pet.id));
+        if (replaced == null) {
+            changes.add(next);
+        } else if (next.type == Type.VISIT_ADDED) {
+            // Several visits of the pet, the pet is written once with all its visits
+            changes.add(DocumentChange.petUpdated(next.pet).withDocument(next.document)
+                                      .withEarlierCommit(next)
+                                      .withEarlierCommit(replaced));
+        } else {
+            changes.add(next.withEarlierCommit(replaced));
+        }
+    }
+
+    /**
+     * Removes the changes replaced by a new change, returns the removed change committed earliest or null when
+     * none was removed
+     */
+    private static DocumentChange removeReplaced(List<DocumentChange> changes, Predicate<DocumentChange> replaced) {
+        DocumentChange earliest = null;
+        Iterator<DocumentChange> iterator = changes.iterator();
+        while (iterator.hasNext()) {
+            DocumentChange change = iterator.next();
+            if (replaced.test(change)) {
+                earliest = earliest == null ? change : earliest.withEarlierCommit(change);
+                iterator.remove();
+            }
+        }
+        return earliest;
+    }
+}
@@ -0,0 +1,281 @@
+package org.example.jet.petclinic;
+
+import com.hazelcast.function.ConsumerEx;
+import com.hazelcast.function.FunctionEx;
+import com.hazelcast.function.SupplierEx;
+import com.hazelcast.jet.Traverser;
+import com.hazelcast.jet.Traversers;
+import com.hazelcast.jet.core.AbstractProcessor;
+import com.hazelcast.jet.core.Inbox;
+import com.hazelcast.jet.function.TriFunction;
+import org.example.jet.petclinic.util.IntIntMap;
+
+import java.io.Closeable;
+import java.io.Serializable;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Maps the items with keyed states like {@code mapStateful}, evicting the states of idle keys from the heap
+ * <p>
+ * A state is evicted once its key has been idle for the idle timeout, or when the processor holds more than the
+ * maximum number of states, the least recently used first. The evicted state is given to a {@link StateStore}, the
+ * processor keeps only its key. The next item of an evicted key loads the state back synchronously, on the thread
+ * of the processor, before it's mapped. The input must be partitioned by the key.
+ * <p>
+ * A snapshot saves the states on the heap, and the keys of the evicted states with what the store keeps for them,
+ * see {@link StateStore#snapshotValue(int)}.
+ *
+ * @param <T> input item type
+ * @param <S> state type
+ * @param <R> output item type
+ */
+class EvictingStateP<T, S, R> extends AbstractProcessor {
+
+    // The states are checked for the idle timeout at most this often
+    private static final long EVICTION_INTERVAL_NANOS = MILLISECONDS.toNanos(100);
+
+    private final long idleTimeoutNanos;
+    private final int maxStates;
+    private final FunctionEx<? super T, ? extends Integer> keyFn;
+    private final SupplierEx<? extends S> createFn;
+    private final TriFunction<? super S, Integer, ? super T, ? extends R> mapFn;
+    private final ConsumerEx<? super S> evictFn;
+    private final FunctionEx<? super Context, ? extends StateStore<S>> storeFn;
+
+    private StateStore<S> store;
+
+    // In access order, the least recently used first
+    private final Map<Integer, Idle<S>> states = new LinkedHashMap<>(16, 0.75f, true);
+    private final IntIntMap evicted = new IntIntMap();
+
+    private final Deque<R> output = new ArrayDeque<>();
+    private long lastEviction;
+    private Traverser<Map.Entry<Integer, Object>> snapshotTraverser;
+
+    /**
+     * @param idleTimeoutMillis time after which the state of an idle key is evicted, 0 for no timeout
+     * @param maxStates         maximum number of states held on the heap, 0 for no maximum
+     * @param evictFn           called with a state before it's evicted
+     * @param storeFn           creates the store of the processor
+     */
+    EvictingStateP(
+            long idleTimeoutMillis,
+            int maxStates,
+            FunctionEx<? super T, ? extends Integer> keyFn,
+            SupplierEx<? extends S> createFn,
+            TriFunction<? super S, Integer, ? super T, ? extends R> mapFn,
+            ConsumerEx<? super S> evictFn,
+            FunctionEx<? super Context, ? extends StateStore<S>> storeFn
+    ) {
+        this.idleTimeoutNanos = MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.maxStates = maxStates;
+        this.keyFn = keyFn;
+        this.createFn = createFn;
+        this.mapFn = mapFn;
+        this.evictFn = evictFn;
+        this.storeFn = storeFn;
+    }
+
+    @Override
+    protected void init(Context context) throws Exception {
+        store = storeFn.applyEx(context);
+    }
+
+    @Override
+    public void process(int ordinal, Inbox inbox) {
+        super.process(ordinal, inbox);
+        // The idle states are evicted while the inbox keeps the processor busy too
+        evictIdle(System.nanoTime());
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected boolean tryProcess0(Object item) {
+        if (!emitOutput()) {
+            return false;
+        }
+
+        long now = System.nanoTime();
+        Integer key = keyFn.apply((T) item);
+        Idle<S> idle = states.get(key);
+        if (idle == null) {
+            idle = new Idle<>(evicted.containsKey(key) ? load(key) : createFn.get());
+            states.put(key, idle);
+        }
+        map(key, idle, (T) item, now);
+        if (maxStates > 0 && states.size() > maxStates) {
+            evict(now);
+        }
+        // The item is consumed even if its result can't be emitted now
+        emitOutput();
+        return true;
+    }
+
+    @Override
+    public boolean tryProcess() {
+        evictIdle(System.nanoTime());
+        return emitOutput();
+    }
+
+    @Override
+    public boolean complete() {
+        return emitOutput();
+    }
+
+    @Override
+    public boolean saveToSnapshot() {
+        if (snapshotTraverser == null) {
+            // The results of the items taken before the barrier are emitted before it
+            if (!emitOutput()) {
+                return false;
+            }
+            Stream<Map.Entry<Integer, Object>> onHeap = states.entrySet().stream()
+                    .map(entry -> new SimpleImmutableEntry<>(entry.getKey(), entry.getValue().state));
+            Stream<Map.Entry<Integer, Object>> inStore = IntStream.of(evicted.keys())
+                    .mapToObj(key -> new SimpleImmutableEntry<>(key, new Evicted(store.snapshotValue(key))));
+            snapshotTraverser = Traversers.traverseStream(Stream.concat(onHeap, inStore));
+        }
+        if (!emitFromTraverserToSnapshot(snapshotTraverser)) {
+            return false;
+        }
+        snapshotTraverser = null;
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void restoreFromSnapshot(Object key, Object value) {
+        if (value instanceof Evicted) {
+            evicted.put((Integer) key, 0);
+            store.restore((Integer) key, ((Evicted) value).stored);
+        } else {
+            states.put((Integer) key, new Idle<>((S) value));
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (store != null) {
+            store.close();
+        }
+    }
+
+    private void evictIdle(long now) {
+        if (idleTimeoutNanos > 0 && now - lastEviction >= EVICTION_INTERVAL_NANOS) {
+            lastEviction = now;
+            evict(now);
+        }
+    }
+
+    private boolean emitOutput() {
+        while (!output.isEmpty()) {
+            if (!tryEmit(output.peek())) {
+                return false;
+            }
+            output.remove();
+        }
+        return true;
+    }
+
+    private void map(Integer key, Idle<S> idle, T item, long now) {
+        idle.lastUsed = now;
+        R result = mapFn.apply(idle.state, key, item);
+        if (result != null) {
+            output.add(result);
+        }
+    }
+
+    /**
+     * Evicts the states idle longer than the timeout, and the least recently used ones while there are more states
+     * than the maximum
+     */
+    private void evict(long now) {
+        int excess = maxStates > 0 ? states.size() - maxStates : 0;
+        Iterator<Map.Entry<Integer, Idle<S>>> iterator = states.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, Idle<S>> entry = iterator.next();
+            long idleNanos = now - entry.getValue().lastUsed;
+            boolean timedOut = idleTimeoutNanos > 0 && idleNanos >= idleTimeoutNanos;
+            // The states after it have been used more recently
+            if (!timedOut && excess <= 0) {
+                break;
+            }
+            S state = entry.getValue().state;
+            iterator.remove();
+            evictFn.accept(state);
+            store.save(entry.getKey(), state);
+            evicted.put(entry.getKey(), 0);
+            excess--;
+        }
+    }
+
+    /**
+     * Loads the evicted state of the key back from the store, a key missing in the store starts with a new state
+     */
+    private S load(Integer key) {
+        evicted.remove(key);
+        S state = store.load(key);
+        return state != null ? state : createFn.get();
+    }
+
+    /**
+     * A state on the heap with the time its key was last used
+     */
+    private static final class Idle<S> {
+
+        final S state;
+        long lastUsed = System.nanoTime();
+
+        Idle(S state) {
+            this.state = state;
+        }
+    }
+
+    /**
+     * Snapshot value of an evicted key
+     */
+    private static final class Evicted implements Serializable {
+
+        final Object stored;
+
+        Evicted(Object stored) {
+            this.stored = stored;
+        }
+    }
+
+    /**
+     * Keeps the evicted states of a processor until their keys are used again
+     * <p>
+     * Each processor has its own store, created when it's initialized and closed with it. All methods are called
+     * on the thread of the processor.
+     */
+    interface StateStore<S> extends Closeable {
+
+        /**
+         * Keeps the evicted state of the key
+         */
+        void save(int key, S state);
+
+        /**
+         * Loads the state of the key synchronously, returns null if the store doesn't have it
+         */
+        S load(int key);
+
+        /**
+         * Returns what a snapshot saves for the evicted key, given to {@link #restore(int, Object)} when the
+         * snapshot is restored, possibly to another store
+         */
+        Object snapshotValue(int key);
+
+        void restore(int key, Object value);
+    }
+}
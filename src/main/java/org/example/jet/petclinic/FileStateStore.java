@@ -0,0 +1,71 @@
+package org.example.jet.petclinic;
+
+import org.example.jet.petclinic.store.MappedIntLongMap;
+import org.example.jet.petclinic.store.MappedRecordStore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Keeps the states evicted by a {@link EvictingStateP} encoded in memory-mapped files on the local disk, the way
+ * {@link MappedStateP} keeps its states
+ * <p>
+ * The states are read back synchronously on the thread of the processor, reading the mapped files doesn't block it
+ * for long. A state is written over its previous record when evicted again. The files are deleted when the store
+ * closes, a snapshot copies the encoded states.
+ */
+final class FileStateStore<S> implements EvictingStateP.StateStore<S> {
+
+    private static final int SEGMENT_SIZE = 64 << 20;
+    private static final int INITIAL_INDEX_CAPACITY = 1 << 14;
+
+    private final Path directory;
+    private final MappedRecordStore store;
+    private final MappedIntLongMap index;
+    private final MappedStateP.Codec<S> codec;
+
+    /**
+     * @param directory      directory the store creates its own directory in
+     * @param processorIndex global index of the processor of the store
+     */
+    FileStateStore(String directory, int processorIndex, MappedStateP.Codec<S> codec) throws IOException {
+        Path parent = Files.createDirectories(Paths.get(directory));
+        this.directory = Files.createTempDirectory(parent, "evicted-" + processorIndex + "-");
+        this.store = new MappedRecordStore(this.directory, SEGMENT_SIZE);
+        this.index = new MappedIntLongMap(this.directory, INITIAL_INDEX_CAPACITY);
+        this.codec = codec;
+    }
+
+    @Override
+    public void save(int key, S state) {
+        long address = index.get(key);
+        index.put(key, store.write(address == MappedIntLongMap.MISSING ? MappedRecordStore.NONE : address,
+                codec.encode(state)));
+    }
+
+    @Override
+    public S load(int key) {
+        long address = index.get(key);
+        // Counted in the state metrics again by its next item
+        return address == MappedIntLongMap.MISSING ? null : codec.decode(store.read(address), false);
+    }
+
+    @Override
+    public Object snapshotValue(int key) {
+        return store.read(index.get(key));
+    }
+
+    @Override
+    public void restore(int key, Object value) {
+        index.put(key, store.write(MappedRecordStore.NONE, (byte[]) value));
+    }
+
+    @Override
+    public void close() throws IOException {
+        store.close();
+        index.close();
+        Files.deleteIfExists(directory);
+    }
+}
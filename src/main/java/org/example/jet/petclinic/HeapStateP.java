@@ -0,0 +1,92 @@
+package org.example.jet.petclinic;
+
+import com.hazelcast.function.FunctionEx;
+import com.hazelcast.function.SupplierEx;
+import com.hazelcast.jet.core.AbstractProcessor;
+import com.hazelcast.jet.function.TriFunction;
+import org.example.jet.petclinic.util.IntObjectMap;
+
+/**
+ * Maps the items with keyed states like {@code mapStateful}, keeping the states on the heap in an
+ * {@link IntObjectMap}
+ * <p>
+ * The states are found by their int keys without boxing them, and without a map node and a boxed key per state.
+ * A snapshot saves the states encoded by the codec like {@link MappedStateP} does, the input must be partitioned
+ * by the key.
+ *
+ * @param <T> input item type
+ * @param <S> state type
+ * @param <R> output item type
+ */
+class HeapStateP<T, S, R> extends AbstractProcessor {
+
+    private final FunctionEx<? super T, ? extends Integer> keyFn;
+    private final SupplierEx<? extends S> createFn;
+    private final TriFunction<? super S, Integer, ? super T, ? extends R> mapFn;
+    private final MappedStateP.Codec<S> codec;
+
+    private final IntObjectMap<S> states = new IntObjectMap<>();
+
+    private R pending;
+    private IntObjectMap<S>.Cursor snapshotCursor;
+    private byte[] snapshotValue;
+
+    HeapStateP(
+            FunctionEx<? super T, ? extends Integer> keyFn,
+            SupplierEx<? extends S> createFn,
+            TriFunction<? super S, Integer, ? super T, ? extends R> mapFn,
+            MappedStateP.Codec<S> codec
+    ) {
+        this.keyFn = keyFn;
+        this.createFn = createFn;
+        this.mapFn = mapFn;
+        this.codec = codec;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected boolean tryProcess0(Object item) {
+        // The item is mapped only once, its result is kept until it's emitted
+        if (pending == null) {
+            Integer key = keyFn.apply((T) item);
+            S state = states.get(key);
+            if (state == null) {
+                state = createFn.get();
+                states.put(key, state);
+            }
+            pending = mapFn.apply(state, key, (T) item);
+            if (pending == null) {
+                return true;
+            }
+        }
+        if (!tryEmit(pending)) {
+            return false;
+        }
+        pending = null;
+        return true;
+    }
+
+    @Override
+    public boolean saveToSnapshot() {
+        if (snapshotCursor == null) {
+            snapshotCursor = states.cursor();
+        }
+        while (snapshotValue != null || snapshotCursor.advance()) {
+            if (snapshotValue == null) {
+                snapshotValue = codec.encode(snapshotCursor.value());
+            }
+            if (!tryEmitToSnapshot(snapshotCursor.key(), snapshotValue)) {
+                return false;
+            }
+            snapshotValue = null;
+        }
+        snapshotCursor = null;
+        return true;
+    }
+
+    @Override
+    protected void restoreFromSnapshot(Object key, Object value) {
+        // Counted in the state metrics again by its next item
+        states.put((Integer) key, codec.decode((byte[]) value, false));
+    }
+}
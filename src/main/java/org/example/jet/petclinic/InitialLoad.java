@@ -0,0 +1,264 @@
+package org.example.jet.petclinic;
+
+import com.hazelcast.jet.JetException;
+import com.hazelcast.jet.core.Processor;
+import com.hazelcast.jet.function.ToResultSetFunction;
+import com.hazelcast.jet.pipeline.BatchSource;
+import com.hazelcast.jet.pipeline.SourceBuilder;
+import com.hazelcast.jet.pipeline.SourceBuilder.SourceBuffer;
+import com.hazelcast.jet.pipeline.StreamSource;
+import com.hazelcast.map.IMap;
+import org.example.jet.petclinic.model.Owner;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static java.util.stream.Collectors.toSet;
+
+/**
+ * Initial load of an existing database, much faster than streaming the Debezium snapshot through the pipeline
+ * <p>
+ * The tables are read by parallel JDBC readers, each reading its own range of primary keys, and joined into
+ * complete owner documents in one batch, see {@link PetClinicIndexJob#initialLoadPipeline()}. The documents are
+ * bulk indexed and put to the {@value #LOADED_DOCUMENTS_MAP} map.
+ * <p>
+ * The CDC job is started before the load, without the Debezium snapshot. The load waits until its connector
+ * streams the binary log, see {@link #connectorPosition(String)}, so the position the connector started from is
+ * fixed and it streams every change made since the load began. The documents it has never seen are already
+ * indexed, it reads them back from the map once the load is complete to build its state, see
+ * {@link #loadedDocuments()}. Once the states have them the map is destroyed, it doesn't keep a second copy of the
+ * index in the cluster for the life of the job.
+ */
+final class InitialLoad {
+
+    /**
+     * Documents built by the initial load by owner id
+     */
+    static final String LOADED_DOCUMENTS_MAP = "petclinic-loaded-documents";
+
+    /**
+     * Progress of the initial load, has the {@link #BINLOG_POSITION} key once the connector streams the binary log,
+     * the {@link #COMPLETED} key once the documents are loaded and a {@link #CONSUMED} key per reader of the loaded
+     * documents once its states keep them
+     */
+    static final String STATUS_MAP = "petclinic-initial-load";
+
+    static final String BINLOG_POSITION = "binlogPosition";
+    static final String COMPLETED = "completed";
+    static final String CONSUMED = "consumed-";
+
+    private static final int FETCH_SIZE = 1000;
+
+    // Metrics of the binlog reader of the Debezium MySQL connector, followed by the quoted server name
+    private static final String BINLOG_METRICS = "debezium.mysql:type=connector-metrics,context=binlog,server=";
+
+    private InitialLoad() {
+    }
+
+    /**
+     * Returns the lowest and the highest id of the table, both 0 when it's empty
+     */
+    static long[] idBounds(Connection connection, String table) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT MIN(id), MAX(id) FROM " + table)) {
+            resultSet.next();
+            return new long[]{resultSet.getLong(1), resultSet.getLong(2)};
+        }
+    }
+
+    /**
+     * Reads the columns of the rows in the range of ids of the reader
+     * <p>
+     * The ids between the lowest and the highest one, read once for all readers by {@link #idBounds}, are split into
+     * a range per reader, auto increment ids leave few gaps so the readers get about the same number of rows. The
+     * rows inserted after the bounds were read are streamed by the CDC job.
+     */
+    static ToResultSetFunction primaryKeyRange(String table, String columns, long[] bounds) {
+        long min = bounds[0];
+        long max = bounds[1];
+        return (connection, parallelism, index) -> {
+            long[] range = range(min, max, parallelism, index);
+
+            // Closed together with the connection when the reader completes
+            PreparedStatement statement = connection.prepareStatement(
+                    "SELECT " + columns + " FROM " + table + " WHERE id >= ? AND id < ?");
+            statement.setFetchSize(FETCH_SIZE);
+            statement.setLong(1, range[0]);
+            statement.setLong(2, range[1]);
+            return statement.executeQuery();
+        };
+    }
+
+    /**
+     * Returns the range of ids of the reader with the index, including the start and excluding the end
+     */
+    static long[] range(long min, long max, int parallelism, int index) {
+        long rangeSize = (max - min + parallelism) / parallelism;
+        long start = min + index * rangeSize;
+        return new long[]{start, start + rangeSize};
+    }
+
+    /**
+     * Emits the binlog position of the connector of the CDC job as {@code file:position} once it streams the binary
+     * log, nothing before
+     * <p>
+     * The connector runs on a single member and registers its metrics there, each member reads them from its own
+     * MBean server. With the {@code schema_only} snapshot mode the connector takes its start position when it
+     * starts, once it streams the binary log the position is recorded in its offset and every later change is
+     * streamed. A running job doesn't mean the connector has started yet.
+     *
+     * @param serverName logical name of the database server, the cluster name of the CDC source
+     */
+    static BatchSource<String> connectorPosition(String serverName) {
+        return SourceBuilder.batch("connectorPosition", context -> serverName)
+                            .<String>fillBufferFn((name, buffer) -> {
+                                String position = connectorPosition(ManagementFactory.getPlatformMBeanServer(), name);
+                                if (position != null) {
+                                    buffer.add(position);
+                                }
+                                buffer.close();
+                            })
+                            .distributed(1)
+                            .build();
+    }
+
+    /**
+     * Returns the binlog position of the connector registered in the MBean server, null when it isn't streaming
+     */
+    static String connectorPosition(MBeanServer server, String serverName) {
+        try {
+            ObjectName name = new ObjectName(BINLOG_METRICS + ObjectName.quote(serverName));
+            if (!server.isRegistered(name) || !Boolean.TRUE.equals(server.getAttribute(name, "Connected"))) {
+                return null;
+            }
+            return server.getAttribute(name, "BinlogFilename") + ":" + server.getAttribute(name, "BinlogPosition");
+        } catch (JMException e) {
+            throw new JetException("Reading the metrics of the connector " + serverName + " failed", e);
+        }
+    }
+
+    /**
+     * Emits the documents built by the initial load once it is complete, then nothing
+     * <p>
+     * Each member emits the documents it owns. The snapshot records whether the member has emitted them all, a job
+     * restarted from it emits nothing once every member had, otherwise the documents are emitted again and merged
+     * by the states with what they already have.
+     * <p>
+     * A member that has emitted its documents marks them consumed once a snapshot recording it has ended, right
+     * away without snapshots. The last member to mark them destroys the {@value #LOADED_DOCUMENTS_MAP} map, a
+     * restarted job doesn't need the documents anymore.
+     */
+    static StreamSource<Owner> loadedDocuments() {
+        return SourceBuilder.stream("loadedDocuments", LoadedDocumentsReader::new)
+                            .<Owner>fillBufferFn(LoadedDocumentsReader::fillBuffer)
+                            .createSnapshotFn(LoadedDocumentsReader::snapshot)
+                            .restoreSnapshotFn(LoadedDocumentsReader::restore)
+                            .distributed(1)
+                            .build();
+    }
+
+    private static final class LoadedDocumentsReader {
+
+        private static final long POLL_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+        private static final int BATCH_SIZE = 1000;
+
+        private final IMap<Integer, Owner> documents;
+        private final IMap<String, String> status;
+        private final int index;
+        private final int readers;
+        private final boolean snapshotting;
+
+        private Iterator<Integer> keys;
+        private long lastPoll;
+        private boolean done;
+
+        // Whether the last snapshot started records that the documents were emitted, and whether one that does has
+        // ended since
+        private boolean doneSnapshotStarted;
+        private boolean doneSnapshotEnded;
+        private boolean consumed;
+
+        private LoadedDocumentsReader(Processor.Context context) {
+            this.documents = context.jetInstance().getMap(LOADED_DOCUMENTS_MAP);
+            this.status = context.jetInstance().getMap(STATUS_MAP);
+            this.index = context.globalProcessorIndex();
+            this.readers = context.totalParallelism();
+            this.snapshotting = context.snapshottingEnabled();
+            this.lastPoll = System.nanoTime() - POLL_INTERVAL_NANOS;
+        }
+
+        private void fillBuffer(SourceBuffer<Owner> buffer) {
+            if (done) {
+                if (!consumed && (doneSnapshotEnded || !snapshotting)) {
+                    consume();
+                }
+                return;
+            }
+            if (keys == null) {
+                long now = System.nanoTime();
+                if (now - lastPoll < POLL_INTERVAL_NANOS) {
+                    return;
+                }
+                lastPoll = now;
+                if (!status.containsKey(COMPLETED)) {
+                    return;
+                }
+                keys = new ArrayList<>(documents.localKeySet()).iterator();
+            }
+
+            Set<Integer> batch = new HashSet<>();
+            while (keys.hasNext() && batch.size() < BATCH_SIZE) {
+                batch.add(keys.next());
+            }
+            if (!batch.isEmpty()) {
+                documents.getAll(batch).values().forEach(buffer::add);
+            }
+            done = !keys.hasNext();
+        }
+
+        /**
+         * Marks the documents of this reader consumed, the last reader to mark them destroys the map
+         */
+        private void consume() {
+            consumed = true;
+            status.put(CONSUMED + index, Boolean.TRUE.toString());
+            Set<String> readerKeys = IntStream.range(0, readers).mapToObj(i -> CONSUMED + i).collect(toSet());
+            if (status.getAll(readerKeys).size() == readers) {
+                documents.destroy();
+            }
+        }
+
+        private boolean snapshot() {
+            // The job starts a snapshot only once the previous one has ended
+            doneSnapshotEnded |= doneSnapshotStarted;
+            doneSnapshotStarted = done;
+            return done;
+        }
+
+        /**
+         * Restores the states of all members, the documents are emitted again unless all of them were done
+         */
+        private void restore(List<Boolean> states) {
+            done = !states.isEmpty() && !states.contains(false);
+            doneSnapshotEnded = done;
+            if (!done) {
+                // Marked by a run whose snapshot the job didn't restore from
+                status.delete(CONSUMED + index);
+            }
+        }
+    }
+}
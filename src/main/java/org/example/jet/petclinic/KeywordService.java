@@ -0,0 +1,114 @@
+package org.example.jet.petclinic;
+
+import com.hazelcast.jet.core.metrics.Metric;
+import com.hazelcast.jet.core.metrics.Metrics;
+import com.hazelcast.jet.core.metrics.Unit;
+import org.example.jet.petclinic.cache.BoundedCache;
+import org.example.jet.petclinic.cache.BoundedCache.EvictionPolicy;
+import org.example.jet.petclinic.rake.Rake;
+import org.example.jet.petclinic.util.HistogramMetric;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Extracts keywords from visit descriptions, remembering the keywords of already seen descriptions
+ * <p>
+ * One instance is shared by all processors on a member. The extraction runs on the service's own pool of
+ * worker threads, so it doesn't block the cooperative threads running the rest of the pipeline.
+ * Cache hits and misses are reported as {@code keywordCacheHits} and {@code keywordCacheMisses}
+ * metrics of the calling processor, the time of each extraction in microseconds as the
+ * {@code keywordExtractionMicros} histogram, see {@link HistogramMetric}.
+ */
+public class KeywordService {
+
+    static final String KEYWORD_CACHE_HITS = "keywordCacheHits";
+    static final String KEYWORD_CACHE_MISSES = "keywordCacheMisses";
+    static final HistogramMetric KEYWORD_EXTRACTION_TIME = new HistogramMetric("keywordExtractionMicros", Unit.COUNT,
+            10, 50, 100, 500, 1_000, 5_000, 10_000, 50_000);
+
+    private final Rake rake;
+    private final int maxKeywords;
+    private final BoundedCache<String, List<String>> cache;
+    private final ExecutorService executor;
+
+    /**
+     * @param rake           keyword extractor
+     * @param maxKeywords    maximum number of keywords extracted from a description
+     * @param cacheSize      maximum number of cached descriptions, 0 disables the cache
+     * @param cachePolicy    cache eviction policy
+     * @param workerThreads  number of threads extracting the keywords
+     */
+    public KeywordService(Rake rake, int maxKeywords, int cacheSize, EvictionPolicy cachePolicy, int workerThreads) {
+        this.rake = rake;
+        this.maxKeywords = maxKeywords;
+        this.cache = cacheSize > 0 ? new BoundedCache<>(cacheSize, cachePolicy) : null;
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(workerThreads, runnable -> {
+            Thread thread = new Thread(runnable, "keyword-extractor-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Extracts the keywords of each description on the worker threads
+     * <p>
+     * Must be called from a processor thread, the returned keywords are in the same order as
+     * the descriptions.
+     */
+    public CompletableFuture<List<List<String>>> getKeywordsAsync(List<String> descriptions) {
+        Metric hits = Metrics.threadSafeMetric(KEYWORD_CACHE_HITS);
+        Metric misses = Metrics.threadSafeMetric(KEYWORD_CACHE_MISSES);
+        HistogramMetric.Recorder extractionTime = KEYWORD_EXTRACTION_TIME.recorder();
+
+        return CompletableFuture.supplyAsync(() -> {
+            List<List<String>> keywords = new ArrayList<>(descriptions.size());
+            for (String description : descriptions) {
+                keywords.add(getKeywords(description, hits, misses, extractionTime));
+            }
+            return keywords;
+        }, executor);
+    }
+
+    private List<String> getKeywords(
+            String description,
+            Metric hits,
+            Metric misses,
+            HistogramMetric.Recorder extractionTime
+    ) {
+        if (cache == null) {
+            return extractKeywords(description, extractionTime);
+        }
+
+        List<String> keywords = cache.get(description);
+        if (keywords != null) {
+            hits.increment();
+            return keywords;
+        }
+
+        misses.increment();
+        keywords = extractKeywords(description, extractionTime);
+        cache.put(description, keywords);
+        return keywords;
+    }
+
+    private List<String> extractKeywords(String description, HistogramMetric.Recorder extractionTime) {
+        long start = System.nanoTime();
+        // Cached lists are shared by visits with the same description
+        List<String> keywords = Collections.unmodifiableList(rake.getTopKeywords(description, maxKeywords));
+        extractionTime.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+        return keywords;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
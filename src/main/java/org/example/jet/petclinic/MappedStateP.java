@@ -0,0 +1,189 @@
+package org.example.jet.petclinic;
+
+import com.hazelcast.function.FunctionEx;
+import com.hazelcast.function.SupplierEx;
+import com.hazelcast.jet.core.AbstractProcessor;
+import com.hazelcast.jet.function.TriFunction;
+import org.example.jet.petclinic.store.MappedIntLongMap;
+import org.example.jet.petclinic.store.MappedRecordStore;
+
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Maps the items with keyed states like {@code mapStateful}, keeping the states in memory-mapped files
+ * <p>
+ * The states are stored encoded in a {@link MappedRecordStore} and found by key through a {@link MappedIntLongMap},
+ * both in a directory of the processor on local disk. Only the states of the most recently used keys are held
+ * decoded on the heap, a state leaving this hot set is encoded and written to the store. The heap used by the
+ * processor is bounded by the hot set however many states it holds, the rest is left to the page cache.
+ * <p>
+ * A snapshot writes the hot set to the store and copies the encoded states from the files to the snapshot without
+ * decoding them, a restored processor writes them to its own files. Every snapshot copies all the states, changed
+ * or not: the snapshots don't reference the segment files, which are local to the member and deleted when the
+ * processor closes, the snapshot is the only durable copy of the states. The input must be partitioned by the key.
+ *
+ * @param <T> input item type
+ * @param <S> state type
+ * @param <R> output item type
+ */
+class MappedStateP<T, S, R> extends AbstractProcessor {
+
+    private static final int SEGMENT_SIZE = 64 << 20;
+    private static final int INITIAL_INDEX_CAPACITY = 1 << 14;
+
+    // Marks the states restored from a snapshot in the index, they are not counted in the state metrics yet
+    private static final long RESTORED = 1L << 62;
+
+    private final String directory;
+    private final int hotSetSize;
+    private final FunctionEx<? super T, ? extends Integer> keyFn;
+    private final SupplierEx<? extends S> createFn;
+    private final TriFunction<? super S, Integer, ? super T, ? extends R> mapFn;
+    private final Codec<S> codec;
+
+    private Path processorDirectory;
+    private MappedRecordStore store;
+    private MappedIntLongMap index;
+    private Map<Integer, S> hotSet;
+
+    private R pending;
+    private MappedIntLongMap.Cursor snapshotCursor;
+    private byte[] snapshotValue;
+
+    /**
+     * @param directory  directory the processor creates its own directory in
+     * @param hotSetSize maximum number of states held decoded, at least 1
+     */
+    MappedStateP(
+            String directory,
+            int hotSetSize,
+            FunctionEx<? super T, ? extends Integer> keyFn,
+            SupplierEx<? extends S> createFn,
+            TriFunction<? super S, Integer, ? super T, ? extends R> mapFn,
+            Codec<S> codec
+    ) {
+        if (hotSetSize < 1) {
+            throw new IllegalArgumentException("Hot set size must be at least 1, was " + hotSetSize);
+        }
+        this.directory = directory;
+        this.hotSetSize = hotSetSize;
+        this.keyFn = keyFn;
+        this.createFn = createFn;
+        this.mapFn = mapFn;
+        this.codec = codec;
+    }
+
+    @Override
+    protected void init(Context context) throws Exception {
+        Path parent = Files.createDirectories(Paths.get(directory));
+        processorDirectory = Files.createTempDirectory(parent, "state-" + context.globalProcessorIndex() + "-");
+        store = new MappedRecordStore(processorDirectory, SEGMENT_SIZE);
+        index = new MappedIntLongMap(processorDirectory, INITIAL_INDEX_CAPACITY);
+        hotSet = new LinkedHashMap<Integer, S>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, S> eldest) {
+                if (size() <= hotSetSize) {
+                    return false;
+                }
+                spill(eldest.getKey(), eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected boolean tryProcess0(Object item) {
+        // The item is mapped only once, its result is kept until it's emitted
+        if (pending == null) {
+            Integer key = keyFn.apply((T) item);
+            pending = mapFn.apply(state(key), key, (T) item);
+            if (pending == null) {
+                return true;
+            }
+        }
+        if (!tryEmit(pending)) {
+            return false;
+        }
+        pending = null;
+        return true;
+    }
+
+    @Override
+    public boolean saveToSnapshot() {
+        if (snapshotCursor == null) {
+            hotSet.forEach(this::spill);
+            snapshotCursor = index.cursor();
+        }
+        while (snapshotValue != null || snapshotCursor.advance()) {
+            if (snapshotValue == null) {
+                snapshotValue = store.read(snapshotCursor.value() & ~RESTORED);
+            }
+            if (!tryEmitToSnapshot(snapshotCursor.key(), snapshotValue)) {
+                return false;
+            }
+            snapshotValue = null;
+        }
+        snapshotCursor = null;
+        return true;
+    }
+
+    @Override
+    protected void restoreFromSnapshot(Object key, Object value) {
+        index.put((Integer) key, store.write(MappedRecordStore.NONE, (byte[]) value) | RESTORED);
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (store != null) {
+            store.close();
+        }
+        if (index != null) {
+            index.close();
+        }
+        if (processorDirectory != null) {
+            Files.deleteIfExists(processorDirectory);
+        }
+    }
+
+    private S state(Integer key) {
+        S state = hotSet.get(key);
+        if (state == null) {
+            long address = index.get(key);
+            state = address == MappedIntLongMap.MISSING
+                    ? createFn.get()
+                    : codec.decode(store.read(address & ~RESTORED), (address & RESTORED) == 0);
+            hotSet.put(key, state);
+        }
+        return state;
+    }
+
+    /**
+     * Writes a state of the hot set to the store, all of them have been mapped
+     */
+    private void spill(Integer key, S state) {
+        long address = index.get(key);
+        address = store.write(address == MappedIntLongMap.MISSING ? MappedRecordStore.NONE : address & ~RESTORED,
+                codec.encode(state));
+        index.put(key, address);
+    }
+
+    /**
+     * Encoding of the states in the files and in the snapshots
+     */
+    interface Codec<S> extends Serializable {
+
+        byte[] encode(S state);
+
+        /**
+         * @param counted whether this processor has mapped an item with the state, see the state metrics of
+         *                {@link PetClinicIndexJob#pipeline()}
+         */
+        S decode(byte[] encoded, boolean counted);
+    }
+}
@@ -0,0 +1,93 @@
+package org.example.jet.petclinic;
+
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.StreamSerializer;
+import org.example.jet.petclinic.PetClinicIndexJob.OwnerMappingState;
+import org.example.jet.petclinic.serialization.ModelEncoding;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Serializes the owner state to snapshots, see {@link ModelEncoding}
+ * <p>
+ * The owner document is written as the encoding kept by the state, see {@link OwnerMappingState#encodedOwner()},
+ * and restored encoded. It's decoded when the restored state maps its first item.
+ */
+public class OwnerMappingStateSerializer implements StreamSerializer<OwnerMappingState> {
+
+    public static final int TYPE_ID = 1005;
+
+    @Override
+    public int getTypeId() {
+        return TYPE_ID;
+    }
+
+    @Override
+    public void write(ObjectDataOutput out, OwnerMappingState state) throws IOException {
+        ModelEncoding.writeVersion(out);
+        out.writeBoolean(state.indexed);
+        out.writeByteArray(state.encodedOwner());
+    }
+
+    @Override
+    public OwnerMappingState read(ObjectDataInput in) throws IOException {
+        ModelEncoding.readVersion(in);
+        OwnerMappingState state = new OwnerMappingState();
+        state.indexed = in.readBoolean();
+        state.encodedOwner = in.readByteArray();
+        return state;
+    }
+
+    /**
+     * Encodes the owner state for the mapped state backend, see {@link MappedStateP}
+     * <p>
+     * The same fields as in a snapshot, the owner document is decoded when the state maps its next item.
+     */
+    static final class Codec implements MappedStateP.Codec<OwnerMappingState> {
+
+        @Override
+        public byte[] encode(OwnerMappingState state) {
+            byte[] owner = state.encodedOwner();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(owner == null ? 16 : owner.length + 16);
+            try {
+                DataOutputStream out = new DataOutputStream(bytes);
+                ModelEncoding.writeVersion(out);
+                out.writeBoolean(state.indexed);
+                out.writeInt(owner == null ? -1 : owner.length);
+                if (owner != null) {
+                    out.write(owner);
+                }
+            } catch (IOException e) {
+                // Not thrown when writing to memory
+                throw new UncheckedIOException(e);
+            }
+            return bytes.toByteArray();
+        }
+
+        @Override
+        public OwnerMappingState decode(byte[] encoded, boolean counted) {
+            try {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+                ModelEncoding.readVersion(in);
+                OwnerMappingState state = new OwnerMappingState();
+                state.indexed = in.readBoolean();
+                int length = in.readInt();
+                if (length >= 0) {
+                    byte[] owner = new byte[length];
+                    in.readFully(owner);
+                    state.encodedOwner = owner;
+                }
+                state.counted = counted;
+                return state;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Corrupted owner state encoding", e);
+            }
+        }
+    }
+}
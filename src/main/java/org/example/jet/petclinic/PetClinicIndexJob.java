@@ -1,32 +1,78 @@
 package org.example.jet.petclinic;
 
+import com.hazelcast.function.ConsumerEx;
+import com.hazelcast.function.FunctionEx;
+import com.hazelcast.function.SupplierEx;
+import com.hazelcast.jet.Traverser;
+import com.hazelcast.jet.Traversers;
 import com.hazelcast.jet.cdc.ChangeRecord;
 import com.hazelcast.jet.cdc.ParsingException;
 import com.hazelcast.jet.cdc.mysql.MySqlCdcSources;
-import com.hazelcast.jet.elastic.ElasticSinks;
-import com.hazelcast.jet.json.JsonUtil;
+import com.hazelcast.jet.config.ProcessingGuarantee;
+import com.hazelcast.jet.core.Processor;
+import com.hazelcast.jet.core.metrics.Metrics;
+import com.hazelcast.jet.core.metrics.Unit;
+import com.hazelcast.jet.datamodel.TimestampedItem;
+import com.hazelcast.jet.datamodel.Tuple2;
+import com.hazelcast.jet.function.TriFunction;
 import com.hazelcast.jet.picocli.CommandLine.Option;
+import com.hazelcast.jet.pipeline.BatchStage;
 import com.hazelcast.jet.pipeline.Pipeline;
 import com.hazelcast.jet.pipeline.ServiceFactories;
 import com.hazelcast.jet.pipeline.ServiceFactory;
 import com.hazelcast.jet.pipeline.Sink;
+import com.hazelcast.jet.pipeline.Sinks;
+import com.hazelcast.jet.pipeline.Sources;
 import com.hazelcast.jet.pipeline.StreamSource;
+import com.hazelcast.jet.pipeline.StreamStage;
+import com.hazelcast.jet.pipeline.StreamStageWithKey;
 import org.apache.http.HttpHost;
 import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsRequest;
+import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestClientBuilder;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.client.indices.GetIndexRequest;
+import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+import org.example.jet.petclinic.cache.BoundedCache.EvictionPolicy;
+import org.example.jet.petclinic.elastic.ElasticBulkSinkBuilder;
+import org.example.jet.petclinic.model.DocumentChange;
 import org.example.jet.petclinic.model.Owner;
 import org.example.jet.petclinic.model.Pet;
 import org.example.jet.petclinic.model.Visit;
+import org.example.jet.petclinic.model.VisitRetention;
 import org.example.jet.petclinic.rake.Rake;
+import org.example.jet.petclinic.serialization.DocumentJsonWriter;
+import org.example.jet.petclinic.serialization.ModelEncoding;
+import org.example.jet.petclinic.util.HistogramMetric;
+import org.example.jet.petclinic.util.JsonFieldReader;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+
+import static com.hazelcast.jet.aggregate.AggregateOperations.toList;
 
 /**
  *
@@ -35,12 +81,99 @@ public class PetClinicIndexJob implements Serializable {
 
     private static final String DATABASE = "petclinic";
 
-    private static final String OWNERS_TABLE = "owners";
-    private static final String PETS_TABLE = "pets";
-    private static final String VISITS_TABLE = "visits";
+    static final String OWNERS_TABLE = "owners";
+    static final String PETS_TABLE = "pets";
+    static final String VISITS_TABLE = "visits";
+
+    // Added to the value of every change record by Jet
+    private static final String TABLE_FIELD = "__table";
+
+    // The Elastic sink processors are non-cooperative, each runs on its own thread and reuses its own buffer
+    private static final ThreadLocal<DocumentJsonWriter> DOCUMENT_JSON_WRITER =
+            ThreadLocal.withInitial(DocumentJsonWriter::new);
 
     private static final String[] TABLE_WHITELIST = {"petclinic.owners", "petclinic.pets", "petclinic.visits"};
 
+    private static final int MAX_KEYWORDS = 5;
+
+    // User metrics of the pipeline stages, see pipeline()
+    static final String OWNER_RECORDS = "ownerRecords";
+    static final String PET_RECORDS = "petRecords";
+    static final String VISIT_RECORDS = "visitRecords";
+    static final String OWNER_STATES = "ownerStates";
+    static final String OWNER_STATE_PETS = "ownerStatePets";
+    static final String ORPHAN_OWNER_STATES = "orphanOwnerStates";
+    static final String PET_STATES = "petStates";
+    static final String PET_STATE_VISITS = "petStateVisits";
+    static final String ORPHAN_PET_STATES = "orphanPetStates";
+    private static final long[] INDEX_LAG_BOUNDS = {50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000, 30_000, 60_000};
+    static final HistogramMetric OWNERS_INDEX_LAG = new HistogramMetric("ownersIndexLag", Unit.MS, INDEX_LAG_BOUNDS);
+    static final HistogramMetric PETS_INDEX_LAG = new HistogramMetric("petsIndexLag", Unit.MS, INDEX_LAG_BOUNDS);
+    static final HistogramMetric VISITS_INDEX_LAG = new HistogramMetric("visitsIndexLag", Unit.MS, INDEX_LAG_BOUNDS);
+
+    private static final String REFRESH_INTERVAL_SETTING = "index.refresh_interval";
+
+    /**
+     * Where the pet and owner states of the joins are kept
+     */
+    public enum StateBackend {
+        /**
+         * On the heap, see {@link HeapStateP}
+         */
+        HEAP,
+
+        /**
+         * In memory-mapped files on the local disk with the recently used states on the heap, see
+         * {@link MappedStateP}
+         * <p>
+         * The snapshots copy all the states like with {@code HEAP}, without decoding them.
+         */
+        MAPPED,
+
+        /**
+         * In IMaps of the cluster, read and written by the processors and kept when the job ends, see
+         * {@link SharedState}
+         * <p>
+         * The states are not part of the snapshots. After a failure the job maps the items since its last snapshot
+         * again with the states that may include them already, mapping an item twice leaves a state as it was and
+         * emits its change again. A job started without the snapshot exported by the previous one doesn't continue
+         * where it stopped: the connector takes a new Debezium snapshot and the whole database is streamed and
+         * written to the index again, merged with the states kept. Two jobs must not map items with the same maps
+         * at the same time. The state metrics are not reported, the statistics of the maps count the states.
+         */
+        IMAP
+    }
+
+    // Replaces the pet with the same id, or appends it when the document doesn't have it yet
+    private static final String PET_UPDATED_SCRIPT =
+            "if (ctx._source.pets == null) { ctx._source.pets = []; } " +
+            "boolean found = false; " +
+            "for (int i = 0; i < ctx._source.pets.size(); i++) { " +
+            "if (ctx._source.pets[i].id == params.pet.id) { ctx._source.pets[i] = params.pet; found = true; } } " +
+            "if (!found) { ctx._source.pets.add(params.pet); }";
+
+    // Appends the visit to the pet with the given id unless the pet has a visit with its id already, then drops the
+    // visits the retention doesn't keep like VisitRetention does. Nothing is written for a visit already added
+    private static final String VISIT_ADDED_SCRIPT =
+            "if (ctx._source.pets != null) { " +
+            "for (def pet : ctx._source.pets) { " +
+            "if (pet.id == params.pet_id) { " +
+            "if (pet.visits == null) { pet.visits = []; } " +
+            "if (params.visit.id != null) { " +
+            "for (def visit : pet.visits) { if (visit.id == params.visit.id) { ctx.op = 'none'; return; } } } " +
+            "pet.visits.add(params.visit); " +
+            "if (params.max_visits > 0 && pet.visits.size() > params.max_visits) { " +
+            "pet.visits.subList(0, pet.visits.size() - params.max_visits).clear(); } " +
+            "if (params.max_age_days > 0) { " +
+            "String newest = null; " +
+            "for (def visit : pet.visits) { " +
+            "if (visit.visit_date != null && (newest == null || visit.visit_date.compareTo(newest) > 0)) { " +
+            "newest = visit.visit_date; } } " +
+            "if (newest != null) { " +
+            "String oldest = LocalDate.parse(newest).minusDays(params.max_age_days).toString(); " +
+            "pet.visits.removeIf(visit -> visit.visit_date != null && visit.visit_date.compareTo(oldest) < 0); " +
+            "} } } } }";
+
     @Option(names = {"-a", "--database-address"}, description = "database address")
     private String databaseAddress;
 
@@ -59,11 +192,143 @@ public class PetClinicIndexJob implements Serializable {
     @Option(names = {"-e", "--elastic-host"}, description = "elastic host")
     private String elasticHost;
 
-    @Option(names = {"-i", "--elastic-index"}, description = "elastic index")
+    @Option(names = {"-i", "--elastic-index"}, description = "elastic index, the visits of its documents have the id and the visit_date of the visit besides its pet_id, description and keywords")
     private String elasticIndex;
 
+    @Option(names = {"--keyword-cache-size"}, description = "number of visit descriptions with cached keywords per member, 0 disables the cache", defaultValue = "10000")
+    private int keywordCacheSize;
+
+    @Option(names = {"--keyword-cache-eviction"}, description = "keyword cache eviction policy: ${COMPLETION-CANDIDATES}", defaultValue = "W_TINY_LFU")
+    private EvictionPolicy keywordCacheEviction;
+
+    @Option(names = {"--visit-retention-count"}, description = "maximum number of most recent visits kept per pet, 0 keeps all", defaultValue = "0")
+    private int visitRetentionCount;
+
+    @Option(names = {"--visit-retention-days"}, description = "maximum age of visits kept per pet in days, relative to the pet's newest visit, 0 keeps all", defaultValue = "0")
+    private int visitRetentionDays;
+
+    @Option(names = {"--keyword-local-parallelism"}, description = "number of keyword extraction threads per member, -1 uses the number of available processors", defaultValue = "-1")
+    private int keywordLocalParallelism;
+
+    @Option(names = {"--keyword-batch-size"}, description = "maximum number of items sent to keyword extraction at once", defaultValue = "64")
+    private int keywordBatchSize;
+
+    @Option(names = {"--write-coalescing-window"}, description = "time in milliseconds the changes of an owner document are coalesced before writing them, 0 writes every change", defaultValue = "0")
+    private long writeCoalescingWindow;
+
+    @Option(names = {"--write-coalescing-max-owners"}, description = "maximum number of owners with coalesced changes per processor, reaching it writes the changes early", defaultValue = "10000")
+    private int writeCoalescingMaxOwners;
+
+    @Option(names = {"--elastic-bulk-size"}, description = "maximum number of requests in a bulk request", defaultValue = "1000")
+    private int elasticBulkSize;
+
+    @Option(names = {"--elastic-bulk-min-size"}, description = "minimum and initial number of requests in a bulk request adapted to the latency", defaultValue = "10")
+    private int elasticBulkMinSize;
+
+    @Option(names = {"--elastic-bulk-target-latency"}, description = "latency in milliseconds the bulk size is adapted to, 0 keeps the bulk size fixed at the maximum", defaultValue = "500")
+    private long elasticBulkTargetLatency;
+
+    @Option(names = {"--elastic-retries"}, description = "number of times a failed bulk request is retried", defaultValue = "5")
+    private int elasticRetries;
+
+    @Option(names = {"--elastic-sink-parallelism"}, description = "number of elastic sink processors per member", defaultValue = "2")
+    private int elasticSinkParallelism;
+
+    @Option(names = {"--elastic-max-connections"}, description = "maximum number of connections of each elastic sink processor, 0 uses the client default", defaultValue = "0")
+    private int elasticMaxConnections;
+
+    @Option(names = {"--initial-load"}, description = "reads the existing database with parallel JDBC readers and bulk indexes it before streaming the changes")
+    private boolean initialLoad;
+
+    @Option(names = {"--initial-load-jdbc-url"}, description = "JDBC URL of the database read by the initial load, derived from the database address and port when not set")
+    private String initialLoadJdbcUrl;
+
+    @Option(names = {"--initial-load-parallelism"}, description = "number of JDBC readers per table per member of the initial load", defaultValue = "4")
+    private int initialLoadParallelism;
+
+    @Option(names = {"--warm-start"}, description = "reads the documents already in the index into the states of the joins, the existing database is still streamed again by a new Debezium snapshot but held back until the index has been read, the rows the index has unchanged are dropped before keyword extraction and only the changed rows are joined and written again")
+    private boolean warmStart;
+
+    @Option(names = {"--warm-start-slices"}, description = "number of slices of the index read in parallel per member by the warm start", defaultValue = "2")
+    private int warmStartSlices;
+
+    @Option(names = {"--warm-start-batch-size"}, description = "number of documents read by each scroll request of the warm start", defaultValue = "1000")
+    private int warmStartBatchSize;
+
+    @Option(names = {"--processing-guarantee"}, description = "processing guarantee of the job: ${COMPLETION-CANDIDATES}, with a guarantee the job restarts from its last snapshot after a member failure instead of from the start of the change stream", defaultValue = "NONE")
+    private ProcessingGuarantee processingGuarantee;
+
+    @Option(names = {"--snapshot-interval"}, description = "time in milliseconds between the snapshots of the job with a processing guarantee, each snapshot writes every join state, so its cost grows with the number of owners and pets", defaultValue = "10000")
+    private long snapshotInterval;
+
+    @Option(names = {"--state-backend"}, description = "where the states of the joins are kept: ${COMPLETION-CANDIDATES}, MAPPED keeps them in memory-mapped files on the local disk with only the recently used states on the heap, IMAP in IMaps of the cluster kept when the job ends", defaultValue = "HEAP")
+    private StateBackend stateBackend;
+
+    @Option(names = {"--state-directory"}, description = "directory of the memory-mapped state files and of the evicted state files on each member, a directory in the temporary directory when not set")
+    private String stateDirectory;
+
+    @Option(names = {"--state-hot-set-size"}, description = "number of states each processor keeps on the heap with the MAPPED state backend", defaultValue = "10000")
+    private int stateHotSetSize;
+
+    @Option(names = {"--state-idle-timeout"}, description = "time in milliseconds after which the state of an owner or pet without changes is evicted from the heap with the HEAP state backend, 0 keeps the states", defaultValue = "0")
+    private long stateIdleTimeout;
+
+    @Option(names = {"--state-max-keys"}, description = "maximum number of states each processor keeps on the heap with the HEAP state backend, the least recently used are evicted, 0 keeps all states", defaultValue = "0")
+    private int stateMaxKeys;
+
+    @Option(names = {"--initial-snapshot"}, description = "name of an exported snapshot the job starts from, like the snapshot exported when cancelling the previous job")
+    private String initialSnapshot;
+
+    public boolean isInitialLoad() {
+        return initialLoad;
+    }
+
+    public boolean isWarmStart() {
+        return warmStart;
+    }
+
+    public ProcessingGuarantee getProcessingGuarantee() {
+        return processingGuarantee;
+    }
+
+    public long getSnapshotInterval() {
+        return snapshotInterval;
+    }
+
+    public StateBackend getStateBackend() {
+        return stateBackend;
+    }
+
+    public String getInitialSnapshot() {
+        return initialSnapshot;
+    }
+
+    /**
+     * Pipeline streaming the changes of the database to the index
+     * <p>
+     * Besides the metrics of the keyword service and of the Elastic sink, the stages report these user metrics
+     * of each processor, available through the job metrics and JMX:
+     * <ul>
+     *     <li>{@code ownerRecords}, {@code petRecords} and {@code visitRecords}: change records read per table
+     *     <li>{@code ownerStates}: owner documents held, {@code ownerStatePets} the pets in them
+     *     <li>{@code orphanOwnerStates}: owner documents with pets whose owner hasn't been seen yet
+     *     <li>{@code petStates}: pets held, {@code petStateVisits} the visits retained in them
+     *     <li>{@code orphanPetStates}: pets with visits whose pet hasn't been seen yet
+     *     <li>{@code ownersIndexLag}, {@code petsIndexLag} and {@code visitsIndexLag}: histograms of the time from
+     *     the commit of a change record in the database until Elasticsearch acknowledged its change, in
+     *     milliseconds, see {@link HistogramMetric}
+     * </ul>
+     * The state metrics count the states a processor has mapped an item with since the job started, a state
+     * restored from a snapshot is counted from its first item after the restore. A state evicted from the heap is
+     * no longer counted until its next item, see {@link EvictingStateP}. They are not reported with the
+     * {@link StateBackend#IMAP} state backend.
+     * <p>
+     * The commit time of a change record is carried with its item through the states to the sink, a change
+     * replacing others when coalesced keeps the earliest commit time. The lag is measured with the clock of the
+     * Jet member against the clock of the database.
+     */
     public Pipeline pipeline() {
-        StreamSource<ChangeRecord> mysqlSource = MySqlCdcSources
+        MySqlCdcSources.Builder mysqlSourceBuilder = MySqlCdcSources
                 .mysql("mysql-debezium")
                 .setDatabaseAddress(databaseAddress)
                 .setDatabasePort(databasePort)
@@ -71,145 +336,1061 @@ public class PetClinicIndexJob implements Serializable {
                 .setDatabasePassword(databasePassword)
                 .setClusterName(clusterName)
                 .setDatabaseWhitelist(DATABASE)
-                .setTableWhitelist(TABLE_WHITELIST)
-                .build();
+                .setTableWhitelist(TABLE_WHITELIST);
+        if (initialLoad) {
+            // The existing rows are read by the initial load, stream only the changes made from now on
+            mysqlSourceBuilder.setCustomProperty("snapshot.mode", "schema_only");
+        }
+        StreamSource<ChangeRecord> mysqlSource = mysqlSourceBuilder.build();
 
-        ServiceFactory<?, Rake> keywordService = ServiceFactories.sharedService((context) -> new Rake("en"));
+        // Items are timestamped with the commit time of their change record explicitly, Jet's event time isn't
+        // visible to the state and sink functions
+        Pipeline p = Pipeline.create();
+        StreamStage<TimestampedItem<Object>> records = p.readFrom(mysqlSource)
+         .withoutTimestamps()
+         .map(PetClinicIndexJob::mapChangeRecordToPOJO).setName("mapChangeRecordToPOJO");
 
-        Sink<Owner> elasticSink = ElasticSinks.elastic(
-                () -> RestClient.builder(HttpHost.create(elasticHost)),
-                this::mapDocumentToElasticRequest
-        );
+        indexRecords(records, elasticChangeSink(change -> { }));
+        return p;
+    }
+
+    /**
+     * Adds the stages of {@link #pipeline()} after reading the change records: enriches the records with keywords,
+     * joins them to documents and writes the document changes to the sink
+     * <p>
+     * The records are the POJOs of the change records timestamped with their commit time, the benchmark feeds
+     * synthetic records to the same stages.
+     */
+    void indexRecords(StreamStage<TimestampedItem<Object>> records, Sink<DocumentChange> sink) {
+        if (initialLoad && warmStart) {
+            throw new IllegalArgumentException("The initial load and the warm start can't be combined");
+        }
+        if (evictsStates() && stateBackend != StateBackend.HEAP) {
+            throw new IllegalArgumentException("States are only evicted with the HEAP state backend");
+        }
+        if (warmStart) {
+            // Like the loaded documents, read back from the index. The rows wait until the index has been read,
+            // then the rows it already has are dropped before their keywords are extracted
+            StreamStage<TimestampedItem<Object>> indexed = records.getPipeline()
+                    .readFrom(WarmStart.indexedDocuments(this::elasticClient, elasticIndex, warmStartBatchSize))
+                    .withoutTimestamps()
+                    .setLocalParallelism(warmStartSlices).setName("readIndexedDocuments")
+                    .flatMap(PetClinicIndexJob::loadedItems).setName("indexedItems");
+            records = records
+                    .<TimestampedItem<Object>>customTransform("awaitIndexRead", WarmStart.AwaitIndexReadP::new)
+                    .merge(indexed)
+                    .groupingKey(WarmStart::rowKey)
+                    .<TimestampedItem<Object>>customTransform("skipIndexedRows", WarmStart.SkipIndexedRowsP::new);
+        }
+
+        records = records
+                .mapUsingServiceAsyncBatched(keywordService(), keywordBatchSize, PetClinicIndexJob::enrichRecordsWithKeywords)
+                .setName("enrichWithKeywords")
+                .setLocalParallelism(keywordLocalParallelism);
+
+        if (initialLoad) {
+            // The states start from the loaded documents, the changes streamed since the load began are applied
+            // on top of them
+            StreamStage<TimestampedItem<Object>> loaded = records.getPipeline()
+                    .readFrom(InitialLoad.loadedDocuments())
+                    .withoutTimestamps()
+                    .flatMap(PetClinicIndexJob::loadedItems).setName("loadedItems");
+            records = records.merge(loaded);
+        }
+
+        VisitRetention visitRetention = visitRetention();
+
+        // Visits are joined to their pets first, pets with visits are then joined to their owners,
+        // both joins are partitioned so the state is spread over the cluster
+        StreamStage<TimestampedItem<Object>> pets = mapStateful(records
+                        .filter(item -> !isOwnerItem(item.item())).setName("filterPetsAndVisits")
+                        .groupingKey(item -> petId(item.item())),
+                "PetMappingState::mapState",
+                () -> new PetMappingState(visitRetention),
+                (state, key, item) -> timestamped(state.mapStateWithMetrics(item.item(), item.timestamp())),
+                new PetMappingStateSerializer.Codec(visitRetention),
+                PetMappingState::uncount,
+                SharedState.stateMapService(SharedState.PET_STATES_MAP, () -> new PetMappingState(visitRetention),
+                        (state, key, item) -> timestamped(state.mapStateResending(item.item(), item.timestamp())),
+                        new PetMappingStateSerializer.Codec(visitRetention)));
+
+        StreamStage<DocumentChange> changes = mapStateful(records
+                        .filter(item -> isOwnerItem(item.item())).setName("filterOwners")
+                        .merge(pets)
+                        .groupingKey(item -> ownerId(item.item())),
+                "OwnerMappingState::mapState",
+                OwnerMappingState::new,
+                (state, key, item) -> state.mapStateWithMetrics(item.item(), item.timestamp()),
+                new OwnerMappingStateSerializer.Codec(),
+                OwnerMappingState::uncount,
+                SharedState.ownerStateMapService(TimestampedItem::item,
+                        (state, key, item) -> state.mapStateResending(item.item(), item.timestamp())));
+
+        if (writeCoalescingWindow > 0) {
+            long window = writeCoalescingWindow;
+            int maxOwners = writeCoalescingMaxOwners;
+            changes = changes.groupingKey(change -> change.document.id)
+                             .customTransform("coalesceChanges", () -> new CoalesceChangesP(window, maxOwners));
+        }
+
+        // Changes are deltas, all changes of an owner must reach the same sink processor to stay in order
+        changes.rebalance(change -> change.document.id)
+               .writeTo(sink)
+               .setLocalParallelism(elasticSinkParallelism);
+    }
+
+    /**
+     * Maps the items with their keyed states kept by the state backend, see {@link StateBackend}
+     * <p>
+     * The {@code IMAP} backend maps the items with the shared states instead, their mapping runs on the threads
+     * completing the reads of the states, without metrics. The {@code HEAP} backend evicts the idle states to files
+     * when configured to, see {@link EvictingStateP} and {@link FileStateStore}.
+     *
+     * @param evictFn      removes an evicted state from the state metrics
+     * @param sharedStates maps the items with the {@code IMAP} backend, see {@link SharedState}
+     */
+    private <S, R> StreamStage<R> mapStateful(
+            StreamStageWithKey<TimestampedItem<Object>, Integer> items,
+            String name,
+            SupplierEx<S> createFn,
+            TriFunction<S, Integer, TimestampedItem<Object>, R> mapFn,
+            MappedStateP.Codec<S> codec,
+            ConsumerEx<S> evictFn,
+            ServiceFactory<?, SharedState.KeyedStateMap<TimestampedItem<Object>, R>> sharedStates
+    ) {
+        if (stateBackend == StateBackend.IMAP) {
+            return items.mapUsingServiceAsync(sharedStates, SharedState.MAX_CONCURRENT_OPS, true,
+                    (stateMap, key, item) -> stateMap.map(key, item))
+                        .setName(name);
+        }
+        FunctionEx<? super TimestampedItem<Object>, ? extends Integer> keyFn = items.keyFn();
+        String directory = stateDirectory();
+        if (stateBackend == StateBackend.MAPPED) {
+            int hotSetSize = stateHotSetSize;
+            return items.customTransform(name,
+                    () -> new MappedStateP<>(directory, hotSetSize, keyFn, createFn, mapFn, codec));
+        }
+        if (evictsStates()) {
+            FunctionEx<Processor.Context, EvictingStateP.StateStore<S>> storeFn =
+                    context -> new FileStateStore<>(directory, context.globalProcessorIndex(), codec);
+            long idleTimeout = stateIdleTimeout;
+            int maxKeys = stateMaxKeys;
+            return items.customTransform(name, () -> new EvictingStateP<>(idleTimeout, maxKeys, keyFn, createFn,
+                    mapFn, evictFn, storeFn));
+        }
+        return items.customTransform(name, () -> new HeapStateP<>(keyFn, createFn, mapFn, codec));
+    }
+
+    private VisitRetention visitRetention() {
+        return new VisitRetention(visitRetentionCount, visitRetentionDays);
+    }
+
+    private boolean evictsStates() {
+        return stateIdleTimeout > 0 || stateMaxKeys > 0;
+    }
+
+    private String stateDirectory() {
+        return stateDirectory != null
+                ? stateDirectory
+                : Paths.get(System.getProperty("java.io.tmpdir"), "petclinic-state").toString();
+    }
+
+    /**
+     * Pipeline of the initial load, see {@link InitialLoad}
+     * <p>
+     * Reads the tables with parallel readers, joins visits to pets and pets to owners in a batch and writes the
+     * complete documents to the index and to the {@value InitialLoad#LOADED_DOCUMENTS_MAP} map.
+     */
+    public Pipeline initialLoadPipeline() throws SQLException {
+        String url = jdbcUrl();
+        String user = databaseUser;
+        String password = databasePassword;
+        SupplierEx<Connection> connectionFn = () -> DriverManager.getConnection(url, user, password);
+
+        // Read once, all readers of a table split the same range of ids
+        long[] ownerIds;
+        long[] petIds;
+        long[] visitIds;
+        try (Connection connection = connectionFn.get()) {
+            ownerIds = InitialLoad.idBounds(connection, OWNERS_TABLE);
+            petIds = InitialLoad.idBounds(connection, PETS_TABLE);
+            visitIds = InitialLoad.idBounds(connection, VISITS_TABLE);
+        }
 
         Pipeline p = Pipeline.create();
-        p.readFrom(mysqlSource)
-         .withoutTimestamps()
-         .map(PetClinicIndexJob::mapChangeRecordToPOJO).setName("mapChangeRecordToPOJO")
-         .mapUsingService(keywordService, PetClinicIndexJob::enrichWithKeywords).setName("enrichWithKeywords")
-         .mapStateful(OwnerMappingState::new, OwnerMappingState::mapState).setName("OwnerMappingState::mapState")
-         .writeTo(elasticSink);
+        BatchStage<Owner> owners = p
+                .readFrom(Sources.jdbc(
+                        connectionFn,
+                        InitialLoad.primaryKeyRange(OWNERS_TABLE, "id, first_name, last_name", ownerIds),
+                        resultSet -> new Owner(resultSet.getInt("id"), resultSet.getString("first_name"),
+                                resultSet.getString("last_name"))
+                ))
+                .setLocalParallelism(initialLoadParallelism).setName("readOwners");
+
+        // Pets and visits without a parent belong to no document
+        BatchStage<Pet> pets = p
+                .readFrom(Sources.jdbc(
+                        connectionFn,
+                        InitialLoad.primaryKeyRange(PETS_TABLE, "id, name, owner_id", petIds),
+                        resultSet -> new Pet(resultSet.getInt("id"), resultSet.getString("name"),
+                                resultSet.getObject("owner_id", Integer.class))
+                ))
+                .setLocalParallelism(initialLoadParallelism).setName("readPets")
+                .filter(pet -> pet.ownerId != null).setName("filterPetsWithOwner");
 
+        // Visits keep their id to be put in the same order as the streamed visits
+        BatchStage<Tuple2<Integer, Visit>> visits = p
+                .readFrom(Sources.jdbc(
+                        connectionFn,
+                        InitialLoad.primaryKeyRange(VISITS_TABLE, "id, pet_id, visit_date, description", visitIds),
+                        PetClinicIndexJob::mapVisitRow
+                ))
+                .setLocalParallelism(initialLoadParallelism).setName("readVisits")
+                .filter(row -> row.f1().petId != null).setName("filterVisitsWithPet")
+                .mapUsingServiceAsyncBatched(keywordService(), keywordBatchSize, PetClinicIndexJob::enrichRowsWithKeywords)
+                .setName("enrichWithKeywords")
+                .setLocalParallelism(keywordLocalParallelism);
+
+        VisitRetention visitRetention = visitRetention();
+
+        BatchStage<Pet> petsWithVisits = pets
+                .groupingKey(pet -> pet.id)
+                .aggregate2(toList(), visits.groupingKey(row -> row.f1().petId), toList())
+                .map(entry -> petWithVisits(entry.getValue().f0(), entry.getValue().f1(), visitRetention))
+                .setName("joinVisitsToPets");
+
+        BatchStage<Owner> documents = owners
+                .groupingKey(owner -> owner.id)
+                .aggregate2(toList(), petsWithVisits.groupingKey(pet -> pet.ownerId), toList())
+                .map(entry -> ownerWithPets(entry.getValue().f0(), entry.getValue().f1()))
+                .setName("joinPetsToOwners");
+
+        documents.writeTo(elasticSink(this::mapLoadedDocumentToElasticRequest))
+                 .setLocalParallelism(elasticSinkParallelism);
+        documents.writeTo(Sinks.map(InitialLoad.LOADED_DOCUMENTS_MAP, owner -> owner.id, owner -> owner));
+
+        return p;
+    }
+
+    /**
+     * Pipeline writing the binlog position of the connector to the {@value InitialLoad#STATUS_MAP} map once it
+     * streams the binary log, see {@link InitialLoad#connectorPosition(String)}
+     */
+    public Pipeline connectorPositionPipeline() {
+        Pipeline p = Pipeline.create();
+        p.readFrom(InitialLoad.connectorPosition(clusterName))
+         .writeTo(Sinks.map(InitialLoad.STATUS_MAP, position -> InitialLoad.BINLOG_POSITION, position -> position));
         return p;
     }
 
-    private static Object mapChangeRecordToPOJO(ChangeRecord change) throws ParsingException {
-        Map<String, Object> changeMap = change.value().toMap();
+    /**
+     * Stops refreshing the index while the initial load is bulk indexing, creates the index when it's missing
+     */
+    public void disableIndexRefresh() throws IOException {
+        Settings settings = Settings.builder().put(REFRESH_INTERVAL_SETTING, "-1").build();
+        try (RestHighLevelClient client = new RestHighLevelClient(elasticClient())) {
+            if (client.indices().exists(new GetIndexRequest(elasticIndex), RequestOptions.DEFAULT)) {
+                client.indices().putSettings(new UpdateSettingsRequest(elasticIndex).settings(settings),
+                        RequestOptions.DEFAULT);
+            } else {
+                client.indices().create(new CreateIndexRequest(elasticIndex).settings(settings), RequestOptions.DEFAULT);
+            }
+        }
+    }
+
+    /**
+     * Restores the default refresh interval of the index and refreshes it
+     */
+    public void restoreIndexRefresh() throws IOException {
+        Settings settings = Settings.builder().putNull(REFRESH_INTERVAL_SETTING).build();
+        try (RestHighLevelClient client = new RestHighLevelClient(elasticClient())) {
+            client.indices().putSettings(new UpdateSettingsRequest(elasticIndex).settings(settings),
+                    RequestOptions.DEFAULT);
+            client.indices().refresh(new RefreshRequest(elasticIndex), RequestOptions.DEFAULT);
+        }
+    }
+
+    private String jdbcUrl() {
+        if (initialLoadJdbcUrl != null) {
+            return initialLoadJdbcUrl;
+        }
+        // Without a cursor the driver reads the whole result set into memory
+        return "jdbc:mysql://" + databaseAddress + ":" + databasePort + "/" + DATABASE + "?useCursorFetch=true";
+    }
+
+    private ServiceFactory<?, KeywordService> keywordService() {
+        int keywordCacheSize = this.keywordCacheSize;
+        EvictionPolicy keywordCacheEviction = this.keywordCacheEviction;
+        int keywordLocalParallelism = this.keywordLocalParallelism;
+        return ServiceFactories.sharedService(
+                (context) -> new KeywordService(
+                        new Rake("en"), MAX_KEYWORDS, keywordCacheSize, keywordCacheEviction,
+                        keywordLocalParallelism > 0 ? keywordLocalParallelism : Runtime.getRuntime().availableProcessors()
+                ),
+                KeywordService::shutdown
+        );
+    }
+
+    /**
+     * Returns the sink writing the document changes to the index, recording their index lag and calling the
+     * function for every change acknowledged by Elasticsearch
+     */
+    Sink<DocumentChange> elasticChangeSink(ConsumerEx<DocumentChange> indexedFn) {
+        return elasticSink(this::mapDocumentToElasticRequest, change -> {
+            recordIndexLag(change);
+            indexedFn.acceptEx(change);
+        });
+    }
+
+    private <T> Sink<T> elasticSink(FunctionEx<T, DocWriteRequest<?>> mapToRequestFn) {
+        return elasticSink(mapToRequestFn, item -> { });
+    }
 
-        switch (change.table()) {
-            case OWNERS_TABLE: {
-                Integer ownerId = (Integer) changeMap.get("id");
-                String firstName = (String) changeMap.get("first_name");
-                String lastName = (String) changeMap.get("last_name");
+    private <T> Sink<T> elasticSink(FunctionEx<T, DocWriteRequest<?>> mapToRequestFn, ConsumerEx<T> indexedFn) {
+        return new ElasticBulkSinkBuilder<>()
+                .clientFn(this::elasticClient)
+                .mapToRequestFn(mapToRequestFn)
+                .indexedFn(indexedFn)
+                .adaptiveBulkActions(
+                        elasticBulkTargetLatency > 0 ? Math.min(elasticBulkMinSize, elasticBulkSize) : elasticBulkSize,
+                        elasticBulkSize,
+                        elasticBulkTargetLatency
+                )
+                .retries(elasticRetries)
+                .build();
+    }
+
+    private static Tuple2<Integer, Visit> mapVisitRow(ResultSet resultSet) throws SQLException {
+        Date visitDate = resultSet.getDate("visit_date");
+        Visit visit = new Visit(
+                resultSet.getInt("id"),
+                resultSet.getObject("pet_id", Integer.class),
+                visitDate == null ? null : visitDate.toLocalDate().toString(),
+                resultSet.getString("description")
+        );
+        return Tuple2.tuple2(resultSet.getInt("id"), visit);
+    }
 
-                return new Owner(ownerId, firstName, lastName);
+    private static CompletableFuture<List<Tuple2<Integer, Visit>>> enrichRowsWithKeywords(
+            KeywordService service,
+            List<Tuple2<Integer, Visit>> rows
+    ) {
+        List<Object> visits = new ArrayList<>(rows.size());
+        for (Tuple2<Integer, Visit> row : rows) {
+            visits.add(row.f1());
+        }
+        return enrichWithKeywords(service, visits).thenApply(enriched -> rows);
+    }
+
+    /**
+     * Returns the pet with its visits in the order of their ids, or null for visits of a missing pet
+     */
+    static Pet petWithVisits(List<Pet> pets, List<Tuple2<Integer, Visit>> visits, VisitRetention visitRetention) {
+        if (pets.isEmpty()) {
+            return null;
+        }
+        Pet pet = pets.get(0);
+        visits.sort(Comparator.comparing(Tuple2::f0));
+        for (Tuple2<Integer, Visit> visit : visits) {
+            pet = pet.withVisit(visit.f1(), visitRetention);
+        }
+        return pet;
+    }
+
+    /**
+     * Returns the owner with its pets in the order of their ids, or null for pets of a missing owner
+     */
+    static Owner ownerWithPets(List<Owner> owners, List<Pet> pets) {
+        if (owners.isEmpty()) {
+            return null;
+        }
+        Owner owner = owners.get(0);
+        pets.sort(Comparator.comparing(pet -> pet.id));
+        for (Pet pet : pets) {
+            owner = owner.withPet(pet);
+        }
+        return owner;
+    }
+
+    /**
+     * Splits a loaded or indexed document into the items for the owner and pet states, they have no commit time
+     */
+    private static Traverser<TimestampedItem<Object>> loadedItems(Owner document) {
+        List<TimestampedItem<Object>> items = new ArrayList<>();
+        items.add(new TimestampedItem<>(0, DocumentChange.loaded(document)));
+        if (document.pets != null) {
+            for (Pet pet : document.pets) {
+                items.add(new TimestampedItem<>(0, DocumentChange.loaded(pet)));
             }
+        }
+        return Traversers.traverseIterable(items);
+    }
 
-            case PETS_TABLE: {
-                Integer petId = (Integer) changeMap.get("id");
-                String name = (String) changeMap.get("name");
-                Integer ownerId = (Integer) changeMap.get("owner_id");
+    private static TimestampedItem<Object> mapChangeRecordToPOJO(ChangeRecord change) throws ParsingException {
+        return mapRecordValueToPOJO(change.value().toJson(), change.timestamp());
+    }
+
+    /**
+     * Maps the value of a change record to its POJO timestamped with the commit time of the change
+     */
+    static TimestampedItem<Object> mapRecordValueToPOJO(String json, long commitTime) throws ParsingException {
+        Object item = mapRecordValueToPOJO(json);
+        if (item instanceof Owner) {
+            Metrics.metric(OWNER_RECORDS).increment();
+        } else if (item instanceof Pet) {
+            Metrics.metric(PET_RECORDS).increment();
+        } else {
+            Metrics.metric(VISIT_RECORDS).increment();
+        }
+        return new TimestampedItem<>(commitTime, item);
+    }
 
-                return new Pet(petId, name, ownerId);
+    /**
+     * Maps the value of a change record to the POJO of its table
+     * <p>
+     * Only the columns of the POJOs and the table name Jet adds to the value are read, straight from the JSON.
+     * Other columns are skipped without converting them.
+     */
+    static Object mapRecordValueToPOJO(String json) throws ParsingException {
+        Integer id = null;
+        Integer ownerId = null;
+        Integer petId = null;
+        Integer visitDate = null;
+        String firstName = null;
+        String lastName = null;
+        String name = null;
+        String description = null;
+        String table = null;
+
+        try {
+            JsonFieldReader reader = new JsonFieldReader(json);
+            while (reader.next()) {
+                if (reader.nameEquals("id")) {
+                    id = reader.intValue();
+                } else if (reader.nameEquals("first_name")) {
+                    firstName = reader.stringValue();
+                } else if (reader.nameEquals("last_name")) {
+                    lastName = reader.stringValue();
+                } else if (reader.nameEquals("name")) {
+                    name = reader.stringValue();
+                } else if (reader.nameEquals("owner_id")) {
+                    ownerId = reader.intValue();
+                } else if (reader.nameEquals("pet_id")) {
+                    petId = reader.intValue();
+                } else if (reader.nameEquals("visit_date")) {
+                    // Debezium encodes DATE columns as the number of days since epoch
+                    visitDate = reader.intValue();
+                } else if (reader.nameEquals("description")) {
+                    description = reader.stringValue();
+                } else if (reader.nameEquals(TABLE_FIELD)) {
+                    table = reader.stringValue();
+                }
             }
+        } catch (IllegalArgumentException e) {
+            throw new ParsingException(e.getMessage(), e);
+        }
+
+        if (table == null) {
+            throw new ParsingException("No " + TABLE_FIELD + " field in " + json);
+        }
+        switch (table) {
+            case OWNERS_TABLE:
+                return new Owner(id, firstName, lastName);
+
+            case PETS_TABLE:
+                return new Pet(id, name, ownerId);
 
             case VISITS_TABLE:
-                Integer petId = (Integer) changeMap.get("pet_id");
-                String description = (String) changeMap.get("description");
+                return new Visit(id, petId, visitDate == null ? null : LocalDate.ofEpochDay(visitDate).toString(),
+                        description);
+
+            default:
+                throw new IllegalStateException("Unknown table " + table);
+        }
+    }
+
+    private static CompletableFuture<List<TimestampedItem<Object>>> enrichRecordsWithKeywords(
+            KeywordService service,
+            List<TimestampedItem<Object>> records
+    ) {
+        List<Object> items = new ArrayList<>(records.size());
+        for (TimestampedItem<Object> record : records) {
+            items.add(record.item());
+        }
+        return enrichWithKeywords(service, items).thenApply(enriched -> records);
+    }
 
-                return new Visit(petId, description);
+    private static CompletableFuture<List<Object>> enrichWithKeywords(KeywordService service, List<Object> items) {
+        List<Visit> visits = new ArrayList<>();
+        List<String> descriptions = new ArrayList<>();
+        for (Object item : items) {
+            if (item instanceof Visit) {
+                Visit visit = (Visit) item;
+                visits.add(visit);
+                descriptions.add(visit.description);
+            }
+        }
+
+        if (visits.isEmpty()) {
+            return CompletableFuture.completedFuture(items);
+        }
 
+        return service.getKeywordsAsync(descriptions).thenApply(keywords -> {
+            for (int i = 0; i < visits.size(); i++) {
+                visits.get(i).setKeywords(keywords.get(i));
+            }
+            return items;
+        });
+    }
+
+    private RestClientBuilder elasticClient() {
+        RestClientBuilder builder = RestClient.builder(HttpHost.create(elasticHost));
+        if (elasticMaxConnections > 0) {
+            int maxConnections = elasticMaxConnections;
+            builder.setHttpClientConfigCallback(config -> config.setMaxConnTotal(maxConnections)
+                                                                .setMaxConnPerRoute(maxConnections));
+        }
+        return builder;
+    }
+
+    /**
+     * Records the time from the commit of the change record of the change until now, when it's indexed
+     */
+    private static void recordIndexLag(DocumentChange change) {
+        if (change.table == null) {
+            return;
+        }
+        long lag = Math.max(0, System.currentTimeMillis() - change.commitTime);
+        switch (change.table) {
+            case OWNERS_TABLE:
+                OWNERS_INDEX_LAG.record(lag);
+                break;
+            case PETS_TABLE:
+                PETS_INDEX_LAG.record(lag);
+                break;
+            case VISITS_TABLE:
+                VISITS_INDEX_LAG.record(lag);
+                break;
             default:
-                throw new IllegalStateException("Unknown table " + change.table());
+                throw new IllegalArgumentException("Unknown table " + change.table);
         }
+    }
 
+    private DocWriteRequest<?> mapDocumentToElasticRequest(DocumentChange change) throws Exception {
+        return toUpdateRequest(elasticIndex, visitRetention(), change);
     }
 
-    private static Object enrichWithKeywords(Rake service, Object item) {
-        if (item instanceof Visit) {
-            Visit visit = (Visit) item;
+    private DocWriteRequest<?> mapLoadedDocumentToElasticRequest(Owner document) throws Exception {
+        // The whole document is new, it doesn't have to be merged with the indexed one
+        return new IndexRequest(elasticIndex).id(document.id.toString())
+                                             .source(DOCUMENT_JSON_WRITER.get().toJson(document), XContentType.JSON);
+    }
+
+    /**
+     * Creates a request sending only the changed part of the document
+     * <p>
+     * Owner fields are sent as a partial document, pet changes as a script. When the document is missing
+     * in the index the owner fields are used as the upsert, so the request doesn't fail. An added visit is applied
+     * with the visit retention, and only once when the request is sent again.
+     */
+    static UpdateRequest toUpdateRequest(String index, VisitRetention visitRetention, DocumentChange change)
+            throws Exception {
+        Owner document = change.document;
+        UpdateRequest request = new UpdateRequest(index, document.id.toString());
 
-            LinkedHashMap<String, Double> keywordsFromText = service.getKeywordsFromText(visit.description);
-            List<String> keywords = keywordsFromText.keySet()
-                                                    .stream()
-                                                    .limit(5)
-                                                    .collect(Collectors.toList());
+        switch (change.type) {
+            case FULL:
+                return request.doc(DOCUMENT_JSON_WRITER.get().toJson(document), XContentType.JSON)
+                              .docAsUpsert(true);
 
-            visit.setKeywords(keywords);
+            case OWNER_UPDATED:
+                return request.doc(ownerFields(document))
+                              .docAsUpsert(true);
 
+            case PET_UPDATED: {
+                Map<String, Object> params = new HashMap<>();
+                params.put("pet", petFields(change.pet));
+
+                return request.script(new Script(ScriptType.INLINE, Script.DEFAULT_SCRIPT_LANG, PET_UPDATED_SCRIPT, params))
+                              .scriptedUpsert(true)
+                              .upsert(ownerFields(document));
+            }
+
+            case VISIT_ADDED: {
+                Map<String, Object> params = new HashMap<>();
+                params.put("pet_id", change.pet.id);
+                params.put("visit", visitFields(change.visit));
+                params.put("max_visits", visitRetention.maxVisits());
+                params.put("max_age_days", visitRetention.maxAgeDays());
+
+                return request.script(new Script(ScriptType.INLINE, Script.DEFAULT_SCRIPT_LANG, VISIT_ADDED_SCRIPT, params))
+                              .scriptedUpsert(true)
+                              .upsert(ownerFields(document));
+            }
+
+            default:
+                throw new IllegalArgumentException("Unknown change type " + change.type);
         }
-        return item;
     }
 
-    private DocWriteRequest<?> mapDocumentToElasticRequest(Owner document) throws Exception {
-        return new UpdateRequest(elasticIndex, document.id.toString())
-                .doc(JsonUtil.toJson(document), XContentType.JSON)
-                .docAsUpsert(true);
+    private static Map<String, Object> ownerFields(Owner document) {
+        // Same as the fields written by JsonUtil, nulls are left out
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("id", document.id);
+        if (document.firstName != null) {
+            fields.put("first_name", document.firstName);
+        }
+        if (document.lastName != null) {
+            fields.put("last_name", document.lastName);
+        }
+        return fields;
     }
 
-    static class OwnerMappingState implements Serializable {
+    /**
+     * Returns the fields of the pet as the script params, the same fields {@link DocumentJsonWriter} writes to the
+     * documents without writing them as JSON and parsing them back
+     */
+    static Map<String, Object> petFields(Pet pet) {
+        Map<String, Object> fields = new HashMap<>();
+        putIfNotNull(fields, "id", pet.id);
+        putIfNotNull(fields, "name", pet.name);
+        putIfNotNull(fields, "owner_id", pet.ownerId);
+        if (pet.visits != null) {
+            List<Map<String, Object>> visits = new ArrayList<>(pet.visits.size());
+            for (Visit visit : pet.visits) {
+                visits.add(visit == null ? null : visitFields(visit));
+            }
+            fields.put("visits", visits);
+        }
+        return fields;
+    }
+
+    /**
+     * Returns the fields of the visit as the script params, see {@link #petFields(Pet)}
+     */
+    static Map<String, Object> visitFields(Visit visit) {
+        Map<String, Object> fields = new HashMap<>();
+        putIfNotNull(fields, "description", visit.description);
+        putIfNotNull(fields, "id", visit.id);
+        putIfNotNull(fields, "keywords", visit.keywords);
+        putIfNotNull(fields, "pet_id", visit.petId);
+        putIfNotNull(fields, "visit_date", visit.visitDate);
+        return fields;
+    }
+
+    private static void putIfNotNull(Map<String, Object> fields, String name, Object value) {
+        if (value != null) {
+            fields.put(name, value);
+        }
+    }
+
+    /**
+     * Returns whether the item goes directly to the owner state, all other items go to the pet state first
+     */
+    static boolean isOwnerItem(Object item) {
+        return item instanceof Owner
+                || item instanceof DocumentChange && ((DocumentChange) item).document != null;
+    }
 
-        Map<Integer, Owner> ownerMap = new HashMap<>();
-        Map<Integer, Owner> petMap = new HashMap<>();
+    /**
+     * Returns the id of the pet the item belongs to, used to partition pets and visits
+     */
+    static Integer petId(Object item) {
+        if (item instanceof Pet) {
+            return ((Pet) item).id;
+        } else if (item instanceof Visit) {
+            return ((Visit) item).petId;
+        } else if (item instanceof DocumentChange) {
+            return ((DocumentChange) item).pet.id;
+        } else {
+            throw new IllegalArgumentException("Unknown type " + item.getClass());
+        }
+    }
 
-        Map<Integer, Pet> petIdToPetMap = new HashMap<>();
+    /**
+     * Returns the id of the owner the item belongs to, used to partition owners and pets
+     */
+    static Integer ownerId(Object item) {
+        if (item instanceof Owner) {
+            return ((Owner) item).id;
+        } else if (item instanceof DocumentChange) {
+            DocumentChange change = (DocumentChange) item;
+            return change.document != null ? change.document.id : change.pet.ownerId;
+        } else {
+            throw new IllegalArgumentException("Unknown type " + item.getClass());
+        }
+    }
+
+    /**
+     * Returns the change timestamped with its commit time, null for no change
+     */
+    private static TimestampedItem<Object> timestamped(DocumentChange change) {
+        return change == null ? null : new TimestampedItem<>(change.commitTime, change);
+    }
+
+    /**
+     * Returns the table of the change record of the item
+     */
+    static String table(Object item) {
+        if (item instanceof Owner) {
+            return OWNERS_TABLE;
+        } else if (item instanceof Pet) {
+            return PETS_TABLE;
+        } else if (item instanceof Visit) {
+            return VISITS_TABLE;
+        } else {
+            throw new IllegalArgumentException("Unknown type " + item.getClass());
+        }
+    }
+
+    private static void updateMetric(String name, long delta) {
+        if (delta != 0) {
+            Metrics.metric(name).increment(delta);
+        }
+    }
+
+    /**
+     * State of a single pet, keyed by pet id
+     * <p>
+     * Collects the visits of the pet limited by the visit retention, emits the change of the pet once its owner
+     * is known. A new visit following the others is emitted on its own unless the retention dropped older visits, a
+     * visit the pet has already is not emitted again.
+     * <p>
+     * The changes are not idempotent, so they carry the pet as it was after the change. The state never changes a
+     * pet it emitted, it moves on to a new pet sharing the unchanged visits with it, see {@link Pet#withVisit}. The
+     * sink may serialize a change on another thread while the state maps the next item.
+     */
+    static class PetMappingState implements Serializable {
+
+        final VisitRetention visitRetention;
+
+        Pet pet;
+
+        // Whether the state is included in the state metrics of the processor, not yet when restored
+        transient boolean counted;
+
+        PetMappingState(VisitRetention visitRetention) {
+            this.visitRetention = visitRetention;
+        }
+
+        /**
+         * Maps the item like {@link #mapStateWithCommit(Object, long)} and updates the state metrics, see
+         * {@link PetClinicIndexJob#pipeline()}
+         */
+        DocumentChange mapStateWithMetrics(Object item, long commitTime) {
+            int visits = counted ? visitCount() : 0;
+            int orphans = counted && isOrphan() ? 1 : 0;
+            if (!counted) {
+                counted = true;
+                Metrics.metric(PET_STATES).increment();
+            }
+
+            DocumentChange change = mapStateWithCommit(item, commitTime);
+
+            updateMetric(PET_STATE_VISITS, visitCount() - visits);
+            updateMetric(ORPHAN_PET_STATES, (isOrphan() ? 1 : 0) - orphans);
+            return change;
+        }
+
+        /**
+         * Removes the state from the state metrics when it's evicted from the heap, its next item counts it again
+         */
+        void uncount() {
+            if (counted) {
+                counted = false;
+                Metrics.metric(PET_STATES).decrement();
+                updateMetric(PET_STATE_VISITS, -visitCount());
+                updateMetric(ORPHAN_PET_STATES, isOrphan() ? -1 : 0);
+            }
+        }
 
-        public Owner mapState(Object item) {
+        /**
+         * Maps the item like {@link #mapState(Object)} and marks the change with the commit of the change record
+         * of the item
+         */
+        DocumentChange mapStateWithCommit(Object item, long commitTime) {
+            DocumentChange change = mapState(item);
+            if (change == null || item instanceof DocumentChange) {
+                // A loaded pet isn't a change record
+                return change;
+            }
+            return change.withCommit(table(item), commitTime);
+        }
 
-            if (item instanceof Owner) {
-                Owner owner = (Owner) item;
+        /**
+         * Maps the item like {@link #mapStateWithCommit(Object, long)}, a pet or a visit the pet already has emits
+         * the pet with all its visits instead of nothing
+         * <p>
+         * Used with states that may already include the items replayed after a failure, see
+         * {@link StateBackend#IMAP}, the change emitted for the item before may not have been written.
+         */
+        DocumentChange mapStateResending(Object item, long commitTime) {
+            DocumentChange change = mapStateWithCommit(item, commitTime);
+            if (change != null || pet.ownerId == null) {
+                return change;
+            }
+            if (item instanceof Pet || item instanceof Visit && pet.visits != null
+                    && pet.visits.stream().anyMatch(((Visit) item)::isSameVisit)) {
+                return DocumentChange.petUpdated(pet).withCommit(table(item), commitTime);
+            }
+            return null;
+        }
 
-                return ownerMap.compute(owner.id, (key, currentOwner) -> {
-                    if (currentOwner == null) {
-                        return owner;
-                    } else {
-                        currentOwner.updateFrom(owner);
-                        return currentOwner;
-                    }
-                });
+        int visitCount() {
+            return pet == null || pet.visits == null ? 0 : pet.visits.size();
+        }
 
-            } else if (item instanceof Pet) {
-                Pet pet = (Pet) item;
+        /**
+         * Returns whether only visits of the pet have been seen
+         */
+        boolean isOrphan() {
+            return pet != null && pet.ownerId == null;
+        }
 
-                Pet currentPet = petIdToPetMap.compute(pet.id, (key, aPet) -> {
-                    if (aPet == null) {
-                        return pet;
-                    } else {
-                        aPet.updateFrom(pet);
-                        return aPet;
-                    }
-                });
+        public DocumentChange mapState(Object item) {
+            DocumentChange change;
 
-                Owner owner = ownerMap.computeIfAbsent(currentPet.ownerId, key1 -> new Owner());
-                owner.id = currentPet.ownerId;
-                owner.addPet(currentPet);
+            if (item instanceof Pet) {
+                Pet newPet = (Pet) item;
 
-                petMap.putIfAbsent(pet.id, owner);
+                Pet previous = pet;
+                pet = pet == null ? newPet : pet.withUpdate(newPet);
+                if (pet == previous) {
+                    // Streamed again unchanged, e.g. by the Debezium snapshot of a warm start
+                    return null;
+                }
+                change = DocumentChange.petUpdated(pet);
+            } else if (item instanceof DocumentChange) {
+                Pet loaded = ((DocumentChange) item).pet;
 
-                return documentIfOwnerSet(owner);
+                if (pet == null) {
+                    // Indexed by the initial load already
+                    pet = loaded;
+                    return null;
+                }
+                // Changes streamed before it were sent without the loaded visits, or not at all without the owner
+                pet = pet.withLoaded(loaded, visitRetention);
+                change = DocumentChange.petUpdated(pet);
             } else if (item instanceof Visit) {
                 Visit visit = (Visit) item;
 
-                Pet pet = petIdToPetMap.computeIfAbsent(visit.petId, key -> new Pet(visit.petId));
-                pet.addVisit(visit);
+                if (pet == null) {
+                    pet = new Pet(visit.petId);
+                }
+                Pet previous = pet;
+                pet = pet.withVisit(visit, visitRetention);
+                if (pet == previous) {
+                    // Replayed, or dropped by the retention right away
+                    return null;
+                }
 
-                if (pet.ownerId != null) {
-                    return ownerMap.get(pet.ownerId);
+                int visitCount = previous.visits == null ? 0 : previous.visits.size();
+                if (pet.visits.size() == visitCount + 1 && pet.visits.get(visitCount) == visit) {
+                    change = DocumentChange.visitAdded(pet, visit);
                 } else {
-                    return null;
+                    change = DocumentChange.petUpdated(pet);
                 }
             } else {
                 throw new IllegalArgumentException("Unknown type " + item.getClass());
             }
+
+            if (pet.ownerId != null) {
+                return change;
+            } else {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * State of a single owner document, keyed by owner id
+     * <p>
+     * Receives owners and pet changes emitted from {@link PetMappingState}, emits the change of the owner document
+     * once the owner itself has been seen. The first change emitted is always the full document, later changes
+     * only describe the delta.
+     * <p>
+     * The emitted changes carry the owner document itself. The state never changes a document it emitted, each
+     * item derives a new one sharing the unchanged pets, see {@link Owner#withPet}, so the coalescing and the sink
+     * read the document on their own threads without copying it.
+     * <p>
+     * A snapshot keeps the state encoded, see {@link #encodedOwner()}. The owner document is decoded again when
+     * the next item is mapped, a state without changes between snapshots is written to them without encoding it.
+     * Between the items the state holds either the document or its encoding, not both.
+     */
+    static class OwnerMappingState implements Serializable {
+
+        // The owner document, null while it's only encoded
+        Owner owner;
+
+        // Encoding of the owner document written to the last snapshot, null once the document changed since
+        byte[] encodedOwner;
+
+        // Whether the full document has already been emitted
+        boolean indexed;
+
+        // Whether the state is included in the state metrics of the processor, not yet when restored
+        transient boolean counted;
+
+        /**
+         * Maps the item like {@link #mapStateWithCommit(Object, long)} and updates the state metrics, see
+         * {@link PetClinicIndexJob#pipeline()}
+         */
+        DocumentChange mapStateWithMetrics(Object item, long commitTime) {
+            int pets = counted ? petCount() : 0;
+            int orphans = counted && isOrphan() ? 1 : 0;
+            if (!counted) {
+                counted = true;
+                Metrics.metric(OWNER_STATES).increment();
+            }
+
+            DocumentChange change = mapStateWithCommit(item, commitTime);
+
+            updateMetric(OWNER_STATE_PETS, petCount() - pets);
+            updateMetric(ORPHAN_OWNER_STATES, (isOrphan() ? 1 : 0) - orphans);
+            return change;
+        }
+
+        /**
+         * Removes the state from the state metrics when it's evicted from the heap, its next item counts it again
+         */
+        void uncount() {
+            if (counted) {
+                counted = false;
+                Metrics.metric(OWNER_STATES).decrement();
+                updateMetric(OWNER_STATE_PETS, -petCount());
+                updateMetric(ORPHAN_OWNER_STATES, isOrphan() ? -1 : 0);
+            }
         }
 
-        private Owner documentIfOwnerSet(Owner document) {
-            if (document.firstName == null) {
-                //
+        /**
+         * Maps the item like {@link #mapState(Object)} and marks the change with the commit of the change record
+         * of the item
+         * <p>
+         * The change of a pet carries the commit of its own change record already.
+         */
+        DocumentChange mapStateWithCommit(Object item, long commitTime) {
+            DocumentChange change = mapState(item);
+            if (change == null) {
                 return null;
+            } else if (item instanceof DocumentChange) {
+                return change.withEarlierCommit((DocumentChange) item);
             } else {
-                return document;
+                return change.withCommit(OWNERS_TABLE, commitTime);
             }
         }
+
+        /**
+         * Maps the item like {@link #mapStateWithCommit(Object, long)}, an indexed owner streamed again unchanged
+         * emits its names instead of nothing
+         * <p>
+         * Used with states that may already include the items replayed after a failure, see
+         * {@link StateBackend#IMAP}, the change emitted for the owner before may not have been written.
+         */
+        DocumentChange mapStateResending(Object item, long commitTime) {
+            DocumentChange change = mapStateWithCommit(item, commitTime);
+            if (change == null && item instanceof Owner && indexed) {
+                return DocumentChange.ownerUpdated(owner).withCommit(OWNERS_TABLE, commitTime);
+            }
+            return change;
+        }
+
+        int petCount() {
+            Owner owner = owner();
+            return owner == null || owner.pets == null ? 0 : owner.pets.size();
+        }
+
+        /**
+         * Returns whether only pets of the owner have been seen
+         */
+        boolean isOrphan() {
+            Owner owner = owner();
+            return owner != null && owner.firstName == null;
+        }
+
+        /**
+         * Returns the owner document, decoding it when the state has only been snapshotted or restored since it
+         * last changed
+         */
+        Owner owner() {
+            if (owner == null && encodedOwner != null) {
+                owner = ModelEncoding.decodeOwner(encodedOwner);
+            }
+            return owner;
+        }
+
+        /**
+         * Returns the encoding of the owner document for a snapshot, null when there's no owner
+         * <p>
+         * Encodes the document only when it changed since the last snapshot. The decoded document is dropped,
+         * until the next item the state is held encoded only.
+         */
+        byte[] encodedOwner() {
+            if (encodedOwner == null && owner != null) {
+                encodedOwner = ModelEncoding.encodeOwner(owner);
+            }
+            owner = null;
+            return encodedOwner;
+        }
+
+        /**
+         * Returns whether mapping the item may emit the full document, given whether the state is indexed already
+         */
+        static boolean mayEmitFullDocument(boolean indexed, Object item) {
+            return item instanceof DocumentChange && ((DocumentChange) item).type == DocumentChange.Type.LOADED
+                    || item instanceof Owner && !indexed;
+        }
+
+        public DocumentChange mapState(Object item) {
+            // The item may change the document, the encoding of the last snapshot is outdated
+            owner();
+            encodedOwner = null;
+
+            if (item instanceof DocumentChange && ((DocumentChange) item).type == DocumentChange.Type.LOADED) {
+                Owner loaded = ((DocumentChange) item).document;
+
+                if (owner == null) {
+                    // Indexed by the initial load already
+                    owner = loaded;
+                    indexed = true;
+                    return null;
+                }
+                // Changes streamed before it may have replaced the loaded document or its pets
+                owner = owner.withLoaded(loaded);
+                return fullDocument();
+            } else if (item instanceof Owner) {
+                Owner newOwner = (Owner) item;
+
+                Owner previous = owner;
+                owner = owner == null ? newOwner : owner.withUpdate(newOwner);
+                if (indexed && owner == previous) {
+                    // Streamed again unchanged, e.g. by the Debezium snapshot of a warm start
+                    return null;
+                }
+                return indexed ? DocumentChange.ownerUpdated(owner) : fullDocument();
+
+            } else if (item instanceof DocumentChange) {
+                DocumentChange change = (DocumentChange) item;
+
+                if (owner == null) {
+                    owner = new Owner();
+                    owner.id = change.pet.ownerId;
+                }
+                owner = owner.withPet(change.pet);
+
+                if (owner.firstName == null) {
+                    // Only pets of this owner have been seen so far
+                    return null;
+                }
+                return indexed ? change.withDocument(owner) : fullDocument();
+            } else {
+                throw new IllegalArgumentException("Unknown type " + item.getClass());
+            }
+        }
+
+        private DocumentChange fullDocument() {
+            indexed = true;
+            return DocumentChange.full(owner);
+        }
     }
 
 }
@@ -1,5 +1,6 @@
 package org.example.jet.petclinic;
 
+import com.hazelcast.config.Config;
 import com.hazelcast.jet.Jet;
 import com.hazelcast.jet.JetInstance;
 import com.hazelcast.jet.Job;
@@ -9,7 +10,23 @@ import com.hazelcast.jet.picocli.CommandLine;
 import com.hazelcast.jet.pipeline.Pipeline;
 import com.hazelcast.logging.ILogger;
 import com.hazelcast.logging.Logger;
+import com.hazelcast.map.IMap;
+import org.example.jet.petclinic.PetClinicIndexJob.OwnerMappingState;
+import org.example.jet.petclinic.PetClinicIndexJob.PetMappingState;
+import org.example.jet.petclinic.cache.BoundedCache;
+import org.example.jet.petclinic.elastic.ElasticBulkSinkBuilder;
+import org.example.jet.petclinic.model.DocumentChange;
+import org.example.jet.petclinic.model.Owner;
+import org.example.jet.petclinic.model.Pet;
+import org.example.jet.petclinic.model.Visit;
 import org.example.jet.petclinic.rake.Rake;
+import org.example.jet.petclinic.serialization.DocumentChangeSerializer;
+import org.example.jet.petclinic.serialization.ModelEncoding;
+import org.example.jet.petclinic.serialization.OwnerSerializer;
+import org.example.jet.petclinic.serialization.PetSerializer;
+import org.example.jet.petclinic.serialization.VisitSerializer;
+import org.example.jet.petclinic.store.MappedRecordStore;
+import org.example.jet.petclinic.util.PersistentList;
 
 public class PetClinicIndexingApp {
 
@@ -22,15 +39,30 @@ public class PetClinicIndexingApp {
 
         JetInstance jet = Jet.bootstrappedInstance();
 
-        log.info("Submitting PetClinicIndexJob");
+        if (petClinicIndexJob.isInitialLoad()) {
+            // Left over from a previous initial load
+            jet.getMap(InitialLoad.STATUS_MAP).clear();
+            jet.getMap(InitialLoad.LOADED_DOCUMENTS_MAP).clear();
+        }
+        if (petClinicIndexJob.isWarmStart()) {
+            // Left over from a previous warm start, the streamed rows wait for the slices of this one
+            jet.getMap(WarmStart.STATUS_MAP).clear();
+        }
 
-        JobConfig jobConfig = new JobConfig();
-        jobConfig.addPackage("data");
-        jobConfig.addClass(Rake.class);
-        jobConfig.addPackage("picocli");
-        jobConfig.addClass(PetClinicIndexJob.class);
+        if (petClinicIndexJob.getStateBackend() == PetClinicIndexJob.StateBackend.IMAP) {
+            // Applied only when the maps are created, they are kept from a previous job
+            Config config = jet.getHazelcastInstance().getConfig();
+            config.addMapConfig(SharedState.mapConfig(SharedState.PET_STATES_MAP));
+            config.addMapConfig(SharedState.mapConfig(SharedState.OWNER_STATES_MAP));
+            config.addMapConfig(SharedState.mapConfig(SharedState.OWNER_PETS_MAP));
+        }
+
+        log.info("Submitting PetClinicIndexJob");
 
-        Job job = jet.newJob(pipeline, jobConfig.setName("PetClinicIndexJob"));
+        Job job = jet.newJob(pipeline, jobConfig().setName("PetClinicIndexJob")
+                                                  .setProcessingGuarantee(petClinicIndexJob.getProcessingGuarantee())
+                                                  .setSnapshotIntervalMillis(petClinicIndexJob.getSnapshotInterval())
+                                                  .setInitialSnapshotName(petClinicIndexJob.getInitialSnapshot()));
 
         while (job.getStatus() == JobStatus.NOT_RUNNING || job.getStatus() == JobStatus.STARTING) {
             log.info("PetClinicIndexJob status=" + job.getStatus());
@@ -38,7 +70,79 @@ public class PetClinicIndexingApp {
         }
 
         log.info("PetClinicIndexJob status=" + job.getStatus());
+
+        if (petClinicIndexJob.isInitialLoad()) {
+            initialLoad(jet, job, petClinicIndexJob);
+        }
     }
 
+    /**
+     * Runs the initial load while the index job is already streaming the changes, see {@link InitialLoad}
+     */
+    private static void initialLoad(JetInstance jet, Job indexJob, PetClinicIndexJob petClinicIndexJob)
+            throws Exception {
+        IMap<String, String> status = jet.getMap(InitialLoad.STATUS_MAP);
 
+        // The rows must not be read before the connector has taken its start position
+        jet.newJob(petClinicIndexJob.connectorPositionPipeline(), jobConfig().setName("PetClinicConnectorPosition"))
+           .join();
+        while (!status.containsKey(InitialLoad.BINLOG_POSITION)) {
+            if (indexJob.getStatus() != JobStatus.RUNNING) {
+                throw new IllegalStateException("PetClinicIndexJob is " + indexJob.getStatus()
+                        + ", the initial load can't start");
+            }
+            log.info("Waiting for the connector to stream the binary log");
+            Thread.sleep(1000);
+            jet.newJob(petClinicIndexJob.connectorPositionPipeline(), jobConfig().setName("PetClinicConnectorPosition"))
+               .join();
+        }
+        log.info("Starting PetClinicInitialLoadJob, the connector streams from binlog position "
+                + status.get(InitialLoad.BINLOG_POSITION));
+
+        petClinicIndexJob.disableIndexRefresh();
+        try {
+            Job job = jet.newJob(petClinicIndexJob.initialLoadPipeline(), jobConfig().setName("PetClinicInitialLoadJob"));
+            job.join();
+        } finally {
+            petClinicIndexJob.restoreIndexRefresh();
+        }
+
+        // Destroyed once the index job has the documents in its states
+        log.info("PetClinicInitialLoadJob completed, loaded " + jet.getMap(InitialLoad.LOADED_DOCUMENTS_MAP).size()
+                + " documents");
+        status.put(InitialLoad.COMPLETED, Boolean.TRUE.toString());
+    }
+
+    static JobConfig jobConfig() {
+        JobConfig jobConfig = new JobConfig();
+        jobConfig.addPackage("data");
+        jobConfig.addPackage(Rake.class.getPackage().getName());
+        jobConfig.addPackage(BoundedCache.class.getPackage().getName());
+        jobConfig.addPackage(ElasticBulkSinkBuilder.class.getPackage().getName());
+        jobConfig.addPackage(PersistentList.class.getPackage().getName());
+        jobConfig.addPackage(MappedRecordStore.class.getPackage().getName());
+        jobConfig.addPackage("picocli");
+        jobConfig.addClass(PetClinicIndexJob.class);
+        jobConfig.addClass(KeywordService.class);
+        jobConfig.addClass(CoalesceChangesP.class);
+        jobConfig.addClass(HeapStateP.class);
+        jobConfig.addClass(MappedStateP.class);
+        jobConfig.addClass(EvictingStateP.class);
+        jobConfig.addClass(FileStateStore.class);
+        jobConfig.addClass(SharedState.class);
+        jobConfig.addClass(InitialLoad.class);
+        jobConfig.addClass(WarmStart.class);
+
+        // Used for the items sent between members and for the snapshots, not for the IMaps
+        jobConfig.addPackage(ModelEncoding.class.getPackage().getName());
+        jobConfig.addClass(OwnerMappingStateSerializer.class);
+        jobConfig.addClass(PetMappingStateSerializer.class);
+        jobConfig.registerSerializer(Owner.class, OwnerSerializer.class);
+        jobConfig.registerSerializer(Pet.class, PetSerializer.class);
+        jobConfig.registerSerializer(Visit.class, VisitSerializer.class);
+        jobConfig.registerSerializer(DocumentChange.class, DocumentChangeSerializer.class);
+        jobConfig.registerSerializer(OwnerMappingState.class, OwnerMappingStateSerializer.class);
+        jobConfig.registerSerializer(PetMappingState.class, PetMappingStateSerializer.class);
+        return jobConfig;
+    }
 }
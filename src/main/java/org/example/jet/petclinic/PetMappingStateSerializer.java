@@ -0,0 +1,96 @@
+package org.example.jet.petclinic;
+
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.StreamSerializer;
+import org.example.jet.petclinic.PetClinicIndexJob.PetMappingState;
+import org.example.jet.petclinic.model.VisitRetention;
+import org.example.jet.petclinic.serialization.ModelEncoding;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Serializes the pet state to snapshots, see {@link ModelEncoding}
+ */
+public class PetMappingStateSerializer implements StreamSerializer<PetMappingState> {
+
+    public static final int TYPE_ID = 1006;
+
+    @Override
+    public int getTypeId() {
+        return TYPE_ID;
+    }
+
+    @Override
+    public void write(ObjectDataOutput out, PetMappingState state) throws IOException {
+        ModelEncoding.writeVersion(out);
+        out.writeInt(state.visitRetention.maxVisits());
+        out.writeInt(state.visitRetention.maxAgeDays());
+        out.writeBoolean(state.pet != null);
+        if (state.pet != null) {
+            ModelEncoding.writePet(out, state.pet);
+        }
+    }
+
+    @Override
+    public PetMappingState read(ObjectDataInput in) throws IOException {
+        ModelEncoding.readVersion(in);
+        PetMappingState state = new PetMappingState(new VisitRetention(in.readInt(), in.readInt()));
+        if (in.readBoolean()) {
+            state.pet = ModelEncoding.readPet(in);
+        }
+        return state;
+    }
+
+    /**
+     * Encodes the pet state for the mapped state backend, see {@link MappedStateP}
+     * <p>
+     * The visit retention is the same for all states of the stage, it's not encoded with each of them.
+     */
+    static final class Codec implements MappedStateP.Codec<PetMappingState> {
+
+        private final VisitRetention visitRetention;
+
+        Codec(VisitRetention visitRetention) {
+            this.visitRetention = visitRetention;
+        }
+
+        @Override
+        public byte[] encode(PetMappingState state) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+            try {
+                DataOutputStream out = new DataOutputStream(bytes);
+                ModelEncoding.writeVersion(out);
+                out.writeBoolean(state.pet != null);
+                if (state.pet != null) {
+                    ModelEncoding.writePet(out, state.pet);
+                }
+            } catch (IOException e) {
+                // Not thrown when writing to memory
+                throw new UncheckedIOException(e);
+            }
+            return bytes.toByteArray();
+        }
+
+        @Override
+        public PetMappingState decode(byte[] encoded, boolean counted) {
+            try {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+                ModelEncoding.readVersion(in);
+                PetMappingState state = new PetMappingState(visitRetention);
+                if (in.readBoolean()) {
+                    state.pet = ModelEncoding.readPet(in);
+                }
+                state.counted = counted;
+                return state;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Corrupted pet state encoding", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,486 @@
+package org.example.jet.petclinic;
+
+import com.hazelcast.config.InMemoryFormat;
+import com.hazelcast.config.MapConfig;
+import com.hazelcast.config.NearCacheConfig;
+import com.hazelcast.function.FunctionEx;
+import com.hazelcast.function.SupplierEx;
+import com.hazelcast.jet.JetInstance;
+import com.hazelcast.jet.function.TriFunction;
+import com.hazelcast.jet.pipeline.ServiceFactories;
+import com.hazelcast.jet.pipeline.ServiceFactory;
+import com.hazelcast.map.IMap;
+import com.hazelcast.partition.PartitionAwareKey;
+import org.example.jet.petclinic.PetClinicIndexJob.OwnerMappingState;
+import org.example.jet.petclinic.model.DocumentChange;
+import org.example.jet.petclinic.model.Owner;
+import org.example.jet.petclinic.model.Pet;
+import org.example.jet.petclinic.serialization.ModelEncoding;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Join states kept in IMaps of the cluster, see {@link PetClinicIndexJob.StateBackend#IMAP}
+ * <p>
+ * The pet states are encoded by their codec, see {@link MappedStateP.Codec}, and stored by pet id in the
+ * {@value #PET_STATES_MAP} map. Each item is mapped by reading the state of its key, mapping the item with it on the
+ * processor's member and writing the state encoded again, see {@link StateMap}.
+ * <p>
+ * An owner state is split so that an item rewrites only what it changed, see {@link OwnerStateMap}: the
+ * {@value #OWNER_STATES_MAP} map keeps the owner fields and the ids of its pets by owner id, the
+ * {@value #OWNER_PETS_MAP} map the pets of the document by pet id and owner id. A pet change reads the owner fields
+ * and writes only the pet, the other pets are read only when the full document is emitted.
+ * <p>
+ * Jet partitions the keyed stages like the IMaps, and the pets of a document are kept in the partition of its
+ * owner, so the reads and writes go to the member of the processor. Only the encoded states are sent to the
+ * members, their classes don't have to be on the classpath of the members.
+ * <p>
+ * The maps outlive the job and are not part of its snapshots, the states are ahead of the last snapshot. After a
+ * failure the job maps the items since the snapshot again with states that may include them already, which is
+ * safe because mapping an item twice leaves the state as it was: owners and pets are replaced by their updates,
+ * visits are added once by their ids. The changes of the replayed items are emitted again even when the states
+ * have them already, see {@link PetClinicIndexJob.PetMappingState#mapStateResending} and
+ * {@link PetClinicIndexJob.OwnerMappingState#mapStateResending}.
+ * <p>
+ * Other jobs can read the owner documents, see {@link #ownerDocument(JetInstance, Integer)}. Two jobs mapping
+ * items to the same maps at the same time are not supported, their reads and writes of a state interleave.
+ */
+public final class SharedState {
+
+    /**
+     * Owner fields and pet ids of the owner documents by owner id
+     */
+    public static final String OWNER_STATES_MAP = "petclinic-owner-states";
+
+    /**
+     * Pets of the owner documents by pet id, partitioned by owner id, see {@link #ownerPetKey(Integer, Integer)}
+     */
+    public static final String OWNER_PETS_MAP = "petclinic-owner-pets";
+
+    /**
+     * States of the pets by pet id
+     */
+    public static final String PET_STATES_MAP = "petclinic-pet-states";
+
+    // Items in flight per processor, see StateMap for the order of the items of a key
+    static final int MAX_CONCURRENT_OPS = 64;
+
+    private SharedState() {
+    }
+
+    /**
+     * Returns the service mapping the items with the states in the map like {@code mapStateful}, for a keyed
+     * {@code mapUsingServiceAsync} with at most {@link #MAX_CONCURRENT_OPS} items in flight, preserving their order
+     * <p>
+     * The mapping function runs on the threads completing the reads, not on a processor thread, it can't update
+     * metrics.
+     */
+    static <T, S, R> ServiceFactory<?, KeyedStateMap<T, R>> stateMapService(
+            String mapName,
+            SupplierEx<S> createFn,
+            TriFunction<S, Integer, T, R> mapFn,
+            MappedStateP.Codec<S> codec
+    ) {
+        // One per processor, the items of a key all reach the same processor
+        return ServiceFactories.nonSharedService(
+                context -> new StateMap<>(context.jetInstance().getMap(mapName), createFn, mapFn, codec));
+    }
+
+    /**
+     * Returns the service mapping the items with the owner states split over the {@value #OWNER_STATES_MAP} and
+     * {@value #OWNER_PETS_MAP} maps, like {@link #stateMapService}
+     *
+     * @param itemFn returns the owner, the pet change or the loaded document of an item
+     */
+    static <T> ServiceFactory<?, KeyedStateMap<T, DocumentChange>> ownerStateMapService(
+            FunctionEx<? super T, ?> itemFn,
+            TriFunction<OwnerMappingState, Integer, T, DocumentChange> mapFn
+    ) {
+        return ServiceFactories.nonSharedService(context -> new OwnerStateMap<>(
+                context.jetInstance().getMap(OWNER_STATES_MAP), context.jetInstance().getMap(OWNER_PETS_MAP),
+                itemFn, mapFn));
+    }
+
+    /**
+     * Returns the configuration of a state map: one backup, and a near cache on the members for the lookups of
+     * other jobs, see {@link #ownerDocument(JetInstance, Integer)}
+     * <p>
+     * The near cache is invalidated by every change of the state, it serves the readers of states that change
+     * rarely.
+     */
+    public static MapConfig mapConfig(String mapName) {
+        return new MapConfig(mapName)
+                .setBackupCount(1)
+                .setNearCacheConfig(new NearCacheConfig(mapName)
+                        .setInMemoryFormat(InMemoryFormat.BINARY)
+                        .setInvalidateOnChange(true));
+    }
+
+    /**
+     * Returns the key of a pet of the owner document in the {@value #OWNER_PETS_MAP} map, kept in the partition of
+     * the owner
+     */
+    public static PartitionAwareKey<Integer, Integer> ownerPetKey(Integer petId, Integer ownerId) {
+        return new PartitionAwareKey<>(petId, ownerId);
+    }
+
+    /**
+     * Reads the owner document from the {@value #OWNER_STATES_MAP} and {@value #OWNER_PETS_MAP} maps, null for no
+     * state or a state with pets of an owner not seen yet
+     * <p>
+     * Can be used by the lookups of other jobs, for example {@code stage.mapUsingService(ServiceFactories
+     * .sharedService(context -> context.jetInstance()), (jet, id) -> SharedState.ownerDocument(jet, id))}.
+     */
+    public static Owner ownerDocument(JetInstance jet, Integer ownerId) {
+        OwnerEntry entry = OwnerEntry.decode(jet.<Integer, byte[]>getMap(OWNER_STATES_MAP).get(ownerId));
+        if (entry == null || entry.owner.firstName == null) {
+            return null;
+        }
+        Set<PartitionAwareKey<Integer, Integer>> keys = new HashSet<>();
+        for (int petId : entry.petIds) {
+            keys.add(ownerPetKey(petId, ownerId));
+        }
+        Map<PartitionAwareKey<Integer, Integer>, byte[]> pets =
+                jet.<PartitionAwareKey<Integer, Integer>, byte[]>getMap(OWNER_PETS_MAP).getAll(keys);
+        Owner owner = entry.owner;
+        for (int petId : entry.petIds) {
+            owner.addPet(decodePet(pets.get(ownerPetKey(petId, ownerId))));
+        }
+        return owner;
+    }
+
+    /**
+     * Maps the items of a processor with the states of their keys, see {@link #stateMapService} and
+     * {@link #ownerStateMapService}
+     */
+    interface KeyedStateMap<T, R> {
+
+        /**
+         * Maps the item with the state of the key once the previous item of the key is mapped, completes with the
+         * result once the changed state is written
+         */
+        CompletableFuture<R> map(Integer key, T item);
+    }
+
+    /**
+     * Keeps the items of a key in order, each is mapped once the one before it completed
+     */
+    private abstract static class OrderedStateMap<T, R> implements KeyedStateMap<T, R> {
+
+        // Result of the last item in flight by key, the next item of the key waits for it
+        private final ConcurrentMap<Integer, CompletableFuture<R>> lastResults = new ConcurrentHashMap<>();
+
+        @Override
+        public CompletableFuture<R> map(Integer key, T item) {
+            CompletableFuture<R> result = new CompletableFuture<>();
+            CompletableFuture<R> previous = lastResults.put(key, result);
+            if (previous == null) {
+                mapWithState(key, item, result);
+            } else {
+                previous.whenComplete((ignored, e) -> mapWithState(key, item, result));
+            }
+            return result;
+        }
+
+        abstract void mapWithState(Integer key, T item, CompletableFuture<R> result);
+
+        void complete(Integer key, CompletableFuture<R> result, R mapped, Throwable error) {
+            lastResults.remove(key, result);
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                result.complete(mapped);
+            }
+        }
+    }
+
+    /**
+     * Maps the items of a processor with the states of their keys in the map
+     * <p>
+     * The items of a key are mapped one after the other, each reads the state written by the previous one. The
+     * items of different keys are mapped concurrently.
+     */
+    static final class StateMap<T, S, R> extends OrderedStateMap<T, R> {
+
+        private final IMap<Integer, byte[]> map;
+        private final SupplierEx<S> createFn;
+        private final TriFunction<S, Integer, T, R> mapFn;
+        private final MappedStateP.Codec<S> codec;
+
+        StateMap(IMap<Integer, byte[]> map, SupplierEx<S> createFn, TriFunction<S, Integer, T, R> mapFn,
+                 MappedStateP.Codec<S> codec) {
+            this.map = map;
+            this.createFn = createFn;
+            this.mapFn = mapFn;
+            this.codec = codec;
+        }
+
+        // Only callbacks on the futures of the map, stages composed by CompletableFuture aren't completed by them
+        @Override
+        void mapWithState(Integer key, T item, CompletableFuture<R> result) {
+            map.getAsync(key).whenComplete((encoded, readError) -> {
+                if (readError != null) {
+                    complete(key, result, null, readError);
+                    return;
+                }
+                R mapped;
+                byte[] changed;
+                try {
+                    S state = encoded == null ? createFn.get() : codec.decode(encoded, false);
+                    mapped = mapFn.apply(state, key, item);
+                    changed = codec.encode(state);
+                } catch (Throwable e) {
+                    complete(key, result, null, e);
+                    return;
+                }
+                map.setAsync(key, changed).whenComplete((ignored, writeError) ->
+                        complete(key, result, mapped, writeError));
+            });
+        }
+    }
+
+    /**
+     * Maps the items of a processor with the owner states split into the owner fields and the pets
+     * <p>
+     * An item reads the owner fields with the pet ids, and the pets only when it may emit the full document, see
+     * {@link OwnerMappingState#mayEmitFullDocument(boolean, Object)}. Otherwise the state holds placeholders with
+     * only the ids of the pets it didn't read. After the item is mapped only the pets it replaced are written, and
+     * the owner fields when they changed. The changes other than the full document carry the owner without pets,
+     * as when they are sent between members.
+     */
+    static final class OwnerStateMap<T> extends OrderedStateMap<T, DocumentChange> {
+
+        private final IMap<Integer, byte[]> owners;
+        private final IMap<PartitionAwareKey<Integer, Integer>, byte[]> pets;
+        private final FunctionEx<? super T, ?> itemFn;
+        private final TriFunction<OwnerMappingState, Integer, T, DocumentChange> mapFn;
+
+        OwnerStateMap(IMap<Integer, byte[]> owners, IMap<PartitionAwareKey<Integer, Integer>, byte[]> pets,
+                      FunctionEx<? super T, ?> itemFn,
+                      TriFunction<OwnerMappingState, Integer, T, DocumentChange> mapFn) {
+            this.owners = owners;
+            this.pets = pets;
+            this.itemFn = itemFn;
+            this.mapFn = mapFn;
+        }
+
+        @Override
+        void mapWithState(Integer key, T item, CompletableFuture<DocumentChange> result) {
+            owners.getAsync(key).whenComplete((encoded, readError) -> {
+                if (readError != null) {
+                    complete(key, result, null, readError);
+                    return;
+                }
+                OwnerEntry entry;
+                boolean readPets;
+                try {
+                    entry = OwnerEntry.decode(encoded);
+                    readPets = entry != null && entry.petIds.length > 0
+                            && OwnerMappingState.mayEmitFullDocument(entry.indexed, itemFn.apply(item));
+                } catch (Throwable e) {
+                    complete(key, result, null, e);
+                    return;
+                }
+                if (!readPets) {
+                    mapAndWrite(key, item, entry, encoded, null, result);
+                    return;
+                }
+
+                Pet[] read = new Pet[entry.petIds.length];
+                AtomicInteger remaining = new AtomicInteger(read.length);
+                AtomicReference<Throwable> error = new AtomicReference<>();
+                for (int i = 0; i < read.length; i++) {
+                    int index = i;
+                    pets.getAsync(ownerPetKey(entry.petIds[i], key)).whenComplete((pet, petError) -> {
+                        try {
+                            if (petError != null) {
+                                error.compareAndSet(null, petError);
+                            } else {
+                                read[index] = decodePet(pet);
+                            }
+                        } catch (Throwable e) {
+                            error.compareAndSet(null, e);
+                        }
+                        if (remaining.decrementAndGet() == 0) {
+                            if (error.get() != null) {
+                                complete(key, result, null, error.get());
+                            } else {
+                                mapAndWrite(key, item, entry, encoded, read, result);
+                            }
+                        }
+                    });
+                }
+            });
+        }
+
+        /**
+         * Maps the item with the owner state, and writes the owner fields and the pets it changed
+         *
+         * @param read the pets of the document in their order, null when only their ids are known
+         */
+        private void mapAndWrite(Integer key, T item, OwnerEntry entry, byte[] encoded, Pet[] read,
+                                 CompletableFuture<DocumentChange> result) {
+            DocumentChange change;
+            byte[] changedEntry;
+            Map<PartitionAwareKey<Integer, Integer>, byte[]> changedPets = new HashMap<>();
+            try {
+                OwnerMappingState state = new OwnerMappingState();
+                Map<Integer, Pet> previousPets = new HashMap<>();
+                if (entry != null) {
+                    state.indexed = entry.indexed;
+                    state.owner = entry.owner;
+                    for (int i = 0; i < entry.petIds.length; i++) {
+                        Pet pet = read != null ? read[i] : new Pet(entry.petIds[i]);
+                        previousPets.put(pet.id, pet);
+                        state.owner.addPet(pet);
+                    }
+                }
+                change = mapFn.apply(state, key, item);
+
+                Owner owner = state.owner();
+                if (change != null && change.type == DocumentChange.Type.FULL && read == null && entry != null
+                        && entry.petIds.length > 0) {
+                    throw new IllegalStateException("Full document of owner " + key + " emitted without its pets");
+                }
+                if (change != null && change.type != DocumentChange.Type.FULL) {
+                    change = change.withDocument(new Owner(owner.id, owner.firstName, owner.lastName));
+                }
+                if (owner != null && owner.pets != null) {
+                    for (Pet pet : owner.pets) {
+                        if (previousPets.get(pet.id) != pet) {
+                            changedPets.put(ownerPetKey(pet.id, key), encodePet(pet));
+                        }
+                    }
+                }
+                changedEntry = owner == null ? null : OwnerEntry.encode(state.indexed, owner);
+            } catch (Throwable e) {
+                complete(key, result, null, e);
+                return;
+            }
+
+            List<CompletableFuture<Void>> writes = new ArrayList<>();
+            changedPets.forEach((petKey, pet) -> writes.add(pets.setAsync(petKey, pet).toCompletableFuture()));
+            if (changedEntry != null && !Arrays.equals(changedEntry, encoded)) {
+                writes.add(owners.setAsync(key, changedEntry).toCompletableFuture());
+            }
+            if (writes.isEmpty()) {
+                complete(key, result, change, null);
+                return;
+            }
+            DocumentChange mapped = change;
+            AtomicInteger remaining = new AtomicInteger(writes.size());
+            AtomicReference<Throwable> error = new AtomicReference<>();
+            for (CompletableFuture<Void> write : writes) {
+                write.whenComplete((ignored, writeError) -> {
+                    if (writeError != null) {
+                        error.compareAndSet(null, writeError);
+                    }
+                    if (remaining.decrementAndGet() == 0) {
+                        complete(key, result, mapped, error.get());
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * The owner fields of an owner state with the ids of its pets in the order of the document
+     */
+    private static final class OwnerEntry {
+
+        final boolean indexed;
+        final Owner owner;
+        final int[] petIds;
+
+        private OwnerEntry(boolean indexed, Owner owner, int[] petIds) {
+            this.indexed = indexed;
+            this.owner = owner;
+            this.petIds = petIds;
+        }
+
+        static byte[] encode(boolean indexed, Owner owner) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            try {
+                DataOutputStream out = new DataOutputStream(bytes);
+                ModelEncoding.writeVersion(out);
+                out.writeBoolean(indexed);
+                ModelEncoding.writeOwner(out, owner, false);
+                out.writeInt(owner.pets == null ? 0 : owner.pets.size());
+                if (owner.pets != null) {
+                    for (Pet pet : owner.pets) {
+                        out.writeInt(pet.id);
+                    }
+                }
+            } catch (IOException e) {
+                // Not thrown when writing to memory
+                throw new UncheckedIOException(e);
+            }
+            return bytes.toByteArray();
+        }
+
+        /**
+         * Returns the entry of the encoding, null for no encoding
+         */
+        static OwnerEntry decode(byte[] encoded) {
+            if (encoded == null) {
+                return null;
+            }
+            try {
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+                ModelEncoding.readVersion(in);
+                boolean indexed = in.readBoolean();
+                Owner owner = ModelEncoding.readOwner(in);
+                int[] petIds = new int[in.readInt()];
+                for (int i = 0; i < petIds.length; i++) {
+                    petIds[i] = in.readInt();
+                }
+                return new OwnerEntry(indexed, owner, petIds);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Corrupted owner state encoding", e);
+            }
+        }
+    }
+
+    private static byte[] encodePet(Pet pet) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            ModelEncoding.writeVersion(out);
+            ModelEncoding.writePet(out, pet);
+        } catch (IOException e) {
+            // Not thrown when writing to memory
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Pet decodePet(byte[] encoded) {
+        if (encoded == null) {
+            throw new IllegalStateException("Pet of an owner state is missing in " + OWNER_PETS_MAP);
+        }
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+            ModelEncoding.readVersion(in);
+            return ModelEncoding.readPet(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Corrupted pet encoding", e);
+        }
+    }
+}
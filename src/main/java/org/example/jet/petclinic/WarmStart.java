@@ -0,0 +1,404 @@
+package org.example.jet.petclinic;
+
+import com.hazelcast.function.SupplierEx;
+import com.hazelcast.jet.Traverser;
+import com.hazelcast.jet.Traversers;
+import com.hazelcast.jet.core.AbstractProcessor;
+import com.hazelcast.jet.core.Processor;
+import com.hazelcast.jet.datamodel.TimestampedItem;
+import com.hazelcast.jet.datamodel.Tuple2;
+import com.hazelcast.jet.json.JsonUtil;
+import com.hazelcast.jet.pipeline.SourceBuilder;
+import com.hazelcast.jet.pipeline.SourceBuilder.SourceBuffer;
+import com.hazelcast.jet.pipeline.StreamSource;
+import org.elasticsearch.action.search.ClearScrollRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClientBuilder;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import com.hazelcast.map.IMap;
+import org.elasticsearch.search.slice.SliceBuilder;
+import org.example.jet.petclinic.model.DocumentChange;
+import org.example.jet.petclinic.model.Owner;
+import org.example.jet.petclinic.model.Pet;
+import org.example.jet.petclinic.model.Visit;
+import org.example.jet.petclinic.util.IntObjectMap;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static com.hazelcast.jet.datamodel.Tuple2.tuple2;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Warm start of the join states from the owner documents already in the index
+ * <p>
+ * A restarted job without a snapshot would otherwise rebuild its states from the change stream alone, writing
+ * every document it streams to the index again. Instead the documents are read back from the index by parallel
+ * sliced scrolls and sent to the states like the documents of the initial load, see
+ * {@link PetClinicIndexJob#indexRecords}.
+ * <p>
+ * The connector takes its Debezium snapshot and streams the whole database, the index may miss changes made while
+ * no job was running and there is no position they could be streamed from. The streamed rows are held back until
+ * the whole index has been read, see {@link AwaitIndexReadP}, so the indexed copy of a row is seen before the row.
+ * A row the index already has is then dropped before its keywords are extracted, see {@link SkipIndexedRowsP},
+ * only the changed and the new rows reach the joins and are written again.
+ */
+final class WarmStart {
+
+    /**
+     * Slices of the index read completely, the key is the slice and the number of slices, like {@code 2/8}
+     */
+    static final String STATUS_MAP = "petclinic-warm-start";
+
+    // Kept by Elasticsearch between two batches of a scroll
+    private static final TimeValue SCROLL_KEEP_ALIVE = TimeValue.timeValueMinutes(1);
+
+    private static final long POLL_INTERVAL_NANOS = MILLISECONDS.toNanos(100);
+
+    // Keys of the pets and their visits in SkipIndexedRowsP, the owners have the owner id as the key
+    private static final long PET_KEYS = 1L << 32;
+
+    private WarmStart() {
+    }
+
+    /**
+     * Emits the documents of the index, then nothing
+     * <p>
+     * Each processor scrolls its own slice of the index, the slices of all processors of the cluster cover the
+     * whole index. The local parallelism of the stage sets the number of slices read in parallel by each member.
+     * The snapshot records which slices have been read completely, a job restarted from it reads the others from
+     * their start again, their documents are merged by the states with what they already have. A slice read
+     * completely is recorded in the {@value #STATUS_MAP} map.
+     *
+     * @param batchSize number of documents read by each request of a scroll
+     */
+    static StreamSource<Owner> indexedDocuments(SupplierEx<RestClientBuilder> clientFn, String index, int batchSize) {
+        return SourceBuilder.stream("indexedDocuments",
+                context -> new SliceReader(new RestHighLevelClient(clientFn.get()), index, batchSize, context))
+                            .<Owner>fillBufferFn(SliceReader::fillBuffer)
+                            .createSnapshotFn(SliceReader::snapshot)
+                            .restoreSnapshotFn(SliceReader::restore)
+                            .destroyFn(SliceReader::close)
+                            .distributed(1)
+                            .build();
+    }
+
+    /**
+     * Returns the key partitioning the rows and the indexed documents for {@link SkipIndexedRowsP}: the owner id
+     * for owners, the pet id for pets and visits
+     */
+    static Long rowKey(TimestampedItem<Object> item) {
+        if (PetClinicIndexJob.isOwnerItem(item.item())) {
+            return (long) PetClinicIndexJob.ownerId(item.item());
+        }
+        return PET_KEYS | PetClinicIndexJob.petId(item.item()) & 0xFFFF_FFFFL;
+    }
+
+    private static final class SliceReader {
+
+        private final RestHighLevelClient client;
+        private final IMap<String, Boolean> status;
+        private final SearchRequest searchRequest;
+        private final int slice;
+        private final int slices;
+
+        private String scrollId;
+        private boolean done;
+
+        private SliceReader(RestHighLevelClient client, String index, int batchSize, Processor.Context context) {
+            this.client = client;
+            this.status = context.jetInstance().getMap(STATUS_MAP);
+            this.slice = context.globalProcessorIndex();
+            this.slices = context.totalParallelism();
+            SearchSourceBuilder source = new SearchSourceBuilder().size(batchSize).sort("_doc");
+            if (context.totalParallelism() > 1) {
+                source.slice(new SliceBuilder(context.globalProcessorIndex(), context.totalParallelism()));
+            }
+            this.searchRequest = new SearchRequest(index).scroll(SCROLL_KEEP_ALIVE).source(source);
+        }
+
+        private void fillBuffer(SourceBuffer<Owner> buffer) throws IOException {
+            if (done) {
+                return;
+            }
+            SearchResponse response = scrollId == null
+                    ? client.search(searchRequest, RequestOptions.DEFAULT)
+                    : client.scroll(new SearchScrollRequest(scrollId).scroll(SCROLL_KEEP_ALIVE), RequestOptions.DEFAULT);
+            scrollId = response.getScrollId();
+
+            SearchHit[] hits = response.getHits().getHits();
+            for (SearchHit hit : hits) {
+                buffer.add(document(hit.getSourceAsString()));
+            }
+            if (hits.length == 0) {
+                done = true;
+                clearScroll();
+                markRead();
+            }
+        }
+
+        private void markRead() {
+            status.put(slice + "/" + slices, Boolean.TRUE);
+        }
+
+        /**
+         * Returns the slice and whether it has been read completely, the scroll is not kept
+         */
+        private Tuple2<Integer, Boolean> snapshot() {
+            return tuple2(slice, done);
+        }
+
+        /**
+         * Restores the states of all slices, this slice is done only if it was read completely into the same
+         * number of slices
+         */
+        private void restore(List<Tuple2<Integer, Boolean>> states) {
+            done = states.size() == slices && states.contains(tuple2(slice, true));
+            if (done) {
+                // The map may have been cleared for a new job started from the snapshot
+                markRead();
+            }
+        }
+
+        private void clearScroll() throws IOException {
+            if (scrollId != null) {
+                ClearScrollRequest request = new ClearScrollRequest();
+                request.addScrollId(scrollId);
+                client.clearScroll(request, RequestOptions.DEFAULT);
+                scrollId = null;
+            }
+        }
+
+        private void close() throws IOException {
+            try {
+                if (!done) {
+                    // Frees the scroll of a cancelled job before it expires
+                    clearScroll();
+                }
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    /**
+     * Holds the streamed rows back until every slice of the index has been read, see {@link #STATUS_MAP}
+     * <p>
+     * The rows stay in the connector meanwhile, the processor doesn't take them from its inbox. A snapshot waits
+     * until the rows are let through.
+     */
+    static final class AwaitIndexReadP extends AbstractProcessor {
+
+        private IMap<String, Boolean> status;
+        private long lastPoll;
+        private boolean read;
+
+        @Override
+        protected void init(Context context) {
+            status = context.jetInstance().getMap(STATUS_MAP);
+            lastPoll = System.nanoTime() - POLL_INTERVAL_NANOS;
+        }
+
+        @Override
+        protected boolean tryProcess0(Object item) {
+            if (!read && !pollRead()) {
+                return false;
+            }
+            return tryEmit(item);
+        }
+
+        /**
+         * Returns whether all slices of one slicing of the index have been read, checking the map at most every
+         * poll interval
+         */
+        private boolean pollRead() {
+            long now = System.nanoTime();
+            if (now - lastPoll < POLL_INTERVAL_NANOS) {
+                return false;
+            }
+            lastPoll = now;
+            Map<Integer, Integer> readSlices = new HashMap<>();
+            for (String key : status.keySet()) {
+                readSlices.merge(Integer.parseInt(key.substring(key.indexOf('/') + 1)), 1, Integer::sum);
+            }
+            read = readSlices.entrySet().stream().anyMatch(entry -> entry.getKey().equals(entry.getValue()));
+            return read;
+        }
+    }
+
+    /**
+     * Drops the streamed rows the index already has, before their keywords are extracted and they are joined again
+     * <p>
+     * Receives the rows and the indexed documents as loaded items, see {@link PetClinicIndexJob#indexRecords},
+     * partitioned by {@link #rowKey}. It keeps the owner fields of the indexed owners and the indexed pets with
+     * their visits. A row is dropped the first time it's streamed if the indexed copy has the same fields, later
+     * rows of the same key are changes and pass. The loaded items pass on to the joins.
+     * <p>
+     * An indexed owner is forgotten once its row is streamed, an indexed pet once its row and the rows of all its
+     * indexed visits are. The rows of the index the database no longer has are kept until the job ends.
+     */
+    static final class SkipIndexedRowsP extends AbstractProcessor {
+
+        private final IntObjectMap<Owner> owners = new IntObjectMap<>();
+        private final IntObjectMap<IndexedPet> pets = new IntObjectMap<>();
+
+        // Whether the item being emitted has already been checked
+        private boolean checked;
+        private Traverser<Map.Entry<Long, Object>> snapshotTraverser;
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected boolean tryProcess0(Object item) {
+            if (!checked) {
+                if (isIndexed(((TimestampedItem<Object>) item).item())) {
+                    return true;
+                }
+                checked = true;
+            }
+            if (!tryEmit(item)) {
+                return false;
+            }
+            checked = false;
+            return true;
+        }
+
+        @Override
+        public boolean saveToSnapshot() {
+            if (snapshotTraverser == null) {
+                List<Map.Entry<Long, Object>> entries = new ArrayList<>(owners.size() + pets.size());
+                for (IntObjectMap<Owner>.Cursor cursor = owners.cursor(); cursor.advance(); ) {
+                    entries.add(new SimpleImmutableEntry<>((long) cursor.key(), cursor.value()));
+                }
+                for (IntObjectMap<IndexedPet>.Cursor cursor = pets.cursor(); cursor.advance(); ) {
+                    entries.add(new SimpleImmutableEntry<>(PET_KEYS | cursor.key() & 0xFFFF_FFFFL, cursor.value()));
+                }
+                snapshotTraverser = Traversers.traverseIterable(entries);
+            }
+            if (!emitFromTraverserToSnapshot(snapshotTraverser)) {
+                return false;
+            }
+            snapshotTraverser = null;
+            return true;
+        }
+
+        @Override
+        protected void restoreFromSnapshot(Object key, Object value) {
+            if (value instanceof IndexedPet) {
+                pets.put((int) (long) (Long) key, (IndexedPet) value);
+            } else {
+                owners.put((int) (long) (Long) key, (Owner) value);
+            }
+        }
+
+        /**
+         * Keeps the indexed copy of a loaded item, returns whether a row is the same as its indexed copy
+         */
+        private boolean isIndexed(Object item) {
+            if (item instanceof DocumentChange) {
+                DocumentChange loaded = (DocumentChange) item;
+                if (loaded.document != null) {
+                    Owner document = loaded.document;
+                    owners.put(document.id, new Owner(document.id, document.firstName, document.lastName));
+                } else {
+                    pets.put(loaded.pet.id, new IndexedPet(loaded.pet));
+                }
+                return false;
+            } else if (item instanceof Owner) {
+                Owner owner = (Owner) item;
+                Owner indexed = owners.remove(owner.id);
+                return indexed != null && Objects.equals(indexed.firstName, owner.firstName)
+                        && Objects.equals(indexed.lastName, owner.lastName);
+            } else if (item instanceof Pet) {
+                Pet pet = (Pet) item;
+                IndexedPet indexed = pets.get(pet.id);
+                if (indexed == null || indexed.petStreamed) {
+                    return false;
+                }
+                indexed.petStreamed = true;
+                forgetWhenStreamed(indexed);
+                return Objects.equals(indexed.pet.name, pet.name) && Objects.equals(indexed.pet.ownerId, pet.ownerId);
+            } else if (item instanceof Visit) {
+                Visit visit = (Visit) item;
+                IndexedPet indexed = pets.get(visit.petId);
+                int position = indexed == null ? -1 : indexed.position(visit);
+                if (position < 0 || indexed.streamedVisits.get(position)) {
+                    return false;
+                }
+                indexed.streamedVisits.set(position);
+                forgetWhenStreamed(indexed);
+                Visit indexedVisit = indexed.pet.visits.get(position);
+                return Objects.equals(indexedVisit.visitDate, visit.visitDate)
+                        && Objects.equals(indexedVisit.description, visit.description);
+            } else {
+                throw new IllegalArgumentException("Unknown type " + item.getClass());
+            }
+        }
+
+        private void forgetWhenStreamed(IndexedPet indexed) {
+            int visits = indexed.pet.visits == null ? 0 : indexed.pet.visits.size();
+            if (indexed.petStreamed && indexed.streamedVisits.cardinality() == visits) {
+                pets.remove(indexed.pet.id);
+            }
+        }
+    }
+
+    /**
+     * An indexed pet with the parts of it streamed since it was read
+     */
+    private static final class IndexedPet implements Serializable {
+
+        final Pet pet;
+        boolean petStreamed;
+
+        // Positions of the streamed visits in the visits of the pet
+        final BitSet streamedVisits = new BitSet();
+
+        IndexedPet(Pet pet) {
+            this.pet = pet;
+        }
+
+        /**
+         * Returns the position of the indexed copy of the visit, -1 when the pet doesn't have it
+         */
+        int position(Visit visit) {
+            if (pet.visits != null) {
+                for (int i = 0; i < pet.visits.size(); i++) {
+                    if (pet.visits.get(i).isSameVisit(visit)) {
+                        return i;
+                    }
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the owner document of the JSON source of an indexed document, see
+     * {@link org.example.jet.petclinic.serialization.DocumentJsonWriter}
+     */
+    static Owner document(String json) throws IOException {
+        Owner document = JsonUtil.beanFrom(json, Owner.class);
+        if (document.pets != null) {
+            for (Pet pet : document.pets) {
+                // The state of a pet without its owner doesn't emit the changes of the pet
+                if (pet.ownerId == null) {
+                    pet.ownerId = document.id;
+                }
+            }
+        }
+        return document;
+    }
+}
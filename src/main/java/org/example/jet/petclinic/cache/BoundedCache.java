@@ -0,0 +1,137 @@
+package org.example.jet.petclinic.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Thread safe cache holding at most a given number of entries
+ * <p>
+ * Two eviction policies are supported:
+ * <ul>
+ *     <li>{@link EvictionPolicy#LRU} evicts the least recently used entry</li>
+ *     <li>{@link EvictionPolicy#W_TINY_LFU} puts new entries to a small LRU window, entries evicted from
+ *     the window are admitted to the main LRU space only if they were requested more often than the entry
+ *     they would evict, see {@link FrequencySketch}. This keeps the frequently repeated entries in
+ *     the cache when there are bursts of entries seen only once.</li>
+ * </ul>
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class BoundedCache<K, V> {
+
+    public enum EvictionPolicy {
+        LRU,
+        W_TINY_LFU
+    }
+
+    private static final int WINDOW_PERCENTAGE = 1;
+
+    private final int windowSize;
+    private final int mainSize;
+
+    // Both in access order, eldest entry first
+    private final LinkedHashMap<K, V> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<K, V> main = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final FrequencySketch<K> sketch;
+
+    private long hits;
+    private long misses;
+
+    public BoundedCache(int maximumSize, EvictionPolicy evictionPolicy) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximumSize must be positive, was " + maximumSize);
+        }
+
+        if (evictionPolicy == EvictionPolicy.W_TINY_LFU) {
+            this.windowSize = maximumSize * WINDOW_PERCENTAGE / 100;
+            this.sketch = new FrequencySketch<>(maximumSize);
+        } else {
+            this.windowSize = 0;
+            this.sketch = null;
+        }
+        this.mainSize = maximumSize - windowSize;
+    }
+
+    /**
+     * Returns the value cached for the key or null
+     */
+    public synchronized V get(K key) {
+        if (sketch != null) {
+            sketch.increment(key);
+        }
+
+        V value = window.get(key);
+        if (value == null) {
+            value = main.get(key);
+        }
+
+        if (value == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return value;
+    }
+
+    public synchronized void put(K key, V value) {
+        if (window.containsKey(key)) {
+            window.put(key, value);
+            return;
+        }
+        if (main.containsKey(key)) {
+            main.put(key, value);
+            return;
+        }
+
+        if (sketch == null) {
+            main.put(key, value);
+            if (main.size() > mainSize) {
+                removeEldest(main);
+            }
+        } else {
+            window.put(key, value);
+            if (window.size() > windowSize) {
+                Map.Entry<K, V> candidate = removeEldest(window);
+                admit(candidate.getKey(), candidate.getValue());
+            }
+        }
+    }
+
+    private void admit(K key, V value) {
+        if (main.size() < mainSize) {
+            main.put(key, value);
+            return;
+        }
+        if (mainSize == 0) {
+            return;
+        }
+
+        K victim = main.keySet().iterator().next();
+        if (sketch.frequency(key) > sketch.frequency(victim)) {
+            main.remove(victim);
+            main.put(key, value);
+        }
+    }
+
+    private static <K, V> Map.Entry<K, V> removeEldest(LinkedHashMap<K, V> map) {
+        Iterator<Map.Entry<K, V>> it = map.entrySet().iterator();
+        Map.Entry<K, V> eldest = it.next();
+        it.remove();
+        return eldest;
+    }
+
+    public synchronized int size() {
+        return window.size() + main.size();
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+}
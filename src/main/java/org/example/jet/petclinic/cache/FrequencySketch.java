@@ -0,0 +1,72 @@
+package org.example.jet.petclinic.cache;
+
+/**
+ * Approximate access frequency of keys
+ * <p>
+ * A count-min sketch with 4 hash functions over 4-bit counters saturating at 15, 16 counters are packed
+ * in a long and there is a long per cache entry. All counters are halved once the number of increments
+ * reaches 10 times the cache size, so the frequencies follow the recent history.
+ */
+final class FrequencySketch<K> {
+
+    private static final int HASHES = 4;
+    private static final long MAX_COUNT = 15;
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int[] SEEDS = {0x97cb3127, 0xb5ad4ece, 0x7a5b7d83, 0x64a0d5b1};
+
+    private final long[] table;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(int maximumSize) {
+        int width = Integer.highestOneBit(Math.max(maximumSize, 8) - 1) << 1;
+        this.table = new long[width];
+        this.mask = width - 1;
+        this.sampleSize = 10 * Math.max(maximumSize, 8);
+    }
+
+    void increment(K key) {
+        int hash = spread(key.hashCode());
+        for (int i = 0; i < HASHES; i++) {
+            int h = hash(hash, i);
+            int index = h & mask;
+            int offset = (h >>> 28) << 2;
+            if (((table[index] >>> offset) & MAX_COUNT) < MAX_COUNT) {
+                table[index] += 1L << offset;
+            }
+        }
+
+        if (++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    int frequency(K key) {
+        int hash = spread(key.hashCode());
+        long frequency = MAX_COUNT;
+        for (int i = 0; i < HASHES; i++) {
+            int h = hash(hash, i);
+            int offset = (h >>> 28) << 2;
+            frequency = Math.min(frequency, (table[h & mask] >>> offset) & MAX_COUNT);
+        }
+        return (int) frequency;
+    }
+
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions /= 2;
+    }
+
+    private static int hash(int hash, int i) {
+        int h = (hash ^ SEEDS[i]) * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int spread(int hash) {
+        int h = hash * 0x85ebca6b;
+        return h ^ (h >>> 13);
+    }
+}
@@ -0,0 +1,56 @@
+package org.example.jet.petclinic.elastic;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Number of actions in the next bulk request, adapted to the observed bulk latency
+ * <p>
+ * Additive increase, multiplicative decrease: the size grows by the minimum size after a full bulk request
+ * completed within the target latency, and halves after a slower one or after a rejection. A size with the same
+ * minimum and maximum is fixed.
+ */
+class AdaptiveBulkSize implements Serializable {
+
+    private final int min;
+    private final int max;
+    private final long targetLatencyNanos;
+
+    private int current;
+
+    /**
+     * @param min                 minimum size, also the initial size and the increase step
+     * @param max                 maximum size
+     * @param targetLatencyMillis latency the bulk requests should stay under
+     */
+    AdaptiveBulkSize(int min, int max, long targetLatencyMillis) {
+        if (min <= 0 || max < min) {
+            throw new IllegalArgumentException("Bulk size must be 0 < min <= max, was min=" + min + ", max=" + max);
+        }
+        this.min = min;
+        this.max = max;
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+        this.current = min;
+    }
+
+    int current() {
+        return current;
+    }
+
+    void onCompleted(int actions, long latencyNanos) {
+        if (latencyNanos > targetLatencyNanos) {
+            decrease();
+        } else if (actions >= current) {
+            // A smaller request says nothing about the latency of a full one
+            current = Math.min(current + min, max);
+        }
+    }
+
+    void onRejected() {
+        decrease();
+    }
+
+    private void decrease() {
+        current = Math.max(current / 2, min);
+    }
+}
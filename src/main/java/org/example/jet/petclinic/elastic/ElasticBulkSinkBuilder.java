@@ -0,0 +1,327 @@
+package org.example.jet.petclinic.elastic;
+
+import com.hazelcast.function.ConsumerEx;
+import com.hazelcast.function.FunctionEx;
+import com.hazelcast.function.SupplierEx;
+import com.hazelcast.jet.JetException;
+import com.hazelcast.jet.core.metrics.Metric;
+import com.hazelcast.jet.core.metrics.Metrics;
+import com.hazelcast.jet.core.metrics.Unit;
+import com.hazelcast.jet.pipeline.Sink;
+import com.hazelcast.jet.pipeline.SinkBuilder;
+import com.hazelcast.logging.ILogger;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClientBuilder;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.rest.RestStatus;
+import org.example.jet.petclinic.util.HistogramMetric;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Builder for an Elasticsearch sink with a bounded bulk request size
+ * <p>
+ * Works like the sink from {@code ElasticSinks.builder()}, which sends everything received in one call as a single
+ * bulk request. This sink splits it into bulk requests of at most the bulk size, either fixed or adapted to the
+ * observed latency. A bulk request failed on I/O or rejected by an overloaded cluster is retried with exponential
+ * backoff, as are the actions rejected with 429 inside a successful bulk request. Elasticsearch rejects all
+ * actions of a shard together, so the actions of a document are still applied in order.
+ * <p>
+ * Each processor reports its current bulk size as the {@code elasticBulkSize} metric, the latency of its last
+ * bulk request as {@code elasticBulkLatency} and the number of rejected bulk requests as
+ * {@code elasticBulkRejections}. The latencies of all its bulk requests in milliseconds are reported as the
+ * {@code elasticBulkLatency} histogram, see {@link HistogramMetric}.
+ * <p>
+ * Each processor has its own client and waits for its bulk request to complete. Jet limits the preferred local
+ * parallelism to the number of cores, set the local parallelism of the sink stage to run more of them.
+ *
+ * @param <T> type of the items written to the sink
+ */
+public final class ElasticBulkSinkBuilder<T> implements Serializable {
+
+    private static final int DEFAULT_MAX_BULK_ACTIONS = 1000;
+    private static final int DEFAULT_RETRIES = 5;
+    private static final int DEFAULT_LOCAL_PARALLELISM = 2;
+    private static final long INITIAL_RETRY_DELAY_MILLIS = 100;
+    private static final long MAX_RETRY_DELAY_MILLIS = 10_000;
+    private static final HistogramMetric BULK_LATENCY = new HistogramMetric("elasticBulkLatency", Unit.MS,
+            10, 25, 50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000);
+
+    private SupplierEx<RestClientBuilder> clientFn;
+    private FunctionEx<? super T, ? extends DocWriteRequest<?>> mapToRequestFn;
+    private ConsumerEx<? super T> indexedFn = item -> { };
+    private int minBulkActions = DEFAULT_MAX_BULK_ACTIONS;
+    private int maxBulkActions = DEFAULT_MAX_BULK_ACTIONS;
+    private long targetLatencyMillis;
+    private int retries = DEFAULT_RETRIES;
+
+    /**
+     * Creates the client, called once per processor
+     */
+    public ElasticBulkSinkBuilder<T> clientFn(SupplierEx<RestClientBuilder> clientFn) {
+        this.clientFn = requireNonNull(clientFn, "clientFn");
+        return this;
+    }
+
+    /**
+     * Maps an item to the request added to the bulk request
+     */
+    @SuppressWarnings("unchecked")
+    public <T_NEW> ElasticBulkSinkBuilder<T_NEW> mapToRequestFn(
+            FunctionEx<? super T_NEW, ? extends DocWriteRequest<?>> mapToRequestFn
+    ) {
+        ElasticBulkSinkBuilder<T_NEW> builder = (ElasticBulkSinkBuilder<T_NEW>) this;
+        builder.mapToRequestFn = requireNonNull(mapToRequestFn, "mapToRequestFn");
+        return builder;
+    }
+
+    /**
+     * Called on the processor thread with each item once Elasticsearch has acknowledged its request
+     */
+    public ElasticBulkSinkBuilder<T> indexedFn(ConsumerEx<? super T> indexedFn) {
+        this.indexedFn = requireNonNull(indexedFn, "indexedFn");
+        return this;
+    }
+
+    /**
+     * Fixed maximum number of actions in a single bulk request, default 1000
+     */
+    public ElasticBulkSinkBuilder<T> maxBulkActions(int maxBulkActions) {
+        return adaptiveBulkActions(maxBulkActions, maxBulkActions, 0);
+    }
+
+    /**
+     * Number of actions in a single bulk request adapted to the latency, see {@link AdaptiveBulkSize}
+     *
+     * @param minBulkActions      minimum and initial number of actions
+     * @param maxBulkActions      maximum number of actions
+     * @param targetLatencyMillis latency the bulk requests should stay under
+     */
+    public ElasticBulkSinkBuilder<T> adaptiveBulkActions(int minBulkActions, int maxBulkActions, long targetLatencyMillis) {
+        if (minBulkActions <= 0 || maxBulkActions < minBulkActions) {
+            throw new IllegalArgumentException("Bulk actions must be 0 < min <= max, was min=" + minBulkActions
+                    + ", max=" + maxBulkActions);
+        }
+        this.minBulkActions = minBulkActions;
+        this.maxBulkActions = maxBulkActions;
+        this.targetLatencyMillis = targetLatencyMillis;
+        return this;
+    }
+
+    /**
+     * Number of times a failed bulk request is retried, default 5
+     */
+    public ElasticBulkSinkBuilder<T> retries(int retries) {
+        if (retries < 0) {
+            throw new IllegalArgumentException("retries must not be negative, was " + retries);
+        }
+        this.retries = retries;
+        return this;
+    }
+
+    public Sink<T> build() {
+        requireNonNull(clientFn, "clientFn is not set");
+        requireNonNull(mapToRequestFn, "mapToRequestFn is not set");
+
+        SupplierEx<RestClientBuilder> clientFn = this.clientFn;
+        FunctionEx<? super T, ? extends DocWriteRequest<?>> mapToRequestFn = this.mapToRequestFn;
+        ConsumerEx<? super T> indexedFn = this.indexedFn;
+        int minBulkActions = this.minBulkActions;
+        int maxBulkActions = this.maxBulkActions;
+        long targetLatencyMillis = this.targetLatencyMillis;
+        int retries = this.retries;
+
+        return SinkBuilder.sinkBuilder("elasticSink", context -> new BulkContext<T>(
+                new RestHighLevelClient(clientFn.get()),
+                mapToRequestFn,
+                indexedFn,
+                new AdaptiveBulkSize(minBulkActions, maxBulkActions, targetLatencyMillis),
+                retries,
+                context.logger()
+        ))
+                          .<T>receiveFn(BulkContext::add)
+                          .flushFn(BulkContext::flush)
+                          .destroyFn(BulkContext::close)
+                          .preferredLocalParallelism(DEFAULT_LOCAL_PARALLELISM)
+                          .build();
+    }
+
+    private static final class BulkContext<T> {
+
+        private final RestHighLevelClient client;
+        private final FunctionEx<? super T, ? extends DocWriteRequest<?>> mapToRequestFn;
+        private final ConsumerEx<? super T> indexedFn;
+        private final AdaptiveBulkSize bulkSize;
+        private final int retries;
+        private final ILogger logger;
+
+        // The received items and their requests at the same positions
+        private final List<T> items = new ArrayList<>();
+        private final List<DocWriteRequest<?>> requests = new ArrayList<>();
+
+        // Created on the first flush, on the processor thread
+        private Metric bulkSizeMetric;
+        private Metric bulkLatencyMetric;
+        private Metric bulkRejectionsMetric;
+        private HistogramMetric.Recorder bulkLatencyHistogram;
+
+        private BulkContext(
+                RestHighLevelClient client,
+                FunctionEx<? super T, ? extends DocWriteRequest<?>> mapToRequestFn,
+                ConsumerEx<? super T> indexedFn,
+                AdaptiveBulkSize bulkSize,
+                int retries,
+                ILogger logger
+        ) {
+            this.client = client;
+            this.mapToRequestFn = mapToRequestFn;
+            this.indexedFn = indexedFn;
+            this.bulkSize = bulkSize;
+            this.retries = retries;
+            this.logger = logger;
+        }
+
+        private void add(T item) throws Exception {
+            items.add(item);
+            requests.add(mapToRequestFn.applyEx(item));
+            if (requests.size() >= bulkSize.current()) {
+                flush();
+            }
+        }
+
+        private void flush() throws Exception {
+            if (bulkSizeMetric == null) {
+                bulkSizeMetric = Metrics.metric("elasticBulkSize", Unit.COUNT);
+                bulkLatencyMetric = Metrics.metric("elasticBulkLatency", Unit.MS);
+                bulkRejectionsMetric = Metrics.metric("elasticBulkRejections", Unit.COUNT);
+                bulkLatencyHistogram = BULK_LATENCY.recorder();
+            }
+
+            int attempt = 0;
+            long delay = INITIAL_RETRY_DELAY_MILLIS;
+            while (!requests.isEmpty()) {
+                List<DocWriteRequest<?>> bulk = requests.subList(0, Math.min(requests.size(), bulkSize.current()));
+                List<T> bulkItems = items.subList(0, bulk.size());
+                BulkRequest bulkRequest = new BulkRequest();
+                bulk.forEach(bulkRequest::add);
+
+                BitSet rejectedActions;
+                long start = System.nanoTime();
+                try {
+                    rejectedActions = rejectedActions(client.bulk(bulkRequest, RequestOptions.DEFAULT));
+                } catch (IOException | ElasticsearchStatusException e) {
+                    if (attempt == retries || !isRetryable(e)) {
+                        throw new JetException("BulkRequest failed after " + attempt + " retries", e);
+                    }
+                    if (isRejection(e)) {
+                        onRejected();
+                    }
+                    logger.warning("BulkRequest failed, retrying in " + delay + " ms: " + e);
+                    Thread.sleep(delay);
+                    delay = Math.min(delay * 2, MAX_RETRY_DELAY_MILLIS);
+                    attempt++;
+                    continue;
+                }
+                long latency = System.nanoTime() - start;
+                bulkLatencyMetric.set(TimeUnit.NANOSECONDS.toMillis(latency));
+                bulkLatencyHistogram.record(TimeUnit.NANOSECONDS.toMillis(latency));
+
+                int actions = bulk.size();
+                List<T> rejectedItems = new ArrayList<>(rejectedActions.cardinality());
+                List<DocWriteRequest<?>> rejected = new ArrayList<>(rejectedActions.cardinality());
+                for (int i = 0; i < actions; i++) {
+                    if (rejectedActions.get(i)) {
+                        rejectedItems.add(bulkItems.get(i));
+                        rejected.add(bulk.get(i));
+                    } else {
+                        indexedFn.acceptEx(bulkItems.get(i));
+                    }
+                }
+                bulk.clear();
+                bulkItems.clear();
+                if (rejected.isEmpty()) {
+                    bulkSize.onCompleted(actions, latency);
+                    bulkSizeMetric.set(bulkSize.current());
+                    if (logger.isFineEnabled()) {
+                        logger.fine("BulkRequest with " + actions + " requests succeeded");
+                    }
+                    attempt = 0;
+                    delay = INITIAL_RETRY_DELAY_MILLIS;
+                } else {
+                    if (attempt == retries) {
+                        throw new JetException(rejected.size() + " requests rejected after " + attempt + " retries");
+                    }
+                    onRejected();
+                    // Rejected requests go first, before the requests received after them
+                    items.addAll(0, rejectedItems);
+                    requests.addAll(0, rejected);
+                    logger.warning(rejected.size() + " of " + actions + " requests rejected, retrying in "
+                            + delay + " ms");
+                    Thread.sleep(delay);
+                    delay = Math.min(delay * 2, MAX_RETRY_DELAY_MILLIS);
+                    attempt++;
+                }
+            }
+        }
+
+        /**
+         * Returns the positions of the actions rejected because of overload, fails on any other failure
+         */
+        private static BitSet rejectedActions(BulkResponse response) {
+            BitSet rejected = new BitSet();
+            if (!response.hasFailures()) {
+                return rejected;
+            }
+
+            BulkItemResponse[] items = response.getItems();
+            for (int i = 0; i < items.length; i++) {
+                if (items[i].isFailed()) {
+                    if (items[i].status() != RestStatus.TOO_MANY_REQUESTS) {
+                        throw new JetException(response.buildFailureMessage());
+                    }
+                    rejected.set(i);
+                }
+            }
+            return rejected;
+        }
+
+        private void onRejected() {
+            bulkSize.onRejected();
+            bulkSizeMetric.set(bulkSize.current());
+            bulkRejectionsMetric.increment();
+        }
+
+        private static boolean isRejection(Exception e) {
+            return e instanceof ElasticsearchStatusException
+                    && ((ElasticsearchStatusException) e).status() == RestStatus.TOO_MANY_REQUESTS;
+        }
+
+        private static boolean isRetryable(Exception e) {
+            if (e instanceof ElasticsearchStatusException) {
+                RestStatus status = ((ElasticsearchStatusException) e).status();
+                return status == RestStatus.TOO_MANY_REQUESTS
+                        || status == RestStatus.BAD_GATEWAY
+                        || status == RestStatus.SERVICE_UNAVAILABLE
+                        || status == RestStatus.GATEWAY_TIMEOUT;
+            }
+            return true;
+        }
+
+        private void close() throws IOException {
+            // Everything received has been flushed already, unless the job is failing
+            client.close();
+        }
+    }
+}
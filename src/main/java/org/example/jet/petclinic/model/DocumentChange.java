@@ -0,0 +1,150 @@
+package org.example.jet.petclinic.model;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Describes what changed in an owner document, so only the changed part has to be sent to the index
+ * <p>
+ * Changes emitted for a pet carry no document, the owner stage fills it in. A change emitted for a change record
+ * carries the table and the commit time of the record, to measure how long it takes until the change is indexed.
+ */
+public class DocumentChange implements Serializable {
+
+    public enum Type {
+        /**
+         * The whole document has to be written, e.g. when it is emitted for the first time
+         */
+        FULL,
+
+        /**
+         * Owner's own fields changed
+         */
+        OWNER_UPDATED,
+
+        /**
+         * The pet was added or replaced with all its visits
+         */
+        PET_UPDATED,
+
+        /**
+         * The visit was appended to the pet's visits, by id the visit is appended only once
+         */
+        VISIT_ADDED,
+
+        /**
+         * The owner or the pet as read by the initial load, it is already indexed
+         */
+        LOADED
+    }
+
+    public final Type type;
+    public final Owner document;
+    public final Pet pet;
+    public final Visit visit;
+
+    /**
+     * Table of the change record the change was emitted for, null when it wasn't emitted for a change record
+     */
+    public final String table;
+
+    /**
+     * Commit time of the change record in the database, in milliseconds since epoch
+     */
+    public final long commitTime;
+
+    public DocumentChange(Type type, Owner document, Pet pet, Visit visit) {
+        this(type, document, pet, visit, null, 0);
+    }
+
+    public DocumentChange(Type type, Owner document, Pet pet, Visit visit, String table, long commitTime) {
+        this.type = type;
+        this.document = document;
+        this.pet = pet;
+        this.visit = visit;
+        this.table = table;
+        this.commitTime = commitTime;
+    }
+
+    public static DocumentChange full(Owner document) {
+        return new DocumentChange(Type.FULL, document, null, null);
+    }
+
+    public static DocumentChange ownerUpdated(Owner document) {
+        return new DocumentChange(Type.OWNER_UPDATED, document, null, null);
+    }
+
+    public static DocumentChange petUpdated(Pet pet) {
+        return new DocumentChange(Type.PET_UPDATED, null, pet, null);
+    }
+
+    public static DocumentChange visitAdded(Pet pet, Visit visit) {
+        return new DocumentChange(Type.VISIT_ADDED, null, pet, visit);
+    }
+
+    public static DocumentChange loaded(Owner document) {
+        return new DocumentChange(Type.LOADED, document, null, null);
+    }
+
+    public static DocumentChange loaded(Pet pet) {
+        return new DocumentChange(Type.LOADED, null, pet, null);
+    }
+
+    /**
+     * Returns the same change applied to the given owner document
+     */
+    public DocumentChange withDocument(Owner document) {
+        return new DocumentChange(type, document, pet, visit, table, commitTime);
+    }
+
+    /**
+     * Returns the same change emitted for a change record of the table committed at the given time
+     */
+    public DocumentChange withCommit(String table, long commitTime) {
+        return new DocumentChange(type, document, pet, visit, table, commitTime);
+    }
+
+    /**
+     * Returns the same change with the commit of the other change if that one was committed earlier
+     * <p>
+     * Used when this change replaces the other one, the replaced change is indexed no sooner than this one.
+     */
+    public DocumentChange withEarlierCommit(DocumentChange other) {
+        if (other.table != null && (table == null || other.commitTime < commitTime)) {
+            return withCommit(other.table, other.commitTime);
+        }
+        return this;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        DocumentChange that = (DocumentChange) o;
+        return type == that.type &&
+                Objects.equals(document, that.document) &&
+                Objects.equals(pet, that.pet) &&
+                Objects.equals(visit, that.visit);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, document, pet, visit);
+    }
+
+    @Override
+    public String toString() {
+        return "DocumentChange{" +
+                "type=" + type +
+                ", document=" + document +
+                ", pet=" + pet +
+                ", visit=" + visit +
+                ", table=" + table +
+                ", commitTime=" + commitTime +
+                '}';
+    }
+}
@@ -1,10 +1,12 @@
 package org.example.jet.petclinic.model;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import org.example.jet.petclinic.util.PersistentIntIntMap;
+import org.example.jet.petclinic.util.PersistentList;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 public class Owner implements Serializable {
 
@@ -18,6 +20,10 @@ public class Owner implements Serializable {
 
     public List<Pet> pets;
 
+    // Position of each pet in pets by pet id, rebuilt after deserialization. Shared by the owners derived by the
+    // with methods
+    private transient PersistentIntIntMap petIndexes;
+
     // Used by Json deserialization
     public Owner() {
     }
@@ -28,23 +34,105 @@ public class Owner implements Serializable {
         this.lastName = lastName;
     }
 
-    public void updateFrom(Owner newOwner) {
-        firstName = newOwner.firstName;
-        lastName = newOwner.lastName;
+    private Owner(Integer id, String firstName, String lastName, List<Pet> pets, PersistentIntIntMap petIndexes) {
+        this(id, firstName, lastName);
+        this.pets = pets;
+        this.petIndexes = petIndexes;
+    }
+
+    /**
+     * Returns the owner with the names of the new owner, this owner is unchanged, or this owner when the names are
+     * the same
+     */
+    public Owner withUpdate(Owner newOwner) {
+        if (Objects.equals(firstName, newOwner.firstName) && Objects.equals(lastName, newOwner.lastName)) {
+            return this;
+        }
+        return new Owner(id, newOwner.firstName, newOwner.lastName, pets, petIndexes);
     }
 
+    /**
+     * Returns the owner with the pet added, or replacing the previous version of the pet, this owner is unchanged
+     * <p>
+     * The pets and their indexes are shared with this owner, only the paths to the changed pet and to its index are
+     * copied, see {@link PersistentList} and {@link PersistentIntIntMap}.
+     */
+    public Owner withPet(Pet newPet) {
+        // The pet arriving from the pet stage carries all its visits, it replaces the previous version
+        PersistentIntIntMap indexes = petIndexes != null ? petIndexes : indexPets(pets);
+        PersistentList<Pet> currentPets = PersistentList.copyOf(pets);
+        int index = indexes.get(newPet.id);
+        if (index != PersistentIntIntMap.MISSING) {
+            return new Owner(id, firstName, lastName, currentPets.with(index, newPet), indexes);
+        }
+        return new Owner(id, firstName, lastName, currentPets.plus(newPet),
+                indexes.plus(newPet.id, currentPets.size()));
+    }
+
+    /**
+     * Adds the pet, or replaces the previous version of the pet, used to build an owner before it is emitted
+     * <p>
+     * The pets are replaced by those of {@link #withPet}, the pets shared with other owners are not changed.
+     */
     public void addPet(Pet newPet) {
+        Owner owner = withPet(newPet);
+        pets = owner.pets;
+        petIndexes = owner.petIndexes;
+    }
+
+    /**
+     * Returns the owner as read by the initial load filled in under the changes streamed since then, this owner is
+     * unchanged
+     * <p>
+     * The streamed changes are newer and win, the loaded pets are only added when missing.
+     */
+    public Owner withLoaded(Owner loaded) {
+        Owner merged = firstName == null && lastName == null
+                // Only pets of the owner have been streamed
+                ? new Owner(id, loaded.firstName, loaded.lastName, pets, petIndexes)
+                : new Owner(id, firstName, lastName, pets, petIndexes);
+        if (merged.petIndexes == null) {
+            merged.petIndexes = indexPets(pets);
+        }
+        if (loaded.pets != null) {
+            for (Pet pet : loaded.pets) {
+                if (!merged.petIndexes.containsKey(pet.id)) {
+                    merged = merged.withPet(pet);
+                }
+            }
+        }
+        return merged;
+    }
+
+    private static PersistentIntIntMap indexPets(List<Pet> pets) {
+        PersistentIntIntMap indexes = PersistentIntIntMap.empty();
         if (pets == null) {
-            pets = new ArrayList<>();
+            return indexes;
         }
+        for (int i = 0; i < pets.size(); i++) {
+            indexes = indexes.plus(pets.get(i).id, i);
+        }
+        return indexes;
+    }
 
-        for (Pet pet : pets) {
-            if (pet.id.equals(newPet.id)) {
-                pet.name = newPet.name;
-                return;
-            }
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
         }
-        pets.add(newPet);
+        Owner owner = (Owner) o;
+        return Objects.equals(id, owner.id) &&
+                Objects.equals(firstName, owner.firstName) &&
+                Objects.equals(lastName, owner.lastName) &&
+                Objects.equals(pets, owner.pets);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, firstName, lastName, pets);
     }
 
     @Override
@@ -1,11 +1,13 @@
 package org.example.jet.petclinic.model;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import org.example.jet.petclinic.util.PersistentList;
 
-import java.util.ArrayList;
+import java.io.Serializable;
 import java.util.List;
+import java.util.Objects;
 
-public class Pet {
+public class Pet implements Serializable {
 
 
     public Integer id;
@@ -17,6 +19,10 @@ public class Pet {
 
     public List<Visit> visits;
 
+    // Used by Json deserialization
+    public Pet() {
+    }
+
     public Pet(Integer id) {
         this.id = id;
     }
@@ -28,15 +34,113 @@ public class Pet {
     }
 
     public void addVisit(Visit newVisit) {
-        if (visits == null) {
-            visits = new ArrayList<>();
+        addVisit(newVisit, VisitRetention.UNLIMITED);
+    }
+
+    /**
+     * Adds the visit limited by the retention, used to build a pet before it is emitted
+     * <p>
+     * The visits are replaced by those of {@link #withVisit}, the visits shared with other pets are not changed.
+     */
+    public void addVisit(Visit newVisit, VisitRetention retention) {
+        visits = withVisit(newVisit, retention).visits;
+    }
+
+    /**
+     * Returns the pet with the visit added, limited by the retention, this pet is unchanged
+     * <p>
+     * The visits are kept in the order of their ids. A visit the pet has already, or one the retention would drop
+     * right away, leaves the pet unchanged and this pet is returned, so a visit replayed after a restart is added
+     * only once. The visits are shared with this pet, only the path to the added visit is copied when it follows
+     * the others, see {@link PersistentList}.
+     */
+    public Pet withVisit(Visit newVisit, VisitRetention retention) {
+        PersistentList<Visit> current = PersistentList.copyOf(visits);
+        int position = current.size();
+        if (newVisit.id != null) {
+            // A replayed visit is usually one of the last ones
+            while (position > 0) {
+                Integer previousId = current.get(position - 1).id;
+                if (previousId == null || previousId < newVisit.id) {
+                    break;
+                }
+                if (previousId.equals(newVisit.id)) {
+                    return this;
+                }
+                position--;
+            }
         }
-        visits.add(newVisit);
+
+        Pet pet = new Pet(id, name, ownerId);
+        if (position == current.size()) {
+            pet.visits = retention.apply(current.plus(newVisit));
+            return pet;
+        }
+        PersistentList<Visit> inserted = PersistentList.copyOf(current.subList(0, position)).plus(newVisit);
+        for (Visit visit : current.subList(position, current.size())) {
+            inserted = inserted.plus(visit);
+        }
+        pet.visits = retention.apply(inserted);
+        // An older visit dropped by the retention before is dropped again
+        return pet.visits.contains(newVisit) ? pet : this;
     }
 
-    public void updateFrom(Pet newPet) {
-        this.name = newPet.name;
-        this.ownerId = newPet.ownerId;
+    /**
+     * Returns the pet with the name and owner of the new pet, this pet is unchanged, or this pet when the name and
+     * the owner are the same
+     */
+    public Pet withUpdate(Pet newPet) {
+        if (Objects.equals(name, newPet.name) && Objects.equals(ownerId, newPet.ownerId)) {
+            return this;
+        }
+        Pet pet = new Pet(id, newPet.name, newPet.ownerId);
+        pet.visits = visits;
+        return pet;
+    }
+
+    /**
+     * Returns the pet as read by the initial load filled in under the changes streamed since then, this pet is
+     * unchanged
+     * <p>
+     * The streamed changes are newer and win. A visit streamed while the load was running may have been read by
+     * the load as well, it is kept only once, see {@link Visit#isSameVisit(Visit)}.
+     */
+    public Pet withLoaded(Pet loaded, VisitRetention retention) {
+        // Only visits of the pet have been streamed without the owner
+        Pet pet = ownerId == null ? new Pet(id, loaded.name, loaded.ownerId) : new Pet(id, name, ownerId);
+        pet.visits = visits;
+        if (loaded.visits != null) {
+            PersistentList<Visit> merged = PersistentList.copyOf(loaded.visits);
+            if (visits != null) {
+                for (Visit visit : visits) {
+                    if (loaded.visits.stream().noneMatch(visit::isSameVisit)) {
+                        merged = merged.plus(visit);
+                    }
+                }
+            }
+            pet.visits = retention.apply(merged);
+        }
+        return pet;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        Pet pet = (Pet) o;
+        return Objects.equals(id, pet.id) &&
+                Objects.equals(ownerId, pet.ownerId) &&
+                Objects.equals(name, pet.name) &&
+                Objects.equals(visits, pet.visits);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, ownerId, name, visits);
     }
 
     @Override
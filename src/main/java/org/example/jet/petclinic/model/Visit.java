@@ -2,12 +2,23 @@ package org.example.jet.petclinic.model;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.io.Serializable;
 import java.util.List;
+import java.util.Objects;
 
-public class Visit {
+public class Visit implements Serializable {
+
+    /**
+     * Id of the visit in the database, null for visits indexed before the ids were kept
+     */
+    public Integer id;
 
     @JsonProperty("pet_id")
     public Integer petId;
+
+    @JsonProperty("visit_date")
+    public String visitDate;
+
     public String description;
     public List<String> keywords;
 
@@ -19,14 +30,59 @@ public class Visit {
         this.description = description;
     }
 
+    public Visit(Integer petId, String visitDate, String description) {
+        this.petId = petId;
+        this.visitDate = visitDate;
+        this.description = description;
+    }
+
+    public Visit(Integer id, Integer petId, String visitDate, String description) {
+        this(petId, visitDate, description);
+        this.id = id;
+    }
+
+    /**
+     * Returns whether the other visit is the same visit of the pet, compared by id when both have one, by date and
+     * description otherwise
+     */
+    public boolean isSameVisit(Visit other) {
+        if (id != null && other.id != null) {
+            return id.equals(other.id);
+        }
+        return Objects.equals(visitDate, other.visitDate) && Objects.equals(description, other.description);
+    }
+
     public void setKeywords(List<String> keywords) {
         this.keywords = keywords;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        Visit visit = (Visit) o;
+        return Objects.equals(id, visit.id) &&
+                Objects.equals(petId, visit.petId) &&
+                Objects.equals(visitDate, visit.visitDate) &&
+                Objects.equals(description, visit.description) &&
+                Objects.equals(keywords, visit.keywords);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, petId, visitDate, description, keywords);
+    }
+
     @Override
     public String toString() {
         return "Visit{" +
-                "petId=" + petId +
+                "id=" + id +
+                ", petId=" + petId +
+                ", visitDate=" + visitDate +
                 ", description='" + description + '\'' +
                 ", keywords=" + keywords +
                 '}';
@@ -0,0 +1,80 @@
+package org.example.jet.petclinic.model;
+
+import org.example.jet.petclinic.util.PersistentList;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Limits the visits kept for a pet
+ * <p>
+ * Keeps at most the given number of most recently added visits and only visits at most the given number of
+ * days older than the pet's newest visit. Visits without a date are not limited by age. A limit of 0 means
+ * unlimited.
+ */
+public class VisitRetention implements Serializable {
+
+    public static final VisitRetention UNLIMITED = new VisitRetention(0, 0);
+
+    private final int maxVisits;
+    private final int maxAgeDays;
+
+    public VisitRetention(int maxVisits, int maxAgeDays) {
+        if (maxVisits < 0 || maxAgeDays < 0) {
+            throw new IllegalArgumentException("Retention limits must not be negative, was maxVisits="
+                    + maxVisits + ", maxAgeDays=" + maxAgeDays);
+        }
+        this.maxVisits = maxVisits;
+        this.maxAgeDays = maxAgeDays;
+    }
+
+    public int maxVisits() {
+        return maxVisits;
+    }
+
+    public int maxAgeDays() {
+        return maxAgeDays;
+    }
+
+    /**
+     * Returns the visits limited by the retention, the dropped visits are usually the first ones and the rest is
+     * shared with the given visits
+     */
+    PersistentList<Visit> apply(PersistentList<Visit> visits) {
+        if (maxVisits > 0 && visits.size() > maxVisits) {
+            visits = visits.dropFirst(visits.size() - maxVisits);
+        }
+
+        String oldest = oldestKept(visits);
+        if (oldest != null) {
+            visits = visits.filter(visit -> visit.visitDate == null || visit.visitDate.compareTo(oldest) >= 0);
+        }
+        return visits;
+    }
+
+    /**
+     * Returns the date of the oldest visit kept by age, null when the age is not limited or no visit has a date
+     */
+    private String oldestKept(List<Visit> visits) {
+        if (maxAgeDays == 0) {
+            return null;
+        }
+        // ISO dates compare the same as strings and as dates
+        String newest = null;
+        for (Visit visit : visits) {
+            if (visit.visitDate != null && (newest == null || visit.visitDate.compareTo(newest) > 0)) {
+                newest = visit.visitDate;
+            }
+        }
+        return newest == null ? null : LocalDate.parse(newest).minusDays(maxAgeDays).toString();
+    }
+
+    @Override
+    public String toString() {
+        return "VisitRetention{" +
+                "maxVisits=" + maxVisits +
+                ", maxAgeDays=" + maxAgeDays +
+                '}';
+    }
+}
@@ -19,7 +19,7 @@ import java.util.*;
  */
 public class Rake {
     String language;
-    String stopWordsPattern;
+    StopWords stopWords;
 
     public Rake(String language) {
         this.language = language;
@@ -37,16 +37,8 @@ public class Rake {
                 while ((line = bufferedReader.readLine()) != null)
                     stopWords.add(line.trim());
 
-                ArrayList<String> regexList = new ArrayList<>();
-
-                // Turn the stop words into an array of regex
-                for (String word : stopWords) {
-                    String regex = "\\b" + word + "(?![\\w-])";
-                    regexList.add(regex);
-                }
-
-                // Join all regexes into global pattern
-                this.stopWordsPattern = String.join("|", regexList);
+                // Compile the stop words into a trie, keeping their order in the file
+                this.stopWords = new StopWords(stopWords);
             } catch (Exception e) {
                 throw new Error("An error occurred reading stop words for language " + language);
             }
@@ -55,120 +47,149 @@ public class Rake {
     }
 
     /**
-     * Returns a list of all sentences in a given string of text
-     *
-     * @param text
-     * @return String[]
-     */
-    private String[] getSentences(String text) {
-        return text.split("[.!?,;:\\t\\\\\\\\\"\\\\(\\\\)\\\\'\\u2019\\u2013]|\\\\s\\\\-\\\\s");
-    }
-
-    /**
-     * Returns a list of all words that are have a length greater than a specified number of characters
+     * Splits the text into sentences and passes each of them to {@link #scanSentence}
+     * <p>
+     * Sentences are delimited by any of {@code .!?,;:\t\\"()'}, U+2019 and U+2013
      *
      * @param text given text
-     * @param size minimum size
+     * @param phrases collected phrases
      */
-    private String[] separateWords(String text, int size) {
-        String[] split = text.split("[^a-zA-Z0-9_\\\\+/-\\\\]");
-        ArrayList<String> words = new ArrayList<>();
-
-        for (String word : split) {
-            String current = word.trim().toLowerCase();
-            int len = current.length();
-
-            if (len > size && len > 0 && !isNumeric(current))
-                words.add(current);
+    private void scanSentences(String text, Phrases phrases) {
+        int sentenceStart = 0;
+        int length = text.length();
+
+        for (int i = 0; i <= length; i++) {
+            if (i == length || isSentenceDelimiter(text.charAt(i))) {
+                scanSentence(text, sentenceStart, i, phrases);
+                sentenceStart = i + 1;
+            }
         }
-
-        return words.toArray(new String[words.size()]);
     }
 
-    private static boolean isNumeric(String str) {
-        return str.matches("-?\\d+(\\.\\d+)?");  //match a number with optional '-' and decimal.
+    private static boolean isSentenceDelimiter(char c) {
+        switch (c) {
+            case '.':
+            case '!':
+            case '?':
+            case ',':
+            case ';':
+            case ':':
+            case '\t':
+            case '\\':
+            case '"':
+            case '(':
+            case ')':
+            case '\'':
+            case '\u2019':
+            case '\u2013':
+                return true;
+            default:
+                return false;
+        }
     }
 
     /**
-     * Generates a list of keywords by splitting sentences by their stop words
+     * Splits a sentence into phrases by its stop words and '|' characters
      *
-     * @param sentences
-     * @return
+     * @param text given text
+     * @param start start of the sentence
+     * @param end end of the sentence (exclusive)
+     * @param phrases collected phrases
      */
-    private String[] getKeywords(String[] sentences) {
-        ArrayList<String> phraseList = new ArrayList<>();
-
-        for (String sentence : sentences) {
-            String temp = sentence.trim().replaceAll(this.stopWordsPattern, "|");
-            String[] phrases = temp.split("\\|");
-
-            for (String phrase : phrases) {
-                phrase = phrase.trim().toLowerCase();
-
-                if (phrase.length() > 0)
-                    phraseList.add(phrase);
+    private void scanSentence(String text, int start, int end, Phrases phrases) {
+        while (start < end && text.charAt(start) <= ' ')
+            start++;
+        while (end > start && text.charAt(end - 1) <= ' ')
+            end--;
+
+        int phraseStart = start;
+        int i = start;
+        while (i < end) {
+            int stopWordLength = isWordBoundary(text, start, end, i) ? stopWords.match(text, i, end) : 0;
+
+            if (stopWordLength > 0) {
+                addPhrase(text, phraseStart, i, phrases);
+                i += stopWordLength;
+                phraseStart = i;
+            } else if (text.charAt(i) == '|') {
+                addPhrase(text, phraseStart, i, phrases);
+                i++;
+                phraseStart = i;
+            } else {
+                i++;
             }
         }
+        addPhrase(text, phraseStart, end, phrases);
+    }
+
+    private static void addPhrase(String text, int start, int end, Phrases phrases) {
+        while (start < end && text.charAt(start) <= ' ')
+            start++;
+        while (end > start && text.charAt(end - 1) <= ' ')
+            end--;
 
-        return phraseList.toArray(new String[phraseList.size()]);
+        if (start < end)
+            phrases.add(text.substring(start, end).toLowerCase());
     }
 
     /**
-     * Calculates word scores for each word in a collection of phrases
-     * <p>
-     * Scores is calculated by dividing the word degree (collective length of phrases the word appears in)
-     * by the number of times the word appears
-     *
-     * @param phrases
-     * @return
+     * Same as the {@code \b} regex construct (without the UNICODE_CHARACTER_CLASS flag) applied
+     * to the region between start and end
      */
-    private LinkedHashMap<String, Double> calculateWordScores(String[] phrases) {
-        LinkedHashMap<String, Integer> wordFrequencies = new LinkedHashMap<>();
-        LinkedHashMap<String, Integer> wordDegrees = new LinkedHashMap<>();
-        LinkedHashMap<String, Double> wordScores = new LinkedHashMap<>();
-
-        for (String phrase : phrases) {
-            String[] words = this.separateWords(phrase, 0);
-            int length = words.length;
-            int degree = length - 1;
-
-            for (String word : words) {
-                wordFrequencies.put(word, wordDegrees.getOrDefault(word, 0) + 1);
-                wordDegrees.put(word, wordFrequencies.getOrDefault(word, 0) + degree);
-            }
+    private static boolean isWordBoundary(String text, int start, int end, int i) {
+        boolean left = false;
+        if (i > start) {
+            int ch = codePointBefore(text, start, i);
+            left = isRegexWord(ch) || (isNonSpacingMark(ch) && hasBaseCharacter(text, start, end, i - 1));
         }
 
-        for (String item : wordFrequencies.keySet()) {
-            wordDegrees.put(item, wordDegrees.get(item) + wordFrequencies.get(item));
-            wordScores.put(item, wordDegrees.get(item) / (wordFrequencies.get(item) * 1.0));
+        boolean right = false;
+        if (i < end) {
+            int ch = codePointAt(text, end, i);
+            right = isRegexWord(ch) || (isNonSpacingMark(ch) && hasBaseCharacter(text, start, end, i));
         }
-
-        return wordScores;
+        return left != right;
     }
 
-    /**
-     * Returns a list of keyword candidates and their respective word scores
-     *
-     * @param phrases
-     * @param wordScores
-     * @return
-     */
-    private LinkedHashMap<String, Double> getCandidateKeywordScores(String[] phrases, LinkedHashMap<String, Double> wordScores) {
-        LinkedHashMap<String, Double> keywordCandidates = new LinkedHashMap<>();
+    private static boolean hasBaseCharacter(String text, int start, int end, int i) {
+        for (int x = i; x >= start; x--) {
+            int ch = codePointAt(text, end, x);
+            if (Character.isLetterOrDigit(ch))
+                return true;
+            if (!isNonSpacingMark(ch))
+                return false;
+        }
+        return false;
+    }
 
-        for (String phrase : phrases) {
-            double score = 0.0;
+    private static boolean isRegexWord(int ch) {
+        return ch == '_' || Character.isLetterOrDigit(ch);
+    }
 
-            String[] words = this.separateWords(phrase, 0);
+    private static boolean isNonSpacingMark(int ch) {
+        return Character.getType(ch) == Character.NON_SPACING_MARK;
+    }
 
-            for (String word : words) {
-                score += wordScores.get(word);
-            }
+    private static int codePointAt(String text, int end, int i) {
+        char high = text.charAt(i);
+        if (Character.isHighSurrogate(high) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1)))
+            return Character.toCodePoint(high, text.charAt(i + 1));
+        return high;
+    }
 
-            keywordCandidates.put(phrase, score);
-        }
+    private static int codePointBefore(String text, int start, int i) {
+        char low = text.charAt(i - 1);
+        if (Character.isLowSurrogate(low) && i - 2 >= start && Character.isHighSurrogate(text.charAt(i - 2)))
+            return Character.toCodePoint(text.charAt(i - 2), low);
+        return low;
+    }
 
-        return keywordCandidates;
+    /**
+     * Word characters are {@code a-z}, {@code _}, {@code +} and the range from {@code /} to {@code \\}
+     * (which includes digits and upper case letters)
+     */
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= '/' && c <= '\\') || c == '_' || c == '+';
     }
 
     /**
@@ -198,13 +219,205 @@ public class Rake {
      * @param text
      */
     public LinkedHashMap<String, Double> getKeywordsFromText(String text) {
-        String[] sentences = this.getSentences(text);
-        String[] keywords = this.getKeywords(sentences);
+        Phrases phrases = new Phrases();
+        this.scanSentences(text, phrases);
 
-        LinkedHashMap<String, Double> wordScores = this.calculateWordScores(keywords);
-        LinkedHashMap<String, Double> keywordCandidates = this.getCandidateKeywordScores(keywords, wordScores);
+        double[] scores = phrases.candidateScores();
+        LinkedHashMap<String, Double> keywordCandidates = new LinkedHashMap<>();
+        for (int i = 0; i < phrases.size(); i++) {
+            keywordCandidates.put(phrases.get(i), scores[i]);
+        }
 
         return this.sortHashMap(keywordCandidates);
     }
 
-}
\ No newline at end of file
+    /**
+     * Extracts at most k best scoring keywords from the given text body using the RAKE algorithm
+     * <p>
+     * Returns the same keywords in the same order as the first k keys of {@link #getKeywordsFromText},
+     * without sorting all the candidates.
+     *
+     * @param text given text
+     * @param k maximum number of keywords
+     */
+    public List<String> getTopKeywords(String text, int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k must not be negative, was " + k);
+        }
+
+        Phrases phrases = new Phrases();
+        this.scanSentences(text, phrases);
+
+        double[] scores = phrases.candidateScores();
+        int size = Math.min(k, phrases.size());
+
+        // Min-heap of candidate indexes, the worst ranked of the best k candidates is on top
+        int[] heap = new int[size];
+        for (int i = 0; i < phrases.size(); i++) {
+            if (i < size) {
+                heap[i] = i;
+                siftUp(heap, i, scores);
+            } else if (size > 0 && isRankedBefore(i, heap[0], scores)) {
+                heap[0] = i;
+                siftDown(heap, size, scores);
+            }
+        }
+
+        String[] keywords = new String[size];
+        for (int n = size; n > 0; n--) {
+            keywords[n - 1] = phrases.get(heap[0]);
+            heap[0] = heap[n - 1];
+            siftDown(heap, n - 1, scores);
+        }
+        return Arrays.asList(keywords);
+    }
+
+    /**
+     * Candidates are ranked by score from highest to lowest, candidates with the same score in reverse
+     * order of appearance, same as by {@link #sortHashMap} followed by reverse
+     */
+    private static boolean isRankedBefore(int candidate, int other, double[] scores) {
+        int byScore = Double.compare(scores[candidate], scores[other]);
+        return byScore > 0 || (byScore == 0 && candidate > other);
+    }
+
+    private static void siftUp(int[] heap, int i, double[] scores) {
+        int candidate = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!isRankedBefore(heap[parent], candidate, scores)) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = candidate;
+    }
+
+    private static void siftDown(int[] heap, int size, double[] scores) {
+        if (size == 0) {
+            return;
+        }
+
+        int candidate = heap[0];
+        int i = 0;
+        int child;
+        while ((child = 2 * i + 1) < size) {
+            if (child + 1 < size && isRankedBefore(heap[child], heap[child + 1], scores)) {
+                child++;
+            }
+            if (!isRankedBefore(candidate, heap[child], scores)) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = candidate;
+    }
+
+    /**
+     * Distinct candidate phrases of a single text, in order of first appearance, together with the words
+     * they consist of
+     */
+    private static final class Phrases {
+
+        private final ArrayList<String> phrases = new ArrayList<>();
+        private final HashSet<String> distinctPhrases = new HashSet<>();
+
+        // Words of phrase i are wordOccurrences[phraseWordEnds[i - 1], phraseWordEnds[i])
+        private int[] phraseWordEnds = new int[16];
+        private final ArrayList<WordScore> wordOccurrences = new ArrayList<>();
+        private final HashMap<String, WordScore> wordScores = new HashMap<>();
+
+        /**
+         * Adds a phrase and updates the scores of its words
+         * <p>
+         * Words are separated by any non-word character, numbers are skipped. Repeated phrases update
+         * the word scores, but are kept only once as a candidate.
+         *
+         * @param phrase lower case phrase
+         */
+        void add(String phrase) {
+            int firstWord = wordOccurrences.size();
+            int length = phrase.length();
+            int wordStart = 0;
+            boolean numeric = true;
+
+            for (int i = 0; i <= length; i++) {
+                char c = i < length ? phrase.charAt(i) : 0;
+                if (i < length && isWordChar(c)) {
+                    numeric &= c >= '0' && c <= '9';
+                    continue;
+                }
+
+                if (i > wordStart && !numeric) {
+                    String word = phrase.substring(wordStart, i);
+                    wordOccurrences.add(wordScores.computeIfAbsent(word, key -> new WordScore()));
+                }
+                wordStart = i + 1;
+                numeric = true;
+            }
+
+            // The frequency and degree are deliberately read crosswise, scores must stay the same as
+            // in the original implementation
+            int degree = wordOccurrences.size() - firstWord - 1;
+            for (int i = firstWord; i < wordOccurrences.size(); i++) {
+                WordScore wordScore = wordOccurrences.get(i);
+                wordScore.frequency = wordScore.degree + 1;
+                wordScore.degree = wordScore.frequency + degree;
+            }
+
+            if (!distinctPhrases.add(phrase)) {
+                wordOccurrences.subList(firstWord, wordOccurrences.size()).clear();
+                return;
+            }
+
+            if (phrases.size() == phraseWordEnds.length) {
+                phraseWordEnds = Arrays.copyOf(phraseWordEnds, phraseWordEnds.length * 2);
+            }
+            phraseWordEnds[phrases.size()] = wordOccurrences.size();
+            phrases.add(phrase);
+        }
+
+        int size() {
+            return phrases.size();
+        }
+
+        String get(int i) {
+            return phrases.get(i);
+        }
+
+        /**
+         * Returns the scores of the candidate phrases, indexed the same as the phrases
+         * <p>
+         * The score of a candidate is the sum of scores of its words, the score of a word is its degree
+         * divided by its frequency
+         */
+        double[] candidateScores() {
+            for (WordScore wordScore : wordScores.values()) {
+                wordScore.degree += wordScore.frequency;
+                wordScore.score = wordScore.degree / (wordScore.frequency * 1.0);
+            }
+
+            double[] scores = new double[phrases.size()];
+            int wordStart = 0;
+            for (int i = 0; i < phrases.size(); i++) {
+                double score = 0.0;
+                for (int j = wordStart; j < phraseWordEnds[i]; j++) {
+                    score += wordOccurrences.get(j).score;
+                }
+                wordStart = phraseWordEnds[i];
+
+                scores[i] = score;
+            }
+            return scores;
+        }
+    }
+
+    private static final class WordScore {
+        int frequency;
+        int degree;
+        double score;
+    }
+
+}
@@ -0,0 +1,109 @@
+package org.example.jet.petclinic.rake;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Precompiled stop word lookup
+ * <p>
+ * A character trie over the stop words of a language. It matches the same text as the
+ * {@code \bword(?![\w-])} alternation the regex based implementation used to build, including the rule that
+ * when several stop words match at the same position the one listed first in the stop word file wins.
+ */
+final class StopWords {
+
+    private final Node root = new Node();
+
+    StopWords(List<String> words) {
+        for (int order = 0; order < words.size(); order++) {
+            String word = words.get(order);
+            if (word.isEmpty()) {
+                continue;
+            }
+
+            Node node = root;
+            for (int i = 0; i < word.length(); i++) {
+                node = node.childOrCreate(word.charAt(i));
+            }
+            if (node.order < 0) {
+                node.order = order;
+            }
+        }
+    }
+
+    /**
+     * Returns the length of the stop word matching the text at given position, or 0 if there is none
+     * <p>
+     * The caller is responsible for checking the word boundary in front of the position.
+     *
+     * @param text text to match
+     * @param position position the stop word should start at
+     * @param end end of the matched region (exclusive)
+     */
+    int match(String text, int position, int end) {
+        Node node = root;
+        int matchOrder = Integer.MAX_VALUE;
+        int matchLength = 0;
+
+        for (int i = position; i < end; i++) {
+            node = node.child(text.charAt(i));
+            if (node == null) {
+                break;
+            }
+            if (node.order >= 0 && node.order < matchOrder && !continuesWord(text, i + 1, end)) {
+                matchOrder = node.order;
+                matchLength = i + 1 - position;
+            }
+        }
+        return matchLength;
+    }
+
+    /**
+     * Equivalent of the {@code [\w-]} lookahead following each stop word
+     */
+    private static boolean continuesWord(String text, int position, int end) {
+        if (position >= end) {
+            return false;
+        }
+        char c = text.charAt(position);
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_' || c == '-';
+    }
+
+    private static final class Node {
+
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+
+        /**
+         * Position of the stop word ending in this node in the stop word file, -1 if no stop word ends here
+         */
+        private int order = -1;
+
+        Node child(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            return index >= 0 ? children[index] : null;
+        }
+
+        Node childOrCreate(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            if (index >= 0) {
+                return children[index];
+            }
+
+            int insertAt = -index - 1;
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, insertAt);
+            System.arraycopy(children, 0, newChildren, 0, insertAt);
+            System.arraycopy(keys, insertAt, newKeys, insertAt + 1, keys.length - insertAt);
+            System.arraycopy(children, insertAt, newChildren, insertAt + 1, children.length - insertAt);
+
+            Node child = new Node();
+            newKeys[insertAt] = c;
+            newChildren[insertAt] = child;
+            keys = newKeys;
+            children = newChildren;
+            return child;
+        }
+    }
+}
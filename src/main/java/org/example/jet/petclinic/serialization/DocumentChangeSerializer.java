@@ -0,0 +1,62 @@
+package org.example.jet.petclinic.serialization;
+
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.StreamSerializer;
+import org.example.jet.petclinic.model.DocumentChange;
+import org.example.jet.petclinic.model.DocumentChange.Type;
+import org.example.jet.petclinic.model.Owner;
+import org.example.jet.petclinic.model.Pet;
+import org.example.jet.petclinic.model.Visit;
+
+import java.io.IOException;
+
+/**
+ * Serializes the change, see {@link ModelEncoding}
+ * <p>
+ * A delta only needs the owner fields of its document, its pets are left out. Only the full and the loaded
+ * documents are written whole.
+ */
+public class DocumentChangeSerializer implements StreamSerializer<DocumentChange> {
+
+    public static final int TYPE_ID = 1004;
+
+    private static final Type[] TYPES = Type.values();
+
+    @Override
+    public int getTypeId() {
+        return TYPE_ID;
+    }
+
+    @Override
+    public void write(ObjectDataOutput out, DocumentChange change) throws IOException {
+        ModelEncoding.writeVersion(out);
+        out.writeByte(change.type.ordinal());
+
+        out.writeBoolean(change.document != null);
+        if (change.document != null) {
+            boolean withPets = change.type == Type.FULL || change.type == Type.LOADED;
+            ModelEncoding.writeOwner(out, change.document, withPets);
+        }
+        out.writeBoolean(change.pet != null);
+        if (change.pet != null) {
+            ModelEncoding.writePet(out, change.pet);
+        }
+        out.writeBoolean(change.visit != null);
+        if (change.visit != null) {
+            ModelEncoding.writeVisit(out, change.visit);
+        }
+        out.writeUTF(change.table);
+        out.writeLong(change.commitTime);
+    }
+
+    @Override
+    public DocumentChange read(ObjectDataInput in) throws IOException {
+        ModelEncoding.readVersion(in);
+        Type type = TYPES[in.readByte()];
+        Owner document = in.readBoolean() ? ModelEncoding.readOwner(in) : null;
+        Pet pet = in.readBoolean() ? ModelEncoding.readPet(in) : null;
+        Visit visit = in.readBoolean() ? ModelEncoding.readVisit(in) : null;
+        return new DocumentChange(type, document, pet, visit, in.readUTF(), in.readLong());
+    }
+}
@@ -0,0 +1,280 @@
+package org.example.jet.petclinic.serialization;
+
+import org.example.jet.petclinic.model.Owner;
+import org.example.jet.petclinic.model.Pet;
+import org.example.jet.petclinic.model.Visit;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * Writes owner documents as UTF-8 JSON straight from the model into a reusable buffer
+ * <p>
+ * The output is byte for byte the JSON the Elastic requests were created from with {@code JsonUtil.toJson()}:
+ * fields in alphabetical order under their JSON names, null fields left out, the same escaping. It saves building
+ * the JSON string and encoding it to UTF-8 again in the request.
+ * <p>
+ * The writer is not thread safe, each sink processor uses its own.
+ */
+public final class DocumentJsonWriter {
+
+    private static final int INITIAL_CAPACITY = 4 * 1024;
+
+    // A buffer grown by an unusually large owner is not kept
+    private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(US_ASCII);
+    private static final byte[] NULL = "null".getBytes(US_ASCII);
+
+    // Written for unpaired surrogates, as the Elastic client does when encoding a string
+    private static final int REPLACEMENT_CHARACTER = 0xFFFD;
+
+    private static final byte[] DESCRIPTION = fieldName("description");
+    private static final byte[] FIRST_NAME = fieldName("first_name");
+    private static final byte[] ID = fieldName("id");
+    private static final byte[] KEYWORDS = fieldName("keywords");
+    private static final byte[] LAST_NAME = fieldName("last_name");
+    private static final byte[] NAME = fieldName("name");
+    private static final byte[] OWNER_ID = fieldName("owner_id");
+    private static final byte[] PET_ID = fieldName("pet_id");
+    private static final byte[] PETS = fieldName("pets");
+    private static final byte[] VISIT_DATE = fieldName("visit_date");
+    private static final byte[] VISITS = fieldName("visits");
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * Returns the JSON of the owner with its pets and visits
+     * <p>
+     * The document is written to the reused buffer and returned as a copy of exactly the written bytes, a request
+     * keeps its source until the bulk request is sent.
+     */
+    public byte[] toJson(Owner owner) {
+        size = 0;
+        writeOwner(owner);
+        byte[] json = Arrays.copyOf(buffer, size);
+        if (buffer.length > MAX_RETAINED_CAPACITY) {
+            buffer = new byte[INITIAL_CAPACITY];
+        }
+        return json;
+    }
+
+    private void writeOwner(Owner owner) {
+        writeByte('{');
+        writeField(FIRST_NAME, owner.firstName);
+        writeField(ID, owner.id);
+        writeField(LAST_NAME, owner.lastName);
+        if (owner.pets != null) {
+            writeFieldName(PETS);
+            writeByte('[');
+            for (int i = 0; i < owner.pets.size(); i++) {
+                if (i > 0) {
+                    writeByte(',');
+                }
+                Pet pet = owner.pets.get(i);
+                if (pet == null) {
+                    writeBytes(NULL);
+                } else {
+                    writePet(pet);
+                }
+            }
+            writeByte(']');
+        }
+        writeByte('}');
+    }
+
+    private void writePet(Pet pet) {
+        writeByte('{');
+        writeField(ID, pet.id);
+        writeField(NAME, pet.name);
+        writeField(OWNER_ID, pet.ownerId);
+        if (pet.visits != null) {
+            writeFieldName(VISITS);
+            writeByte('[');
+            for (int i = 0; i < pet.visits.size(); i++) {
+                if (i > 0) {
+                    writeByte(',');
+                }
+                Visit visit = pet.visits.get(i);
+                if (visit == null) {
+                    writeBytes(NULL);
+                } else {
+                    writeVisit(visit);
+                }
+            }
+            writeByte(']');
+        }
+        writeByte('}');
+    }
+
+    private void writeVisit(Visit visit) {
+        writeByte('{');
+        writeField(DESCRIPTION, visit.description);
+        writeField(ID, visit.id);
+        if (visit.keywords != null) {
+            writeFieldName(KEYWORDS);
+            writeStrings(visit.keywords);
+        }
+        writeField(PET_ID, visit.petId);
+        writeField(VISIT_DATE, visit.visitDate);
+        writeByte('}');
+    }
+
+    private void writeStrings(List<String> strings) {
+        writeByte('[');
+        for (int i = 0; i < strings.size(); i++) {
+            if (i > 0) {
+                writeByte(',');
+            }
+            String string = strings.get(i);
+            if (string == null) {
+                writeBytes(NULL);
+            } else {
+                writeString(string);
+            }
+        }
+        writeByte(']');
+    }
+
+    private void writeField(byte[] name, String value) {
+        if (value != null) {
+            writeFieldName(name);
+            writeString(value);
+        }
+    }
+
+    private void writeField(byte[] name, Integer value) {
+        if (value != null) {
+            writeFieldName(name);
+            writeInt(value);
+        }
+    }
+
+    private void writeFieldName(byte[] name) {
+        // Any field but the first one follows a value
+        if (buffer[size - 1] != '{') {
+            writeByte(',');
+        }
+        writeBytes(name);
+    }
+
+    private void writeInt(int value) {
+        ensureCapacity(11);
+        long remaining = value;
+        if (remaining < 0) {
+            buffer[size++] = '-';
+            remaining = -remaining;
+        }
+        int digits = 1;
+        for (long i = remaining; i >= 10; i /= 10) {
+            digits++;
+        }
+        for (int i = size + digits - 1; i >= size; i--) {
+            buffer[i] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        }
+        size += digits;
+    }
+
+    private void writeString(String value) {
+        int length = value.length();
+        // An escaped control character takes the most bytes, 6 for 1 char
+        ensureCapacity(length * 6 + 2);
+        byte[] buffer = this.buffer;
+        int size = this.size;
+
+        buffer[size++] = '"';
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (c >= 0x20 && c != '"' && c != '\\') {
+                    buffer[size++] = (byte) c;
+                } else {
+                    size = writeEscaped(buffer, size, c);
+                }
+            } else if (c < 0x800) {
+                buffer[size++] = (byte) (0xC0 | c >> 6);
+                buffer[size++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                int codePoint = REPLACEMENT_CHARACTER;
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    codePoint = Character.toCodePoint(c, value.charAt(++i));
+                }
+                size = writeCodePoint(buffer, size, codePoint);
+            } else {
+                size = writeCodePoint(buffer, size, c);
+            }
+        }
+        buffer[size++] = '"';
+
+        this.size = size;
+    }
+
+    private static int writeEscaped(byte[] buffer, int size, char c) {
+        buffer[size++] = '\\';
+        switch (c) {
+            case '"':
+            case '\\':
+                buffer[size++] = (byte) c;
+                break;
+            case '\b':
+                buffer[size++] = 'b';
+                break;
+            case '\f':
+                buffer[size++] = 'f';
+                break;
+            case '\n':
+                buffer[size++] = 'n';
+                break;
+            case '\r':
+                buffer[size++] = 'r';
+                break;
+            case '\t':
+                buffer[size++] = 't';
+                break;
+            default:
+                buffer[size++] = 'u';
+                buffer[size++] = '0';
+                buffer[size++] = '0';
+                buffer[size++] = HEX[c >> 4];
+                buffer[size++] = HEX[c & 0xF];
+        }
+        return size;
+    }
+
+    private static int writeCodePoint(byte[] buffer, int size, int codePoint) {
+        if (codePoint < 0x10000) {
+            buffer[size++] = (byte) (0xE0 | codePoint >> 12);
+        } else {
+            buffer[size++] = (byte) (0xF0 | codePoint >> 18);
+            buffer[size++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+        }
+        buffer[size++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+        buffer[size++] = (byte) (0x80 | codePoint & 0x3F);
+        return size;
+    }
+
+    private void writeByte(char c) {
+        ensureCapacity(1);
+        buffer[size++] = (byte) c;
+    }
+
+    private void writeBytes(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (size + bytes > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + bytes));
+        }
+    }
+
+    private static byte[] fieldName(String name) {
+        return ('"' + name + "\":").getBytes(US_ASCII);
+    }
+}
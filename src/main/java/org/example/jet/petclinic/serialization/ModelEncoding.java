@@ -0,0 +1,221 @@
+package org.example.jet.petclinic.serialization;
+
+import com.hazelcast.nio.serialization.HazelcastSerializationException;
+import org.example.jet.petclinic.model.Owner;
+import org.example.jet.petclinic.model.Pet;
+import org.example.jet.petclinic.model.Visit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Binary encoding of the model shared by the serializers
+ * <p>
+ * Nested objects are written inline without any type information, only the top level object written by a
+ * serializer starts with the {@link #VERSION}. Nullable ints are a presence flag followed by the value, lists
+ * are the number of elements, -1 for null, followed by the elements. Strings are the number of their UTF-8 bytes,
+ * -1 for null, followed by the bytes. Visit dates are written as days since epoch. The visits of a pet are written
+ * without the pet id.
+ * <p>
+ * The encoding only uses {@link DataOutput}, an owner can be encoded on its own with {@link #encodeOwner(Owner)}
+ * and later written by a serializer as is.
+ */
+public final class ModelEncoding {
+
+    /**
+     * Version of the encoding, a serializer fails to read any other version
+     */
+    public static final byte VERSION = 1;
+
+    private static final int NULL_LIST = -1;
+    private static final int NULL_DATE = Integer.MIN_VALUE;
+    private static final int NULL_STRING = -1;
+
+    private ModelEncoding() {
+    }
+
+    public static void writeVersion(DataOutput out) throws IOException {
+        out.writeByte(VERSION);
+    }
+
+    public static void readVersion(DataInput in) throws IOException {
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new HazelcastSerializationException("Unsupported encoding version " + version
+                    + ", expected " + VERSION);
+        }
+    }
+
+    /**
+     * Writes the owner, with its pets or with the owner fields only
+     */
+    public static void writeOwner(DataOutput out, Owner owner, boolean withPets) throws IOException {
+        writeNullableInt(out, owner.id);
+        writeString(out, owner.firstName);
+        writeString(out, owner.lastName);
+        if (withPets && owner.pets != null) {
+            out.writeInt(owner.pets.size());
+            for (Pet pet : owner.pets) {
+                writePet(out, pet);
+            }
+        } else {
+            out.writeInt(NULL_LIST);
+        }
+    }
+
+    /**
+     * Returns the encoding of the owner with its pets, as written by {@link #writeOwner}
+     */
+    public static byte[] encodeOwner(Owner owner) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try {
+            writeOwner(new DataOutputStream(bytes), owner, true);
+        } catch (IOException e) {
+            // Not thrown when writing to memory
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Returns the owner of the encoding returned by {@link #encodeOwner}
+     */
+    public static Owner decodeOwner(byte[] encoded) {
+        try {
+            return readOwner(new DataInputStream(new ByteArrayInputStream(encoded)));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Corrupted owner encoding", e);
+        }
+    }
+
+    public static Owner readOwner(DataInput in) throws IOException {
+        Owner owner = new Owner(readNullableInt(in), readString(in), readString(in));
+        int petCount = in.readInt();
+        if (petCount != NULL_LIST) {
+            // Added directly, the pet indexes are rebuilt on the first change
+            owner.pets = new ArrayList<>(petCount);
+            for (int i = 0; i < petCount; i++) {
+                owner.pets.add(readPet(in));
+            }
+        }
+        return owner;
+    }
+
+    public static void writePet(DataOutput out, Pet pet) throws IOException {
+        writeNullableInt(out, pet.id);
+        writeNullableInt(out, pet.ownerId);
+        writeString(out, pet.name);
+        if (pet.visits != null) {
+            out.writeInt(pet.visits.size());
+            for (Visit visit : pet.visits) {
+                writeVisitFields(out, visit);
+            }
+        } else {
+            out.writeInt(NULL_LIST);
+        }
+    }
+
+    public static Pet readPet(DataInput in) throws IOException {
+        Pet pet = new Pet(readNullableInt(in));
+        pet.ownerId = readNullableInt(in);
+        pet.name = readString(in);
+        int visitCount = in.readInt();
+        if (visitCount != NULL_LIST) {
+            pet.visits = new ArrayList<>(visitCount);
+            for (int i = 0; i < visitCount; i++) {
+                pet.visits.add(readVisitFields(in, pet.id));
+            }
+        }
+        return pet;
+    }
+
+    public static void writeVisit(DataOutput out, Visit visit) throws IOException {
+        writeNullableInt(out, visit.petId);
+        writeVisitFields(out, visit);
+    }
+
+    public static Visit readVisit(DataInput in) throws IOException {
+        return readVisitFields(in, readNullableInt(in));
+    }
+
+    private static void writeVisitFields(DataOutput out, Visit visit) throws IOException {
+        writeNullableInt(out, visit.id);
+        out.writeInt(visit.visitDate == null ? NULL_DATE : (int) LocalDate.parse(visit.visitDate).toEpochDay());
+        writeString(out, visit.description);
+        writeKeywords(out, visit.keywords);
+    }
+
+    private static Visit readVisitFields(DataInput in, Integer petId) throws IOException {
+        Integer id = readNullableInt(in);
+        int visitDate = in.readInt();
+        Visit visit = new Visit(id, petId, visitDate == NULL_DATE ? null : LocalDate.ofEpochDay(visitDate).toString(),
+                readString(in));
+        visit.keywords = readKeywords(in);
+        return visit;
+    }
+
+    public static void writeKeywords(DataOutput out, List<String> keywords) throws IOException {
+        if (keywords == null) {
+            out.writeInt(NULL_LIST);
+            return;
+        }
+        out.writeInt(keywords.size());
+        for (String keyword : keywords) {
+            writeString(out, keyword);
+        }
+    }
+
+    public static List<String> readKeywords(DataInput in) throws IOException {
+        int count = in.readInt();
+        if (count == NULL_LIST) {
+            return null;
+        }
+        List<String> keywords = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            keywords.add(readString(in));
+        }
+        return keywords;
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(NULL_STRING);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length == NULL_STRING) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static void writeNullableInt(DataOutput out, Integer value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeInt(value);
+        }
+    }
+
+    private static Integer readNullableInt(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readInt() : null;
+    }
+}
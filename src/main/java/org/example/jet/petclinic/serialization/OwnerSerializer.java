@@ -0,0 +1,33 @@
+package org.example.jet.petclinic.serialization;
+
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.StreamSerializer;
+import org.example.jet.petclinic.model.Owner;
+
+import java.io.IOException;
+
+/**
+ * Serializes the owner with all its pets and visits, see {@link ModelEncoding}
+ */
+public class OwnerSerializer implements StreamSerializer<Owner> {
+
+    public static final int TYPE_ID = 1001;
+
+    @Override
+    public int getTypeId() {
+        return TYPE_ID;
+    }
+
+    @Override
+    public void write(ObjectDataOutput out, Owner owner) throws IOException {
+        ModelEncoding.writeVersion(out);
+        ModelEncoding.writeOwner(out, owner, true);
+    }
+
+    @Override
+    public Owner read(ObjectDataInput in) throws IOException {
+        ModelEncoding.readVersion(in);
+        return ModelEncoding.readOwner(in);
+    }
+}
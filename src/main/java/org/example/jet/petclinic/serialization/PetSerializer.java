@@ -0,0 +1,33 @@
+package org.example.jet.petclinic.serialization;
+
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.StreamSerializer;
+import org.example.jet.petclinic.model.Pet;
+
+import java.io.IOException;
+
+/**
+ * Serializes the pet with all its visits, see {@link ModelEncoding}
+ */
+public class PetSerializer implements StreamSerializer<Pet> {
+
+    public static final int TYPE_ID = 1002;
+
+    @Override
+    public int getTypeId() {
+        return TYPE_ID;
+    }
+
+    @Override
+    public void write(ObjectDataOutput out, Pet pet) throws IOException {
+        ModelEncoding.writeVersion(out);
+        ModelEncoding.writePet(out, pet);
+    }
+
+    @Override
+    public Pet read(ObjectDataInput in) throws IOException {
+        ModelEncoding.readVersion(in);
+        return ModelEncoding.readPet(in);
+    }
+}
@@ -0,0 +1,33 @@
+package org.example.jet.petclinic.serialization;
+
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.StreamSerializer;
+import org.example.jet.petclinic.model.Visit;
+
+import java.io.IOException;
+
+/**
+ * Serializes the visit with its keywords, see {@link ModelEncoding}
+ */
+public class VisitSerializer implements StreamSerializer<Visit> {
+
+    public static final int TYPE_ID = 1003;
+
+    @Override
+    public int getTypeId() {
+        return TYPE_ID;
+    }
+
+    @Override
+    public void write(ObjectDataOutput out, Visit visit) throws IOException {
+        ModelEncoding.writeVersion(out);
+        ModelEncoding.writeVisit(out, visit);
+    }
+
+    @Override
+    public Visit read(ObjectDataInput in) throws IOException {
+        ModelEncoding.readVersion(in);
+        return ModelEncoding.readVisit(in);
+    }
+}
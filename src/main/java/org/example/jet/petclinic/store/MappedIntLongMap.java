@@ -0,0 +1,216 @@
+package org.example.jet.petclinic.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Map from int keys to long values kept in a memory-mapped file
+ * <p>
+ * Open addressing with linear probing like {@link org.example.jet.petclinic.util.IntIntMap}, each slot of the file
+ * is the key followed by the value. The map grows into a new file of twice the capacity when it is half full.
+ * Entries are not removed. Not thread safe, the file is deleted when the map is closed.
+ */
+public class MappedIntLongMap implements Closeable {
+
+    /**
+     * Returned by {@link #get(int)} when there is no value for the key
+     */
+    public static final long MISSING = Long.MIN_VALUE;
+
+    private static final int FREE = 0;
+    private static final int SLOT_BYTES = Integer.BYTES + Long.BYTES;
+    private static final int MAX_CAPACITY = Integer.highestOneBit(Integer.MAX_VALUE / SLOT_BYTES);
+
+    private final Path directory;
+
+    private Path file;
+    private MappedByteBuffer slots;
+    private int capacity;
+    private int mask;
+    private int size;
+
+    // Key 0 is the free slot marker, its value is kept aside
+    private boolean hasZeroKey;
+    private long zeroValue;
+
+    /**
+     * @param directory       existing directory the file is created in
+     * @param initialCapacity number of slots of the first file, a power of two
+     */
+    public MappedIntLongMap(Path directory, int initialCapacity) {
+        if (Integer.bitCount(initialCapacity) != 1 || initialCapacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("Capacity must be a power of two up to " + MAX_CAPACITY + ", was "
+                    + initialCapacity);
+        }
+        this.directory = directory;
+        allocate(initialCapacity);
+    }
+
+    public long get(int key) {
+        if (key == FREE) {
+            return hasZeroKey ? zeroValue : MISSING;
+        }
+
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            int k = slots.getInt(i * SLOT_BYTES);
+            if (k == key) {
+                return slots.getLong(i * SLOT_BYTES + Integer.BYTES);
+            }
+            if (k == FREE) {
+                return MISSING;
+            }
+        }
+    }
+
+    /**
+     * Associates the value with the key, returns the previous value or {@link #MISSING}
+     */
+    public long put(int key, long value) {
+        if (key == FREE) {
+            long previous = hasZeroKey ? zeroValue : MISSING;
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                size++;
+            }
+            zeroValue = value;
+            return previous;
+        }
+
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            int k = slots.getInt(i * SLOT_BYTES);
+            if (k == key) {
+                long previous = slots.getLong(i * SLOT_BYTES + Integer.BYTES);
+                slots.putLong(i * SLOT_BYTES + Integer.BYTES, value);
+                return previous;
+            }
+            if (k == FREE) {
+                slots.putInt(i * SLOT_BYTES, key);
+                slots.putLong(i * SLOT_BYTES + Integer.BYTES, value);
+                if (++size > capacity / 2) {
+                    rehash();
+                }
+                return MISSING;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns a cursor over the entries, the map must not change while it is used
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Returns the size of the mapped file
+     */
+    public long mappedBytes() {
+        return (long) capacity * SLOT_BYTES;
+    }
+
+    @Override
+    public void close() throws IOException {
+        slots = null;
+        Files.deleteIfExists(file);
+    }
+
+    private void rehash() {
+        if (capacity == MAX_CAPACITY) {
+            throw new IllegalStateException("Map is full at " + size + " entries");
+        }
+        Path oldFile = file;
+        MappedByteBuffer oldSlots = slots;
+        int oldCapacity = capacity;
+        allocate(capacity * 2);
+
+        for (int i = 0; i < oldCapacity; i++) {
+            int k = oldSlots.getInt(i * SLOT_BYTES);
+            if (k != FREE) {
+                int slot = slot(k);
+                while (slots.getInt(slot * SLOT_BYTES) != FREE) {
+                    slot = (slot + 1) & mask;
+                }
+                slots.putInt(slot * SLOT_BYTES, k);
+                slots.putLong(slot * SLOT_BYTES + Integer.BYTES, oldSlots.getLong(i * SLOT_BYTES + Integer.BYTES));
+            }
+        }
+        try {
+            Files.delete(oldFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to delete " + oldFile, e);
+        }
+    }
+
+    private void allocate(int capacity) {
+        file = directory.resolve("index-" + capacity);
+        // A new file reads as zeros, all slots are free
+        try (FileChannel channel = FileChannel.open(file, CREATE_NEW, READ, WRITE)) {
+            slots = channel.map(MapMode.READ_WRITE, 0, (long) capacity * SLOT_BYTES);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to map " + file, e);
+        }
+        this.capacity = capacity;
+        mask = capacity - 1;
+    }
+
+    private int slot(int key) {
+        int h = key * 0x9e3779b9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * Steps through the entries of the map in no particular order
+     */
+    public final class Cursor {
+
+        private int index = -1;
+        private int key;
+        private long value;
+
+        /**
+         * Moves to the next entry, returns false when there is none
+         */
+        public boolean advance() {
+            if (index == -1) {
+                index = 0;
+                if (hasZeroKey) {
+                    key = FREE;
+                    value = zeroValue;
+                    return true;
+                }
+            }
+            for (; index < capacity; index++) {
+                int k = slots.getInt(index * SLOT_BYTES);
+                if (k != FREE) {
+                    key = k;
+                    value = slots.getLong(index * SLOT_BYTES + Integer.BYTES);
+                    index++;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public int key() {
+            return key;
+        }
+
+        public long value() {
+            return value;
+        }
+    }
+}
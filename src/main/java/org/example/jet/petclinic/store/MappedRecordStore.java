@@ -0,0 +1,181 @@
+package org.example.jet.petclinic.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Byte records kept in memory-mapped files
+ * <p>
+ * A record is stored in a slot of a power-of-two size from 32 bytes, prefixed with its length. It's rewritten in
+ * its slot while it fits and moved to a larger slot otherwise, the freed slots are reused by records of their
+ * size. The files are segments of a fixed size, added as the slots fill them up, a record has to fit in a
+ * segment. The address of a record is its position in the segments with the size class of its slot added in the
+ * low bits.
+ * <p>
+ * Not thread safe. The files are deleted when the store is closed, the operating system releases the mapped
+ * memory once the buffers are garbage collected.
+ */
+public class MappedRecordStore implements Closeable {
+
+    /**
+     * Address of no record, writing to it allocates a new slot
+     */
+    public static final long NONE = -1;
+
+    private static final int MIN_SLOT_BITS = 5;
+    private static final int CLASS_MASK = (1 << MIN_SLOT_BITS) - 1;
+    private static final int LENGTH_BYTES = Integer.BYTES;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+
+    // Addresses of the free slots of each size class
+    private final long[][] freeSlots = new long[CLASS_MASK + 1][];
+    private final int[] freeSlotCounts = new int[CLASS_MASK + 1];
+
+    private int segmentsCreated;
+    private long allocated;
+    private long used;
+
+    /**
+     * @param directory   existing directory the segment files are created in
+     * @param segmentSize size of each segment file in bytes, a power of two
+     */
+    public MappedRecordStore(Path directory, int segmentSize) {
+        if (Integer.bitCount(segmentSize) != 1 || segmentSize < 1 << MIN_SLOT_BITS || segmentSize > 1 << 30) {
+            throw new IllegalArgumentException("Segment size must be a power of two from 32 bytes to 1 GB, was "
+                    + segmentSize);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Writes the record in place of the record at the address, returns the address it was written to
+     */
+    public long write(long address, byte[] record) {
+        if ((long) LENGTH_BYTES + record.length > segmentSize) {
+            throw new IllegalArgumentException("Record of " + record.length + " bytes doesn't fit a segment of "
+                    + segmentSize + " bytes");
+        }
+        int sizeClass = sizeClass(record.length);
+        if (address != NONE && (int) (address & CLASS_MASK) != sizeClass) {
+            free(address);
+            address = NONE;
+        }
+        if (address == NONE) {
+            address = allocate(sizeClass);
+        }
+
+        ByteBuffer buffer = buffer(address);
+        buffer.putInt(record.length);
+        buffer.put(record);
+        return address;
+    }
+
+    public byte[] read(long address) {
+        ByteBuffer buffer = buffer(address);
+        byte[] record = new byte[buffer.getInt()];
+        buffer.get(record);
+        return record;
+    }
+
+    /**
+     * Frees the slot of the record at the address for other records
+     */
+    public void free(long address) {
+        int sizeClass = (int) (address & CLASS_MASK);
+        long[] slots = freeSlots[sizeClass];
+        if (slots == null) {
+            slots = freeSlots[sizeClass] = new long[16];
+        } else if (freeSlotCounts[sizeClass] == slots.length) {
+            slots = freeSlots[sizeClass] = Arrays.copyOf(slots, slots.length * 2);
+        }
+        slots[freeSlotCounts[sizeClass]++] = address;
+        used -= slotSize(sizeClass);
+    }
+
+    /**
+     * Returns the size of the segment files
+     */
+    public long mappedBytes() {
+        return (long) segments.size() * segmentSize;
+    }
+
+    /**
+     * Returns the size of the slots holding records
+     */
+    public long usedBytes() {
+        return used;
+    }
+
+    @Override
+    public void close() throws IOException {
+        segments.clear();
+        for (int i = 0; i < segmentsCreated; i++) {
+            Files.deleteIfExists(segmentFile(i));
+        }
+    }
+
+    private long allocate(int sizeClass) {
+        used += slotSize(sizeClass);
+        if (freeSlotCounts[sizeClass] > 0) {
+            return freeSlots[sizeClass][--freeSlotCounts[sizeClass]];
+        }
+
+        int slotSize = slotSize(sizeClass);
+        if (allocated % segmentSize + slotSize > segmentSize || allocated == mappedBytes()) {
+            // The rest of the last segment is left unused
+            allocated = mappedBytes();
+            segments.add(map(segments.size()));
+        }
+        long position = allocated;
+        allocated += slotSize;
+        return position << MIN_SLOT_BITS | sizeClass;
+    }
+
+    private ByteBuffer buffer(long address) {
+        long position = address >>> MIN_SLOT_BITS;
+        ByteBuffer buffer = segments.get((int) (position / segmentSize)).duplicate();
+        buffer.position((int) (position % segmentSize));
+        return buffer;
+    }
+
+    private MappedByteBuffer map(int segment) {
+        Path file = segmentFile(segment);
+        try (FileChannel channel = FileChannel.open(file, CREATE_NEW, READ, WRITE)) {
+            segmentsCreated++;
+            return channel.map(MapMode.READ_WRITE, 0, segmentSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to map segment " + file, e);
+        }
+    }
+
+    private Path segmentFile(int segment) {
+        return directory.resolve("records-" + segment);
+    }
+
+    private static int sizeClass(int recordLength) {
+        int slotSize = LENGTH_BYTES + recordLength;
+        return Math.max(0, 32 - Integer.numberOfLeadingZeros(slotSize - 1) - MIN_SLOT_BITS);
+    }
+
+    private static int slotSize(int sizeClass) {
+        return 1 << (sizeClass + MIN_SLOT_BITS);
+    }
+}
@@ -0,0 +1,98 @@
+package org.example.jet.petclinic.util;
+
+import com.hazelcast.jet.core.metrics.Metric;
+import com.hazelcast.jet.core.metrics.Metrics;
+import com.hazelcast.jet.core.metrics.Unit;
+
+import java.util.Arrays;
+
+/**
+ * Histogram reported as user metrics of the processor recording the values
+ * <p>
+ * A Jet metric is a single long value, so the histogram is a counter per bucket: {@code <name>Le<bound>} counts the
+ * values above the previous bound up to its own bound, {@code <name>LeInf} the values above the highest bound.
+ * {@code <name>Sum} is the sum of all values. The counters only grow, the distribution over an interval is the
+ * difference of the counters at its start and end, summed over the processors for the whole job.
+ */
+public final class HistogramMetric {
+
+    private final String sumName;
+    private final Unit unit;
+    private final long[] bounds;
+    private final String[] bucketNames;
+
+    /**
+     * @param name   prefix of the metric names
+     * @param unit   unit of the values
+     * @param bounds upper bounds of the buckets in increasing order
+     */
+    public HistogramMetric(String name, Unit unit, long... bounds) {
+        for (int i = 1; i < bounds.length; i++) {
+            if (bounds[i] <= bounds[i - 1]) {
+                throw new IllegalArgumentException("Bounds must be increasing, was " + Arrays.toString(bounds));
+            }
+        }
+        this.sumName = name + "Sum";
+        this.unit = unit;
+        this.bounds = bounds.clone();
+        this.bucketNames = new String[bounds.length + 1];
+        for (int i = 0; i < bounds.length; i++) {
+            bucketNames[i] = name + "Le" + bounds[i];
+        }
+        bucketNames[bounds.length] = name + "LeInf";
+    }
+
+    /**
+     * Records the value to the metrics of the calling processor, must be called from a processor thread
+     * <p>
+     * Looks up the metrics on every call, use a {@link #recorder()} when recording many values in a row.
+     */
+    public void record(long value) {
+        Metrics.metric(bucketNames[bucket(value)], Unit.COUNT).increment();
+        Metrics.metric(sumName, unit).increment(value);
+    }
+
+    /**
+     * Returns the recorder updating the metrics of the calling processor
+     * <p>
+     * Must be called from a processor thread, the recorder can then be used from any thread.
+     */
+    public Recorder recorder() {
+        Metric[] buckets = new Metric[bucketNames.length];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = Metrics.threadSafeMetric(bucketNames[i], Unit.COUNT);
+        }
+        return new Recorder(Metrics.threadSafeMetric(sumName, unit), buckets);
+    }
+
+    /**
+     * Returns the index of the bucket of the value
+     */
+    int bucket(long value) {
+        int i = 0;
+        while (i < bounds.length && value > bounds[i]) {
+            i++;
+        }
+        return i;
+    }
+
+    String bucketName(int bucket) {
+        return bucketNames[bucket];
+    }
+
+    public final class Recorder {
+
+        private final Metric sum;
+        private final Metric[] buckets;
+
+        private Recorder(Metric sum, Metric[] buckets) {
+            this.sum = sum;
+            this.buckets = buckets;
+        }
+
+        public void record(long value) {
+            buckets[bucket(value)].increment();
+            sum.increment(value);
+        }
+    }
+}
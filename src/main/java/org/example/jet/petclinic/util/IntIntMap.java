@@ -0,0 +1,261 @@
+package org.example.jet.petclinic.util;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Map from int keys to int values without boxing
+ * <p>
+ * Open addressing with linear probing over a key and a value array. Serializes as the number of entries
+ * followed by the key-value pairs.
+ */
+public class IntIntMap implements Serializable {
+
+    /**
+     * Returned by {@link #get(int)} when there is no value for the key
+     */
+    public static final int MISSING = -1;
+
+    private static final int FREE = 0;
+    private static final int DEFAULT_CAPACITY = 8;
+
+    private transient int[] keys;
+    private transient int[] values;
+
+    // Key 0 is the free slot marker, its value is kept aside
+    private transient boolean hasZeroKey;
+    private transient int zeroValue;
+
+    private transient int size;
+    private transient int mask;
+
+    public IntIntMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public IntIntMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    public int get(int key) {
+        if (key == FREE) {
+            return hasZeroKey ? zeroValue : MISSING;
+        }
+
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            int k = keys[i];
+            if (k == key) {
+                return values[i];
+            }
+            if (k == FREE) {
+                return MISSING;
+            }
+        }
+    }
+
+    public boolean containsKey(int key) {
+        if (key == FREE) {
+            return hasZeroKey;
+        }
+
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            int k = keys[i];
+            if (k == key) {
+                return true;
+            }
+            if (k == FREE) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Associates the value with the key, returns the previous value or {@link #MISSING}
+     */
+    public int put(int key, int value) {
+        if (key == FREE) {
+            int previous = hasZeroKey ? zeroValue : MISSING;
+            if (!hasZeroKey) {
+                hasZeroKey = true;
+                size++;
+            }
+            zeroValue = value;
+            return previous;
+        }
+
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            int k = keys[i];
+            if (k == key) {
+                int previous = values[i];
+                values[i] = value;
+                return previous;
+            }
+            if (k == FREE) {
+                keys[i] = key;
+                values[i] = value;
+                if (++size > keys.length / 2) {
+                    rehash(keys.length * 2);
+                }
+                return MISSING;
+            }
+        }
+    }
+
+    /**
+     * Removes the key, returns its value or {@link #MISSING}
+     */
+    public int remove(int key) {
+        if (key == FREE) {
+            if (!hasZeroKey) {
+                return MISSING;
+            }
+            hasZeroKey = false;
+            size--;
+            return zeroValue;
+        }
+
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            int k = keys[i];
+            if (k == FREE) {
+                return MISSING;
+            }
+            if (k == key) {
+                int previous = values[i];
+                shiftBack(i);
+                size--;
+                return previous;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns the keys of the map in no particular order
+     */
+    public int[] keys() {
+        int[] result = new int[size];
+        int n = 0;
+        if (hasZeroKey) {
+            result[n++] = FREE;
+        }
+        for (int k : keys) {
+            if (k != FREE) {
+                result[n++] = k;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a copy of the map, changes of either don't affect the other
+     */
+    public IntIntMap copy() {
+        IntIntMap copy = new IntIntMap(0);
+        copy.keys = keys.clone();
+        copy.values = values.clone();
+        copy.hasZeroKey = hasZeroKey;
+        copy.zeroValue = zeroValue;
+        copy.size = size;
+        copy.mask = mask;
+        return copy;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE);
+        hasZeroKey = false;
+        size = 0;
+    }
+
+    /**
+     * Fills the gap left by a removed entry with the entries following it, so lookups don't stop early
+     */
+    private void shiftBack(int gap) {
+        int i = gap;
+        while (true) {
+            i = (i + 1) & mask;
+            int k = keys[i];
+            if (k == FREE) {
+                break;
+            }
+
+            int home = slot(k);
+            // Move the entry only if its home slot is not between the gap and its current slot
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                keys[gap] = k;
+                values[gap] = values[i];
+                gap = i;
+            }
+        }
+        keys[gap] = FREE;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            int k = oldKeys[i];
+            if (k != FREE) {
+                int slot = slot(k);
+                while (keys[slot] != FREE) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = k;
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    private int slot(int key) {
+        int h = key * 0x9e3779b9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity / 2 < expectedSize) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.writeInt(size);
+        if (hasZeroKey) {
+            out.writeInt(FREE);
+            out.writeInt(zeroValue);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != FREE) {
+                out.writeInt(keys[i]);
+                out.writeInt(values[i]);
+            }
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException {
+        int entries = in.readInt();
+        allocate(capacityFor(entries));
+        for (int i = 0; i < entries; i++) {
+            int key = in.readInt();
+            put(key, in.readInt());
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package org.example.jet.petclinic.util;
+
+import java.util.Arrays;
+
+/**
+ * Map from int keys to object values without boxing the keys
+ * <p>
+ * Open addressing with linear probing over a key and a value array like {@link IntIntMap}, an entry costs a slot
+ * in each array instead of a node and a boxed key. Null values are not supported.
+ *
+ * @param <V> value type
+ */
+public class IntObjectMap<V> {
+
+    private static final int FREE = 0;
+    private static final int DEFAULT_CAPACITY = 8;
+
+    private int[] keys;
+    private Object[] values;
+
+    // Key 0 is the free slot marker, its value is kept aside
+    private V zeroValue;
+
+    private int size;
+    private int mask;
+
+    public IntObjectMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public IntObjectMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * Returns the value of the key, null when there is none
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        if (key == FREE) {
+            return zeroValue;
+        }
+
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            int k = keys[i];
+            if (k == key) {
+                return (V) values[i];
+            }
+            if (k == FREE) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Associates the value with the key, returns the previous value or null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Null value for key " + key);
+        }
+        if (key == FREE) {
+            V previous = zeroValue;
+            if (previous == null) {
+                size++;
+            }
+            zeroValue = value;
+            return previous;
+        }
+
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            int k = keys[i];
+            if (k == key) {
+                V previous = (V) values[i];
+                values[i] = value;
+                return previous;
+            }
+            if (k == FREE) {
+                keys[i] = key;
+                values[i] = value;
+                if (++size > keys.length / 2) {
+                    rehash(keys.length * 2);
+                }
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Removes the key, returns its value or null
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        if (key == FREE) {
+            V previous = zeroValue;
+            if (previous != null) {
+                zeroValue = null;
+                size--;
+            }
+            return previous;
+        }
+
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            int k = keys[i];
+            if (k == FREE) {
+                return null;
+            }
+            if (k == key) {
+                V previous = (V) values[i];
+                shiftBack(i);
+                size--;
+                return previous;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns a cursor over the entries, the map must not be changed while it is used
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    public void clear() {
+        Arrays.fill(keys, FREE);
+        Arrays.fill(values, null);
+        zeroValue = null;
+        size = 0;
+    }
+
+    /**
+     * Fills the gap left by a removed entry with the entries following it, so lookups don't stop early
+     */
+    private void shiftBack(int gap) {
+        int i = gap;
+        while (true) {
+            i = (i + 1) & mask;
+            int k = keys[i];
+            if (k == FREE) {
+                break;
+            }
+
+            int home = slot(k);
+            // Move the entry only if its home slot is not between the gap and its current slot
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                keys[gap] = k;
+                values[gap] = values[i];
+                gap = i;
+            }
+        }
+        keys[gap] = FREE;
+        values[gap] = null;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            int k = oldKeys[i];
+            if (k != FREE) {
+                int slot = slot(k);
+                while (keys[slot] != FREE) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = k;
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    private int slot(int key) {
+        int h = key * 0x9e3779b9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity / 2 < expectedSize) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+    /**
+     * Steps through the entries of the map in no particular order
+     */
+    public final class Cursor {
+
+        private int index = -1;
+        private int key;
+        private V value;
+
+        /**
+         * Moves to the next entry, returns false when there is none
+         */
+        @SuppressWarnings("unchecked")
+        public boolean advance() {
+            if (index == -1) {
+                index = 0;
+                if (zeroValue != null) {
+                    key = FREE;
+                    value = zeroValue;
+                    return true;
+                }
+            }
+            for (; index < keys.length; index++) {
+                int k = keys[index];
+                if (k != FREE) {
+                    key = k;
+                    value = (V) values[index];
+                    index++;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public int key() {
+            return key;
+        }
+
+        public V value() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package org.example.jet.petclinic.util;
+
+/**
+ * Reads the fields of a flat JSON object one by one, without building a map of all of them
+ * <p>
+ * The reader only looks at the characters of the field names, a value is only converted when it's read and
+ * skipped otherwise. Nested objects and arrays can be skipped but not read. Field names are compared as they
+ * are written, escape sequences in names are not decoded.
+ * <pre>
+ * JsonFieldReader reader = new JsonFieldReader(json);
+ * while (reader.next()) {
+ *     if (reader.nameEquals("id")) {
+ *         id = reader.intValue();
+ *     }
+ * }
+ * </pre>
+ * Malformed JSON fails with {@link IllegalArgumentException}.
+ */
+public class JsonFieldReader {
+
+    private final String json;
+
+    private int pos;
+    private int nameStart;
+    private int nameEnd;
+    private boolean first = true;
+    private boolean valuePending;
+
+    public JsonFieldReader(String json) {
+        this.json = json;
+        skipWhitespace();
+        expect('{');
+    }
+
+    /**
+     * Moves to the next field, returns false after the last one
+     */
+    public boolean next() {
+        if (valuePending) {
+            skipValue();
+        }
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return false;
+        }
+        if (!first) {
+            expect(',');
+            skipWhitespace();
+        }
+        first = false;
+
+        expect('"');
+        nameStart = pos;
+        nameEnd = endOfString();
+        pos = nameEnd + 1;
+        skipWhitespace();
+        expect(':');
+        skipWhitespace();
+        valuePending = true;
+        return true;
+    }
+
+    /**
+     * Returns whether the current field has the given name
+     */
+    public boolean nameEquals(String name) {
+        return nameEnd - nameStart == name.length() && json.regionMatches(nameStart, name, 0, name.length());
+    }
+
+    /**
+     * Returns the name of the current field
+     */
+    public String name() {
+        return json.substring(nameStart, nameEnd);
+    }
+
+    /**
+     * Reads the value of the current field as an int, null for a JSON null
+     */
+    public Integer intValue() {
+        if (readNull()) {
+            return null;
+        }
+        boolean negative = peek() == '-';
+        if (negative) {
+            pos++;
+        }
+        int start = pos;
+        long value = 0;
+        while (pos < json.length() && Character.isDigit(json.charAt(pos))) {
+            value = value * 10 + (json.charAt(pos) - '0');
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                throw error("Int value out of range");
+            }
+            pos++;
+        }
+        if (pos == start) {
+            throw error("Expected an int");
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            throw error("Int value out of range");
+        }
+        valuePending = false;
+        return (int) value;
+    }
+
+    /**
+     * Reads the value of the current field as a string, null for a JSON null
+     */
+    public String stringValue() {
+        if (readNull()) {
+            return null;
+        }
+        expect('"');
+        int start = pos;
+        int end = endOfString();
+        pos = end + 1;
+        valuePending = false;
+
+        int escape = json.indexOf('\\', start);
+        if (escape < 0 || escape >= end) {
+            return json.substring(start, end);
+        }
+        return unescape(start, end);
+    }
+
+    private boolean readNull() {
+        if (json.startsWith("null", pos)) {
+            pos += 4;
+            valuePending = false;
+            return true;
+        }
+        return false;
+    }
+
+    private void skipValue() {
+        char c = peek();
+        if (c == '"') {
+            pos++;
+            pos = endOfString() + 1;
+        } else if (c == '{' || c == '[') {
+            int depth = 0;
+            do {
+                c = peek();
+                if (c == '"') {
+                    pos++;
+                    pos = endOfString() + 1;
+                    continue;
+                }
+                if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+                pos++;
+            } while (depth > 0);
+        } else {
+            // Number, true, false or null
+            while (pos < json.length() && ",}] \t\r\n".indexOf(json.charAt(pos)) < 0) {
+                pos++;
+            }
+        }
+        valuePending = false;
+    }
+
+    /**
+     * Returns the position of the quote ending the string, the current position is just after the opening quote
+     */
+    private int endOfString() {
+        for (int i = pos; i < json.length(); i++) {
+            char c = json.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '"') {
+                return i;
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    private String unescape(int start, int end) {
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char c = json.charAt(i);
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            char escaped = json.charAt(++i);
+            switch (escaped) {
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'u':
+                    sb.append((char) Integer.parseInt(json.substring(i + 1, i + 5), 16));
+                    i += 4;
+                    break;
+                default:
+                    // \" \\ \/
+                    sb.append(escaped);
+            }
+        }
+        return sb.toString();
+    }
+
+    private void skipWhitespace() {
+        while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private char peek() {
+        if (pos >= json.length()) {
+            throw error("Unexpected end");
+        }
+        return json.charAt(pos);
+    }
+
+    private void expect(char expected) {
+        if (peek() != expected) {
+            throw error("Expected '" + expected + "'");
+        }
+        pos++;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + pos + " of " + json);
+    }
+}
@@ -0,0 +1,179 @@
+package org.example.jet.petclinic.util;
+
+/**
+ * Immutable map from int keys to int values sharing its structure with the maps derived from it
+ * <p>
+ * The entries are kept in a hash array mapped trie of nodes 32 wide, each node holding its entries and its child
+ * nodes in two arrays compacted by bitmaps. {@link #plus(int, int)} copies only the nodes on the path to the changed
+ * entry, the map it is called on stays unchanged and can be read by other threads meanwhile. The keys are hashed by
+ * a multiplication with an odd constant, distinct keys have distinct hashes and no collision nodes are needed.
+ */
+public final class PersistentIntIntMap {
+
+    /**
+     * Returned by {@link #get(int)} when there is no value for the key
+     */
+    public static final int MISSING = -1;
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private static final PersistentIntIntMap EMPTY = new PersistentIntIntMap(Node.EMPTY, 0);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentIntIntMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    public static PersistentIntIntMap empty() {
+        return EMPTY;
+    }
+
+    public int get(int key) {
+        int hash = hash(key);
+        Node node = root;
+        for (int shift = 0; ; shift += BITS) {
+            int bit = bit(hash, shift);
+            if ((node.dataMap & bit) != 0) {
+                int index = Node.index(node.dataMap, bit);
+                return node.entries[2 * index] == key ? node.entries[2 * index + 1] : MISSING;
+            }
+            if ((node.nodeMap & bit) == 0) {
+                return MISSING;
+            }
+            node = node.children[Node.index(node.nodeMap, bit)];
+        }
+    }
+
+    public boolean containsKey(int key) {
+        return get(key) != MISSING;
+    }
+
+    /**
+     * Returns the map with the value associated with the key
+     */
+    public PersistentIntIntMap plus(int key, int value) {
+        boolean present = containsKey(key);
+        Node newRoot = root.plus(key, value, hash(key), 0);
+        return newRoot == root ? this : new PersistentIntIntMap(newRoot, present ? size : size + 1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private static int hash(int key) {
+        return key * 0x9e3779b9;
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    /**
+     * Node of the trie, its entries are pairs of key and value in the order of their bits in the data bitmap, its
+     * children in the order of their bits in the node bitmap
+     */
+    private static final class Node {
+
+        static final Node EMPTY = new Node(0, 0, new int[0], new Node[0]);
+
+        final int dataMap;
+        final int nodeMap;
+        final int[] entries;
+        final Node[] children;
+
+        Node(int dataMap, int nodeMap, int[] entries, Node[] children) {
+            this.dataMap = dataMap;
+            this.nodeMap = nodeMap;
+            this.entries = entries;
+            this.children = children;
+        }
+
+        Node plus(int key, int value, int hash, int shift) {
+            int bit = bit(hash, shift);
+            if ((dataMap & bit) != 0) {
+                int index = index(dataMap, bit);
+                int existingKey = entries[2 * index];
+                if (existingKey == key) {
+                    if (entries[2 * index + 1] == value) {
+                        return this;
+                    }
+                    int[] newEntries = entries.clone();
+                    newEntries[2 * index + 1] = value;
+                    return new Node(dataMap, nodeMap, newEntries, children);
+                }
+                // Two keys in the slot, both move into a child node
+                Node child = pair(existingKey, entries[2 * index + 1], hash(existingKey),
+                        key, value, hash, shift + BITS);
+                return new Node(dataMap ^ bit, nodeMap | bit, removePair(entries, index),
+                        insert(children, index(nodeMap, bit), child));
+            }
+            if ((nodeMap & bit) != 0) {
+                int index = index(nodeMap, bit);
+                Node child = children[index].plus(key, value, hash, shift + BITS);
+                if (child == children[index]) {
+                    return this;
+                }
+                Node[] newChildren = children.clone();
+                newChildren[index] = child;
+                return new Node(dataMap, nodeMap, entries, newChildren);
+            }
+            return new Node(dataMap | bit, nodeMap, insertPair(entries, index(dataMap, bit), key, value), children);
+        }
+
+        /**
+         * Returns the node of two keys whose hashes are equal below the shift, they differ above it
+         */
+        static Node pair(int key1, int value1, int hash1, int key2, int value2, int hash2, int shift) {
+            int bit1 = bit(hash1, shift);
+            int bit2 = bit(hash2, shift);
+            if (bit1 == bit2) {
+                return new Node(0, bit1, new int[0],
+                        new Node[]{pair(key1, value1, hash1, key2, value2, hash2, shift + BITS)});
+            }
+            int[] entries = Integer.compareUnsigned(bit1, bit2) < 0
+                    ? new int[]{key1, value1, key2, value2}
+                    : new int[]{key2, value2, key1, value1};
+            return new Node(bit1 | bit2, 0, entries, new Node[0]);
+        }
+
+        /**
+         * Returns the position of the bit among the bits of the bitmap
+         */
+        static int index(int bitmap, int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        private static int[] insertPair(int[] entries, int index, int key, int value) {
+            int[] result = new int[entries.length + 2];
+            System.arraycopy(entries, 0, result, 0, 2 * index);
+            result[2 * index] = key;
+            result[2 * index + 1] = value;
+            System.arraycopy(entries, 2 * index, result, 2 * index + 2, entries.length - 2 * index);
+            return result;
+        }
+
+        private static int[] removePair(int[] entries, int index) {
+            int[] result = new int[entries.length - 2];
+            System.arraycopy(entries, 0, result, 0, 2 * index);
+            System.arraycopy(entries, 2 * index + 2, result, 2 * index, result.length - 2 * index);
+            return result;
+        }
+
+        private static Node[] insert(Node[] children, int index, Node child) {
+            Node[] result = new Node[children.length + 1];
+            System.arraycopy(children, 0, result, 0, index);
+            result[index] = child;
+            System.arraycopy(children, index, result, index + 1, children.length - index);
+            return result;
+        }
+    }
+}
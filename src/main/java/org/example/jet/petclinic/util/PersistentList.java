@@ -0,0 +1,266 @@
+package org.example.jet.petclinic.util;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.function.Predicate;
+
+/**
+ * Immutable list sharing its structure with the lists derived from it
+ * <p>
+ * The elements are kept in a trie of nodes 32 wide with the last elements in a separate tail, like the persistent
+ * vector of Clojure. {@link #plus(Object)} and {@link #with(int, Object)} copy only the nodes on the path to the
+ * changed element, the list they are called on stays unchanged and can be read by other threads meanwhile.
+ * {@link #dropFirst(int)} moves the start of the list, the dropped elements are released by copying the rest
+ * into a new trie once they outnumber it.
+ * <p>
+ * The mutators of {@link java.util.List} throw {@link UnsupportedOperationException}. Serializes as the number of
+ * elements followed by the elements.
+ */
+public final class PersistentList<E> extends AbstractList<E> implements RandomAccess, Serializable {
+
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    private static final Object[] EMPTY_NODE = new Object[0];
+    private static final PersistentList<?> EMPTY = new PersistentList<>(0, 0, BITS, EMPTY_NODE, EMPTY_NODE);
+
+    // Positions before start have been dropped, end is the position after the last element
+    private transient int start;
+    private transient int end;
+
+    private transient int shift;
+    private transient Object[] root;
+    private transient Object[] tail;
+
+    private PersistentList(int start, int end, int shift, Object[] root, Object[] tail) {
+        this.start = start;
+        this.end = end;
+        this.shift = shift;
+        this.root = root;
+        this.tail = tail;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <E> PersistentList<E> empty() {
+        return (PersistentList<E>) EMPTY;
+    }
+
+    /**
+     * Returns the elements as a persistent list, the list itself when it is one already, an empty list for null
+     */
+    @SuppressWarnings("unchecked")
+    public static <E> PersistentList<E> copyOf(Collection<? extends E> elements) {
+        if (elements instanceof PersistentList) {
+            return (PersistentList<E>) elements;
+        }
+        PersistentList<E> list = empty();
+        if (elements != null) {
+            for (E element : elements) {
+                list = list.plus(element);
+            }
+        }
+        return list;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size());
+        }
+        int position = start + index;
+        return (E) nodeFor(position)[position & MASK];
+    }
+
+    @Override
+    public int size() {
+        return end - start;
+    }
+
+    /**
+     * Returns the list with the element appended
+     */
+    public PersistentList<E> plus(E element) {
+        if (end - tailOffset() < WIDTH) {
+            Object[] newTail = Arrays.copyOf(tail, tail.length + 1);
+            newTail[tail.length] = element;
+            return new PersistentList<>(start, end + 1, shift, root, newTail);
+        }
+
+        // The tail is full, it moves into the trie
+        Object[] newRoot;
+        int newShift = shift;
+        if ((end >>> BITS) > (1 << shift)) {
+            newRoot = new Object[]{root, newPath(shift, tail)};
+            newShift += BITS;
+        } else {
+            newRoot = pushTail(shift, root, tail);
+        }
+        return new PersistentList<>(start, end + 1, newShift, newRoot, new Object[]{element});
+    }
+
+    /**
+     * Returns the list with the element at the index replaced
+     */
+    public PersistentList<E> with(int index, E element) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size());
+        }
+        int position = start + index;
+        if (position >= tailOffset()) {
+            Object[] newTail = tail.clone();
+            newTail[position & MASK] = element;
+            return new PersistentList<>(start, end, shift, root, newTail);
+        }
+        return new PersistentList<>(start, end, shift, replace(shift, root, position, element), tail);
+    }
+
+    /**
+     * Returns the list without its first elements
+     */
+    public PersistentList<E> dropFirst(int count) {
+        if (count <= 0) {
+            return this;
+        }
+        if (count >= size()) {
+            return empty();
+        }
+        if (start + count > size() - count) {
+            // Most of the trie would be dropped elements
+            return copyOf(subList(count, size()));
+        }
+        return new PersistentList<>(start + count, end, shift, root, tail);
+    }
+
+    /**
+     * Returns the list with only the elements matching the predicate, this list when all of them match
+     * <p>
+     * Dropping a run of elements at the start of the list is as cheap as {@link #dropFirst(int)}, dropping others
+     * copies the list.
+     */
+    public PersistentList<E> filter(Predicate<? super E> predicate) {
+        int size = size();
+        int firstKept = 0;
+        while (firstKept < size && !predicate.test(get(firstKept))) {
+            firstKept++;
+        }
+        for (int i = firstKept; i < size; i++) {
+            if (!predicate.test(get(i))) {
+                PersistentList<E> filtered = empty();
+                for (int j = firstKept; j < size; j++) {
+                    E element = get(j);
+                    if (predicate.test(element)) {
+                        filtered = filtered.plus(element);
+                    }
+                }
+                return filtered;
+            }
+        }
+        return dropFirst(firstKept);
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            private int position = start;
+            private Object[] node;
+
+            @Override
+            public boolean hasNext() {
+                return position < end;
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public E next() {
+                if (position >= end) {
+                    throw new NoSuchElementException();
+                }
+                if (node == null || (position & MASK) == 0) {
+                    node = nodeFor(position);
+                }
+                return (E) node[position++ & MASK];
+            }
+        };
+    }
+
+    /**
+     * Returns the position of the first element in the tail
+     */
+    private int tailOffset() {
+        return end < WIDTH ? 0 : ((end - 1) >>> BITS) << BITS;
+    }
+
+    /**
+     * Returns the leaf node holding the element at the position
+     */
+    private Object[] nodeFor(int position) {
+        if (position >= tailOffset()) {
+            return tail;
+        }
+        Object[] node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Object[]) node[(position >>> level) & MASK];
+        }
+        return node;
+    }
+
+    private Object[] pushTail(int level, Object[] parent, Object[] tailNode) {
+        int index = ((end - 1) >>> level) & MASK;
+        Object[] node = Arrays.copyOf(parent, Math.max(parent.length, index + 1));
+        if (level == BITS) {
+            node[index] = tailNode;
+        } else {
+            Object[] child = index < parent.length ? (Object[]) parent[index] : null;
+            node[index] = child != null
+                    ? pushTail(level - BITS, child, tailNode)
+                    : newPath(level - BITS, tailNode);
+        }
+        return node;
+    }
+
+    private static Object[] newPath(int level, Object[] node) {
+        return level == 0 ? node : new Object[]{newPath(level - BITS, node)};
+    }
+
+    private static Object[] replace(int level, Object[] node, int position, Object element) {
+        Object[] copy = node.clone();
+        if (level == 0) {
+            copy[position & MASK] = element;
+        } else {
+            int index = (position >>> level) & MASK;
+            copy[index] = replace(level - BITS, (Object[]) node[index], position, element);
+        }
+        return copy;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.writeInt(size());
+        for (E element : this) {
+            out.writeObject(element);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        int size = in.readInt();
+        PersistentList<E> list = empty();
+        for (int i = 0; i < size; i++) {
+            list = list.plus((E) in.readObject());
+        }
+        start = list.start;
+        end = list.end;
+        shift = list.shift;
+        root = list.root;
+        tail = list.tail;
+    }
+}
@@ -0,0 +1,105 @@
+package org.example.jet.petclinic;
+
+import com.hazelcast.jet.cdc.ParsingException;
+import com.hazelcast.jet.json.JsonUtil;
+import org.example.jet.petclinic.model.Owner;
+import org.example.jet.petclinic.model.Pet;
+import org.example.jet.petclinic.model.Visit;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.time.LocalDate;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ChangeRecordMappingTest {
+
+    private static final Logger log = LoggerFactory.getLogger(ChangeRecordMappingTest.class);
+
+    // Values as flattened by Jet, with the fields it adds
+    private static final String OWNER_VALUE = "{\"id\":6,\"first_name\":\"Jean\",\"last_name\":\"Coleman\","
+            + "\"address\":\"105 N. Lake St.\",\"city\":\"Monona\",\"telephone\":\"6085552654\","
+            + "\"__op\":\"c\",\"__db\":\"petclinic\",\"__table\":\"owners\",\"__ts_ms\":1596543211000,"
+            + "\"__deleted\":\"false\"}";
+    private static final String PET_VALUE = "{\"id\":7,\"name\":\"Samantha\",\"birth_date\":15163,\"type_id\":1,"
+            + "\"owner_id\":6,\"__op\":\"c\",\"__db\":\"petclinic\",\"__table\":\"pets\",\"__ts_ms\":1596543211000,"
+            + "\"__deleted\":\"false\"}";
+    private static final String VISIT_VALUE = "{\"id\":1,\"pet_id\":7,\"visit_date\":18262,"
+            + "\"description\":\"rabies shot\",\"__op\":\"c\",\"__db\":\"petclinic\",\"__table\":\"visits\","
+            + "\"__ts_ms\":1596543211000,\"__deleted\":\"false\"}";
+
+    @Test
+    public void when_mapOwner_then_shouldReadOwnerColumns() throws ParsingException {
+        assertThat(PetClinicIndexJob.mapRecordValueToPOJO(OWNER_VALUE)).isEqualTo(new Owner(6, "Jean", "Coleman"));
+    }
+
+    @Test
+    public void when_mapPet_then_shouldReadPetColumns() throws ParsingException {
+        assertThat(PetClinicIndexJob.mapRecordValueToPOJO(PET_VALUE)).isEqualTo(new Pet(7, "Samantha", 6));
+    }
+
+    @Test
+    public void when_mapVisit_then_shouldConvertDate() throws ParsingException {
+        assertThat(PetClinicIndexJob.mapRecordValueToPOJO(VISIT_VALUE))
+                .isEqualTo(new Visit(1, 7, "2020-01-01", "rabies shot"));
+    }
+
+    @Test
+    public void when_noTable_then_shouldFail() {
+        assertThatThrownBy(() -> PetClinicIndexJob.mapRecordValueToPOJO("{\"id\":6}"))
+                .isInstanceOf(ParsingException.class);
+        assertThatThrownBy(() -> PetClinicIndexJob.mapRecordValueToPOJO("{\"id\":"))
+                .isInstanceOf(ParsingException.class);
+    }
+
+    /**
+     * Compares the bytes allocated per record with parsing the whole value to a map first
+     */
+    @Test
+    public void when_mapRecord_then_shouldAllocateLessThanMap() throws Exception {
+        int iterations = 100_000;
+
+        // Warm up, so the allocations of class loading and of the interpreter are not counted
+        allocatedPerRecord(iterations, () -> PetClinicIndexJob.mapRecordValueToPOJO(OWNER_VALUE));
+        allocatedPerRecord(iterations, () -> mapFromMap(OWNER_VALUE));
+
+        long allocated = allocatedPerRecord(iterations, () -> PetClinicIndexJob.mapRecordValueToPOJO(OWNER_VALUE));
+        long mapAllocated = allocatedPerRecord(iterations, () -> mapFromMap(OWNER_VALUE));
+
+        log.info("Owner record: {} bytes allocated, {} bytes through a map", allocated, mapAllocated);
+        assertThat(allocated).isLessThan(mapAllocated / 2);
+    }
+
+    /**
+     * The mapping before, the whole value parsed to a map first
+     */
+    private static Object mapFromMap(String json) throws Exception {
+        Map<String, Object> changeMap = JsonUtil.mapFrom(json);
+        Integer visitDate = (Integer) changeMap.get("visit_date");
+        return new Visit((Integer) changeMap.get("pet_id"),
+                visitDate == null ? null : LocalDate.ofEpochDay(visitDate).toString(),
+                (String) changeMap.get("description"));
+    }
+
+    private static long allocatedPerRecord(int iterations, Mapping mapping) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        long start = threads.getThreadAllocatedBytes(threadId);
+        Object last = null;
+        for (int i = 0; i < iterations; i++) {
+            last = mapping.map();
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - start;
+        assertThat(last).isNotNull();
+        return allocated / iterations;
+    }
+
+    private interface Mapping {
+        Object map() throws Exception;
+    }
+}
@@ -0,0 +1,127 @@
+package org.example.jet.petclinic;
+
+import org.example.jet.petclinic.model.DocumentChange;
+import org.example.jet.petclinic.model.Owner;
+import org.example.jet.petclinic.model.Pet;
+import org.example.jet.petclinic.model.Visit;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.hazelcast.jet.core.test.TestSupport.verifyProcessor;
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CoalesceChangesPTest {
+
+    private static final long WINDOW = 60_000;
+
+    private final Owner owner = new Owner(6, "Jean", "Coleman");
+
+    @Test
+    public void when_changesOfNewOwner_then_shouldProduceSingleFullDocument() {
+        Pet pet = pet(7, "rabies shot");
+        Pet petWithTwoVisits = pet(7, "rabies shot", "checkup");
+        Owner renamedOwner = new Owner(6, "Jean", "Smith");
+
+        Owner expected = new Owner(6, "Jean", "Smith");
+        expected.addPet(petWithTwoVisits);
+
+        verifyProcessor(() -> new CoalesceChangesP(WINDOW, 100))
+                .input(asList(
+                        DocumentChange.full(owner),
+                        DocumentChange.visitAdded(pet, pet.visits.get(0)).withDocument(owner),
+                        DocumentChange.visitAdded(petWithTwoVisits, petWithTwoVisits.visits.get(1)).withDocument(owner),
+                        DocumentChange.ownerUpdated(renamedOwner)
+                ))
+                .disableLogging()
+                .expectOutput(asList(DocumentChange.full(expected)));
+    }
+
+    @Test
+    public void when_changesOfIndexedOwner_then_shouldProduceOneChangePerPart() {
+        Pet pet = pet(7, "rabies shot");
+        Pet petWithTwoVisits = pet(7, "rabies shot", "checkup");
+        Pet otherPet = pet(8, "neutered");
+        Owner renamedOwner = new Owner(6, "Jean", "Smith");
+
+        verifyProcessor(() -> new CoalesceChangesP(WINDOW, 100))
+                .input(asList(
+                        DocumentChange.visitAdded(pet, pet.visits.get(0)).withDocument(owner),
+                        DocumentChange.ownerUpdated(owner),
+                        DocumentChange.visitAdded(otherPet, otherPet.visits.get(0)).withDocument(owner),
+                        DocumentChange.visitAdded(petWithTwoVisits, petWithTwoVisits.visits.get(1)).withDocument(owner),
+                        DocumentChange.ownerUpdated(renamedOwner)
+                ))
+                .disableLogging()
+                .expectOutput(asList(
+                        DocumentChange.visitAdded(otherPet, otherPet.visits.get(0)).withDocument(owner),
+                        DocumentChange.petUpdated(petWithTwoVisits).withDocument(owner),
+                        DocumentChange.ownerUpdated(renamedOwner)
+                ));
+    }
+
+    @Test
+    public void when_maxOwnersReached_then_shouldFlushEarly() {
+        Owner otherOwner = new Owner(9, "Harold", "Davis");
+
+        verifyProcessor(() -> new CoalesceChangesP(WINDOW, 1))
+                .input(asList(
+                        DocumentChange.ownerUpdated(owner),
+                        DocumentChange.ownerUpdated(otherOwner),
+                        DocumentChange.ownerUpdated(owner)
+                ))
+                .disableLogging()
+                .expectOutput(asList(
+                        DocumentChange.ownerUpdated(owner),
+                        DocumentChange.ownerUpdated(otherOwner),
+                        DocumentChange.ownerUpdated(owner)
+                ));
+    }
+
+    @Test
+    public void when_changesReplaced_then_shouldKeepEarliestCommit() {
+        Pet pet = pet(7, "rabies shot");
+        Pet petWithTwoVisits = pet(7, "rabies shot", "checkup");
+        Owner renamedOwner = new Owner(6, "Jean", "Smith");
+        List<DocumentChange> changes = new ArrayList<>();
+
+        CoalesceChangesP.coalesce(changes,
+                DocumentChange.visitAdded(pet, pet.visits.get(0)).withDocument(owner).withCommit("visits", 1000));
+        CoalesceChangesP.coalesce(changes, DocumentChange.ownerUpdated(owner).withCommit("owners", 2000));
+        CoalesceChangesP.coalesce(changes, DocumentChange.visitAdded(petWithTwoVisits, petWithTwoVisits.visits.get(1))
+                                                         .withDocument(owner).withCommit("visits", 3000));
+        CoalesceChangesP.coalesce(changes, DocumentChange.ownerUpdated(renamedOwner).withCommit("owners", 4000));
+
+        assertThat(changes).extracting(change -> change.table).containsExactly("visits", "owners");
+        assertThat(changes).extracting(change -> change.commitTime).containsExactly(1000L, 2000L);
+
+        CoalesceChangesP.coalesce(changes, DocumentChange.full(renamedOwner).withCommit("pets", 5000));
+
+        assertThat(changes).extracting(change -> change.table).containsExactly("visits");
+        assertThat(changes).extracting(change -> change.commitTime).containsExactly(1000L);
+    }
+
+    @Test
+    public void when_changesAppliedToFullDocument_then_shouldNotChangeEmittedDocument() {
+        List<DocumentChange> changes = new ArrayList<>();
+
+        CoalesceChangesP.coalesce(changes, DocumentChange.full(owner));
+        CoalesceChangesP.coalesce(changes, DocumentChange.petUpdated(pet(7, "rabies shot")).withDocument(owner));
+        CoalesceChangesP.coalesce(changes, DocumentChange.ownerUpdated(new Owner(6, "Jean", "Smith")));
+
+        assertThat(changes.get(0).document.lastName).isEqualTo("Smith");
+        assertThat(changes.get(0).document.pets).extracting(pet -> pet.id).containsExactly(7);
+        assertThat(owner.lastName).isEqualTo("Coleman");
+        assertThat(owner.pets).isNull();
+    }
+
+    private static Pet pet(int id, String... visitDescriptions) {
+        Pet pet = new Pet(id, "Samantha", 6);
+        for (String description : visitDescriptions) {
+            pet.addVisit(new Visit(id, description));
+        }
+        return pet;
+    }
+}
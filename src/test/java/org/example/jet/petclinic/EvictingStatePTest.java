@@ -0,0 +1,203 @@
+package org.example.jet.petclinic;
+
+import com.hazelcast.jet.JetInstance;
+import com.hazelcast.jet.Job;
+import com.hazelcast.jet.config.JobConfig;
+import com.hazelcast.jet.core.JetTestSupport;
+import com.hazelcast.jet.core.metrics.Measurement;
+import com.hazelcast.jet.core.test.TestInbox;
+import com.hazelcast.jet.core.test.TestOutbox;
+import com.hazelcast.jet.core.test.TestProcessorContext;
+import com.hazelcast.jet.pipeline.BatchStage;
+import com.hazelcast.jet.pipeline.Pipeline;
+import com.hazelcast.jet.pipeline.Sinks;
+import com.hazelcast.jet.pipeline.test.TestSources;
+import org.example.jet.petclinic.PetClinicIndexJob.OwnerMappingState;
+import org.example.jet.petclinic.PetClinicIndexJob.PetMappingState;
+import org.example.jet.petclinic.model.DocumentChange;
+import org.example.jet.petclinic.model.Owner;
+import org.example.jet.petclinic.model.Pet;
+import org.example.jet.petclinic.model.Visit;
+import org.example.jet.petclinic.model.VisitRetention;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.hazelcast.jet.core.test.TestSupport.SAME_ITEMS_ANY_ORDER;
+import static com.hazelcast.jet.core.test.TestSupport.verifyProcessor;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class EvictingStatePTest extends JetTestSupport {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void when_moreKeysThanMaxStates_then_shouldLoadEvictedStatesFromFiles() {
+        String directory = folder.getRoot().toString();
+        List<Integer> items = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 15; i++) {
+            items.add(i);
+            expected.add(i % 5 + ":" + (i / 5 + 1));
+        }
+
+        // Snapshots and restores the processor between the items as well
+        verifyProcessor(() -> new EvictingStateP<Integer, Count, String>(0, 2, item -> item % 5, Count::new,
+                (count, key, item) -> key + ":" + ++count.value, count -> { },
+                context -> new FileStateStore<>(directory, context.globalProcessorIndex(), new CountCodec())))
+                .input(items)
+                .disableLogging()
+                .outputChecker(SAME_ITEMS_ANY_ORDER)
+                .expectOutput(expected);
+    }
+
+    @Test
+    public void when_keyIdleLongerThanTimeout_then_shouldEvictAndLoadStateWithNextItem() throws Exception {
+        MapStore store = new MapStore();
+        EvictingStateP<Integer, Count, String> processor = new EvictingStateP<>(1, 0, item -> item,
+                Count::new, (count, key, item) -> key + ":" + ++count.value, count -> { }, context -> store);
+        TestOutbox outbox = new TestOutbox(10);
+        processor.init(outbox, new TestProcessorContext());
+
+        TestInbox inbox = new TestInbox();
+        inbox.addAll(Arrays.asList(1, 2));
+        processor.process(0, inbox);
+        // Idle states are looked for at most every 100 ms
+        Thread.sleep(150);
+        processor.tryProcess();
+        assertThat(store.states).containsOnlyKeys(1, 2);
+
+        inbox.addAll(Arrays.asList(1, 3, 1));
+        processor.process(0, inbox);
+        assertThat(inbox).isEmpty();
+
+        List<Object> output = new ArrayList<>(outbox.queue(0));
+        assertThat(output).containsExactly("1:1", "2:1", "1:2", "3:1", "1:3");
+        assertThat(store.loads).containsExactly(1);
+        processor.close();
+    }
+
+    @Test
+    public void when_mapItemsWithEvictedStates_then_shouldProduceSameChangesAndCountStatesOnHeap() {
+        List<Object> items = Arrays.asList(
+                new Owner(10, "Jean", "Coleman"),
+                new Pet(1, "Samantha", 10),
+                new Pet(2, "Max", 10),
+                new Visit(1, "2020-01-01", "rabies shot"),
+                new Owner(20, "Harold", "Davis"),
+                new Visit(2, "2020-01-02", "neutered"),
+                new Visit(1, "2020-01-03", "checkup"),
+                new Owner(10, "Jean", "Smith")
+        );
+        String directory = folder.getRoot().toString();
+
+        Pipeline p = Pipeline.create();
+        BatchStage<Object> records = p.readFrom(TestSources.items(items));
+        BatchStage<DocumentChange> pets = records
+                .filter(item -> !PetClinicIndexJob.isOwnerItem(item))
+                .groupingKey(PetClinicIndexJob::petId)
+                .<DocumentChange>customTransform("pets", () -> new EvictingStateP<Object, PetMappingState, DocumentChange>(
+                        0, 1, PetClinicIndexJob::petId,
+                        () -> new PetMappingState(VisitRetention.UNLIMITED),
+                        (state, key, item) -> state.mapStateWithMetrics(item, 0),
+                        PetMappingState::uncount,
+                        context -> new FileStateStore<>(directory, context.globalProcessorIndex(),
+                                new PetMappingStateSerializer.Codec(VisitRetention.UNLIMITED))))
+                .setLocalParallelism(1);
+        records.filter(PetClinicIndexJob::isOwnerItem)
+               .merge(pets)
+               .groupingKey(PetClinicIndexJob::ownerId)
+               .customTransform("owners", () -> new EvictingStateP<Object, OwnerMappingState, DocumentChange>(
+                       0, 1, PetClinicIndexJob::ownerId, OwnerMappingState::new,
+                       (state, key, item) -> state.mapStateWithMetrics(item, 0),
+                       OwnerMappingState::uncount,
+                       context -> new FileStateStore<>(directory, context.globalProcessorIndex(),
+                               new OwnerMappingStateSerializer.Codec())))
+               .setLocalParallelism(1)
+               .writeTo(Sinks.list("changes"));
+
+        JetInstance jet = createJetMember();
+        Job job = jet.newJob(p, new JobConfig().setStoreMetricsAfterJobCompletion(true));
+        job.join();
+
+        List<DocumentChange> changes = new ArrayList<>(jet.<DocumentChange>getList("changes"));
+        // The owner is known to be indexed after its state was loaded back, the items may arrive in any order
+        assertThat(changes).filteredOn(change -> change.document.id == 10 && change.type == DocumentChange.Type.FULL)
+                           .hasSize(1);
+        assertThat(changes).filteredOn(change -> change.type == DocumentChange.Type.OWNER_UPDATED).hasSize(1);
+        // The visits of pet 1 are kept while its state is evicted
+        assertThat(changes).filteredOn(change -> change.pet != null && change.pet.id == 1)
+                           .extracting(change -> change.pet.visits == null ? 0 : change.pet.visits.size())
+                           .contains(2);
+
+        // Only the last pet and owner used are left on the heap, pet 1 with its two visits
+        assertThat(sum(job, PetClinicIndexJob.PET_STATES)).isEqualTo(1);
+        assertThat(sum(job, PetClinicIndexJob.PET_STATE_VISITS)).isEqualTo(2);
+        assertThat(sum(job, PetClinicIndexJob.OWNER_STATES)).isEqualTo(1);
+    }
+
+    private static long sum(Job job, String metric) {
+        return job.getMetrics().get(metric).stream().mapToLong(Measurement::value).sum();
+    }
+
+    private static class Count implements Serializable {
+        long value;
+    }
+
+    private static class CountCodec implements MappedStateP.Codec<Count>, Serializable {
+
+        @Override
+        public byte[] encode(Count state) {
+            return ByteBuffer.allocate(Long.BYTES).putLong(state.value).array();
+        }
+
+        @Override
+        public Count decode(byte[] encoded, boolean counted) {
+            Count count = new Count();
+            count.value = ByteBuffer.wrap(encoded).getLong();
+            return count;
+        }
+    }
+
+    /**
+     * Keeps the evicted states in a map
+     */
+    private static class MapStore implements EvictingStateP.StateStore<Count> {
+
+        final Map<Integer, Count> states = new HashMap<>();
+        final List<Integer> loads = new ArrayList<>();
+
+        @Override
+        public void save(int key, Count state) {
+            states.put(key, state);
+        }
+
+        @Override
+        public Count load(int key) {
+            loads.add(key);
+            return states.get(key);
+        }
+
+        @Override
+        public Object snapshotValue(int key) {
+            return null;
+        }
+
+        @Override
+        public void restore(int key, Object value) {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.example.jet.petclinic;
+
+import org.junit.Test;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.hazelcast.jet.core.test.TestSupport.verifyProcessor;
+
+public class HeapStatePTest {
+
+    @Test
+    public void when_mapItems_then_shouldKeepStatePerKey() {
+        List<Integer> items = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 15; i++) {
+            items.add(i);
+            expected.add(i % 5 + ":" + (i / 5 + 1));
+        }
+
+        // Snapshots and restores the processor between the items as well, key 0 is kept aside in the map
+        verifyProcessor(() -> new HeapStateP<Integer, Count, String>(item -> item % 5, Count::new,
+                (count, key, item) -> key + ":" + ++count.value, new CountCodec()))
+                .input(items)
+                .disableLogging()
+                .expectOutput(expected);
+    }
+
+    private static class Count {
+        long value;
+    }
+
+    private static class CountCodec implements MappedStateP.Codec<Count>, Serializable {
+
+        @Override
+        public byte[] encode(Count state) {
+            return ByteBuffer.allocate(Long.BYTES).putLong(state.value).array();
+        }
+
+        @Override
+        public Count decode(byte[] encoded, boolean counted) {
+            Count count = new Count();
+            count.value = ByteBuffer.wrap(encoded).getLong();
+            return count;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package org.example.jet.petclinic;
+
+import com.hazelcast.jet.Jet;
+import com.hazelcast.jet.JetInstance;
+import com.hazelcast.jet.Job;
+import com.hazelcast.jet.core.JobStatus;
+import com.hazelcast.jet.datamodel.TimestampedItem;
+import com.hazelcast.jet.picocli.CommandLine;
+import com.hazelcast.jet.picocli.CommandLine.Command;
+import com.hazelcast.jet.picocli.CommandLine.Option;
+import com.hazelcast.jet.picocli.CommandLine.Unmatched;
+import com.hazelcast.jet.pipeline.Pipeline;
+import com.hazelcast.jet.pipeline.Sink;
+import com.hazelcast.jet.pipeline.SinkBuilder;
+import com.hazelcast.jet.pipeline.StreamStage;
+import org.example.jet.petclinic.elastic.StubElasticServer;
+import org.example.jet.petclinic.model.DocumentChange;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput and latency of the indexing stages fed by a {@link SyntheticChangeSource}
+ * <p>
+ * Runs the stages of {@link PetClinicIndexJob#indexRecords} on a Jet member, writing the changes either to a sink
+ * counting them in this process or through the Elastic sink to a {@link StubElasticServer}. After a warm-up it
+ * measures for a fixed time the records emitted per second against the target rate, the changes indexed per
+ * second and the latency of each indexed change from the scheduled time of its record until the sink got it.
+ * The stages sustain the rate while the source keeps up with it and the latency stays flat, raising the rate
+ * until they don't finds the limit.
+ * <pre>
+ * IndexingBenchmark --rate 20000 --sink ELASTIC --write-coalescing-window 100
+ * </pre>
+ * The options not known to the benchmark are passed to {@link PetClinicIndexJob}.
+ */
+@Command(name = "indexing-benchmark")
+public class IndexingBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger(IndexingBenchmark.class);
+
+    // Updated by the sink processors, there is only one benchmark running in the process at a time
+    private static final LatencyRecorder LATENCIES = new LatencyRecorder();
+    private static final AtomicLong INDEXED_CHANGES = new AtomicLong();
+
+    enum SinkType {
+        COUNTING,
+        ELASTIC
+    }
+
+    @Option(names = {"--rate"}, description = "records per second emitted by the source", defaultValue = "10000")
+    private long rate;
+
+    @Option(names = {"--owners"}, description = "number of owners created by the source", defaultValue = "100000")
+    private int owners;
+
+    @Option(names = {"--skew"}, description = "skew of the changes towards the oldest owners, 1 is uniform", defaultValue = "2")
+    private double skew;
+
+    @Option(names = {"--warmup"}, description = "warm-up time in seconds", defaultValue = "10")
+    private long warmupSeconds;
+
+    @Option(names = {"--duration"}, description = "measured time in seconds", defaultValue = "30")
+    private long durationSeconds;
+
+    @Option(names = {"--sink"}, description = "sink of the changes: ${COMPLETION-CANDIDATES}", defaultValue = "COUNTING")
+    private SinkType sink;
+
+    @Option(names = {"--elastic-latency"}, description = "latency in milliseconds of the stub Elastic bulk endpoint", defaultValue = "5")
+    private long elasticLatency;
+
+    @Unmatched
+    private List<String> jobOptions = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        IndexingBenchmark benchmark = new IndexingBenchmark();
+        new CommandLine(benchmark).parseArgs(args);
+
+        JetInstance jet = Jet.newJetInstance();
+        try {
+            log.info("{}", benchmark.run(jet));
+        } finally {
+            jet.shutdown();
+        }
+    }
+
+    Result run(JetInstance jet) throws Exception {
+        try (StubElasticServer server = sink == SinkType.ELASTIC ? new StubElasticServer(elasticLatency) : null) {
+            List<String> args = new ArrayList<>(jobOptions);
+            if (server != null) {
+                args.add("--elastic-host=" + server.address());
+                args.add("--elastic-index=benchmark");
+            }
+            PetClinicIndexJob indexJob = new PetClinicIndexJob();
+            new CommandLine(indexJob).parseArgs(args.toArray(new String[0]));
+
+            SyntheticChangeSource source = new SyntheticChangeSource()
+                    .recordsPerSecond(rate)
+                    .owners(owners)
+                    .skew(skew);
+
+            Pipeline p = Pipeline.create();
+            StreamStage<TimestampedItem<Object>> records = p.readFrom(source.build())
+             .withoutTimestamps()
+             .map(record -> PetClinicIndexJob.mapRecordValueToPOJO(record.item(), record.timestamp()))
+             .setName("mapRecordValueToPOJO");
+            indexJob.indexRecords(records,
+                    server == null ? countingSink() : indexJob.elasticChangeSink(IndexingBenchmark::indexed));
+
+            Job job = jet.newJob(p, PetClinicIndexingApp.jobConfig().setName("IndexingBenchmark"));
+            try {
+                while (job.getStatus() == JobStatus.NOT_RUNNING || job.getStatus() == JobStatus.STARTING) {
+                    Thread.sleep(100);
+                }
+                TimeUnit.SECONDS.sleep(warmupSeconds);
+
+                long emitted = SyntheticChangeSource.emittedRecords();
+                long indexed = INDEXED_CHANGES.get();
+                LATENCIES.reset();
+                long start = System.nanoTime();
+
+                TimeUnit.SECONDS.sleep(durationSeconds);
+
+                double seconds = (System.nanoTime() - start) / 1e9;
+                return new Result(
+                        rate,
+                        (SyntheticChangeSource.emittedRecords() - emitted) / seconds,
+                        (INDEXED_CHANGES.get() - indexed) / seconds,
+                        LATENCIES.percentile(0.5),
+                        LATENCIES.percentile(0.99),
+                        LATENCIES.percentile(0.999),
+                        LATENCIES.percentile(1)
+                );
+            } finally {
+                job.cancel();
+            }
+        }
+    }
+
+    private static Sink<DocumentChange> countingSink() {
+        return SinkBuilder.sinkBuilder("countingSink", context -> context)
+                          .<DocumentChange>receiveFn((context, change) -> indexed(change))
+                          .build();
+    }
+
+    private static void indexed(DocumentChange change) {
+        INDEXED_CHANGES.incrementAndGet();
+        // Changes of loaded documents have no record
+        if (change.table != null) {
+            LATENCIES.record(System.currentTimeMillis() - change.commitTime);
+        }
+    }
+
+    /**
+     * Rates and latency percentiles measured by a run, the latencies are in milliseconds
+     */
+    static final class Result {
+
+        final long targetRate;
+        final double emittedRate;
+        final double indexedRate;
+        final long p50;
+        final long p99;
+        final long p999;
+        final long max;
+
+        Result(long targetRate, double emittedRate, double indexedRate, long p50, long p99, long p999, long max) {
+            this.targetRate = targetRate;
+            this.emittedRate = emittedRate;
+            this.indexedRate = indexedRate;
+            this.p50 = p50;
+            this.p99 = p99;
+            this.p999 = p999;
+            this.max = max;
+        }
+
+        /**
+         * Returns whether the source kept up with the target rate, the stages didn't hold it back
+         */
+        boolean sustained() {
+            return emittedRate >= 0.95 * targetRate;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("target %d records/s, emitted %.0f records/s%s, indexed %.0f changes/s, "
+                            + "latency p50 %d ms, p99 %d ms, p99.9 %d ms, max %d ms",
+                    targetRate, emittedRate, sustained() ? "" : " (not sustained)", indexedRate, p50, p99, p999, max);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.example.jet.petclinic;
+
+import com.hazelcast.jet.core.JetTestSupport;
+import com.hazelcast.jet.picocli.CommandLine;
+import org.example.jet.petclinic.model.Owner;
+import org.example.jet.petclinic.model.Pet;
+import org.example.jet.petclinic.model.Visit;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Short runs of the {@link IndexingBenchmark} and the records of its {@link SyntheticChangeSource}
+ */
+public class IndexingBenchmarkTest extends JetTestSupport {
+
+    private static final Logger log = LoggerFactory.getLogger(IndexingBenchmarkTest.class);
+
+    @Test
+    public void when_generateRecords_then_shouldReferToEarlierOwnersAndPets() throws Exception {
+        SyntheticChangeSource config = new SyntheticChangeSource().owners(100);
+        SyntheticChangeSource.Generator generator = new SyntheticChangeSource.Generator(config, 1, 2);
+
+        Set<Integer> owners = new HashSet<>();
+        Set<Integer> pets = new HashSet<>();
+        int visits = 0;
+        for (int i = 0; i < 10_000; i++) {
+            Object item = PetClinicIndexJob.mapRecordValueToPOJO(generator.next(1_596_543_211_000L));
+            if (item instanceof Owner) {
+                assertThat(((Owner) item).id % 2).isZero();
+                owners.add(((Owner) item).id);
+            } else if (item instanceof Pet) {
+                assertThat(owners).contains(((Pet) item).ownerId);
+                pets.add(((Pet) item).id);
+            } else {
+                assertThat(pets).contains(((Visit) item).petId);
+                assertThat(((Visit) item).visitDate).isEqualTo("2020-08-04");
+                visits++;
+            }
+        }
+
+        assertThat(owners).hasSize(50);
+        assertThat(visits).isGreaterThan(5_000);
+    }
+
+    @Test
+    public void when_countingSink_then_shouldReportRatesAndLatency() throws Exception {
+        IndexingBenchmark.Result result = run("--rate", "1000", "--owners", "1000", "--warmup", "1",
+                "--duration", "2");
+
+        assertResult(result);
+    }
+
+    @Test
+    public void when_elasticSink_then_shouldReportRatesAndLatency() throws Exception {
+        IndexingBenchmark.Result result = run("--rate", "1000", "--owners", "1000", "--warmup", "1",
+                "--duration", "2", "--sink", "ELASTIC", "--elastic-sink-parallelism", "1",
+                "--write-coalescing-window", "20");
+
+        assertResult(result);
+    }
+
+    @Test
+    public void when_mappedStateBackend_then_shouldReportRatesAndLatency() throws Exception {
+        IndexingBenchmark.Result result = run("--rate", "1000", "--owners", "1000", "--warmup", "1",
+                "--duration", "2", "--state-backend", "MAPPED", "--state-hot-set-size", "100");
+
+        assertResult(result);
+    }
+
+    @Test
+    public void when_imapStateBackend_then_shouldReportRatesAndLatency() throws Exception {
+        IndexingBenchmark.Result result = run("--rate", "1000", "--owners", "1000", "--warmup", "1",
+                "--duration", "2", "--state-backend", "IMAP");
+
+        assertResult(result);
+    }
+
+    @Test
+    public void when_stateEviction_then_shouldReportRatesAndLatency() throws Exception {
+        IndexingBenchmark.Result result = run("--rate", "1000", "--owners", "1000", "--warmup", "1",
+                "--duration", "2", "--state-max-keys", "100");
+
+        assertResult(result);
+    }
+
+    private IndexingBenchmark.Result run(String... args) throws Exception {
+        IndexingBenchmark benchmark = new IndexingBenchmark();
+        new CommandLine(benchmark).parseArgs(args);
+
+        IndexingBenchmark.Result result = benchmark.run(createJetMember());
+        log.info("{}", result);
+        return result;
+    }
+
+    private static void assertResult(IndexingBenchmark.Result result) {
+        assertThat(result.sustained()).isTrue();
+        assertThat(result.indexedRate).isGreaterThan(0);
+        assertThat(result.p50).isLessThanOrEqualTo(result.p99);
+        assertThat(result.p99).isLessThanOrEqualTo(result.p999);
+        assertThat(result.p999).isLessThanOrEqualTo(result.max);
+        assertThat(result.max).isLessThan(LatencyRecorder.OVERFLOW);
+    }
+}
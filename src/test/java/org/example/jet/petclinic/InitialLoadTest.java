@@ -0,0 +1,303 @@
+package org.example.jet.petclinic;
+
+import com.hazelcast.collection.IList;
+import com.hazelcast.jet.JetInstance;
+import com.hazelcast.jet.Job;
+import com.hazelcast.jet.config.JobConfig;
+import com.hazelcast.jet.config.ProcessingGuarantee;
+import com.hazelcast.jet.core.JetTestSupport;
+import com.hazelcast.jet.core.JobStatus;
+import com.hazelcast.jet.picocli.CommandLine;
+import com.hazelcast.jet.pipeline.Pipeline;
+import com.hazelcast.jet.pipeline.Sinks;
+import com.hazelcast.map.IMap;
+import org.example.jet.petclinic.elastic.StubElasticServer;
+import org.example.jet.petclinic.model.Owner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Initial load from an in-memory H2 database standing in for MySQL
+ */
+public class InitialLoadTest extends JetTestSupport {
+
+    private static final String JDBC_URL = "jdbc:h2:mem:petclinic;DB_CLOSE_DELAY=-1";
+
+    private static final int OWNERS = 20;
+    private static final int PETS_PER_OWNER = 2;
+    private static final int VISITS_PER_PET = 3;
+
+    private JetInstance jet;
+    private StubElasticServer server;
+    private Connection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        jet = createJetMember();
+        server = new StubElasticServer(0);
+
+        connection = DriverManager.getConnection(JDBC_URL, "sa", "");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE owners (id INT PRIMARY KEY, first_name VARCHAR(30), last_name VARCHAR(30))");
+            statement.execute("CREATE TABLE pets (id INT PRIMARY KEY, name VARCHAR(30), owner_id INT)");
+            statement.execute("CREATE TABLE visits (id INT PRIMARY KEY, pet_id INT, visit_date DATE, description VARCHAR(255))");
+
+            int petId = 1;
+            int visitId = 1;
+            for (int ownerId = 1; ownerId <= OWNERS; ownerId++) {
+                statement.execute("INSERT INTO owners VALUES (" + ownerId + ", 'First" + ownerId + "', 'Last" + ownerId + "')");
+                for (int i = 0; i < PETS_PER_OWNER; i++, petId++) {
+                    statement.execute("INSERT INTO pets VALUES (" + petId + ", 'Pet" + petId + "', " + ownerId + ")");
+                    for (int j = 0; j < VISITS_PER_PET; j++, visitId++) {
+                        statement.execute("INSERT INTO visits VALUES (" + visitId + ", " + petId + ", "
+                                + "'2020-01-0" + (j + 1) + "', 'rabies shot " + visitId + "')");
+                    }
+                }
+            }
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP ALL OBJECTS");
+        }
+        connection.close();
+        server.close();
+    }
+
+    @Test
+    public void when_initialLoad_then_shouldIndexCompleteDocuments() throws Exception {
+        jet.newJob(initialLoadJob().initialLoadPipeline()).join();
+
+        assertThat(server.indexedItems()).isEqualTo(OWNERS);
+
+        IMap<Integer, Owner> documents = jet.getMap(InitialLoad.LOADED_DOCUMENTS_MAP);
+        assertThat(documents).hasSize(OWNERS);
+
+        Owner owner = documents.get(2);
+        assertThat(owner.firstName).isEqualTo("First2");
+        assertThat(owner.pets).extracting(pet -> pet.name).containsExactly("Pet3", "Pet4");
+        assertThat(owner.pets.get(0).visits).extracting(visit -> visit.description)
+                                            .containsExactly("rabies shot 7", "rabies shot 8", "rabies shot 9");
+        assertThat(owner.pets.get(0).visits.get(0).visitDate).isEqualTo("2020-01-01");
+        assertThat(owner.pets.get(0).visits.get(0).keywords).isNotEmpty();
+    }
+
+    @Test
+    public void when_petWithoutOwner_then_shouldNotBeLoaded() throws Exception {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("INSERT INTO pets VALUES (1000, 'Stray', NULL)");
+            statement.execute("INSERT INTO visits VALUES (1000, 1000, '2020-01-01', 'stray shot')");
+            statement.execute("INSERT INTO visits VALUES (1001, NULL, '2020-01-01', 'unknown shot')");
+        }
+
+        jet.newJob(initialLoadJob().initialLoadPipeline()).join();
+
+        IMap<Integer, Owner> documents = jet.getMap(InitialLoad.LOADED_DOCUMENTS_MAP);
+        assertThat(documents).hasSize(OWNERS).doesNotContainKey(0);
+    }
+
+    @Test
+    public void when_idBounds_then_shouldReturnLowestAndHighestId() throws Exception {
+        assertThat(InitialLoad.idBounds(connection, "pets")).containsExactly(1, OWNERS * PETS_PER_OWNER);
+
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DELETE FROM visits");
+        }
+        assertThat(InitialLoad.idBounds(connection, "visits")).containsExactly(0, 0);
+    }
+
+    @Test
+    public void when_connectorNotStreaming_then_shouldHaveNoPosition() throws Exception {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        assertThat(InitialLoad.connectorPosition(mBeanServer, "petclinic-test")).isNull();
+
+        ObjectName name = registerBinlogMetrics(new BinlogMetrics(false, null, 0));
+        try {
+            assertThat(InitialLoad.connectorPosition(mBeanServer, "petclinic-test")).isNull();
+        } finally {
+            mBeanServer.unregisterMBean(name);
+        }
+    }
+
+    @Test
+    public void when_connectorStreaming_then_shouldRecordItsPosition() throws Exception {
+        ObjectName name = registerBinlogMetrics(new BinlogMetrics(true, "mysql-bin.000003", 154));
+        try {
+            PetClinicIndexJob petClinicIndexJob = CommandLine.populateCommand(new PetClinicIndexJob(),
+                    "-c", "petclinic-test");
+
+            jet.newJob(petClinicIndexJob.connectorPositionPipeline()).join();
+
+            IMap<String, String> status = jet.getMap(InitialLoad.STATUS_MAP);
+            assertThat(status.get(InitialLoad.BINLOG_POSITION)).isEqualTo("mysql-bin.000003:154");
+        } finally {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        }
+    }
+
+    @Test
+    public void when_restartedAfterDocumentsEmitted_then_shouldNotEmitThemAgain() {
+        loadedDocuments(3);
+
+        Pipeline p = Pipeline.create();
+        p.readFrom(InitialLoad.loadedDocuments())
+         .withoutTimestamps()
+         .writeTo(Sinks.list("loaded"));
+        Job job = jet.newJob(p, new JobConfig().setProcessingGuarantee(ProcessingGuarantee.EXACTLY_ONCE));
+        IList<Owner> loaded = jet.getList("loaded");
+        assertTrueEventually(() -> assertThat(loaded).hasSize(3));
+
+        job.suspend();
+        assertJobStatusEventually(job, JobStatus.SUSPENDED);
+        job.resume();
+        assertJobStatusEventually(job, JobStatus.RUNNING);
+
+        // Polled for completion every second
+        sleepMillis(2000);
+        assertThat(loaded).hasSize(3);
+    }
+
+    @Test
+    public void when_snapshotRecordedDocumentsEmitted_then_shouldDestroyLoadedDocuments() {
+        IMap<Integer, Owner> documents = loadedDocuments(3);
+
+        Pipeline p = Pipeline.create();
+        p.readFrom(InitialLoad.loadedDocuments())
+         .withoutTimestamps()
+         .writeTo(Sinks.list("loaded"));
+        jet.newJob(p, new JobConfig().setProcessingGuarantee(ProcessingGuarantee.EXACTLY_ONCE)
+                                     .setSnapshotIntervalMillis(3000));
+        IList<Owner> loaded = jet.getList("loaded");
+        assertTrueEventually(() -> assertThat(loaded).hasSize(3));
+
+        // Kept until a snapshot recording them emitted has ended
+        assertThat(documents.size()).isEqualTo(3);
+        assertTrueEventually(() -> assertThat(jet.getMap(InitialLoad.LOADED_DOCUMENTS_MAP).size()).isZero());
+        assertThat(jet.getMap(InitialLoad.STATUS_MAP).containsKey(InitialLoad.CONSUMED + 0)).isTrue();
+    }
+
+    @Test
+    public void when_documentsEmittedWithoutSnapshots_then_shouldDestroyLoadedDocuments() {
+        loadedDocuments(3);
+
+        Pipeline p = Pipeline.create();
+        p.readFrom(InitialLoad.loadedDocuments())
+         .withoutTimestamps()
+         .writeTo(Sinks.list("loaded"));
+        jet.newJob(p);
+        IList<Owner> loaded = jet.getList("loaded");
+
+        assertTrueEventually(() -> assertThat(loaded).hasSize(3));
+        assertTrueEventually(() -> assertThat(jet.getMap(InitialLoad.LOADED_DOCUMENTS_MAP).size()).isZero());
+    }
+
+    @Test
+    public void when_splitIntoRanges_then_rangesShouldCoverAllIds() {
+        long[] first = InitialLoad.range(1, 10, 3, 0);
+        long[] second = InitialLoad.range(1, 10, 3, 1);
+        long[] last = InitialLoad.range(1, 10, 3, 2);
+
+        assertThat(first).containsExactly(1, 5);
+        assertThat(second).containsExactly(5, 9);
+        assertThat(last).containsExactly(9, 13);
+    }
+
+    @Test
+    public void when_moreReadersThanIds_then_rangesShouldCoverAllIds() {
+        assertThat(InitialLoad.range(7, 7, 4, 0)).containsExactly(7, 8);
+        assertThat(InitialLoad.range(7, 7, 4, 3)).containsExactly(10, 11);
+    }
+
+    /**
+     * Puts the owners as the documents of a completed initial load
+     */
+    private IMap<Integer, Owner> loadedDocuments(int owners) {
+        IMap<Integer, Owner> documents = jet.getMap(InitialLoad.LOADED_DOCUMENTS_MAP);
+        for (int ownerId = 1; ownerId <= owners; ownerId++) {
+            documents.put(ownerId, new Owner(ownerId, "First" + ownerId, "Last" + ownerId));
+        }
+        jet.getMap(InitialLoad.STATUS_MAP).put(InitialLoad.COMPLETED, Boolean.TRUE.toString());
+        return documents;
+    }
+
+    private PetClinicIndexJob initialLoadJob() {
+        return CommandLine.populateCommand(new PetClinicIndexJob(),
+                "-u", "sa",
+                "-s", "",
+                "-e", server.address(),
+                "-i", "petclinic",
+                "--initial-load-jdbc-url", JDBC_URL,
+                "--initial-load-parallelism", "3",
+                "--elastic-bulk-target-latency", "0"
+        );
+    }
+
+    private static ObjectName registerBinlogMetrics(BinlogMetrics metrics) throws Exception {
+        ObjectName name = new ObjectName(
+                "debezium.mysql:type=connector-metrics,context=binlog,server=" + ObjectName.quote("petclinic-test"));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(
+                new StandardMBean(metrics, BinlogMetricsMBean.class), name);
+        return name;
+    }
+
+    private static void sleepMillis(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The attributes of the binlog metrics of the Debezium MySQL connector read by the initial load
+     */
+    public interface BinlogMetricsMBean {
+
+        boolean isConnected();
+
+        String getBinlogFilename();
+
+        long getBinlogPosition();
+    }
+
+    public static final class BinlogMetrics implements BinlogMetricsMBean {
+
+        private final boolean connected;
+        private final String binlogFilename;
+        private final long binlogPosition;
+
+        BinlogMetrics(boolean connected, String binlogFilename, long binlogPosition) {
+            this.connected = connected;
+            this.binlogFilename = binlogFilename;
+            this.binlogPosition = binlogPosition;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return connected;
+        }
+
+        @Override
+        public String getBinlogFilename() {
+            return binlogFilename;
+        }
+
+        @Override
+        public long getBinlogPosition() {
+            return binlogPosition;
+        }
+    }
+}
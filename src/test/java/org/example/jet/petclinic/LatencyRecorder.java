@@ -0,0 +1,55 @@
+package org.example.jet.petclinic;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latencies in milliseconds recorded from any thread of the process
+ * <p>
+ * Keeps a counter per millisecond up to a minute, the percentiles are exact to the millisecond. Latencies above
+ * a minute are counted together and reported as {@link #OVERFLOW}.
+ */
+class LatencyRecorder {
+
+    static final int OVERFLOW = 60_001;
+
+    private final AtomicLongArray counts = new AtomicLongArray(OVERFLOW + 1);
+
+    void record(long latencyMillis) {
+        counts.incrementAndGet((int) Math.max(0, Math.min(latencyMillis, OVERFLOW)));
+    }
+
+    void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+    }
+
+    long count() {
+        long count = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the latency the given fraction of the recorded latencies is at or below, 0 when none was recorded
+     */
+    long percentile(double fraction) {
+        long[] snapshot = new long[counts.length()];
+        long count = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        long rank = (long) Math.ceil(fraction * count);
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank && seen > 0) {
+                return i;
+            }
+        }
+        return 0;
+    }
+}
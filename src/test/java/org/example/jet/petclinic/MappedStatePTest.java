@@ -0,0 +1,132 @@
+package org.example.jet.petclinic;
+
+import com.hazelcast.jet.JetInstance;
+import com.hazelcast.jet.Job;
+import com.hazelcast.jet.config.JobConfig;
+import com.hazelcast.jet.core.JetTestSupport;
+import com.hazelcast.jet.core.metrics.Measurement;
+import com.hazelcast.jet.pipeline.BatchStage;
+import com.hazelcast.jet.pipeline.Pipeline;
+import com.hazelcast.jet.pipeline.Sinks;
+import com.hazelcast.jet.pipeline.test.TestSources;
+import org.example.jet.petclinic.PetClinicIndexJob.OwnerMappingState;
+import org.example.jet.petclinic.PetClinicIndexJob.PetMappingState;
+import org.example.jet.petclinic.model.DocumentChange;
+import org.example.jet.petclinic.model.Owner;
+import org.example.jet.petclinic.model.Pet;
+import org.example.jet.petclinic.model.Visit;
+import org.example.jet.petclinic.model.VisitRetention;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.hazelcast.jet.core.test.TestSupport.verifyProcessor;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MappedStatePTest extends JetTestSupport {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void when_moreKeysThanHotSet_then_shouldKeepStatesInFiles() {
+        String directory = folder.getRoot().toString();
+        List<Integer> items = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 15; i++) {
+            items.add(i);
+            expected.add(i % 5 + ":" + (i / 5 + 1));
+        }
+
+        // Snapshots and restores the processor between the items as well
+        verifyProcessor(() -> new MappedStateP<Integer, Count, String>(directory, 2, item -> item % 5, Count::new,
+                (count, key, item) -> key + ":" + ++count.value, new CountCodec()))
+                .input(items)
+                .disableLogging()
+                .expectOutput(expected);
+    }
+
+    @Test
+    public void when_mapItemsWithMappedStates_then_shouldProduceSameChangesAndMetricsAsOnHeap() {
+        List<Object> items = Arrays.asList(
+                new Owner(10, "Jean", "Coleman"),
+                new Pet(1, "Samantha", 10),
+                new Pet(2, "Max", 10),
+                new Visit(1, "2020-01-01", "rabies shot"),
+                new Owner(20, "Harold", "Davis"),
+                new Visit(2, "2020-01-02", "neutered"),
+                new Visit(1, "2020-01-03", "checkup"),
+                new Owner(10, "Jean", "Smith")
+        );
+        String directory = folder.getRoot().toString();
+
+        Pipeline p = Pipeline.create();
+        BatchStage<Object> records = p.readFrom(TestSources.items(items));
+        BatchStage<DocumentChange> pets = records
+                .filter(item -> !PetClinicIndexJob.isOwnerItem(item))
+                .groupingKey(PetClinicIndexJob::petId)
+                .customTransform("pets", () -> new MappedStateP<Object, PetMappingState, DocumentChange>(
+                        directory, 1, PetClinicIndexJob::petId,
+                        () -> new PetMappingState(VisitRetention.UNLIMITED),
+                        (state, key, item) -> state.mapStateWithMetrics(item, 0),
+                        new PetMappingStateSerializer.Codec(VisitRetention.UNLIMITED)));
+        records.filter(PetClinicIndexJob::isOwnerItem)
+               .merge(pets)
+               .groupingKey(PetClinicIndexJob::ownerId)
+               .customTransform("owners", () -> new MappedStateP<Object, OwnerMappingState, DocumentChange>(
+                       directory, 1, PetClinicIndexJob::ownerId, OwnerMappingState::new,
+                       (state, key, item) -> state.mapStateWithMetrics(item, 0),
+                       new OwnerMappingStateSerializer.Codec()))
+               .setLocalParallelism(1)
+               .writeTo(Sinks.list("changes"));
+
+        JetInstance jet = createJetMember();
+        Job job = jet.newJob(p, new JobConfig().setStoreMetricsAfterJobCompletion(true));
+        job.join();
+
+        List<DocumentChange> changes = new ArrayList<>(jet.<DocumentChange>getList("changes"));
+        // The owner is known to be indexed while its state is in the files, the items may arrive in any order
+        assertThat(changes).filteredOn(change -> change.document.id == 10 && change.type == DocumentChange.Type.FULL)
+                           .hasSize(1);
+        assertThat(changes).filteredOn(change -> change.type == DocumentChange.Type.OWNER_UPDATED).hasSize(1);
+        // The visits of pet 1 are kept while its state is in the files
+        assertThat(changes).filteredOn(change -> change.pet != null && change.pet.id == 1)
+                           .extracting(change -> change.pet.visits == null ? 0 : change.pet.visits.size())
+                           .contains(2);
+
+        // States reloaded from the files are not counted again
+        assertThat(sum(job, PetClinicIndexJob.PET_STATES)).isEqualTo(2);
+        assertThat(sum(job, PetClinicIndexJob.PET_STATE_VISITS)).isEqualTo(3);
+        assertThat(sum(job, PetClinicIndexJob.OWNER_STATES)).isEqualTo(2);
+        assertThat(sum(job, PetClinicIndexJob.OWNER_STATE_PETS)).isEqualTo(2);
+    }
+
+    private static long sum(Job job, String metric) {
+        return job.getMetrics().get(metric).stream().mapToLong(Measurement::value).sum();
+    }
+
+    private static class Count {
+        long value;
+    }
+
+    private static class CountCodec implements MappedStateP.Codec<Count>, Serializable {
+
+        @Override
+        public byte[] encode(Count state) {
+            return ByteBuffer.allocate(Long.BYTES).putLong(state.value).array();
+        }
+
+        @Override
+        public Count decode(byte[] encoded, boolean counted) {
+            Count count = new Count();
+            count.value = ByteBuffer.wrap(encoded).getLong();
+            return count;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package org.example.jet.petclinic;
+
+import com.hazelcast.jet.Job;
+import com.hazelcast.jet.config.JobConfig;
+import com.hazelcast.jet.core.JetTestSupport;
+import com.hazelcast.jet.core.metrics.Measurement;
+import com.hazelcast.jet.pipeline.BatchStage;
+import com.hazelcast.jet.pipeline.Pipeline;
+import com.hazelcast.jet.pipeline.Sinks;
+import com.hazelcast.jet.pipeline.test.TestSources;
+import org.example.jet.petclinic.PetClinicIndexJob.OwnerMappingState;
+import org.example.jet.petclinic.PetClinicIndexJob.PetMappingState;
+import org.example.jet.petclinic.model.DocumentChange;
+import org.example.jet.petclinic.model.Owner;
+import org.example.jet.petclinic.model.Pet;
+import org.example.jet.petclinic.model.Visit;
+import org.example.jet.petclinic.model.VisitRetention;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * State metrics reported by the mapping stages, see {@link PetClinicIndexJob#pipeline()}
+ */
+public class MappingStateMetricsTest extends JetTestSupport {
+
+    @Test
+    public void when_mapItems_then_shouldReportStateSizes() {
+        List<Object> items = Arrays.asList(
+                new Owner(10, "Jean", "Coleman"),
+                new Pet(1, "Samantha", 10),
+                new Visit(1, "2020-01-01", "rabies shot"),
+                new Visit(1, "2020-01-02", "neutered"),
+                // Owner 20 is never seen
+                new Pet(2, "Max", 20),
+                // Pet 3 is never seen
+                new Visit(3, "2020-01-03", "spayed")
+        );
+
+        Pipeline p = Pipeline.create();
+        BatchStage<Object> records = p.readFrom(TestSources.items(items));
+        BatchStage<DocumentChange> pets = records
+                .filter(item -> !PetClinicIndexJob.isOwnerItem(item))
+                .groupingKey(PetClinicIndexJob::petId)
+                .mapStateful(() -> new PetMappingState(VisitRetention.UNLIMITED),
+                        (state, key, item) -> state.mapStateWithMetrics(item, 0));
+        records.filter(PetClinicIndexJob::isOwnerItem)
+               .merge(pets)
+               .groupingKey(PetClinicIndexJob::ownerId)
+               .mapStateful(OwnerMappingState::new, (state, key, item) -> state.mapStateWithMetrics(item, 0))
+               .writeTo(Sinks.noop());
+
+        Job job = createJetMember().newJob(p, new JobConfig().setStoreMetricsAfterJobCompletion(true));
+        job.join();
+
+        assertThat(sum(job, PetClinicIndexJob.PET_STATES)).isEqualTo(3);
+        assertThat(sum(job, PetClinicIndexJob.PET_STATE_VISITS)).isEqualTo(3);
+        assertThat(sum(job, PetClinicIndexJob.ORPHAN_PET_STATES)).isEqualTo(1);
+        assertThat(sum(job, PetClinicIndexJob.OWNER_STATES)).isEqualTo(2);
+        assertThat(sum(job, PetClinicIndexJob.OWNER_STATE_PETS)).isEqualTo(2);
+        assertThat(sum(job, PetClinicIndexJob.ORPHAN_OWNER_STATES)).isEqualTo(1);
+    }
+
+    private static long sum(Job job, String name) {
+        return job.getMetrics().get(name).stream().mapToLong(Measurement::value).sum();
+    }
+}
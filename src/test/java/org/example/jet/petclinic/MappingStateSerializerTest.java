@@ -0,0 +1,89 @@
+package org.example.jet.petclinic;
+
+import com.hazelcast.config.SerializationConfig;
+import com.hazelcast.config.SerializerConfig;
+import com.hazelcast.internal.serialization.InternalSerializationService;
+import com.hazelcast.internal.serialization.impl.DefaultSerializationServiceBuilder;
+import org.example.jet.petclinic.PetClinicIndexJob.OwnerMappingState;
+import org.example.jet.petclinic.PetClinicIndexJob.PetMappingState;
+import org.example.jet.petclinic.model.DocumentChange;
+import org.example.jet.petclinic.model.Owner;
+import org.example.jet.petclinic.model.Pet;
+import org.example.jet.petclinic.model.Visit;
+import org.example.jet.petclinic.model.VisitRetention;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MappingStateSerializerTest {
+
+    private final InternalSerializationService serializationService = new DefaultSerializationServiceBuilder()
+            .setConfig(new SerializationConfig()
+                    .addSerializerConfig(new SerializerConfig().setTypeClass(OwnerMappingState.class)
+                                                               .setImplementation(new OwnerMappingStateSerializer()))
+                    .addSerializerConfig(new SerializerConfig().setTypeClass(PetMappingState.class)
+                                                               .setImplementation(new PetMappingStateSerializer())))
+            .build();
+
+    @Test
+    public void when_restoreOwnerState_then_shouldContinueWithDeltas() {
+        OwnerMappingState state = new OwnerMappingState();
+        state.mapState(new Owner(6, "Jean", "Coleman"));
+        state.mapState(DocumentChange.petUpdated(new Pet(7, "Samantha", 6)));
+
+        OwnerMappingState restored = roundTrip(state);
+
+        assertThat(restored.indexed).isTrue();
+        assertThat(restored.owner()).isEqualTo(state.owner());
+
+        DocumentChange change = restored.mapState(DocumentChange.petUpdated(new Pet(7, "Sam", 6)));
+        assertThat(change.type).isEqualTo(DocumentChange.Type.PET_UPDATED);
+        assertThat(change.document.pets).extracting(pet -> pet.name).containsExactly("Sam");
+    }
+
+    @Test
+    public void when_snapshotUnchangedOwnerState_then_shouldWriteKeptEncoding() {
+        OwnerMappingState state = new OwnerMappingState();
+        state.mapState(new Owner(6, "Jean", "Coleman"));
+        state.mapState(DocumentChange.petUpdated(new Pet(7, "Samantha", 6)));
+
+        byte[] snapshot = serializationService.toData(state).toByteArray();
+        byte[] encodedOwner = state.encodedOwner;
+
+        // Held encoded only until the next item
+        assertThat(state.owner).isNull();
+        assertThat(serializationService.toData(state).toByteArray()).isEqualTo(snapshot);
+        assertThat(state.encodedOwner).isSameAs(encodedOwner);
+
+        DocumentChange change = state.mapState(DocumentChange.petUpdated(new Pet(8, "Max", 6)));
+
+        assertThat(change.document.pets).extracting(pet -> pet.name).containsExactly("Samantha", "Max");
+        assertThat(state.owner).isNotNull();
+        assertThat(state.encodedOwner).isNull();
+        assertThat(serializationService.toData(state).toByteArray()).isNotEqualTo(snapshot);
+    }
+
+    @Test
+    public void when_restorePetState_then_shouldKeepRetention() {
+        PetMappingState state = new PetMappingState(new VisitRetention(1, 0));
+        state.mapState(new Pet(7, "Samantha", 6));
+        state.mapState(new Visit(7, "2020-01-01", "rabies shot"));
+
+        PetMappingState restored = roundTrip(state);
+
+        assertThat(restored.pet).isEqualTo(state.pet);
+        restored.mapState(new Visit(7, "2020-01-02", "checkup"));
+        assertThat(restored.pet.visits).extracting(visit -> visit.description).containsExactly("checkup");
+    }
+
+    @Test
+    public void when_restoreEmptyState_then_shouldBeEmpty() {
+        assertThat(roundTrip(new OwnerMappingState()).owner()).isNull();
+        assertThat(roundTrip(new PetMappingState(VisitRetention.UNLIMITED)).pet).isNull();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T roundTrip(T object) {
+        return (T) serializationService.toObject(serializationService.toData(object));
+    }
+}
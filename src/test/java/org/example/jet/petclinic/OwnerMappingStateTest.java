@@ -1,26 +1,35 @@
 package org.example.jet.petclinic;
 
 import com.hazelcast.jet.cdc.ParsingException;
+import com.hazelcast.jet.json.JsonUtil;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.example.jet.petclinic.model.DocumentChange;
+import org.example.jet.petclinic.model.DocumentChange.Type;
 import org.example.jet.petclinic.model.Owner;
 import org.example.jet.petclinic.PetClinicIndexJob.OwnerMappingState;
+import org.example.jet.petclinic.PetClinicIndexJob.PetMappingState;
 import org.example.jet.petclinic.model.Pet;
 import org.example.jet.petclinic.model.Visit;
+import org.example.jet.petclinic.model.VisitRetention;
 import org.jetbrains.annotations.NotNull;
 import org.junit.Test;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.util.Lists.newArrayList;
 
 public class OwnerMappingStateTest {
 
-    private OwnerMappingState state = new OwnerMappingState();
+    private PartitionedState state = new PartitionedState();
 
     @Test
     public void when_mapOwner_then_shouldProduceOwner() throws ParsingException {
         Owner incomingOwner = new Owner(1, "Jean", "Coleman");
         Owner outgoingOwner = state.mapState(incomingOwner);
 
-        assertThat(outgoingOwner).isSameAs(incomingOwner);
+        assertThat(outgoingOwner).isEqualTo(incomingOwner);
     }
 
     @Test
@@ -100,7 +109,7 @@ public class OwnerMappingStateTest {
 
     @Test
     public void shouldMapVisitToDocument() throws Exception {
-        OwnerMappingState state = new OwnerMappingState();
+        PartitionedState state = new PartitionedState();
 
         Visit visitRecord = visitRecord();
 
@@ -126,6 +135,294 @@ public class OwnerMappingStateTest {
         assertThat(owner.pets.get(0).visits.get(0).keywords).containsExactly("shot");
     }
 
+    @Test
+    public void when_mapOwnerFirstTime_then_shouldProduceFullDocument() {
+        state.mapState(petRecord());
+
+        DocumentChange change = state.mapChange(ownerRecord());
+
+        assertThat(change.type).isEqualTo(Type.FULL);
+        assertThat(change.document.pets).hasSize(1);
+    }
+
+    @Test
+    public void when_mapUpdatedOwner_then_shouldProduceOwnerUpdate() {
+        state.mapState(ownerRecord());
+
+        DocumentChange change = state.mapChange(new Owner(6, "Jean", "Smith"));
+
+        assertThat(change.type).isEqualTo(Type.OWNER_UPDATED);
+        assertThat(change.document.lastName).isEqualTo("Smith");
+    }
+
+    @Test
+    public void when_mapPetOfIndexedOwner_then_shouldProducePetUpdate() {
+        state.mapState(ownerRecord());
+
+        DocumentChange change = state.mapChange(petRecord());
+
+        assertThat(change.type).isEqualTo(Type.PET_UPDATED);
+        assertThat(change.pet.name).isEqualTo("Samantha");
+        assertThat(change.document.pets).containsExactly(change.pet);
+    }
+
+    @Test
+    public void when_mapVisitOfIndexedOwner_then_shouldProduceVisitAdded() {
+        state.mapState(ownerRecord());
+        state.mapState(petRecord());
+
+        Visit visit = visitRecord();
+        DocumentChange change = state.mapChange(visit);
+
+        assertThat(change.type).isEqualTo(Type.VISIT_ADDED);
+        assertThat(change.pet.id).isEqualTo(7);
+        assertThat(change.visit).isSameAs(visit);
+    }
+
+    @Test
+    public void when_mapVisitDroppingOlderVisits_then_shouldProducePetUpdate() {
+        PartitionedState state = new PartitionedState(new VisitRetention(1, 0));
+        state.mapState(ownerRecord());
+        state.mapState(petRecord());
+        state.mapState(visitRecord());
+
+        DocumentChange change = state.mapChange(new Visit(7, "checkup"));
+
+        assertThat(change.type).isEqualTo(Type.PET_UPDATED);
+        assertThat(change.pet.visits).extracting(visit -> visit.description).containsExactly("checkup");
+    }
+
+    @Test
+    public void when_stateChangesAfterEmit_then_emittedDocumentShouldNotChange() {
+        state.mapState(petRecord());
+        Owner document = state.mapState(ownerRecord());
+
+        state.mapState(visitRecord());
+        state.mapState(new Pet(8, "Max", 6));
+
+        assertThat(document.pets).hasSize(1);
+        assertThat(document.pets.get(0).visits).isNull();
+    }
+
+    @Test
+    public void when_stateChangesAfterDeltaEmit_then_emittedDocumentShouldNotChange() {
+        state.mapState(ownerRecord());
+        DocumentChange change = state.mapChange(petRecord());
+
+        state.mapState(visitRecord());
+        state.mapState(new Pet(8, "Max", 6));
+        state.mapState(new Owner(6, "Jean", "Smith"));
+
+        assertThat(change.document.lastName).isEqualTo("Coleman");
+        assertThat(change.document.pets).containsExactly(change.pet);
+        assertThat(change.pet.visits).isNull();
+    }
+
+    @Test
+    public void when_petChanges_then_documentShouldShareUnchangedPets() {
+        state.mapState(ownerRecord());
+        state.mapState(petRecord());
+        Owner document = state.mapState(new Pet(8, "Max", 6));
+
+        Owner changed = state.mapState(visitRecord());
+
+        assertThat(changed.pets.get(0)).isNotSameAs(document.pets.get(0));
+        assertThat(changed.pets.get(1)).isSameAs(document.pets.get(1));
+        assertThat(document.pets.get(0).visits).isNull();
+    }
+
+    @Test
+    public void when_petAddedToCopyOfDocument_then_documentShouldNotChange() {
+        state.mapState(ownerRecord());
+        Owner document = state.mapState(petRecord());
+        Owner copy = new Owner(6, "Jean", "Coleman");
+        copy.pets = document.pets;
+
+        copy.addPet(new Pet(8, "Max", 6));
+
+        assertThat(copy.pets).extracting(pet -> pet.id).containsExactly(7, 8);
+        assertThat(document.pets).extracting(pet -> pet.id).containsExactly(7);
+    }
+
+    @Test
+    public void when_visitAdded_then_requestShouldNotContainWholeDocument() throws Exception {
+        state.mapState(ownerRecord());
+        state.mapState(petRecord());
+        state.mapState(new Pet(8, "Max", 6));
+
+        UpdateRequest request = PetClinicIndexJob.toUpdateRequest("petclinic", VisitRetention.UNLIMITED,
+                state.mapChange(visitRecord()));
+
+        assertThat(request.id()).isEqualTo("6");
+        assertThat(request.doc()).isNull();
+        assertThat(request.script().getParams()).containsEntry("pet_id", 7);
+        assertThat(request.script().getParams().toString()).contains("rabies shot")
+                                                           .doesNotContain("Samantha", "Max");
+        assertThat(request.scriptedUpsert()).isTrue();
+        assertThat(request.upsertRequest().sourceAsMap()).containsEntry("first_name", "Jean");
+    }
+
+    @Test
+    public void when_visitAdded_then_requestShouldCarryVisitRetention() throws Exception {
+        state.mapState(ownerRecord());
+        state.mapState(petRecord());
+
+        UpdateRequest request = PetClinicIndexJob.toUpdateRequest("petclinic", new VisitRetention(3, 30),
+                state.mapChange(new Visit(1, 7, "2020-01-01", "rabies shot")));
+
+        assertThat(request.script().getParams()).containsEntry("max_visits", 3)
+                                                .containsEntry("max_age_days", 30);
+        assertThat(request.script().getParams().get("visit").toString()).contains("id=1");
+    }
+
+    @Test
+    public void when_petUpdated_then_scriptParamsShouldMatchDocumentJson() throws Exception {
+        Pet pet = new Pet(7, "Samantha", 6);
+        pet.addVisit(new Visit(1, 7, "2020-01-01", "rabies shot"));
+        pet.addVisit(new Visit(2, 7, null, null));
+        pet.visits.get(0).keywords = newArrayList("rabies shot");
+        Visit visit = pet.visits.get(0);
+
+        assertThat(PetClinicIndexJob.petFields(pet)).isEqualTo(JsonUtil.mapFrom(JsonUtil.toJson(pet)));
+        assertThat(PetClinicIndexJob.visitFields(visit)).isEqualTo(JsonUtil.mapFrom(JsonUtil.toJson(visit)));
+        assertThat(PetClinicIndexJob.petFields(new Pet(8))).isEqualTo(JsonUtil.mapFrom(JsonUtil.toJson(new Pet(8))));
+    }
+
+    @Test
+    public void when_visitReplayed_then_shouldProduceNothing() {
+        state.mapState(ownerRecord());
+        state.mapState(petRecord());
+
+        assertThat(state.mapChange(new Visit(1, 7, "2020-01-01", "rabies shot")).type).isEqualTo(Type.VISIT_ADDED);
+        assertThat(state.mapChange(new Visit(1, 7, "2020-01-01", "rabies shot"))).isNull();
+    }
+
+    @Test
+    public void when_visitDroppedByRetentionReplayed_then_shouldProduceNothing() {
+        state = new PartitionedState(new VisitRetention(2, 0));
+        state.mapState(ownerRecord());
+        state.mapState(petRecord());
+        for (int id = 1; id <= 3; id++) {
+            state.mapState(new Visit(id, 7, "2020-01-0" + id, "checkup " + id));
+        }
+
+        assertThat(state.mapChange(new Visit(1, 7, "2020-01-01", "checkup 1"))).isNull();
+        Owner owner = state.mapState(new Visit(4, 7, "2020-01-04", "checkup 4"));
+        assertThat(owner.pets.get(0).visits).extracting(visit -> visit.id).containsExactly(3, 4);
+    }
+
+    @Test
+    public void when_unchangedRowsStreamedAgain_then_shouldProduceNothing() {
+        state.mapState(ownerRecord());
+        state.mapState(petRecord());
+
+        assertThat(state.mapChange(ownerRecord())).isNull();
+        assertThat(state.mapChange(petRecord())).isNull();
+    }
+
+    @Test
+    public void when_unchangedRowsResent_then_shouldProduceTheirChanges() {
+        PetMappingState petState = new PetMappingState(VisitRetention.UNLIMITED);
+        OwnerMappingState ownerState = new OwnerMappingState();
+        ownerState.mapState(ownerRecord());
+        ownerState.mapState(petState.mapState(petRecord()));
+        petState.mapState(new Visit(1, 7, "2020-01-01", "rabies shot"));
+
+        DocumentChange owner = ownerState.mapStateResending(ownerRecord(), 1_000);
+        DocumentChange pet = petState.mapStateResending(petRecord(), 1_000);
+        DocumentChange visit = petState.mapStateResending(new Visit(1, 7, "2020-01-01", "rabies shot"), 1_000);
+
+        assertThat(owner.type).isEqualTo(Type.OWNER_UPDATED);
+        assertThat(owner.table).isEqualTo(PetClinicIndexJob.OWNERS_TABLE);
+        assertThat(pet.type).isEqualTo(Type.PET_UPDATED);
+        assertThat(pet.table).isEqualTo(PetClinicIndexJob.PETS_TABLE);
+        assertThat(visit.type).isEqualTo(Type.PET_UPDATED);
+        assertThat(visit.table).isEqualTo(PetClinicIndexJob.VISITS_TABLE);
+        assertThat(visit.pet.visits).hasSize(1);
+    }
+
+    @Test
+    public void when_fullDocument_then_requestShouldUpsertWholeDocument() throws Exception {
+        state.mapState(petRecord());
+
+        UpdateRequest request = PetClinicIndexJob.toUpdateRequest("petclinic", VisitRetention.UNLIMITED,
+                state.mapChange(ownerRecord()));
+
+        assertThat(request.script()).isNull();
+        assertThat(request.docAsUpsert()).isTrue();
+        assertThat(request.doc().sourceAsMap()).containsKeys("first_name", "last_name", "pets");
+    }
+
+    @Test
+    public void when_mapLoadedDocument_then_shouldProduceNothing() {
+        Owner loaded = loadedDocument();
+
+        assertThat(state.mapChange(DocumentChange.loaded(loaded))).isNull();
+        assertThat(state.mapChange(DocumentChange.loaded(loaded.pets.get(0)))).isNull();
+
+        DocumentChange change = state.mapChange(new Visit(7, "checkup"));
+        assertThat(change.type).isEqualTo(Type.VISIT_ADDED);
+        assertThat(change.document.firstName).isEqualTo("Jean");
+    }
+
+    @Test
+    public void when_changesStreamedBeforeLoadedDocument_then_shouldProduceMergedDocument() {
+        Owner loaded = loadedDocument();
+        Visit loadedVisit = loaded.pets.get(0).visits.get(0);
+
+        // Streamed while the load was running, the first visit has been loaded too
+        assertThat(state.mapChange(loadedVisit)).isNull();
+        assertThat(state.mapChange(new Visit(7, "checkup"))).isNull();
+        state.mapChange(new Pet(8, "Max", 6));
+
+        DocumentChange ownerChange = state.mapChange(DocumentChange.loaded(loaded));
+        assertThat(ownerChange.type).isEqualTo(Type.FULL);
+        assertThat(ownerChange.document.firstName).isEqualTo("Jean");
+        assertThat(ownerChange.document.pets).extracting(pet -> pet.id).containsExactlyInAnyOrder(7, 8);
+
+        DocumentChange petChange = state.mapChange(DocumentChange.loaded(loaded.pets.get(0)));
+        assertThat(petChange.type).isEqualTo(Type.PET_UPDATED);
+        assertThat(petChange.pet.name).isEqualTo("Samantha");
+        assertThat(petChange.pet.visits).extracting(visit -> visit.description)
+                                        .containsExactly("rabies shot", "checkup");
+    }
+
+    /**
+     * Routes the items through the keyed states the same way as the pipeline does
+     */
+    private static class PartitionedState {
+
+        private final VisitRetention visitRetention;
+        private final Map<Integer, PetMappingState> petStates = new HashMap<>();
+        private final Map<Integer, OwnerMappingState> ownerStates = new HashMap<>();
+
+        PartitionedState() {
+            this(VisitRetention.UNLIMITED);
+        }
+
+        PartitionedState(VisitRetention visitRetention) {
+            this.visitRetention = visitRetention;
+        }
+
+        Owner mapState(Object item) {
+            DocumentChange change = mapChange(item);
+            return change == null ? null : change.document;
+        }
+
+        DocumentChange mapChange(Object item) {
+            if (!PetClinicIndexJob.isOwnerItem(item)) {
+                PetMappingState petState = petStates.computeIfAbsent(PetClinicIndexJob.petId(item), key -> new PetMappingState(visitRetention));
+                item = petState.mapState(item);
+                if (item == null) {
+                    return null;
+                }
+            }
+
+            OwnerMappingState ownerState = ownerStates.computeIfAbsent(PetClinicIndexJob.ownerId(item), key -> new OwnerMappingState());
+            return ownerState.mapState(item);
+        }
+    }
+
     @NotNull
     private Owner ownerRecord() {
         return new Owner(6, "Jean", "Coleman");
@@ -136,6 +433,15 @@ public class OwnerMappingStateTest {
         return new Pet(7, "Samantha", 6);
     }
 
+    @NotNull
+    private Owner loadedDocument() {
+        Pet pet = petRecord();
+        pet.addVisit(visitRecord());
+        Owner owner = ownerRecord();
+        owner.addPet(pet);
+        return owner;
+    }
+
     @NotNull
     private Visit visitRecord() {
         Visit visit = new Visit(7, "rabies shot");
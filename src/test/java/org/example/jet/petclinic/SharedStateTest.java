@@ -0,0 +1,187 @@
+package org.example.jet.petclinic;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.jet.JetInstance;
+import com.hazelcast.jet.core.JetTestSupport;
+import com.hazelcast.jet.pipeline.BatchStage;
+import com.hazelcast.jet.pipeline.Pipeline;
+import com.hazelcast.jet.pipeline.ServiceFactories;
+import com.hazelcast.jet.pipeline.Sinks;
+import com.hazelcast.jet.pipeline.test.TestSources;
+import com.hazelcast.map.IMap;
+import org.example.jet.petclinic.PetClinicIndexJob.OwnerMappingState;
+import org.example.jet.petclinic.PetClinicIndexJob.PetMappingState;
+import org.example.jet.petclinic.model.DocumentChange;
+import org.example.jet.petclinic.model.Owner;
+import org.example.jet.petclinic.model.Pet;
+import org.example.jet.petclinic.model.Visit;
+import org.example.jet.petclinic.model.VisitRetention;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SharedStateTest extends JetTestSupport {
+
+    private JetInstance jet;
+
+    @Before
+    public void setUp() {
+        jet = createJetMember();
+        Config config = jet.getHazelcastInstance().getConfig();
+        config.addMapConfig(SharedState.mapConfig(SharedState.PET_STATES_MAP));
+        config.addMapConfig(SharedState.mapConfig(SharedState.OWNER_STATES_MAP));
+        config.addMapConfig(SharedState.mapConfig(SharedState.OWNER_PETS_MAP));
+    }
+
+    @Test
+    public void when_newJobMapsItems_then_shouldContinueWithStatesOfPreviousJob() {
+        runJob(Arrays.asList(
+                new Owner(10, "Jean", "Coleman"),
+                new Pet(1, "Samantha", 10),
+                new Visit(1, "2020-01-01", "rabies shot")
+        ));
+
+        List<DocumentChange> changes = runJob(Arrays.asList(new Visit(1, "2020-01-03", "checkup")));
+
+        // The owner was indexed by the first job, only the visit is sent
+        assertThat(changes).hasSize(1);
+        DocumentChange change = changes.get(0);
+        assertThat(change.type).isEqualTo(DocumentChange.Type.VISIT_ADDED);
+        assertThat(change.document.firstName).isEqualTo("Jean");
+        assertThat(change.pet.visits).extracting(visit -> visit.description)
+                                     .containsExactly("rabies shot", "checkup");
+        Owner owner = SharedState.ownerDocument(jet, 10);
+        assertThat(owner.pets).hasSize(1);
+        assertThat(owner.pets.get(0).visits).extracting(visit -> visit.description)
+                                            .containsExactly("rabies shot", "checkup");
+    }
+
+    @Test
+    public void when_visitAdded_then_shouldRewriteOnlyItsPet() {
+        runJob(Arrays.asList(
+                new Owner(10, "Jean", "Coleman"),
+                new Pet(1, "Samantha", 10),
+                new Pet(2, "Max", 10)
+        ));
+        IMap<Integer, byte[]> owners = jet.getMap(SharedState.OWNER_STATES_MAP);
+        IMap<Object, byte[]> pets = jet.getMap(SharedState.OWNER_PETS_MAP);
+        long ownerVersion = owners.getEntryView(10).getVersion();
+        long samanthaVersion = pets.getEntryView(SharedState.ownerPetKey(1, 10)).getVersion();
+        long maxVersion = pets.getEntryView(SharedState.ownerPetKey(2, 10)).getVersion();
+
+        List<DocumentChange> changes = runJob(Arrays.asList(new Visit(1, 2, "2020-01-03", "checkup")));
+
+        assertThat(changes).extracting(change -> change.type).containsExactly(DocumentChange.Type.VISIT_ADDED);
+        assertThat(owners.getEntryView(10).getVersion()).isEqualTo(ownerVersion);
+        assertThat(pets.getEntryView(SharedState.ownerPetKey(1, 10)).getVersion()).isEqualTo(samanthaVersion);
+        assertThat(pets.getEntryView(SharedState.ownerPetKey(2, 10)).getVersion()).isGreaterThan(maxVersion);
+        assertThat(SharedState.ownerDocument(jet, 10).pets).extracting(pet -> pet.name)
+                                                          .containsExactlyInAnyOrder("Samantha", "Max");
+    }
+
+    @Test
+    public void when_ownerSeenAfterPets_then_shouldEmitFullDocumentWithAllPets() {
+        runJob(Arrays.asList(
+                new Pet(1, "Samantha", 10),
+                new Visit(1, 1, "2020-01-01", "rabies shot"),
+                new Pet(2, "Max", 10)
+        ));
+
+        List<DocumentChange> changes = runJob(Arrays.asList(new Owner(10, "Jean", "Coleman")));
+
+        assertThat(changes).hasSize(1);
+        assertThat(changes.get(0).type).isEqualTo(DocumentChange.Type.FULL);
+        assertThat(changes.get(0).document.pets).extracting(pet -> pet.name)
+                                                .containsExactlyInAnyOrder("Samantha", "Max");
+        Pet samantha = changes.get(0).document.pets.stream().filter(pet -> pet.id == 1).findFirst().get();
+        assertThat(samantha.visits).extracting(visit -> visit.id).containsExactly(1);
+    }
+
+    @Test
+    public void when_itemsReplayed_then_shouldResendChangesWithoutDuplicateVisits() {
+        List<Object> items = Arrays.asList(
+                new Owner(10, "Jean", "Coleman"),
+                new Pet(1, "Samantha", 10),
+                new Visit(1, 1, "2020-01-01", "rabies shot")
+        );
+        runJob(items);
+
+        // The states include the items already, as after a failure after the last snapshot
+        List<DocumentChange> changes = runJob(items);
+
+        assertThat(changes).extracting(change -> change.type).containsExactlyInAnyOrder(
+                DocumentChange.Type.OWNER_UPDATED, DocumentChange.Type.PET_UPDATED, DocumentChange.Type.PET_UPDATED);
+        assertThat(changes).filteredOn(change -> change.pet != null).allSatisfy(change ->
+                assertThat(change.pet.visits).extracting(visit -> visit.id).containsExactly(1));
+        assertThat(SharedState.ownerDocument(jet, 10).pets.get(0).visits).extracting(visit -> visit.id)
+                                                                       .containsExactly(1);
+    }
+
+    @Test
+    public void when_manyItemsOfKeyInFlight_then_shouldMapThemInOrder() {
+        List<Object> items = new ArrayList<>();
+        items.add(new Owner(10, "Jean", "Coleman"));
+        items.add(new Pet(1, "Samantha", 10));
+        for (int id = 1; id <= 500; id++) {
+            items.add(new Visit(id, 1, "2020-01-01", "checkup " + id));
+        }
+
+        List<DocumentChange> changes = runJob(items);
+
+        List<Visit> visits = changes.get(changes.size() - 1).pet.visits;
+        assertThat(visits).hasSize(500);
+        assertThat(visits).extracting(visit -> visit.id).isSorted();
+    }
+
+    @Test
+    public void when_otherJobLooksUpOwners_then_shouldReadOwnerDocuments() {
+        runJob(Arrays.asList(
+                new Owner(10, "Jean", "Coleman"),
+                new Pet(1, "Samantha", 10),
+                new Pet(2, "Max", 20)
+        ));
+
+        // Owner 20 has a pet but hasn't been seen itself, 30 has no state
+        Pipeline p = Pipeline.create();
+        p.readFrom(TestSources.items(10, 20, 30))
+         .mapUsingService(ServiceFactories.sharedService(context -> context.jetInstance()),
+                 (lookup, id) -> SharedState.ownerDocument(lookup, id))
+         .writeTo(Sinks.list("owners"));
+        jet.newJob(p).join();
+
+        List<Owner> owners = new ArrayList<>(jet.<Owner>getList("owners"));
+        assertThat(owners).hasSize(1);
+        assertThat(owners.get(0).lastName).isEqualTo("Coleman");
+        assertThat(owners.get(0).pets).extracting(pet -> pet.name).containsExactly("Samantha");
+    }
+
+    private List<DocumentChange> runJob(List<Object> items) {
+        jet.getList("changes").clear();
+
+        Pipeline p = Pipeline.create();
+        BatchStage<Object> records = p.readFrom(TestSources.items(items));
+        BatchStage<DocumentChange> pets = records
+                .filter(item -> !PetClinicIndexJob.isOwnerItem(item))
+                .groupingKey(PetClinicIndexJob::petId)
+                .mapUsingServiceAsync(SharedState.stateMapService(SharedState.PET_STATES_MAP,
+                        () -> new PetMappingState(VisitRetention.UNLIMITED),
+                        (PetMappingState state, Integer key, Object item) -> state.mapStateResending(item, 0),
+                        new PetMappingStateSerializer.Codec(VisitRetention.UNLIMITED)),
+                        SharedState.MAX_CONCURRENT_OPS, true, (stateMap, key, item) -> stateMap.map(key, item));
+        records.filter(PetClinicIndexJob::isOwnerItem)
+               .merge(pets)
+               .groupingKey(PetClinicIndexJob::ownerId)
+               .mapUsingServiceAsync(SharedState.ownerStateMapService(item -> item,
+                       (OwnerMappingState state, Integer key, Object item) -> state.mapStateResending(item, 0)),
+                       SharedState.MAX_CONCURRENT_OPS, true, (stateMap, key, item) -> stateMap.map(key, item))
+               .writeTo(Sinks.list("changes"));
+        jet.newJob(p).join();
+
+        return new ArrayList<>(jet.<DocumentChange>getList("changes"));
+    }
+}
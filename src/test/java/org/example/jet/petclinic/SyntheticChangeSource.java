@@ -0,0 +1,256 @@
+package org.example.jet.petclinic;
+
+import com.hazelcast.jet.datamodel.TimestampedItem;
+import com.hazelcast.jet.pipeline.SourceBuilder;
+import com.hazelcast.jet.pipeline.SourceBuilder.SourceBuffer;
+import com.hazelcast.jet.pipeline.StreamSource;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stream of synthetic change records of the owners, pets and visits tables emitted at a target rate
+ * <p>
+ * The records are the JSON values of the change records as Debezium and Jet write them, timestamped with the
+ * time the rate scheduled them at. A source falling behind the rate still timestamps its records with their
+ * scheduled time, the latency measured from it includes the time the records waited to be emitted.
+ * <p>
+ * Owners are created up to the configured number, further owner records update existing owners. Pets are added
+ * to existing owners and visits to their pets, the owner is chosen with a skew towards the oldest owners: with
+ * skew s the owner at index {@code n * u^s} is chosen for a uniform u in [0, 1), 1 is uniform and higher values
+ * concentrate the changes on fewer owners. Visit descriptions are combined from a set of phrases chosen with the
+ * same skew, common visit reasons repeat like they do in a real clinic.
+ * <p>
+ * Each source processor generates its own owners, pets and visits, with ids not overlapping the ones of the
+ * other processors.
+ */
+public class SyntheticChangeSource implements Serializable {
+
+    // Records emitted by all the source processors of the process, read by the benchmark
+    private static final AtomicLong EMITTED_RECORDS = new AtomicLong();
+
+    private static final int MAX_BATCH = 1024;
+    private static final int MAX_PETS_PER_OWNER = 4;
+
+    private static final String[] FIRST_NAMES = {
+            "George", "Betty", "Eduardo", "Harold", "Peter", "Jean", "Jeff", "Maria", "David", "Carlos"
+    };
+    private static final String[] LAST_NAMES = {
+            "Franklin", "Davis", "Rodriquez", "Black", "McTavish", "Coleman", "Escobito", "Schroeder", "Estaban"
+    };
+    private static final String[] PET_NAMES = {
+            "Leo", "Basil", "Rosy", "Jewel", "Iggy", "George", "Samantha", "Max", "Lucky", "Mulligan", "Freddy"
+    };
+    private static final String[] PHRASES = {
+            "rabies shot", "annual checkup", "neutered", "spayed", "vaccination booster", "dental cleaning",
+            "limping on the left hind leg", "ear infection", "flea treatment", "skin rash", "weight check",
+            "vomiting since yesterday", "eye discharge", "broken claw", "allergy test", "blood work",
+            "deworming", "microchip implanted", "post surgery control", "x-ray of the chest", "diarrhea",
+            "coughing at night", "lost appetite", "stitches removed"
+    };
+    private static final String[] FOLLOW_UPS = {
+            "", "", "", ", follow-up in two weeks", ", recheck next month", ", owner to call with results"
+    };
+
+    private long recordsPerSecond = 1000;
+    private int owners = 10_000;
+    private double skew = 2;
+    private double ownerShare = 0.1;
+    private double petShare = 0.2;
+    private long seed = 42;
+
+    /**
+     * Sets the number of records emitted per second by all the source processors together
+     */
+    public SyntheticChangeSource recordsPerSecond(long recordsPerSecond) {
+        this.recordsPerSecond = recordsPerSecond;
+        return this;
+    }
+
+    /**
+     * Sets the number of owners created, after that owner records update them
+     */
+    public SyntheticChangeSource owners(int owners) {
+        this.owners = owners;
+        return this;
+    }
+
+    /**
+     * Sets the skew of the changes towards the oldest owners and the most common visit reasons, 1 is uniform
+     */
+    public SyntheticChangeSource skew(double skew) {
+        this.skew = skew;
+        return this;
+    }
+
+    /**
+     * Sets the shares of owner and pet records, the rest are visit records
+     */
+    public SyntheticChangeSource shares(double ownerShare, double petShare) {
+        this.ownerShare = ownerShare;
+        this.petShare = petShare;
+        return this;
+    }
+
+    public SyntheticChangeSource seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public StreamSource<TimestampedItem<String>> build() {
+        SyntheticChangeSource config = this;
+        return SourceBuilder
+                .stream("syntheticChanges", context -> new Generator(config, context.globalProcessorIndex(),
+                        context.totalParallelism()))
+                .<TimestampedItem<String>>fillBufferFn(Generator::fillBuffer)
+                .build();
+    }
+
+    /**
+     * Returns the number of records emitted by the sources of this process so far
+     */
+    public static long emittedRecords() {
+        return EMITTED_RECORDS.get();
+    }
+
+    /**
+     * Generates the records of one source processor
+     */
+    static final class Generator {
+
+        private final SyntheticChangeSource config;
+        private final int processorIndex;
+        private final int parallelism;
+        private final int maxOwners;
+        private final double recordsPerNano;
+        private final SplittableRandom random;
+
+        // Pet ids of each owner created by this generator, by the index of the owner
+        private final List<int[]> petsOfOwners = new ArrayList<>();
+        private int petCount;
+        private int visitCount;
+
+        private final long startNanos = System.nanoTime();
+        private final long startMillis = System.currentTimeMillis();
+        private long emitted;
+
+        Generator(SyntheticChangeSource config, int processorIndex, int parallelism) {
+            this.config = config;
+            this.processorIndex = processorIndex;
+            this.parallelism = parallelism;
+            this.maxOwners = config.owners / parallelism + (processorIndex < config.owners % parallelism ? 1 : 0);
+            this.recordsPerNano = config.recordsPerSecond / 1e9 / parallelism;
+            this.random = new SplittableRandom(config.seed + processorIndex);
+        }
+
+        void fillBuffer(SourceBuffer<TimestampedItem<String>> buffer) {
+            long due = (long) ((System.nanoTime() - startNanos) * recordsPerNano) - emitted;
+            int count = (int) Math.min(due, MAX_BATCH);
+            for (int i = 0; i < count; i++) {
+                long commitTime = startMillis + (long) (emitted / recordsPerNano / 1_000_000);
+                buffer.add(new TimestampedItem<>(commitTime, next(commitTime)));
+                emitted++;
+            }
+            EMITTED_RECORDS.addAndGet(Math.max(count, 0));
+        }
+
+        /**
+         * Returns the value of the next change record
+         */
+        String next(long commitTime) {
+            double type = random.nextDouble();
+            if (petsOfOwners.isEmpty() || type < config.ownerShare) {
+                return ownerRecord(commitTime);
+            }
+            int ownerIndex = skewed(petsOfOwners.size());
+            int[] pets = petsOfOwners.get(ownerIndex);
+            if (pets.length == 0 || type < config.ownerShare + config.petShare) {
+                return petRecord(ownerIndex, commitTime);
+            }
+            return visitRecord(pets[random.nextInt(pets.length)], commitTime);
+        }
+
+        private String ownerRecord(long commitTime) {
+            int ownerIndex;
+            String op;
+            if (petsOfOwners.size() < maxOwners) {
+                ownerIndex = petsOfOwners.size();
+                petsOfOwners.add(new int[0]);
+                op = "c";
+            } else {
+                ownerIndex = skewed(petsOfOwners.size());
+                op = "u";
+            }
+            return "{\"id\":" + id(ownerIndex)
+                    + ",\"first_name\":\"" + pick(FIRST_NAMES)
+                    + "\",\"last_name\":\"" + pick(LAST_NAMES)
+                    + "\",\"address\":\"" + (100 + random.nextInt(900)) + " W. Liberty St."
+                    + "\",\"city\":\"Madison\",\"telephone\":\"608555" + (1000 + random.nextInt(9000)) + "\""
+                    + metadata(op, PetClinicIndexJob.OWNERS_TABLE, commitTime);
+        }
+
+        private String petRecord(int ownerIndex, long commitTime) {
+            int[] pets = petsOfOwners.get(ownerIndex);
+            int petId;
+            String op;
+            if (pets.length < MAX_PETS_PER_OWNER) {
+                petId = id(petCount++);
+                int[] morePets = new int[pets.length + 1];
+                System.arraycopy(pets, 0, morePets, 0, pets.length);
+                morePets[pets.length] = petId;
+                petsOfOwners.set(ownerIndex, morePets);
+                op = "c";
+            } else {
+                petId = pets[random.nextInt(pets.length)];
+                op = "u";
+            }
+            return "{\"id\":" + petId
+                    + ",\"name\":\"" + pick(PET_NAMES)
+                    + "\",\"birth_date\":" + (days(commitTime) - random.nextInt(5000))
+                    + ",\"type_id\":" + (1 + random.nextInt(6))
+                    + ",\"owner_id\":" + id(ownerIndex)
+                    + metadata(op, PetClinicIndexJob.PETS_TABLE, commitTime);
+        }
+
+        private String visitRecord(int petId, long commitTime) {
+            StringBuilder description = new StringBuilder(PHRASES[skewed(PHRASES.length)]);
+            int phrases = random.nextInt(3);
+            for (int i = 0; i < phrases; i++) {
+                description.append(i == phrases - 1 ? " and " : ", ").append(PHRASES[skewed(PHRASES.length)]);
+            }
+            description.append(pick(FOLLOW_UPS));
+            return "{\"id\":" + id(visitCount++)
+                    + ",\"pet_id\":" + petId
+                    + ",\"visit_date\":" + days(commitTime)
+                    + ",\"description\":\"" + description + "\""
+                    + metadata("c", PetClinicIndexJob.VISITS_TABLE, commitTime);
+        }
+
+        private String metadata(String op, String table, long commitTime) {
+            return ",\"__op\":\"" + op + "\",\"__db\":\"petclinic\",\"__table\":\"" + table
+                    + "\",\"__ts_ms\":" + commitTime + ",\"__deleted\":\"false\"}";
+        }
+
+        /**
+         * Returns the global id of the n-th owner, pet or visit of this generator, starting from 1
+         */
+        private int id(int n) {
+            return n * parallelism + processorIndex + 1;
+        }
+
+        private int skewed(int size) {
+            return (int) (size * Math.pow(random.nextDouble(), config.skew));
+        }
+
+        private String pick(String[] values) {
+            return values[random.nextInt(values.length)];
+        }
+
+        private static int days(long millis) {
+            return (int) (millis / 86_400_000);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package org.example.jet.petclinic;
+
+import com.hazelcast.jet.JetInstance;
+import com.hazelcast.jet.Job;
+import com.hazelcast.jet.config.JobConfig;
+import com.hazelcast.jet.config.ProcessingGuarantee;
+import com.hazelcast.jet.core.JetTestSupport;
+import com.hazelcast.jet.core.JobStatus;
+import com.hazelcast.jet.core.test.TestSupport;
+import com.hazelcast.jet.datamodel.TimestampedItem;
+import com.hazelcast.jet.picocli.CommandLine;
+import com.hazelcast.jet.pipeline.Pipeline;
+import com.hazelcast.jet.pipeline.Sinks;
+import com.hazelcast.jet.pipeline.SourceBuilder;
+import com.hazelcast.jet.pipeline.StreamStage;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.example.jet.petclinic.elastic.StubElasticServer;
+import org.example.jet.petclinic.model.DocumentChange;
+import org.example.jet.petclinic.model.Owner;
+import org.example.jet.petclinic.model.Pet;
+import org.example.jet.petclinic.model.Visit;
+import org.example.jet.petclinic.serialization.DocumentJsonWriter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+
+/**
+ * Warm start from the documents of a {@link StubElasticServer} standing in for the index
+ */
+public class WarmStartTest extends JetTestSupport {
+
+    private static final int OWNERS = 20;
+
+    private JetInstance jet;
+    private StubElasticServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        jet = createJetMember();
+        server = new StubElasticServer(0);
+
+        DocumentJsonWriter writer = new DocumentJsonWriter();
+        int petId = 1;
+        for (int ownerId = 1; ownerId <= OWNERS; ownerId++) {
+            Owner owner = new Owner(ownerId, "First" + ownerId, "Last" + ownerId);
+            for (int i = 0; i < 2; i++, petId++) {
+                Pet pet = new Pet(petId, "Pet" + petId, ownerId);
+                pet.addVisit(new Visit(petId, "2020-01-01", "rabies shot " + petId));
+                owner.addPet(pet);
+            }
+            server.addDocument(String.valueOf(ownerId), new String(writer.toJson(owner), StandardCharsets.UTF_8));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void when_readIndexedDocument_then_shouldBeSameAsWrittenDocument() throws Exception {
+        Owner owner = new Owner(1, "Jean", "Coleman");
+        Pet pet = new Pet(2, "Samantha", 1);
+        Visit visit = new Visit(2, "2020-01-01", "rabies shot");
+        visit.setKeywords(Arrays.asList("rabies", "shot"));
+        pet.addVisit(visit);
+        owner.addPet(pet);
+
+        Owner document = WarmStart.document(new String(new DocumentJsonWriter().toJson(owner), StandardCharsets.UTF_8));
+
+        assertThat(document).isEqualTo(owner);
+    }
+
+    @Test
+    public void when_readIndexedDocumentWithoutPetOwner_then_petShouldBelongToDocument() throws Exception {
+        Owner document = WarmStart.document("{\"id\":1,\"first_name\":\"Jean\",\"pets\":[{\"id\":2,\"name\":\"Max\"}]}");
+
+        assertThat(document.pets.get(0).ownerId).isEqualTo(1);
+    }
+
+    @Test
+    public void when_readIndexedDocumentsInSlices_then_shouldEmitEveryDocumentOnce() {
+        String address = server.address();
+        Pipeline p = Pipeline.create();
+        p.readFrom(WarmStart.indexedDocuments(() -> RestClient.builder(HttpHost.create(address)),
+                "petclinic", 4))
+         .withoutTimestamps()
+         .setLocalParallelism(3)
+         .writeTo(Sinks.list("documents"));
+
+        Job job = jet.newJob(p);
+        await().atMost(10, SECONDS).until(() -> jet.getList("documents").size() >= OWNERS && server.openScrolls() == 0);
+        job.cancel();
+
+        List<Owner> documents = new ArrayList<>(jet.<Owner>getList("documents"));
+        assertThat(documents).extracting(document -> document.id).doesNotHaveDuplicates().hasSize(OWNERS);
+        assertThat(server.slices()).containsExactlyInAnyOrder("0/3", "1/3", "2/3");
+    }
+
+    @Test
+    public void when_restartedAfterSlicesRead_then_shouldNotReadThemAgain() throws InterruptedException {
+        String address = server.address();
+        Pipeline p = Pipeline.create();
+        p.readFrom(WarmStart.indexedDocuments(() -> RestClient.builder(HttpHost.create(address)),
+                "petclinic", 4))
+         .withoutTimestamps()
+         .setLocalParallelism(2)
+         .writeTo(Sinks.list("documents"));
+
+        Job job = jet.newJob(p, new JobConfig().setProcessingGuarantee(ProcessingGuarantee.EXACTLY_ONCE));
+        await().atMost(10, SECONDS).until(() -> jet.getList("documents").size() >= OWNERS && server.openScrolls() == 0);
+        int searches = server.slices().size();
+
+        job.suspend();
+        await().atMost(10, SECONDS).until(() -> job.getStatus() == JobStatus.SUSPENDED);
+        job.resume();
+        await().atMost(10, SECONDS).until(() -> job.getStatus() == JobStatus.RUNNING);
+        // A slice read again would search right away
+        Thread.sleep(1000);
+        job.cancel();
+
+        assertThat(jet.getList("documents")).hasSize(OWNERS);
+        assertThat(server.slices()).hasSize(searches);
+    }
+
+    @Test
+    public void when_warmStart_then_visitOfIndexedPetShouldBeAddedToDocument() {
+        PetClinicIndexJob petClinicIndexJob = CommandLine.populateCommand(new PetClinicIndexJob(),
+                "-e", server.address(),
+                "-i", "petclinic",
+                "--warm-start",
+                "--warm-start-batch-size", "5"
+        );
+
+        // The visit waits until its pet and owner are read from the index
+        Visit visit = new Visit(3, "2020-02-01", "checkup");
+        Pipeline p = Pipeline.create();
+        StreamStage<TimestampedItem<Object>> records = p
+                .readFrom(SourceBuilder.stream("records", context -> new boolean[1])
+                                       .<TimestampedItem<Object>>fillBufferFn((emitted, buffer) -> {
+                                           if (!emitted[0]) {
+                                               buffer.add(new TimestampedItem<>(0, visit));
+                                               emitted[0] = true;
+                                           }
+                                       })
+                                       .build())
+                .withoutTimestamps();
+        petClinicIndexJob.indexRecords(records, Sinks.list("changes"));
+
+        Job job = jet.newJob(p);
+        await().atMost(10, SECONDS).until(() -> jet.<DocumentChange>getList("changes").stream()
+                                                   .anyMatch(WarmStartTest::hasVisitOfPet3));
+        job.cancel();
+    }
+
+    @Test
+    public void when_warmStart_then_onlyChangedRowsShouldBeWrittenAgain() throws InterruptedException {
+        PetClinicIndexJob petClinicIndexJob = CommandLine.populateCommand(new PetClinicIndexJob(),
+                "-e", server.address(),
+                "-i", "petclinic",
+                "--warm-start",
+                "--warm-start-batch-size", "5"
+        );
+
+        // Owner 1 with its pet and visit streamed again unchanged, owner 2 renamed
+        List<Object> rows = Arrays.asList(
+                new Owner(1, "First1", "Last1"),
+                new Pet(1, "Pet1", 1),
+                new Visit(1, 1, "2020-01-01", "rabies shot 1"),
+                new Owner(2, "Jean", "Coleman")
+        );
+        Pipeline p = Pipeline.create();
+        StreamStage<TimestampedItem<Object>> records = p
+                .readFrom(SourceBuilder.stream("records", context -> new boolean[1])
+                                       .<TimestampedItem<Object>>fillBufferFn((emitted, buffer) -> {
+                                           if (!emitted[0]) {
+                                               rows.forEach(row -> buffer.add(new TimestampedItem<>(0, row)));
+                                               emitted[0] = true;
+                                           }
+                                       })
+                                       .build())
+                .withoutTimestamps();
+        petClinicIndexJob.indexRecords(records, Sinks.list("changes"));
+
+        Job job = jet.newJob(p);
+        await().atMost(10, SECONDS).until(() -> jet.<DocumentChange>getList("changes").stream()
+                                                   .anyMatch(change -> change.document.id == 2));
+        // The rows of owner 1 would follow shortly
+        Thread.sleep(500);
+        job.cancel();
+
+        List<DocumentChange> changes = new ArrayList<>(jet.getList("changes"));
+        assertThat(changes).hasSize(1);
+        assertThat(changes.get(0).type).isEqualTo(DocumentChange.Type.OWNER_UPDATED);
+        assertThat(changes.get(0).document.lastName).isEqualTo("Coleman");
+    }
+
+    @Test
+    public void when_rowsSameAsIndexed_then_shouldBeDropped() {
+        Owner owner = new Owner(1, "Jean", "Coleman");
+        Pet pet = new Pet(2, "Max", 1);
+        pet.addVisit(new Visit(5, 2, "2020-01-01", "rabies shot"));
+        owner.addPet(pet);
+
+        List<TimestampedItem<Object>> input = Arrays.asList(
+                new TimestampedItem<>(0, DocumentChange.loaded(owner)),
+                new TimestampedItem<>(0, DocumentChange.loaded(pet)),
+                new TimestampedItem<>(1, new Owner(1, "Jean", "Coleman")),
+                new TimestampedItem<>(2, new Pet(2, "Maximus", 1)),
+                new TimestampedItem<>(3, new Visit(5, 2, "2020-01-01", "rabies shot")),
+                new TimestampedItem<>(4, new Visit(6, 2, "2020-02-01", "checkup")),
+                new TimestampedItem<>(5, new Owner(1, "Jean", "Smith"))
+        );
+
+        // Only the loaded items, the changed rows and the new rows pass
+        TestSupport.verifyProcessor(WarmStart.SkipIndexedRowsP::new)
+                   .input(input)
+                   .disableLogging()
+                   .expectOutput(Arrays.asList(input.get(0), input.get(1), input.get(3), input.get(5), input.get(6)));
+    }
+
+    private static boolean hasVisitOfPet3(DocumentChange change) {
+        if (change.document.id != 2 || change.document.pets == null) {
+            return false;
+        }
+        return change.document.pets.stream().anyMatch(pet -> pet.id == 3 && pet.visits != null
+                && pet.visits.stream().map(visit -> visit.description).anyMatch("checkup"::equals)
+                && pet.visits.size() == 2);
+    }
+}
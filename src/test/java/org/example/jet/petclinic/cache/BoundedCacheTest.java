@@ -0,0 +1,100 @@
+package org.example.jet.petclinic.cache;
+
+import org.example.jet.petclinic.cache.BoundedCache.EvictionPolicy;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BoundedCacheTest {
+
+    @Test
+    public void when_get_then_shouldCountHitsAndMisses() {
+        BoundedCache<String, String> cache = new BoundedCache<>(10, EvictionPolicy.LRU);
+
+        assertThat(cache.get("rabies shot")).isNull();
+        cache.put("rabies shot", "shot");
+        assertThat(cache.get("rabies shot")).isEqualTo("shot");
+        assertThat(cache.get("rabies shot")).isEqualTo("shot");
+
+        assertThat(cache.hits()).isEqualTo(2);
+        assertThat(cache.misses()).isEqualTo(1);
+    }
+
+    @Test
+    public void when_putMoreThanMaximumSize_then_shouldEvictLeastRecentlyUsed() {
+        BoundedCache<Integer, String> cache = new BoundedCache<>(3, EvictionPolicy.LRU);
+        cache.put(1, "one");
+        cache.put(2, "two");
+        cache.put(3, "three");
+        cache.get(1);
+
+        cache.put(4, "four");
+
+        assertThat(cache.size()).isEqualTo(3);
+        assertThat(cache.get(1)).isEqualTo("one");
+        assertThat(cache.get(2)).isNull();
+        assertThat(cache.get(3)).isEqualTo("three");
+        assertThat(cache.get(4)).isEqualTo("four");
+    }
+
+    @Test
+    public void when_putMoreThanMaximumSize_then_tinyLfuShouldStayBounded() {
+        BoundedCache<Integer, Integer> cache = new BoundedCache<>(100, EvictionPolicy.W_TINY_LFU);
+
+        for (int i = 0; i < 10_000; i++) {
+            if (cache.get(i) == null) {
+                cache.put(i, i);
+            }
+        }
+
+        assertThat(cache.size()).isLessThanOrEqualTo(100);
+    }
+
+    @Test
+    public void when_scanOfOneOffKeys_then_tinyLfuShouldKeepFrequentKeys() {
+        BoundedCache<String, String> cache = new BoundedCache<>(100, EvictionPolicy.W_TINY_LFU);
+
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 50; i++) {
+                getOrPut(cache, "frequent " + i);
+            }
+        }
+        for (int i = 0; i < 1_000; i++) {
+            getOrPut(cache, "one-off " + i);
+        }
+
+        long hitsBefore = cache.hits();
+        for (int i = 0; i < 50; i++) {
+            getOrPut(cache, "frequent " + i);
+        }
+
+        assertThat(cache.hits() - hitsBefore).isEqualTo(50);
+    }
+
+    @Test
+    public void when_scanOfOneOffKeys_then_lruShouldEvictFrequentKeys() {
+        BoundedCache<String, String> cache = new BoundedCache<>(100, EvictionPolicy.LRU);
+
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 50; i++) {
+                getOrPut(cache, "frequent " + i);
+            }
+        }
+        for (int i = 0; i < 1_000; i++) {
+            getOrPut(cache, "one-off " + i);
+        }
+
+        long hitsBefore = cache.hits();
+        for (int i = 0; i < 50; i++) {
+            getOrPut(cache, "frequent " + i);
+        }
+
+        assertThat(cache.hits() - hitsBefore).isZero();
+    }
+
+    private static void getOrPut(BoundedCache<String, String> cache, String key) {
+        if (cache.get(key) == null) {
+            cache.put(key, key);
+        }
+    }
+}
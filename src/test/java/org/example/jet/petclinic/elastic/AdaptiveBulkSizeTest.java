@@ -0,0 +1,69 @@
+package org.example.jet.petclinic.elastic;
+
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AdaptiveBulkSizeTest {
+
+    private static final long FAST = MILLISECONDS.toNanos(10);
+    private static final long SLOW = MILLISECONDS.toNanos(200);
+
+    private final AdaptiveBulkSize bulkSize = new AdaptiveBulkSize(10, 35, 100);
+
+    @Test
+    public void when_fullBulksUnderTarget_then_shouldGrowUpToMax() {
+        assertThat(bulkSize.current()).isEqualTo(10);
+
+        bulkSize.onCompleted(10, FAST);
+        assertThat(bulkSize.current()).isEqualTo(20);
+
+        bulkSize.onCompleted(20, FAST);
+        bulkSize.onCompleted(30, FAST);
+        bulkSize.onCompleted(35, FAST);
+        assertThat(bulkSize.current()).isEqualTo(35);
+    }
+
+    @Test
+    public void when_partialBulkUnderTarget_then_shouldNotGrow() {
+        bulkSize.onCompleted(5, FAST);
+
+        assertThat(bulkSize.current()).isEqualTo(10);
+    }
+
+    @Test
+    public void when_bulkOverTarget_then_shouldHalveDownToMin() {
+        bulkSize.onCompleted(10, FAST);
+        bulkSize.onCompleted(20, FAST);
+        bulkSize.onCompleted(30, FAST);
+        assertThat(bulkSize.current()).isEqualTo(35);
+
+        bulkSize.onCompleted(35, SLOW);
+        assertThat(bulkSize.current()).isEqualTo(17);
+
+        bulkSize.onCompleted(17, SLOW);
+        assertThat(bulkSize.current()).isEqualTo(10);
+    }
+
+    @Test
+    public void when_rejected_then_shouldHalve() {
+        bulkSize.onCompleted(10, FAST);
+        bulkSize.onCompleted(20, FAST);
+
+        bulkSize.onRejected();
+
+        assertThat(bulkSize.current()).isEqualTo(15);
+    }
+
+    @Test
+    public void when_fixed_then_shouldNotChange() {
+        AdaptiveBulkSize fixed = new AdaptiveBulkSize(100, 100, 0);
+
+        fixed.onCompleted(100, FAST);
+        fixed.onCompleted(100, SLOW);
+        fixed.onRejected();
+
+        assertThat(fixed.current()).isEqualTo(100);
+    }
+}
@@ -0,0 +1,123 @@
+package org.example.jet.petclinic.elastic;
+
+import com.hazelcast.jet.JetInstance;
+import com.hazelcast.jet.Job;
+import com.hazelcast.jet.config.JobConfig;
+import com.hazelcast.jet.core.JetTestSupport;
+import com.hazelcast.jet.core.metrics.Measurement;
+import com.hazelcast.jet.pipeline.Pipeline;
+import com.hazelcast.jet.pipeline.Sink;
+import com.hazelcast.jet.pipeline.test.TestSources;
+import org.apache.http.HttpHost;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Adaptive bulk size of the sink against a stand-in bulk endpoint injecting latency and rejections
+ */
+public class ElasticBulkSinkAdaptiveTest extends JetTestSupport {
+
+    private static final int ITEMS = 1000;
+
+    // Items acknowledged by the sink, collected by the indexed function on the processor thread
+    private static final List<Integer> INDEXED = Collections.synchronizedList(new ArrayList<>());
+
+    private JetInstance jet;
+    private StubElasticServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        jet = createJetMember();
+        server = new StubElasticServer(0);
+        INDEXED.clear();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void when_latencyGrowsWithBulkSize_then_shouldKeepBulksAroundTargetLatency() {
+        // 2 ms per item, 50 items reach the target latency of 100 ms
+        server.setLatencyPerItem(2000);
+
+        Job job = index(sink(10, 500, 100));
+
+        List<Integer> bulkSizes = server.bulkSizes();
+        assertThat(server.indexedItems()).isEqualTo(ITEMS);
+        assertThat(bulkSizes).allMatch(size -> size <= 70);
+        assertThat(bulkSizes.stream().mapToInt(Integer::intValue).max().getAsInt()).isGreaterThanOrEqualTo(40);
+
+        assertThat(metricValues(job, "elasticBulkSize")).allMatch(size -> size >= 10 && size <= 70);
+        assertThat(metricValues(job, "elasticBulkLatency")).isNotEmpty();
+
+        // Every bulk request is counted in one bucket of the histogram
+        long histogramCount = job.getMetrics().metrics().stream()
+                                 .filter(name -> name.startsWith("elasticBulkLatencyLe"))
+                                 .flatMap(name -> metricValues(job, name).stream())
+                                 .mapToLong(Long::longValue)
+                                 .sum();
+        assertThat(histogramCount).isEqualTo(bulkSizes.size());
+        assertThat(metricValues(job, "elasticBulkLatencySum").stream().mapToLong(Long::longValue).sum())
+                .isGreaterThan(0);
+    }
+
+    @Test
+    public void when_bulksRejected_then_shouldShrinkAndIndexAllItems() {
+        server.setCapacity(30);
+
+        Job job = index(sink(10, 500, 10_000));
+
+        assertThat(server.indexedItems()).isEqualTo(ITEMS);
+        assertThat(server.bulkSizes()).allMatch(size -> size <= 30);
+        assertThat(metricValues(job, "elasticBulkRejections").stream().mapToLong(Long::longValue).sum())
+                .isGreaterThan(0);
+
+        // A rejected item is acknowledged only once it's indexed by a retry
+        assertThat(INDEXED).hasSize(ITEMS);
+        assertThat(INDEXED).doesNotHaveDuplicates();
+    }
+
+    private Sink<Integer> sink(int minBulkSize, int maxBulkSize, long targetLatencyMillis) {
+        String address = server.address();
+        return new ElasticBulkSinkBuilder<>()
+                .clientFn(() -> RestClient.builder(HttpHost.create(address)))
+                .mapToRequestFn((Integer id) -> new UpdateRequest("index", id.toString())
+                        .doc("{\"id\":" + id + "}", XContentType.JSON)
+                        .docAsUpsert(true))
+                .adaptiveBulkActions(minBulkSize, maxBulkSize, targetLatencyMillis)
+                .indexedFn(id -> INDEXED.add(id))
+                .retries(100)
+                .build();
+    }
+
+    private Job index(Sink<Integer> sink) {
+        List<Integer> items = IntStream.range(0, ITEMS).boxed().collect(Collectors.toList());
+
+        Pipeline p = Pipeline.create();
+        p.readFrom(TestSources.items(items))
+         .writeTo(sink)
+         .setLocalParallelism(1);
+
+        Job job = jet.newJob(p, new JobConfig().setStoreMetricsAfterJobCompletion(true));
+        job.join();
+        return job;
+    }
+
+    private static List<Long> metricValues(Job job, String name) {
+        return job.getMetrics().get(name).stream().map(Measurement::value).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,115 @@
+package org.example.jet.petclinic.elastic;
+
+import com.hazelcast.jet.JetInstance;
+import com.hazelcast.jet.core.JetTestSupport;
+import com.hazelcast.jet.pipeline.Pipeline;
+import com.hazelcast.jet.pipeline.Sink;
+import com.hazelcast.jet.pipeline.test.TestSources;
+import org.apache.http.HttpHost;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Indexing rate of the sink against a stand-in bulk endpoint with a fixed latency per request
+ */
+public class ElasticBulkSinkThroughputTest extends JetTestSupport {
+
+    private static final Logger log = LoggerFactory.getLogger(ElasticBulkSinkThroughputTest.class);
+
+    private static final int ITEMS = 200;
+
+    private JetInstance jet;
+    private StubElasticServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        jet = createJetMember();
+        server = new StubElasticServer(10);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void when_largerBulkSize_then_shouldIndexFaster() {
+        double singleRequestRate = indexingRate(sink(1, 0), 1);
+        double bulkRate = indexingRate(sink(50, 0), 1);
+
+        log.info("Bulk size 1: {} items/s, bulk size 50: {} items/s", singleRequestRate, bulkRate);
+        assertThat(bulkRate).isGreaterThan(5 * singleRequestRate);
+    }
+
+    @Test
+    public void when_moreSinkProcessors_then_shouldIndexFaster() {
+        // Waiting for the response dominates, not the processing of the requests
+        server.setLatency(50);
+
+        double oneProcessorRate = indexingRate(sink(5, 0), 1);
+        double fourProcessorsRate = indexingRate(sink(5, 0), 4);
+
+        log.info("1 sink processor: {} items/s, 4 sink processors: {} items/s", oneProcessorRate, fourProcessorsRate);
+        assertThat(fourProcessorsRate).isGreaterThan(2 * oneProcessorRate);
+    }
+
+    @Test
+    public void when_requestsFailWithRetries_then_shouldIndexAllItems() {
+        server.failNextRequests(3);
+
+        indexingRate(sink(50, 5), 1);
+
+        assertThat(server.indexedItems()).isEqualTo(ITEMS);
+    }
+
+    @Test
+    public void when_requestsFailWithoutRetries_then_jobShouldFail() {
+        server.failNextRequests(1);
+
+        assertThatThrownBy(() -> indexingRate(sink(50, 0), 1)).isInstanceOf(CompletionException.class);
+    }
+
+    private Sink<Integer> sink(int bulkSize, int retries) {
+        String address = server.address();
+        return new ElasticBulkSinkBuilder<>()
+                .clientFn(() -> RestClient.builder(HttpHost.create(address)))
+                .mapToRequestFn((Integer id) -> new UpdateRequest("index", id.toString())
+                        .doc("{\"id\":" + id + "}", XContentType.JSON)
+                        .docAsUpsert(true))
+                .maxBulkActions(bulkSize)
+                .retries(retries)
+                .build();
+    }
+
+    /**
+     * Writes the items to the sink, returns the number of items indexed per second
+     */
+    private double indexingRate(Sink<Integer> sink, int localParallelism) {
+        List<Integer> items = IntStream.range(0, ITEMS).boxed().collect(Collectors.toList());
+
+        Pipeline p = Pipeline.create();
+        p.readFrom(TestSources.items(items))
+         .writeTo(sink)
+         .setLocalParallelism(localParallelism);
+
+        long start = System.nanoTime();
+        jet.newJob(p).join();
+        long elapsed = System.nanoTime() - start;
+
+        return ITEMS * 1e9 / elapsed;
+    }
+}
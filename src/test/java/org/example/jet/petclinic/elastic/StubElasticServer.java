@@ -0,0 +1,297 @@
+package org.example.jet.petclinic.elastic;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Stand-in for the Elasticsearch bulk endpoint, acknowledges every request after a latency
+ * <p>
+ * The latency is a fixed part plus a part per item. Bulk requests over the capacity have all their items rejected
+ * with 429, the way Elasticsearch rejects the requests of a shard when its write queue is full.
+ * <p>
+ * Searches return the documents added to the server in scrolls, all of them or the ones of a slice, the
+ * query is ignored. The bulk requests don't change the documents.
+ */
+public class StubElasticServer implements AutoCloseable {
+
+    static {
+        // Responses are written as headers and body, without this Nagle's algorithm delays every response
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private static final Pattern SCROLL_ID = Pattern.compile("\"scroll_id\"\\s*:\\s*\"([^\"]+)\"");
+    private static final Pattern SCROLL_ID_LIST = Pattern.compile("\"(scroll-\\d+)\"");
+    private static final Pattern SLICE = Pattern.compile("\"slice\"\\s*:\\s*\\{([^}]*)}");
+    private static final Pattern SLICE_ID = Pattern.compile("\"id\"\\s*:\\s*(\\d+)");
+    private static final Pattern SLICE_MAX = Pattern.compile("\"max\"\\s*:\\s*(\\d+)");
+    private static final Pattern SIZE = Pattern.compile("\"size\"\\s*:\\s*(\\d+)");
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private volatile long latencyMillis;
+    private volatile long latencyMicrosPerItem;
+    private volatile int capacity = Integer.MAX_VALUE;
+
+    private final AtomicInteger failuresLeft = new AtomicInteger();
+    private final AtomicInteger bulkRequests = new AtomicInteger();
+    private final AtomicInteger indexedItems = new AtomicInteger();
+    private final List<Integer> bulkSizes = new ArrayList<>();
+
+    private final Map<String, String> documents = new ConcurrentSkipListMap<>();
+    private final Map<String, Scroll> scrolls = new ConcurrentHashMap<>();
+    private final AtomicInteger scrollIds = new AtomicInteger();
+    private final List<String> slices = new CopyOnWriteArrayList<>();
+
+    public StubElasticServer(long latencyMillis) throws IOException {
+        this.latencyMillis = latencyMillis;
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/_bulk", this::handleBulk);
+        server.createContext("/", this::handleSearch);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public String address() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    void setLatency(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    void setLatencyPerItem(long latencyMicrosPerItem) {
+        this.latencyMicrosPerItem = latencyMicrosPerItem;
+    }
+
+    /**
+     * Rejects the items of bulk requests with more items than the capacity
+     */
+    void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Makes the next bulk requests fail as if the cluster was unavailable
+     */
+    void failNextRequests(int count) {
+        failuresLeft.set(count);
+    }
+
+    public int bulkRequests() {
+        return bulkRequests.get();
+    }
+
+    public int indexedItems() {
+        return indexedItems.get();
+    }
+
+    /**
+     * Number of items of each acknowledged bulk request, in the order they were received
+     */
+    List<Integer> bulkSizes() {
+        synchronized (bulkSizes) {
+            return new ArrayList<>(bulkSizes);
+        }
+    }
+
+    /**
+     * Adds a document returned by the searches
+     */
+    public void addDocument(String id, String json) {
+        documents.put(id, json);
+    }
+
+    /**
+     * Slices of the searches as {@code id/max}, {@code all} for a search without a slice
+     */
+    public List<String> slices() {
+        return new ArrayList<>(slices);
+    }
+
+    /**
+     * Number of scrolls not cleared yet
+     */
+    public int openScrolls() {
+        return scrolls.size();
+    }
+
+    private void handleSearch(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String body = read(exchange);
+
+        if (path.endsWith("/_search/scroll") && exchange.getRequestMethod().equals("DELETE")) {
+            Matcher scrollId = SCROLL_ID_LIST.matcher(body);
+            int freed = 0;
+            while (scrollId.find()) {
+                freed += scrolls.remove(scrollId.group(1)) != null ? 1 : 0;
+            }
+            respond(exchange, 200, "{\"succeeded\":true,\"num_freed\":" + freed + "}");
+        } else if (path.endsWith("/_search/scroll")) {
+            Matcher scrollId = SCROLL_ID.matcher(body);
+            if (!scrollId.find() || !scrolls.containsKey(scrollId.group(1))) {
+                respond(exchange, 404, "{\"error\":{\"type\":\"search_context_missing_exception\"},\"status\":404}");
+                return;
+            }
+            respond(exchange, 200, hits(scrollId.group(1)));
+        } else if (path.endsWith("/_search")) {
+            Matcher slice = SLICE.matcher(body);
+            Matcher size = SIZE.matcher(body);
+            int batchSize = size.find() ? Integer.parseInt(size.group(1)) : 10;
+            Deque<String> ids = new ArrayDeque<>();
+            if (slice.find()) {
+                Matcher sliceId = SLICE_ID.matcher(slice.group(1));
+                Matcher sliceMax = SLICE_MAX.matcher(slice.group(1));
+                sliceId.find();
+                sliceMax.find();
+                int id = Integer.parseInt(sliceId.group(1));
+                int max = Integer.parseInt(sliceMax.group(1));
+                slices.add(id + "/" + max);
+                for (String documentId : documents.keySet()) {
+                    if (Math.floorMod(documentId.hashCode(), max) == id) {
+                        ids.add(documentId);
+                    }
+                }
+            } else {
+                slices.add("all");
+                ids.addAll(documents.keySet());
+            }
+            String scrollId = "scroll-" + scrollIds.incrementAndGet();
+            scrolls.put(scrollId, new Scroll(batchSize, ids));
+            respond(exchange, 200, hits(scrollId));
+        } else {
+            respond(exchange, 404, "{\"error\":{\"type\":\"not_found\"},\"status\":404}");
+        }
+    }
+
+    private String hits(String scrollId) {
+        Scroll scroll = scrolls.get(scrollId);
+        StringBuilder response = new StringBuilder();
+        synchronized (scroll) {
+            response.append("{\"_scroll_id\":\"").append(scrollId).append("\",\"took\":1,\"timed_out\":false,")
+                    .append("\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0},")
+                    .append("\"hits\":{\"total\":{\"value\":").append(scroll.total)
+                    .append(",\"relation\":\"eq\"},\"max_score\":null,\"hits\":[");
+            for (int i = 0; i < scroll.batchSize && !scroll.ids.isEmpty(); i++) {
+                String id = scroll.ids.remove();
+                if (i > 0) {
+                    response.append(',');
+                }
+                response.append("{\"_index\":\"index\",\"_type\":\"_doc\",\"_id\":\"").append(id)
+                        .append("\",\"_score\":null,\"_source\":").append(documents.get(id)).append('}');
+            }
+            response.append("]}}");
+        }
+        return response.toString();
+    }
+
+    private static final class Scroll {
+
+        final int batchSize;
+        final int total;
+        final Deque<String> ids;
+
+        Scroll(int batchSize, Deque<String> ids) {
+            this.batchSize = batchSize;
+            this.total = ids.size();
+            this.ids = ids;
+        }
+    }
+
+    private void handleBulk(HttpExchange exchange) throws IOException {
+        int items = 0;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // Only the action lines have the document id
+                if (line.contains("\"_id\"")) {
+                    items++;
+                }
+            }
+        }
+
+        sleep(latencyMillis + latencyMicrosPerItem * items / 1000);
+
+        if (failuresLeft.getAndUpdate(left -> Math.max(left - 1, 0)) > 0) {
+            respond(exchange, 503, "{\"error\":{\"type\":\"unavailable\",\"reason\":\"stub\"},\"status\":503}");
+            return;
+        }
+
+        boolean rejected = items > capacity;
+        if (!rejected) {
+            bulkRequests.incrementAndGet();
+            indexedItems.addAndGet(items);
+            synchronized (bulkSizes) {
+                bulkSizes.add(items);
+            }
+        }
+
+        StringBuilder response = new StringBuilder("{\"took\":1,\"errors\":" + rejected + ",\"items\":[");
+        for (int i = 0; i < items; i++) {
+            if (i > 0) {
+                response.append(',');
+            }
+            response.append("{\"update\":{\"_index\":\"index\",\"_type\":\"_doc\",\"_id\":\"").append(i);
+            if (rejected) {
+                response.append("\",\"status\":429,\"error\":{\"type\":\"es_rejected_execution_exception\",")
+                        .append("\"reason\":\"rejected execution\"}}}");
+            } else {
+                response.append("\",\"_version\":1,\"result\":\"updated\",\"_shards\":{\"total\":1,\"successful\":1,")
+                        .append("\"failed\":0},\"_seq_no\":0,\"_primary_term\":1,\"status\":200}}");
+            }
+        }
+        response.append("]}");
+        respond(exchange, 200, response.toString());
+    }
+
+    private static String read(HttpExchange exchange) throws IOException {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))) {
+            return reader.lines().collect(Collectors.joining("\n"));
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
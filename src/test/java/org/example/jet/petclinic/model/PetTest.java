@@ -0,0 +1,137 @@
+package org.example.jet.petclinic.model;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PetTest {
+
+    private final Pet pet = new Pet(7, "Samantha", 6);
+
+    @Test
+    public void when_updateWithSameNameAndOwner_then_shouldReturnSamePet() {
+        assertThat(pet.withUpdate(new Pet(7, "Samantha", 6))).isSameAs(pet);
+        assertThat(pet.withUpdate(new Pet(7, "Max", 6)).name).isEqualTo("Max");
+        assertThat(pet.withUpdate(new Pet(7, "Samantha", 8)).ownerId).isEqualTo(8);
+    }
+
+    @Test
+    public void when_addVisitWithUnlimitedRetention_then_shouldKeepAllVisits() {
+        for (int i = 0; i < 100; i++) {
+            pet.addVisit(new Visit(7, "visit " + i));
+        }
+
+        assertThat(pet.visits).hasSize(100);
+    }
+
+    @Test
+    public void when_addVisitOverMaxVisits_then_shouldKeepMostRecentVisits() {
+        VisitRetention retention = new VisitRetention(3, 0);
+
+        for (int i = 0; i < 10; i++) {
+            pet.addVisit(new Visit(7, "visit " + i), retention);
+        }
+
+        assertThat(pet.visits).extracting(visit -> visit.description)
+                              .containsExactly("visit 7", "visit 8", "visit 9");
+    }
+
+    @Test
+    public void when_addVisitOverMaxAge_then_shouldDropOlderVisits() {
+        VisitRetention retention = new VisitRetention(0, 365);
+
+        pet.addVisit(new Visit(7, "2010-03-04", "rabies shot"), retention);
+        pet.addVisit(new Visit(7, null, "checkup"), retention);
+        pet.addVisit(new Visit(7, "2011-01-01", "neutered"), retention);
+        pet.addVisit(new Visit(7, "2011-06-01", "dental cleaning"), retention);
+
+        assertThat(pet.visits).extracting(visit -> visit.description)
+                              .containsExactly("checkup", "neutered", "dental cleaning");
+    }
+
+    @Test
+    public void when_addOlderVisitOverMaxAge_then_shouldDropIt() {
+        VisitRetention retention = new VisitRetention(0, 30);
+
+        pet.addVisit(new Visit(7, "2011-06-01", "dental cleaning"), retention);
+        pet.addVisit(new Visit(7, "2010-03-04", "rabies shot"), retention);
+
+        assertThat(pet.visits).extracting(visit -> visit.description)
+                              .containsExactly("dental cleaning");
+    }
+
+    @Test
+    public void when_withVisitOverMaxVisits_then_shouldNotChangeOriginal() {
+        VisitRetention retention = new VisitRetention(3, 0);
+
+        Pet original = pet;
+        for (int i = 0; i < 3; i++) {
+            original = original.withVisit(new Visit(7, "visit " + i), retention);
+        }
+        Pet changed = original.withVisit(new Visit(7, "visit 3"), retention);
+
+        assertThat(original.visits).extracting(visit -> visit.description)
+                                   .containsExactly("visit 0", "visit 1", "visit 2");
+        assertThat(changed.visits).extracting(visit -> visit.description)
+                                  .containsExactly("visit 1", "visit 2", "visit 3");
+        assertThat(pet.visits).isNull();
+    }
+
+    @Test
+    public void when_addVisitToCopyOfDerivedPet_then_derivedPetShouldNotChange() {
+        Pet derived = pet.withVisit(new Visit(1, 7, "2020-01-01", "rabies shot"), VisitRetention.UNLIMITED);
+        Pet copy = new Pet(7, "Samantha", 6);
+        copy.visits = derived.visits;
+
+        copy.addVisit(new Visit(2, 7, "2020-01-02", "checkup"));
+
+        assertThat(copy.visits).extracting(visit -> visit.description).containsExactly("rabies shot", "checkup");
+        assertThat(derived.visits).extracting(visit -> visit.description).containsExactly("rabies shot");
+    }
+
+    @Test
+    public void when_withVisitReplayed_then_shouldReturnSamePet() {
+        Pet withVisits = pet.withVisit(new Visit(1, 7, "2020-01-01", "rabies shot"), VisitRetention.UNLIMITED)
+                            .withVisit(new Visit(2, 7, "2020-01-02", "checkup"), VisitRetention.UNLIMITED);
+
+        assertThat(withVisits.withVisit(new Visit(2, 7, "2020-01-02", "checkup"), VisitRetention.UNLIMITED))
+                .isSameAs(withVisits);
+        assertThat(withVisits.withVisit(new Visit(1, 7, "2020-01-01", "rabies shot"), VisitRetention.UNLIMITED))
+                .isSameAs(withVisits);
+    }
+
+    @Test
+    public void when_withOlderVisit_then_shouldKeepIdOrder() {
+        Pet withVisits = pet.withVisit(new Visit(1, 7, "2020-01-01", "rabies shot"), VisitRetention.UNLIMITED)
+                            .withVisit(new Visit(3, 7, "2020-01-03", "checkup"), VisitRetention.UNLIMITED);
+
+        Pet changed = withVisits.withVisit(new Visit(2, 7, "2020-01-02", "neutered"), VisitRetention.UNLIMITED);
+
+        assertThat(changed.visits).extracting(visit -> visit.id).containsExactly(1, 2, 3);
+        assertThat(withVisits.visits).extracting(visit -> visit.id).containsExactly(1, 3);
+    }
+
+    @Test
+    public void when_withVisitDroppedByRetention_then_shouldReturnSamePet() {
+        VisitRetention retention = new VisitRetention(2, 0);
+        Pet withVisits = pet;
+        for (int id = 1; id <= 3; id++) {
+            withVisits = withVisits.withVisit(new Visit(id, 7, "2020-01-0" + id, "checkup " + id), retention);
+        }
+
+        assertThat(withVisits.withVisit(new Visit(1, 7, "2020-01-01", "checkup 1"), retention)).isSameAs(withVisits);
+        assertThat(withVisits.visits).extracting(visit -> visit.id).containsExactly(2, 3);
+    }
+
+    @Test
+    public void when_withLoadedVisitsWithoutIds_then_shouldKeepEachVisitOnce() {
+        Pet loaded = new Pet(7, "Samantha", 6);
+        loaded.addVisit(new Visit(7, "2020-01-01", "rabies shot"));
+        Pet streamed = new Pet(7).withVisit(new Visit(1, 7, "2020-01-01", "rabies shot"), VisitRetention.UNLIMITED)
+                                 .withVisit(new Visit(2, 7, "2020-01-02", "checkup"), VisitRetention.UNLIMITED);
+
+        Pet merged = streamed.withLoaded(loaded, VisitRetention.UNLIMITED);
+
+        assertThat(merged.visits).extracting(visit -> visit.description).containsExactly("rabies shot", "checkup");
+    }
+}
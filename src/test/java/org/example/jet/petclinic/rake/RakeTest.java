@@ -0,0 +1,142 @@
+package org.example.jet.petclinic.rake;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RakeTest {
+
+    private static final String[] DESCRIPTIONS = {
+            "rabies shot",
+            "neutered",
+            "spayed",
+            "annual checkup",
+            "Overall examination. Checked eyes, nose, legs. Gave rabies shot.",
+            "Compatibility of systems of linear constraints over the set of natural numbers. Criteria of "
+                    + "compatibility of a system of linear Diophantine equations, strict inequations, and "
+                    + "nonstrict inequations are considered. Upper bounds for components of a minimal set of "
+                    + "solutions and algorithms of construction of minimal generating sets of solutions for all "
+                    + "types of systems are given.",
+            "The dog was limping after a fall - x-ray of the left hind leg, no fracture; prescribed rest.",
+            "Dental cleaning (under anesthesia): removed 2 teeth, 3.5 mg/kg dose given twice",
+            "owner's cat isn't eating, won't drink \u2013 check again in 2 weeks\u2019 time",
+            "Re-check: weight 12.5kg, temperature 38.7, heart rate +120/min, all OK",
+            "blood test | urine test | x-ray",
+            "She said: \"He'll be fine\", and they're going home\tnow",
+            "THE dog AND the CAT, a Bird",
+            "vaccinated against rabies and distemper; booster due next year",
+            "back\\slash and for/ward slash_es, a-b a - b \\s\\-\\s",
+            "1234 42.0 -7 7-",
+            "",
+            " ",
+            "...",
+            "a the of",
+            "|||",
+            "cafe\u0301 the na\u00efve dog",
+    };
+
+    private static final String[] FRAGMENTS = {
+            "a", "the", "The", "THE", "and", "of", "about", "above", "against", "isn't", "aren", "won't", "i", "me",
+            "rabies", "shot", "dog", "cat", "x-ray", "blood", "test", "12", "3.5", "-7", "a-b", "b_c", "c+d", "e/f",
+            "mg/kg", "leg", "nose", "eyes", "Checked", "Gave", "annual", "checkup", "\u00e9", "\u0301"
+    };
+
+    private static final String[] SEPARATORS = {
+            " ", " ", " ", " ", "  ", ", ", ". ", "; ", ": ", "! ", "? ", "\t", "\n", " - ", "-", "|", "'", "\"",
+            "(", ") ", "\\", "\u2019", "\u2013", "/", "+", "_", "=", "#", "\u00a0"
+    };
+
+    private final Rake rake = new Rake("en");
+    private final RegexRake regexRake = new RegexRake("en");
+
+    @Test
+    public void when_getKeywordsFromText_then_shouldProduceSameKeywordsAsRegexImplementation() {
+        for (String description : DESCRIPTIONS) {
+            assertSameKeywords(description);
+        }
+    }
+
+    @Test
+    public void when_getKeywordsFromRandomText_then_shouldProduceSameKeywordsAsRegexImplementation() {
+        Random random = new Random(42);
+
+        for (int i = 0; i < 2_000; i++) {
+            StringBuilder sb = new StringBuilder();
+            int fragments = random.nextInt(30);
+            for (int j = 0; j < fragments; j++) {
+                sb.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+                sb.append(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+            }
+
+            assertSameKeywords(sb.toString());
+        }
+    }
+
+    @Test
+    public void when_getKeywordsFromText_then_shouldOrderKeywordsByScore() {
+        LinkedHashMap<String, Double> keywords = rake.getKeywordsFromText(
+                "Overall examination. Checked eyes, nose, legs. Gave rabies shot."
+        );
+
+        assertThat(keywords).containsExactly(
+                Map.entry("gave rabies shot", 12.0),
+                Map.entry("checked eyes", 6.0),
+                Map.entry("overall examination", 6.0),
+                Map.entry("legs", 2.0),
+                Map.entry("nose", 2.0)
+        );
+    }
+
+    @Test
+    public void when_getTopKeywords_then_shouldProduceFirstKeywordsFromText() {
+        Random random = new Random(42);
+
+        for (int i = 0; i < 2_000; i++) {
+            StringBuilder sb = new StringBuilder();
+            int fragments = random.nextInt(60);
+            for (int j = 0; j < fragments; j++) {
+                sb.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+                sb.append(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+            }
+            String text = sb.toString();
+            int k = random.nextInt(10);
+
+            List<String> expected = rake.getKeywordsFromText(text)
+                                        .keySet()
+                                        .stream()
+                                        .limit(k)
+                                        .collect(Collectors.toList());
+
+            assertThat(rake.getTopKeywords(text, k))
+                    .as("top %d keywords of '%s'", k, text)
+                    .isEqualTo(expected);
+        }
+    }
+
+    @Test
+    public void when_getTopKeywords_then_shouldBreakTiesSameAsKeywordsFromText() {
+        assertThat(rake.getTopKeywords("Overall examination. Checked eyes, nose, legs. Gave rabies shot.", 2))
+                .containsExactly("gave rabies shot", "checked eyes");
+    }
+
+    @Test
+    public void when_getTopKeywordsOfEmptyText_then_shouldProduceNoKeywords() {
+        assertThat(rake.getTopKeywords("", 5)).isEmpty();
+    }
+
+    private void assertSameKeywords(String text) {
+        LinkedHashMap<String, Double> expected = regexRake.getKeywordsFromText(text);
+        LinkedHashMap<String, Double> actual = rake.getKeywordsFromText(text);
+
+        assertThat(new ArrayList<>(actual.entrySet()))
+                .as("keywords of '%s'", text)
+                .isEqualTo(new ArrayList<>(expected.entrySet()));
+    }
+}
@@ -0,0 +1,146 @@
+package org.example.jet.petclinic.serialization;
+
+import com.hazelcast.jet.json.JsonUtil;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.example.jet.petclinic.model.Owner;
+import org.example.jet.petclinic.model.Pet;
+import org.example.jet.petclinic.model.Visit;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DocumentJsonWriterTest {
+
+    private static final Logger log = LoggerFactory.getLogger(DocumentJsonWriterTest.class);
+
+    private final DocumentJsonWriter writer = new DocumentJsonWriter();
+
+    @Test
+    public void when_writeOwner_then_shouldMatchJsonUtil() throws IOException {
+        assertSameJson(owner(1, 3, 5));
+    }
+
+    @Test
+    public void when_writeNulls_then_shouldLeaveThemOut() throws IOException {
+        Owner owner = new Owner(1, null, "Coleman");
+        Pet pet = new Pet(7);
+        Visit visit = new Visit(7, "2020-01-01", "rabies shot");
+        visit.keywords = Arrays.asList("rabies", null);
+        pet.visits = Arrays.asList(new Visit(7, null), null, visit);
+        owner.pets = Arrays.asList(pet, null);
+
+        assertSameJson(owner);
+        assertSameJson(new Owner());
+    }
+
+    @Test
+    public void when_writeEmpty_then_shouldMatchJsonUtil() throws IOException {
+        Owner owner = new Owner(0, "", "");
+        owner.pets = new ArrayList<>();
+        Pet pet = new Pet(-1, "", Integer.MIN_VALUE);
+        pet.visits = new ArrayList<>();
+        owner.pets.add(pet);
+        owner.pets.add(new Pet(Integer.MAX_VALUE));
+
+        assertSameJson(owner);
+    }
+
+    @Test
+    public void when_writeSpecialCharacters_then_shouldEscapeAsJsonUtil() throws IOException {
+        StringBuilder ascii = new StringBuilder();
+        for (char c = 0; c < 0x80; c++) {
+            ascii.append(c);
+        }
+        Owner owner = new Owner(1, ascii.toString(), "Čapek é€ 🐶");
+        owner.addPet(new Pet(2, "unpaired \ud83d and \udc36 surrogates\ud83d", 1));
+
+        assertSameJson(owner);
+    }
+
+    @Test
+    public void when_reused_then_shouldWriteEachOwner() throws IOException {
+        // Large enough to grow the buffer past the retained capacity
+        Owner large = owner(1, 50, 2000);
+        Owner small = owner(2, 1, 1);
+
+        assertSameJson(small);
+        assertSameJson(large);
+        assertSameJson(small);
+        assertSameJson(large);
+    }
+
+    /**
+     * Compares the bytes allocated per owner document with writing it to a string first
+     */
+    @Test
+    public void when_writeOwner_then_shouldAllocateLessThanJsonUtil() throws IOException {
+        Owner owner = owner(1, 3, 20);
+        int iterations = 20_000;
+
+        // Warm up, so the allocations of class loading and of the interpreter are not counted
+        allocatedPerDocument(iterations, () -> writer.toJson(owner));
+        allocatedPerDocument(iterations, () -> jsonUtilBytes(owner));
+
+        long allocated = allocatedPerDocument(iterations, () -> writer.toJson(owner));
+        long jsonUtilAllocated = allocatedPerDocument(iterations, () -> jsonUtilBytes(owner));
+
+        log.info("Owner document of {} bytes: {} bytes allocated, {} bytes through a string",
+                writer.toJson(owner).length, allocated, jsonUtilAllocated);
+        assertThat(allocated).isLessThan(jsonUtilAllocated / 2);
+    }
+
+    private void assertSameJson(Owner owner) throws IOException {
+        byte[] json = writer.toJson(owner);
+
+        assertThat(new String(json, "UTF-8")).isEqualTo(new String(jsonUtilBytes(owner), "UTF-8"));
+        assertThat(json).isEqualTo(jsonUtilBytes(owner));
+    }
+
+    /**
+     * The bytes of the request source before, the string written by JsonUtil encoded by the Elastic client
+     */
+    private static byte[] jsonUtilBytes(Owner owner) throws IOException {
+        return BytesReference.toBytes(new BytesArray(JsonUtil.toJson(owner)));
+    }
+
+    private static Owner owner(int id, int pets, int visits) {
+        Owner owner = new Owner(id, "Jean " + id, "Coleman \"the \\ vet\"");
+        for (int i = 0; i < pets; i++) {
+            Pet pet = new Pet(id * 100 + i, "Samantha é", id);
+            for (int j = 0; j < visits; j++) {
+                Visit visit = new Visit(pet.id * 100 + j, pet.id, "2020-01-0" + (j % 9 + 1),
+                        "rabies shot\nnumber " + j);
+                visit.keywords = Arrays.asList("rabies shot", "number " + j);
+                pet.addVisit(visit);
+            }
+            owner.addPet(pet);
+        }
+        return owner;
+    }
+
+    private static long allocatedPerDocument(int iterations, Writing writing) throws IOException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        long start = threads.getThreadAllocatedBytes(threadId);
+        byte[] last = null;
+        for (int i = 0; i < iterations; i++) {
+            last = writing.write();
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - start;
+        assertThat(last).isNotEmpty();
+        return allocated / iterations;
+    }
+
+    private interface Writing {
+        byte[] write() throws IOException;
+    }
+}
@@ -0,0 +1,168 @@
+package org.example.jet.petclinic.serialization;
+
+import com.hazelcast.config.SerializationConfig;
+import com.hazelcast.config.SerializerConfig;
+import com.hazelcast.internal.serialization.Data;
+import com.hazelcast.internal.serialization.InternalSerializationService;
+import com.hazelcast.internal.serialization.impl.DefaultSerializationServiceBuilder;
+import com.hazelcast.internal.serialization.impl.HeapData;
+import com.hazelcast.nio.serialization.HazelcastSerializationException;
+import org.example.jet.petclinic.model.DocumentChange;
+import org.example.jet.petclinic.model.Owner;
+import org.example.jet.petclinic.model.Pet;
+import org.example.jet.petclinic.model.Visit;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ModelSerializersTest {
+
+    private static final Logger log = LoggerFactory.getLogger(ModelSerializersTest.class);
+
+    private final InternalSerializationService serializationService = new DefaultSerializationServiceBuilder()
+            .setConfig(new SerializationConfig()
+                    .addSerializerConfig(new SerializerConfig().setTypeClass(Owner.class)
+                                                               .setImplementation(new OwnerSerializer()))
+                    .addSerializerConfig(new SerializerConfig().setTypeClass(Pet.class)
+                                                               .setImplementation(new PetSerializer()))
+                    .addSerializerConfig(new SerializerConfig().setTypeClass(Visit.class)
+                                                               .setImplementation(new VisitSerializer()))
+                    .addSerializerConfig(new SerializerConfig().setTypeClass(DocumentChange.class)
+                                                               .setImplementation(new DocumentChangeSerializer())))
+            .build();
+
+    @Test
+    public void when_roundTripOwner_then_shouldBeEqual() {
+        Owner owner = owner(1, 3, 5);
+
+        assertThat(roundTrip(owner)).isEqualTo(owner);
+    }
+
+    @Test
+    public void when_roundTripNulls_then_shouldBeEqual() {
+        Owner owner = new Owner();
+        Pet pet = new Pet(7);
+        pet.addVisit(new Visit(7, null));
+        owner.addPet(pet);
+
+        assertThat(roundTrip(owner)).isEqualTo(owner);
+        assertThat(roundTrip(new Owner(1, null, null)).pets).isNull();
+    }
+
+    @Test
+    public void when_roundTripVisit_then_shouldKeepDateAndKeywords() {
+        Visit visit = visit(7, 1);
+
+        Visit result = roundTrip(visit);
+
+        assertThat(result).isEqualTo(visit);
+        assertThat(result.visitDate).isEqualTo("2020-01-02");
+        assertThat(result.keywords).containsExactly("rabies shot", "1");
+    }
+
+    @Test
+    public void when_roundTripFullDocument_then_shouldKeepPets() {
+        DocumentChange change = DocumentChange.full(owner(1, 2, 2));
+
+        assertThat(roundTrip(change)).isEqualTo(change);
+    }
+
+    @Test
+    public void when_roundTripDelta_then_shouldKeepOwnerFieldsOnly() {
+        Owner owner = owner(1, 2, 2);
+        Pet pet = owner.pets.get(0);
+        DocumentChange change = DocumentChange.visitAdded(pet, pet.visits.get(0)).withDocument(owner)
+                                              .withCommit("visits", 1596543211000L);
+
+        DocumentChange result = roundTrip(change);
+
+        assertThat(result.type).isEqualTo(DocumentChange.Type.VISIT_ADDED);
+        assertThat(result.document).isEqualTo(new Owner(1, "Jean", "Coleman"));
+        assertThat(result.pet).isEqualTo(pet);
+        assertThat(result.visit).isEqualTo(change.visit);
+        assertThat(result.table).isEqualTo("visits");
+        assertThat(result.commitTime).isEqualTo(1596543211000L);
+    }
+
+    @Test
+    public void when_unknownVersion_then_shouldFail() {
+        Data data = serializationService.toData(new Visit(1, "checkup"));
+        byte[] bytes = data.toByteArray();
+        // Version follows the partition hash and the type id
+        bytes[8] = ModelEncoding.VERSION + 1;
+
+        assertThatThrownBy(() -> serializationService.toObject(new HeapData(bytes)))
+                .isInstanceOf(HazelcastSerializationException.class);
+    }
+
+    /**
+     * Compares the size and the time to serialize and deserialize an owner with Java serialization
+     */
+    @Test
+    public void when_comparedToJavaSerialization_then_shouldBeSmallerAndFaster() throws IOException {
+        Owner owner = owner(1, 3, 20);
+        int iterations = 20_000;
+
+        int size = serializationService.toData(owner).totalSize();
+        int javaSize = javaSerialize(owner).length;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            serializationService.toObject(serializationService.toData(owner));
+        }
+        long elapsed = System.nanoTime() - start;
+
+        InternalSerializationService javaSerializationService = new DefaultSerializationServiceBuilder().build();
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            javaSerializationService.toObject(javaSerializationService.toData(owner));
+        }
+        long javaElapsed = System.nanoTime() - start;
+
+        log.info("Owner with 3 pets and 60 visits: {} bytes in {} us, Java serialization {} bytes in {} us",
+                size, elapsed / iterations / 1000.0, javaSize, javaElapsed / iterations / 1000.0);
+        assertThat(size).isLessThan(javaSize);
+        assertThat(elapsed).isLessThan(javaElapsed);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T roundTrip(T object) {
+        return (T) serializationService.toObject(serializationService.toData(object));
+    }
+
+    private static byte[] javaSerialize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Owner owner(int id, int pets, int visitsPerPet) {
+        Owner owner = new Owner(id, "Jean", "Coleman");
+        for (int i = 0; i < pets; i++) {
+            int petId = id * 100 + i;
+            Pet pet = new Pet(petId, "Samantha", id);
+            for (int j = 0; j < visitsPerPet; j++) {
+                pet.addVisit(visit(petId, j));
+            }
+            owner.addPet(pet);
+        }
+        return owner;
+    }
+
+    private static Visit visit(int petId, int day) {
+        // Distinct strings, as parsed from the change records
+        Visit visit = new Visit(day, petId, "2020-01-0" + (day % 9 + 1), "rabies shot " + day);
+        visit.setKeywords(Arrays.asList("rabies shot", String.valueOf(day)));
+        return visit;
+    }
+}
@@ -0,0 +1,60 @@
+package org.example.jet.petclinic.store;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MappedIntLongMapTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void when_randomPuts_then_shouldBehaveAsHashMap() throws Exception {
+        Random random = new Random(42);
+        Map<Integer, Long> expected = new HashMap<>();
+
+        try (MappedIntLongMap map = new MappedIntLongMap(folder.getRoot().toPath(), 16)) {
+            for (int i = 0; i < 100_000; i++) {
+                int key = random.nextInt(10_000) - 10;
+                long value = random.nextLong();
+
+                Long previous = expected.put(key, value);
+                assertThat(map.put(key, value)).isEqualTo(previous == null ? MappedIntLongMap.MISSING : previous);
+            }
+
+            assertThat(map.size()).isEqualTo(expected.size());
+            for (int key = -10; key < 9_990; key++) {
+                assertThat(map.get(key)).isEqualTo(expected.getOrDefault(key, MappedIntLongMap.MISSING));
+            }
+            // The files of the smaller capacities are deleted when the map grows
+            assertThat(folder.getRoot().list()).hasSize(1);
+        }
+        assertThat(folder.getRoot().list()).isEmpty();
+    }
+
+    @Test
+    public void when_cursor_then_shouldVisitAllEntries() throws Exception {
+        try (MappedIntLongMap map = new MappedIntLongMap(folder.getRoot().toPath(), 16)) {
+            Map<Integer, Long> expected = new HashMap<>();
+            for (int key = 0; key < 100; key++) {
+                map.put(key, key * 3L);
+                expected.put(key, key * 3L);
+            }
+
+            Map<Integer, Long> visited = new HashMap<>();
+            MappedIntLongMap.Cursor cursor = map.cursor();
+            while (cursor.advance()) {
+                visited.put(cursor.key(), cursor.value());
+            }
+
+            assertThat(visited).isEqualTo(expected);
+        }
+    }
+}
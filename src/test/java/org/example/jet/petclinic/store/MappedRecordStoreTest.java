@@ -0,0 +1,77 @@
+package org.example.jet.petclinic.store;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class MappedRecordStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void when_randomWrites_then_shouldReadLastRecords() throws Exception {
+        Random random = new Random(42);
+        Map<Integer, byte[]> expected = new HashMap<>();
+        Map<Integer, Long> addresses = new HashMap<>();
+
+        try (MappedRecordStore store = new MappedRecordStore(folder.getRoot().toPath(), 4096)) {
+            for (int i = 0; i < 20_000; i++) {
+                int key = random.nextInt(200);
+                byte[] record = new byte[random.nextInt(600)];
+                random.nextBytes(record);
+
+                long address = store.write(addresses.getOrDefault(key, MappedRecordStore.NONE), record);
+                addresses.put(key, address);
+                expected.put(key, record);
+            }
+
+            for (Map.Entry<Integer, byte[]> entry : expected.entrySet()) {
+                assertThat(store.read(addresses.get(entry.getKey()))).isEqualTo(entry.getValue());
+            }
+            // Freed slots are reused, the files don't grow with the number of writes
+            assertThat(store.mappedBytes()).isLessThan(200 * 1024 * 2);
+        }
+    }
+
+    @Test
+    public void when_recordFitsSlot_then_shouldRewriteInPlace() throws Exception {
+        try (MappedRecordStore store = new MappedRecordStore(folder.getRoot().toPath(), 4096)) {
+            long address = store.write(MappedRecordStore.NONE, new byte[20]);
+
+            assertThat(store.write(address, new byte[10])).isEqualTo(address);
+            assertThat(store.write(address, new byte[100])).isNotEqualTo(address);
+            assertThat(store.usedBytes()).isEqualTo(128);
+        }
+    }
+
+    @Test
+    public void when_recordLargerThanSegment_then_shouldThrow() throws Exception {
+        try (MappedRecordStore store = new MappedRecordStore(folder.getRoot().toPath(), 64)) {
+            assertThatThrownBy(() -> store.write(MappedRecordStore.NONE, new byte[61]))
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Test
+    public void when_closed_then_shouldDeleteFiles() throws Exception {
+        File directory = folder.getRoot();
+        MappedRecordStore store = new MappedRecordStore(directory.toPath(), 64);
+        for (int i = 0; i < 10; i++) {
+            store.write(MappedRecordStore.NONE, new byte[20]);
+        }
+        assertThat(directory.list()).hasSize(5);
+
+        store.close();
+
+        assertThat(directory.list()).isEmpty();
+    }
+}
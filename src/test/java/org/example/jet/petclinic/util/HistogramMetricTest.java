@@ -0,0 +1,32 @@
+package org.example.jet.petclinic.util;
+
+import com.hazelcast.jet.core.metrics.Unit;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class HistogramMetricTest {
+
+    private final HistogramMetric histogram = new HistogramMetric("latency", Unit.MS, 10, 100, 1000);
+
+    @Test
+    public void when_valueUpToBound_then_shouldBeInBucketOfBound() {
+        assertThat(histogram.bucketName(histogram.bucket(0))).isEqualTo("latencyLe10");
+        assertThat(histogram.bucketName(histogram.bucket(10))).isEqualTo("latencyLe10");
+        assertThat(histogram.bucketName(histogram.bucket(11))).isEqualTo("latencyLe100");
+        assertThat(histogram.bucketName(histogram.bucket(1000))).isEqualTo("latencyLe1000");
+    }
+
+    @Test
+    public void when_valueAboveHighestBound_then_shouldBeInLastBucket() {
+        assertThat(histogram.bucketName(histogram.bucket(1001))).isEqualTo("latencyLeInf");
+        assertThat(histogram.bucketName(histogram.bucket(Long.MAX_VALUE))).isEqualTo("latencyLeInf");
+    }
+
+    @Test
+    public void when_boundsNotIncreasing_then_shouldFail() {
+        assertThatThrownBy(() -> new HistogramMetric("latency", Unit.MS, 10, 10))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
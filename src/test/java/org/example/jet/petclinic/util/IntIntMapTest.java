@@ -0,0 +1,118 @@
+package org.example.jet.petclinic.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IntIntMapTest {
+
+    @Test
+    public void when_put_then_shouldGetValue() {
+        IntIntMap map = new IntIntMap();
+
+        assertThat(map.put(7, 1)).isEqualTo(IntIntMap.MISSING);
+        assertThat(map.put(7, 2)).isEqualTo(1);
+
+        assertThat(map.get(7)).isEqualTo(2);
+        assertThat(map.get(8)).isEqualTo(IntIntMap.MISSING);
+        assertThat(map.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void when_putZeroKey_then_shouldGetValue() {
+        IntIntMap map = new IntIntMap();
+        map.put(0, 42);
+
+        assertThat(map.containsKey(0)).isTrue();
+        assertThat(map.get(0)).isEqualTo(42);
+        assertThat(map.remove(0)).isEqualTo(42);
+        assertThat(map.containsKey(0)).isFalse();
+        assertThat(map.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void when_keys_then_shouldReturnEveryKeyOnce() {
+        IntIntMap map = new IntIntMap();
+        for (int i = -5; i < 100; i++) {
+            map.put(i, i);
+        }
+        map.remove(7);
+
+        assertThat(map.keys()).hasSize(104).doesNotHaveDuplicates().contains(0, -5, 99).doesNotContain(7);
+    }
+
+    @Test
+    public void when_randomOperations_then_shouldBehaveAsHashMap() {
+        Random random = new Random(42);
+        IntIntMap map = new IntIntMap();
+        Map<Integer, Integer> expected = new HashMap<>();
+
+        for (int i = 0; i < 100_000; i++) {
+            int key = random.nextInt(1_000) - 10;
+            int value = random.nextInt(Integer.MAX_VALUE);
+
+            if (random.nextInt(3) == 0) {
+                Integer removed = expected.remove(key);
+                assertThat(map.remove(key)).isEqualTo(removed == null ? IntIntMap.MISSING : removed);
+            } else {
+                Integer previous = expected.put(key, value);
+                assertThat(map.put(key, value)).isEqualTo(previous == null ? IntIntMap.MISSING : previous);
+            }
+        }
+
+        assertThat(map.size()).isEqualTo(expected.size());
+        for (int key = -10; key < 990; key++) {
+            assertThat(map.get(key)).isEqualTo(expected.getOrDefault(key, IntIntMap.MISSING));
+        }
+    }
+
+    @Test
+    public void when_serialized_then_shouldContainSameEntries() throws Exception {
+        IntIntMap map = new IntIntMap();
+        for (int i = 0; i < 1_000; i++) {
+            map.put(i, i * 2);
+        }
+
+        IntIntMap copy = deserialize(serialize(map));
+
+        assertThat(copy.size()).isEqualTo(1_000);
+        for (int i = 0; i < 1_000; i++) {
+            assertThat(copy.get(i)).isEqualTo(i * 2);
+        }
+    }
+
+    @Test
+    public void when_serialized_then_shouldBeSmallerThanHashMap() throws Exception {
+        IntIntMap map = new IntIntMap();
+        HashMap<Integer, Integer> hashMap = new HashMap<>();
+        for (int i = 0; i < 1_000; i++) {
+            map.put(i * 7, i);
+            hashMap.put(i * 7, i);
+        }
+
+        assertThat(serialize(map).length).isLessThan(serialize(hashMap).length / 2);
+    }
+
+    private static byte[] serialize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static IntIntMap deserialize(byte[] bytes) throws Exception {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (IntIntMap) in.readObject();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package org.example.jet.petclinic.util;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IntObjectMapTest {
+
+    @Test
+    public void when_putZeroKey_then_shouldGetValue() {
+        IntObjectMap<String> map = new IntObjectMap<>();
+        map.put(0, "zero");
+
+        assertThat(map.get(0)).isEqualTo("zero");
+        assertThat(map.size()).isEqualTo(1);
+        assertThat(map.remove(0)).isEqualTo("zero");
+        assertThat(map.get(0)).isNull();
+        assertThat(map.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void when_randomOperations_then_shouldBehaveAsHashMap() {
+        Random random = new Random(42);
+        IntObjectMap<String> map = new IntObjectMap<>();
+        Map<Integer, String> expected = new HashMap<>();
+
+        for (int i = 0; i < 100_000; i++) {
+            int key = random.nextInt(1_000) - 10;
+            String value = Integer.toString(i);
+
+            if (random.nextInt(3) == 0) {
+                assertThat(map.remove(key)).isEqualTo(expected.remove(key));
+            } else {
+                assertThat(map.put(key, value)).isEqualTo(expected.put(key, value));
+            }
+        }
+
+        assertThat(map.size()).isEqualTo(expected.size());
+        for (int key = -10; key < 990; key++) {
+            assertThat(map.get(key)).isEqualTo(expected.get(key));
+        }
+    }
+
+    @Test
+    public void when_cursor_then_shouldVisitEveryEntryOnce() {
+        IntObjectMap<Integer> map = new IntObjectMap<>();
+        for (int i = -5; i < 100; i++) {
+            map.put(i, i * 2);
+        }
+
+        Map<Integer, Integer> visited = new HashMap<>();
+        IntObjectMap<Integer>.Cursor cursor = map.cursor();
+        while (cursor.advance()) {
+            assertThat(visited.put(cursor.key(), cursor.value())).isNull();
+        }
+
+        assertThat(visited).hasSize(105).containsEntry(0, 0).containsEntry(-5, -10).containsEntry(99, 198);
+    }
+}
@@ -0,0 +1,87 @@
+package org.example.jet.petclinic.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class JsonFieldReaderTest {
+
+    @Test
+    public void when_readFields_then_shouldReturnValues() {
+        JsonFieldReader reader = new JsonFieldReader("{\"id\":-42,\"name\":\"Leo\",\"owner_id\":null,\"other\":\"x\"}");
+
+        assertThat(reader.next()).isTrue();
+        assertThat(reader.nameEquals("id")).isTrue();
+        assertThat(reader.intValue()).isEqualTo(-42);
+
+        assertThat(reader.next()).isTrue();
+        assertThat(reader.nameEquals("nam")).isFalse();
+        assertThat(reader.stringValue()).isEqualTo("Leo");
+
+        assertThat(reader.next()).isTrue();
+        assertThat(reader.name()).isEqualTo("owner_id");
+        assertThat(reader.intValue()).isNull();
+
+        assertThat(reader.next()).isTrue();
+        assertThat(reader.next()).isFalse();
+    }
+
+    @Test
+    public void when_valuesNotRead_then_shouldSkipThem() {
+        String json = "{ \"a\" : 1.5e3 , \"b\": true, \"c\": {\"d\": [1, \"}]\", {}]}, \"e\": \"q\\\"}\", \"f\": 7 }";
+
+        assertThat(names(json)).containsExactly("a", "b", "c", "e", "f");
+
+        JsonFieldReader reader = new JsonFieldReader(json);
+        while (reader.next()) {
+            if (reader.nameEquals("f")) {
+                assertThat(reader.intValue()).isEqualTo(7);
+            }
+        }
+    }
+
+    @Test
+    public void when_escapedString_then_shouldUnescape() {
+        JsonFieldReader reader = new JsonFieldReader("{\"d\":\"a\\\"b\\\\c\\n\\u00e9\\/\"}");
+        reader.next();
+
+        assertThat(reader.stringValue()).isEqualTo("a\"b\\c\né/");
+    }
+
+    @Test
+    public void when_emptyObject_then_shouldHaveNoFields() {
+        assertThat(new JsonFieldReader(" {} ").next()).isFalse();
+    }
+
+    @Test
+    public void when_malformed_then_shouldFail() {
+        assertThatThrownBy(() -> names("{\"a\":1")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> names("{\"a\" 1}")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new JsonFieldReader("[]")).isInstanceOf(IllegalArgumentException.class);
+
+        JsonFieldReader reader = new JsonFieldReader("{\"a\":\"x\"}");
+        reader.next();
+        assertThatThrownBy(reader::intValue).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void when_intOutOfRange_then_shouldFail() {
+        JsonFieldReader reader = new JsonFieldReader("{\"a\":2147483648}");
+        reader.next();
+
+        assertThatThrownBy(reader::intValue).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static List<String> names(String json) {
+        List<String> names = new ArrayList<>();
+        JsonFieldReader reader = new JsonFieldReader(json);
+        while (reader.next()) {
+            names.add(reader.name());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,62 @@
+package org.example.jet.petclinic.util;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PersistentIntIntMapTest {
+
+    @Test
+    public void when_plus_then_shouldNotChangeOriginal() {
+        PersistentIntIntMap map = PersistentIntIntMap.empty();
+        for (int i = 0; i < 100; i++) {
+            map = map.plus(i, i);
+        }
+
+        PersistentIntIntMap added = map.plus(100, 100);
+        PersistentIntIntMap replaced = map.plus(10, -10);
+
+        assertThat(map.size()).isEqualTo(100);
+        assertThat(map.get(100)).isEqualTo(PersistentIntIntMap.MISSING);
+        assertThat(map.get(10)).isEqualTo(10);
+        assertThat(added.size()).isEqualTo(101);
+        assertThat(added.get(100)).isEqualTo(100);
+        assertThat(replaced.size()).isEqualTo(100);
+        assertThat(replaced.get(10)).isEqualTo(-10);
+    }
+
+    @Test
+    public void when_plusSameValue_then_shouldReturnSameMap() {
+        PersistentIntIntMap map = PersistentIntIntMap.empty().plus(7, 1);
+
+        assertThat(map.plus(7, 1)).isSameAs(map);
+    }
+
+    @Test
+    public void when_randomOperations_then_shouldBehaveAsHashMap() {
+        Random random = new Random(42);
+        PersistentIntIntMap map = PersistentIntIntMap.empty();
+        Map<Integer, Integer> expected = new HashMap<>();
+
+        for (int i = 0; i < 100_000; i++) {
+            // Small keys collide in the low bits of their hashes, any keys in the high bits
+            int key = random.nextBoolean() ? random.nextInt(20_000) : random.nextInt();
+            int value = random.nextInt(Integer.MAX_VALUE);
+            map = map.plus(key, value);
+            expected.put(key, value);
+        }
+
+        assertThat(map.size()).isEqualTo(expected.size());
+        for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+            assertThat(map.get(entry.getKey())).isEqualTo(entry.getValue());
+        }
+        for (int i = 0; i < 1_000; i++) {
+            int key = random.nextInt();
+            assertThat(map.containsKey(key)).isEqualTo(expected.containsKey(key));
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package org.example.jet.petclinic.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class PersistentListTest {
+
+    @Test
+    public void when_plus_then_shouldNotChangeOriginal() {
+        PersistentList<Integer> list = PersistentList.empty();
+        for (int i = 0; i < 100; i++) {
+            list = list.plus(i);
+        }
+
+        PersistentList<Integer> longer = list.plus(100);
+        PersistentList<Integer> replaced = list.with(10, -1);
+
+        assertThat(list).hasSize(100).doesNotContain(-1, 100);
+        assertThat(longer).hasSize(101).endsWith(100);
+        assertThat(replaced.get(10)).isEqualTo(-1);
+    }
+
+    @Test
+    public void when_randomOperations_then_shouldBehaveAsArrayList() {
+        Random random = new Random(42);
+        PersistentList<Integer> list = PersistentList.empty();
+        List<Integer> expected = new ArrayList<>();
+
+        for (int i = 0; i < 100_000; i++) {
+            int operation = random.nextInt(10);
+            if (operation == 0 && !expected.isEmpty()) {
+                int count = random.nextInt(Math.min(expected.size(), 40) + 1);
+                list = list.dropFirst(count);
+                expected.subList(0, count).clear();
+            } else if (operation < 3 && !expected.isEmpty()) {
+                int index = random.nextInt(expected.size());
+                list = list.with(index, i);
+                expected.set(index, i);
+            } else {
+                list = list.plus(i);
+                expected.add(i);
+            }
+        }
+
+        assertThat(list).hasSize(expected.size()).isEqualTo(expected);
+        for (int i = 0; i < expected.size(); i++) {
+            assertThat(list.get(i)).isEqualTo(expected.get(i));
+        }
+    }
+
+    @Test
+    public void when_filter_then_shouldKeepMatchingElements() {
+        PersistentList<Integer> list = PersistentList.copyOf(Arrays.asList(1, 2, 3, 4, 5, 6));
+
+        assertThat(list.filter(i -> i > 2)).containsExactly(3, 4, 5, 6);
+        assertThat(list.filter(i -> i % 2 == 0)).containsExactly(2, 4, 6);
+        assertThat(list.filter(i -> true)).isSameAs(list);
+        assertThat(list).containsExactly(1, 2, 3, 4, 5, 6);
+    }
+
+    @Test
+    public void when_mutated_then_shouldThrow() {
+        PersistentList<Integer> list = PersistentList.<Integer>empty().plus(1);
+
+        assertThatThrownBy(() -> list.add(2)).isInstanceOf(UnsupportedOperationException.class);
+        assertThatThrownBy(() -> list.set(0, 2)).isInstanceOf(UnsupportedOperationException.class);
+    }
+
+    @Test
+    public void when_serialized_then_shouldContainSameElements() throws Exception {
+        PersistentList<Integer> list = PersistentList.empty();
+        for (int i = 0; i < 2_000; i++) {
+            list = list.plus(i);
+        }
+        list = list.dropFirst(500);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(list);
+        }
+        Object copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = in.readObject();
+        }
+
+        assertThat(copy).isEqualTo(list);
+        assertThat(((PersistentList<?>) copy).plus(null)).hasSize(1_501);
+    }
+}